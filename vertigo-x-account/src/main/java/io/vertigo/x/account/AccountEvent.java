@@ -0,0 +1,92 @@
+package io.vertigo.x.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Change of accounts or groups, to invalidate caches built on AccountManager.
+ * Sequence numbers are shared by all nodes : a subscriber knows if it missed an event.
+ * @author pchretien
+ */
+public final class AccountEvent {
+
+	/**
+	 * Kind of change.
+	 */
+	public enum Type {
+		/** Accounts created or updated (accountURIs). */
+		ACCOUNTS_SAVED,
+		/** Accounts deleted (accountURIs). */
+		ACCOUNTS_DELETED,
+		/** Group created or updated (groupURIs). */
+		GROUP_SAVED,
+		/** Group deleted, with its memberships and nested groups edges (groupURIs). */
+		GROUP_DELETED,
+		/** Account added to a group (accountURIs, groupURIs). */
+		ATTACHED,
+		/** Account removed from a group (accountURIs, groupURIs). */
+		DETACHED,
+		/** Group included in another group (groupURIs : child, parent). */
+		GROUP_ATTACHED,
+		/** Group removed from another group (groupURIs : child, parent). */
+		GROUP_DETACHED,
+		/** Photo changed (accountURIs). */
+		PHOTO_SET,
+		/** Some events couldn't be delivered : everything should be invalidated. */
+		EVENTS_LOST
+	}
+
+	private final long sequence;
+	private final Type type;
+	private final List<URI<Account>> accountURIs;
+	private final List<URI<AccountGroup>> groupURIs;
+
+	/**
+	 * Constructor.
+	 * @param sequence Sequence number
+	 * @param type Kind of change
+	 * @param accountURIs Accounts changed
+	 * @param groupURIs Groups changed
+	 */
+	public AccountEvent(final long sequence, final Type type, final List<URI<Account>> accountURIs, final List<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(type);
+		Assertion.checkNotNull(accountURIs);
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		this.sequence = sequence;
+		this.type = type;
+		this.accountURIs = Collections.unmodifiableList(accountURIs);
+		this.groupURIs = Collections.unmodifiableList(groupURIs);
+	}
+
+	/**
+	 * @return Sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return Kind of change
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return Accounts changed
+	 */
+	public List<URI<Account>> getAccountURIs() {
+		return accountURIs;
+	}
+
+	/**
+	 * @return Groups changed
+	 */
+	public List<URI<AccountGroup>> getGroupURIs() {
+		return groupURIs;
+	}
+}
@@ -0,0 +1,14 @@
+package io.vertigo.x.account;
+
+/**
+ * Listener of accounts and groups changes.
+ * Called by the thread doing the change (or receiving it from another node) : it should be fast and never lock.
+ * @author pchretien
+ */
+public interface AccountEventListener {
+
+	/**
+	 * @param event Change
+	 */
+	void onEvent(AccountEvent event);
+}
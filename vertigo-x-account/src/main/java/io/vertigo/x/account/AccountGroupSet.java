@@ -0,0 +1,31 @@
+package io.vertigo.x.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+
+import java.util.Collection;
+
+/**
+ * Immutable groups of an account (including nested groups), for authorization checks.
+ * Kept in memory by AccountManager and replaced when the memberships of this account change :
+ * checks never call the store.
+ * @author pchretien
+ */
+public interface AccountGroupSet {
+
+	/**
+	 * @return Version of this set : a set built after a membership change has a greater version
+	 */
+	long getVersion();
+
+	/**
+	 * @param groupURI Group
+	 * @return If the account is a member of this group
+	 */
+	boolean isInGroup(URI<AccountGroup> groupURI);
+
+	/**
+	 * @param groupURIs Groups
+	 * @return If the account is a member of at least one of these groups
+	 */
+	boolean isInAnyGroup(Collection<URI<AccountGroup>> groupURIs);
+}
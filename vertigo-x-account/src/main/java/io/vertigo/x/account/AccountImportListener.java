@@ -0,0 +1,14 @@
+package io.vertigo.x.account;
+
+/**
+ * Progress of a streaming accounts import.
+ * @author pchretien
+ */
+public interface AccountImportListener {
+
+	/**
+	 * Called each time a chunk of accounts is stored.
+	 * @param checkpoint Number of accounts read from the source and stored, give it back to resume an interrupted import
+	 */
+	void onProgress(long checkpoint);
+}
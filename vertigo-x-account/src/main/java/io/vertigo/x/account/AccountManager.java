@@ -5,7 +5,9 @@ import io.vertigo.dynamo.file.model.VFile;
 import io.vertigo.lang.Component;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -25,6 +27,15 @@ public interface AccountManager extends Component {
 
 	//----
 
+	/**
+	 * Listen to accounts and groups changes (saved, deleted, attached, detached, photo).
+	 * Changes done on this node are delivered at once, changes done on other nodes are delivered if an event plugin is set.
+	 * @param listener Listener
+	 */
+	void addEventListener(AccountEventListener listener);
+
+	//----
+
 	/**
 	 * @return Accounts count
 	 */
@@ -36,6 +47,13 @@ public interface AccountManager extends Component {
 	 */
 	Account getAccount(URI<Account> accountURI);
 
+	/**
+	 * Reads several accounts at once : accounts not found (deleted) are missing from the result.
+	 * @param accountURIs Accounts uris
+	 * @return Accounts found, by uri
+	 */
+	Map<URI<Account>, Account> findAccounts(Collection<URI<Account>> accountURIs);
+
 	//Can't get all accounts without Filter (user ListState filter)
 	//Collection<Account> getAllAccount();
 
@@ -45,9 +63,44 @@ public interface AccountManager extends Component {
 	 */
 	Set<URI<AccountGroup>> getGroupURIs(URI<Account> accountURI);
 
+	/**
+	 * Groups of an account for authorization checks : kept in memory, so checks never call the store.
+	 * Dropped on each membership change of this account (attach, detach) or of nested groups,
+	 * seen on other nodes through events (without event plugin, after a few seconds).
+	 * @param accountURI Account
+	 * @return Immutable set of groups of this account, including nested groups
+	 */
+	AccountGroupSet getGroupSet(URI<Account> accountURI);
+
 	//l'id doit être renseigné pour chaque account !!
 	void saveAccounts(List<Account> accounts);
 
+	/**
+	 * Delete accounts, with their memberships, photos and thumbnails.
+	 * @param accountURIs Accounts to delete
+	 */
+	void deleteAccounts(List<URI<Account>> accountURIs);
+
+	/**
+	 * Streaming import : accounts are read and stored by bounded chunks, the next chunk is read only once the previous one is stored.
+	 * An interrupted import is resumed by reading the same source again with the last checkpoint.
+	 * @param accounts Accounts to import, in a stable order
+	 * @param checkpoint Checkpoint of an interrupted import (accounts to skip), 0 for a new import
+	 * @param listener Progress listener, called after each chunk
+	 * @return Final checkpoint (accounts read from the source)
+	 */
+	long importAccounts(Iterator<Account> accounts, long checkpoint, AccountImportListener listener);
+
+	/**
+	 * Differential synchronization with a full reference (ie : HR feed).
+	 * A fingerprint of each account and its groups is kept : only new or modified accounts and memberships are written.
+	 * Accounts stored by a previous synchronization and missing from this one are deleted, even if changed by other means since.
+	 * @param accounts All expected accounts
+	 * @param groupURIsByAccountId Expected direct groups by account id (no entry : no group)
+	 * @return Summary of changes
+	 */
+	AccountSyncSummary syncAccounts(List<Account> accounts, Map<String, Set<URI<AccountGroup>>> groupURIsByAccountId);
+
 	//-----Gestion des groupes
 	long getGroupsCount();
 
@@ -58,16 +111,61 @@ public interface AccountManager extends Component {
 
 	Set<URI<Account>> getAccountURIs(URI<AccountGroup> groupURI);
 
+	/**
+	 * Set algebra on groups : accounts members of all included groups, and of none of excluded groups.
+	 * ie : members of A and B but not C is getAccountURIs([A, B], [C])
+	 * @param includedGroupURIs Groups to intersect (at least one)
+	 * @param excludedGroupURIs Groups to remove (may be empty)
+	 * @return Set of accounts
+	 */
+	Set<URI<Account>> getAccountURIs(List<URI<AccountGroup>> includedGroupURIs, List<URI<AccountGroup>> excludedGroupURIs);
+
+	/**
+	 * @param groupURIs Groups to merge
+	 * @return Set of accounts members of at least one of these groups
+	 */
+	Set<URI<Account>> getAccountURIsOfAnyGroup(List<URI<AccountGroup>> groupURIs);
+
 	void saveGroup(AccountGroup group);
 
+	/**
+	 * Delete a group : its members leave it, and it is removed from nested groups (members of included groups leave its parents).
+	 * Accounts are kept.
+	 * @param groupURI Group to delete
+	 */
+	void deleteGroup(URI<AccountGroup> groupURI);
+
 	//-----
 	void attach(URI<Account> accountURI, URI<AccountGroup> groupURI);
 
 	void detach(URI<Account> accountURI, URI<AccountGroup> groupURI);
 
+	/**
+	 * Include a group in another one : members of the child group become members of the parent group.
+	 * getAccountURIs and getGroupURIs include these nested memberships.
+	 * @param childGroupURI Group to include
+	 * @param parentGroupURI Including group
+	 * @throws IllegalArgumentException if parent is already included in child (cycle)
+	 */
+	void attachGroup(URI<AccountGroup> childGroupURI, URI<AccountGroup> parentGroupURI);
+
+	/**
+	 * @param childGroupURI Group to remove
+	 * @param parentGroupURI Including group
+	 */
+	void detachGroup(URI<AccountGroup> childGroupURI, URI<AccountGroup> parentGroupURI);
+
 	//-----
 	void setPhoto(URI<Account> accountURI, VFile photo);
 
 	VFile getPhoto(URI<Account> accountURI);
 
+	/**
+	 * Get a pre-scaled photo, computed once when the photo is set.
+	 * @param accountURI Account uri
+	 * @param size Requested size in pixels
+	 * @return Smallest photo covering this size, or the original photo if size is bigger than all thumbnails
+	 */
+	VFile getPhoto(URI<Account> accountURI, int size);
+
 }
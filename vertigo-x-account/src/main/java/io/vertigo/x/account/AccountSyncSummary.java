@@ -0,0 +1,80 @@
+package io.vertigo.x.account;
+
+/**
+ * Changes written by a differential accounts synchronization.
+ * @author pchretien
+ */
+public final class AccountSyncSummary {
+	private final int created;
+	private final int updated;
+	private final int deleted;
+	private final int unchanged;
+	private final int attached;
+	private final int detached;
+
+	/**
+	 * @param created Accounts created
+	 * @param updated Accounts updated
+	 * @param deleted Accounts deleted
+	 * @param unchanged Accounts unchanged (not written)
+	 * @param attached Memberships added
+	 * @param detached Memberships removed
+	 */
+	public AccountSyncSummary(final int created, final int updated, final int deleted, final int unchanged, final int attached, final int detached) {
+		this.created = created;
+		this.updated = updated;
+		this.deleted = deleted;
+		this.unchanged = unchanged;
+		this.attached = attached;
+		this.detached = detached;
+	}
+
+	/**
+	 * @return Accounts created
+	 */
+	public int getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return Accounts updated
+	 */
+	public int getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return Accounts deleted
+	 */
+	public int getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * @return Accounts unchanged (not written)
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * @return Memberships added
+	 */
+	public int getAttached() {
+		return attached;
+	}
+
+	/**
+	 * @return Memberships removed
+	 */
+	public int getDetached() {
+		return detached;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return "accounts created:" + created + ", updated:" + updated + ", deleted:" + deleted + ", unchanged:" + unchanged
+				+ "; memberships attached:" + attached + ", detached:" + detached;
+	}
+}
@@ -0,0 +1,259 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.lang.Assertion;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable set of account indexes (see AccountIndexMapping).
+ * Stored as a sorted int array when sparse, or as a bitset when dense : the smallest one is kept.
+ * An 80 000 members group costs 10 KB, a 3 members group costs 12 bytes.
+ * Set algebra (and, or, andNot) returns new bitmaps.
+ *
+ * @author pchretien
+ */
+public final class AccountBitmap implements Serializable {
+	private static final long serialVersionUID = -2203960416446587345L;
+	private static final AccountBitmap EMPTY = new AccountBitmap(new int[0], null, 0);
+
+	//only one of sortedIndexes or words is set
+	private final int[] sortedIndexes;
+	private final long[] words;
+	private final int cardinality;
+
+	private AccountBitmap(final int[] sortedIndexes, final long[] words, final int cardinality) {
+		this.sortedIndexes = sortedIndexes;
+		this.words = words;
+		this.cardinality = cardinality;
+	}
+
+	/**
+	 * @return Empty bitmap
+	 */
+	public static AccountBitmap empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @param indexes Account indexes (any order, duplicates allowed)
+	 * @return Bitmap of these indexes
+	 */
+	public static AccountBitmap of(final int... indexes) {
+		Assertion.checkNotNull(indexes);
+		//-----
+		int max = -1;
+		for (final int index : indexes) {
+			Assertion.checkArgument(index >= 0, "index must be positive ({0})", index);
+			max = Math.max(max, index);
+		}
+		final long[] words = new long[wordIndex(max) + 1];
+		for (final int index : indexes) {
+			words[wordIndex(index)] |= 1L << index;
+		}
+		return fromWords(words);
+	}
+
+	/**
+	 * Read a Redis bitmap (SETBIT/GETBIT layout : offset 0 is the most significant bit of the first byte).
+	 * @param bytes Redis string value, may be null
+	 * @return Bitmap
+	 */
+	public static AccountBitmap fromRedisBitmap(final byte[] bytes) {
+		if (bytes == null || bytes.length == 0) {
+			return EMPTY;
+		}
+		final long[] words = new long[(bytes.length + 7) / 8];
+		for (int i = 0; i < bytes.length; i++) {
+			//bits of a redis byte are in reverse order
+			final long reversed = Integer.reverse(bytes[i] & 0xFF) >>> 24;
+			words[i / 8] |= reversed << ((i % 8) * 8);
+		}
+		return fromWords(words);
+	}
+
+	/**
+	 * @return Redis bitmap of this bitmap (see fromRedisBitmap)
+	 */
+	public byte[] toRedisBitmap() {
+		final long[] allWords = toWords(0);
+		final byte[] bytes = new byte[allWords.length * 8];
+		for (int i = 0; i < bytes.length; i++) {
+			final int b = (int) (allWords[i / 8] >>> ((i % 8) * 8)) & 0xFF;
+			bytes[i] = (byte) (Integer.reverse(b) >>> 24);
+		}
+		return bytes;
+	}
+
+	private static AccountBitmap fromWords(final long[] words) {
+		int cardinality = 0;
+		int lastWord = -1;
+		for (int i = 0; i < words.length; i++) {
+			if (words[i] != 0) {
+				cardinality += Long.bitCount(words[i]);
+				lastWord = i;
+			}
+		}
+		if (cardinality == 0) {
+			return EMPTY;
+		}
+		//4 bytes by sparse index, against 8 bytes by word
+		if (cardinality <= 2 * (lastWord + 1)) {
+			final int[] sortedIndexes = new int[cardinality];
+			int pos = 0;
+			for (int i = 0; i <= lastWord; i++) {
+				long word = words[i];
+				while (word != 0) {
+					sortedIndexes[pos++] = i * 64 + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return new AccountBitmap(sortedIndexes, null, cardinality);
+		}
+		return new AccountBitmap(null, Arrays.copyOf(words, lastWord + 1), cardinality);
+	}
+
+	private static int wordIndex(final int index) {
+		return index >> 6;
+	}
+
+	private long[] toWords(final int minLength) {
+		if (words != null) {
+			return Arrays.copyOf(words, Math.max(minLength, words.length));
+		}
+		final int length = cardinality == 0 ? 0 : wordIndex(sortedIndexes[cardinality - 1]) + 1;
+		final long[] result = new long[Math.max(minLength, length)];
+		for (final int index : sortedIndexes) {
+			result[wordIndex(index)] |= 1L << index;
+		}
+		return result;
+	}
+
+	private int wordsLength() {
+		if (words != null) {
+			return words.length;
+		}
+		return cardinality == 0 ? 0 : wordIndex(sortedIndexes[cardinality - 1]) + 1;
+	}
+
+	/**
+	 * @return Number of accounts
+	 */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @param index Account index
+	 * @return if this account is in this bitmap
+	 */
+	public boolean contains(final int index) {
+		if (index < 0) {
+			return false;
+		}
+		if (words != null) {
+			return wordIndex(index) < words.length && (words[wordIndex(index)] & 1L << index) != 0;
+		}
+		return Arrays.binarySearch(sortedIndexes, index) >= 0;
+	}
+
+	/**
+	 * @param fromIndex First index to check (inclusive)
+	 * @return First account index greater or equals to fromIndex, -1 if none
+	 */
+	public int nextIndex(final int fromIndex) {
+		Assertion.checkArgument(fromIndex >= 0, "fromIndex must be positive ({0})", fromIndex);
+		//-----
+		if (words != null) {
+			int i = wordIndex(fromIndex);
+			if (i >= words.length) {
+				return -1;
+			}
+			long word = words[i] & -1L << fromIndex;
+			while (word == 0) {
+				if (++i == words.length) {
+					return -1;
+				}
+				word = words[i];
+			}
+			return i * 64 + Long.numberOfTrailingZeros(word);
+		}
+		final int pos = Arrays.binarySearch(sortedIndexes, fromIndex);
+		final int next = pos >= 0 ? pos : -pos - 1;
+		return next < cardinality ? sortedIndexes[next] : -1;
+	}
+
+	/**
+	 * @param index Account index
+	 * @return New bitmap with this account
+	 */
+	public AccountBitmap with(final int index) {
+		Assertion.checkArgument(index >= 0, "index must be positive ({0})", index);
+		//-----
+		if (contains(index)) {
+			return this;
+		}
+		final long[] result = toWords(wordIndex(index) + 1);
+		result[wordIndex(index)] |= 1L << index;
+		return fromWords(result);
+	}
+
+	/**
+	 * @param index Account index
+	 * @return New bitmap without this account
+	 */
+	public AccountBitmap without(final int index) {
+		if (!contains(index)) {
+			return this;
+		}
+		final long[] result = toWords(0);
+		result[wordIndex(index)] &= ~(1L << index);
+		return fromWords(result);
+	}
+
+	/**
+	 * @param other Other bitmap
+	 * @return Accounts in both bitmaps (intersection)
+	 */
+	public AccountBitmap and(final AccountBitmap other) {
+		Assertion.checkNotNull(other);
+		//-----
+		final long[] result = toWords(0);
+		final int otherLength = other.wordsLength();
+		final long[] otherWords = other.toWords(0);
+		for (int i = 0; i < result.length; i++) {
+			result[i] &= i < otherLength ? otherWords[i] : 0L;
+		}
+		return fromWords(result);
+	}
+
+	/**
+	 * @param other Other bitmap
+	 * @return Accounts in one of these bitmaps (union)
+	 */
+	public AccountBitmap or(final AccountBitmap other) {
+		Assertion.checkNotNull(other);
+		//-----
+		final long[] result = toWords(other.wordsLength());
+		final long[] otherWords = other.toWords(0);
+		for (int i = 0; i < otherWords.length; i++) {
+			result[i] |= otherWords[i];
+		}
+		return fromWords(result);
+	}
+
+	/**
+	 * @param other Other bitmap
+	 * @return Accounts in this bitmap but not in other (difference)
+	 */
+	public AccountBitmap andNot(final AccountBitmap other) {
+		Assertion.checkNotNull(other);
+		//-----
+		final long[] result = toWords(0);
+		final long[] otherWords = other.toWords(0);
+		for (int i = 0; i < Math.min(result.length, otherWords.length); i++) {
+			result[i] &= ~otherWords[i];
+		}
+		return fromWords(result);
+	}
+}
@@ -0,0 +1,23 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Plugin;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountEvent;
+import io.vertigo.x.account.AccountEventListener;
+import io.vertigo.x.account.AccountGroup;
+
+import java.util.List;
+
+/**
+ * Delivers account events across nodes.
+ * @author pchretien
+ */
+public interface AccountEventPlugin extends Plugin {
+
+	//assigns the next shared sequence number and sends the event to other nodes
+	AccountEvent publish(AccountEvent.Type type, List<URI<Account>> accountURIs, List<URI<AccountGroup>> groupURIs);
+
+	//events published by other nodes, in sequence order
+	void subscribe(AccountEventListener listener);
+}
@@ -2,6 +2,11 @@ package io.vertigo.x.impl.account;
 
 import io.vertigo.core.config.Features;
 import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.plugins.account.fs.FsAccountPhotoStorePlugin;
+import io.vertigo.x.plugins.account.fs.FsAccountStorePlugin;
+import io.vertigo.x.plugins.account.jdbc.JdbcAccountStorePlugin;
+import io.vertigo.x.plugins.account.memory.MemoryAccountStorePlugin;
+import io.vertigo.x.plugins.account.redis.RedisAccountEventPlugin;
 import io.vertigo.x.plugins.account.redis.RedisAccountStorePlugin;
 
 /**
@@ -26,4 +31,60 @@ public final class AccountFeatures extends Features {
 				.addPlugin(RedisAccountStorePlugin.class);
 		return this;
 	}
+
+	/**
+	 * Store accounts in memory (dev, tests or single node).
+	 * @return this features
+	 */
+	public AccountFeatures withMemory() {
+		getModuleConfigBuilder()
+				.addPlugin(MemoryAccountStorePlugin.class);
+		return this;
+	}
+
+	/**
+	 * Store accounts in memory, persisted in a local directory (single node).
+	 * @param path Root directory of the store
+	 * @return this features
+	 */
+	public AccountFeatures withFileSystem(final String path) {
+		getModuleConfigBuilder()
+				.beginPlugin(FsAccountStorePlugin.class)
+				.addParam("path", path)
+				.endPlugin();
+		return this;
+	}
+
+	/**
+	 * Store accounts in a relational database (main connection provider of SqlDataBaseManager).
+	 * @return this features
+	 */
+	public AccountFeatures withJdbc() {
+		getModuleConfigBuilder()
+				.addPlugin(JdbcAccountStorePlugin.class);
+		return this;
+	}
+
+	/**
+	 * Deliver account events to other nodes through redis (pub/sub).
+	 * @return this features
+	 */
+	public AccountFeatures withRedisEvents() {
+		getModuleConfigBuilder()
+				.addPlugin(RedisAccountEventPlugin.class);
+		return this;
+	}
+
+	/**
+	 * Store photos on file system, accounts stay in the account store.
+	 * @param path Root directory of photos (local or shared)
+	 * @return this features
+	 */
+	public AccountFeatures withFileSystemPhoto(final String path) {
+		getModuleConfigBuilder()
+				.beginPlugin(FsAccountPhotoStorePlugin.class)
+				.addParam("path", path)
+				.endPlugin();
+		return this;
+	}
 }
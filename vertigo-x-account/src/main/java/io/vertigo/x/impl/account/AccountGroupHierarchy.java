@@ -0,0 +1,251 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.AccountGroup;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable graph of groups included in other groups.
+ * Ancestors of each group are precomputed, and updated only for the groups below a changed edge.
+ * Cycles are rejected.
+ *
+ * @author pchretien
+ */
+public final class AccountGroupHierarchy {
+	private static final AccountGroupHierarchy EMPTY = new AccountGroupHierarchy(
+			Collections.<URI<AccountGroup>, Set<URI<AccountGroup>>> emptyMap(),
+			Collections.<URI<AccountGroup>, Set<URI<AccountGroup>>> emptyMap(),
+			Collections.<URI<AccountGroup>, Set<URI<AccountGroup>>> emptyMap());
+
+	private final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parentsByGroupURI;
+	private final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> childrenByGroupURI;
+	//transitive closure of parents
+	private final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> ancestorsByGroupURI;
+
+	private AccountGroupHierarchy(final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parentsByGroupURI, final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> childrenByGroupURI, final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> ancestorsByGroupURI) {
+		this.parentsByGroupURI = parentsByGroupURI;
+		this.childrenByGroupURI = childrenByGroupURI;
+		this.ancestorsByGroupURI = ancestorsByGroupURI;
+	}
+
+	/**
+	 * @return Hierarchy without any nested group
+	 */
+	public static AccountGroupHierarchy empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Builds a whole hierarchy at once (ie : loaded from a store) : each group's ancestors are computed once.
+	 * @param parentsByGroupURI Groups directly including each group
+	 * @return Hierarchy with these edges
+	 */
+	public static AccountGroupHierarchy of(final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parentsByGroupURI) {
+		Assertion.checkNotNull(parentsByGroupURI);
+		//-----
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parents = new HashMap<>();
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> children = new HashMap<>();
+		for (final Map.Entry<URI<AccountGroup>, Set<URI<AccountGroup>>> entry : parentsByGroupURI.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				continue;
+			}
+			parents.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+			for (final URI<AccountGroup> parentGroupURI : entry.getValue()) {
+				Set<URI<AccountGroup>> parentChildren = children.get(parentGroupURI);
+				if (parentChildren == null) {
+					parentChildren = new HashSet<>();
+					children.put(parentGroupURI, parentChildren);
+				}
+				parentChildren.add(entry.getKey());
+			}
+		}
+		for (final Map.Entry<URI<AccountGroup>, Set<URI<AccountGroup>>> entry : children.entrySet()) {
+			entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+		}
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> ancestors = new HashMap<>();
+		for (final URI<AccountGroup> groupURI : parents.keySet()) {
+			computeAncestors(groupURI, parents, ancestors, new HashSet<URI<AccountGroup>>());
+		}
+		return new AccountGroupHierarchy(parents, children, ancestors);
+	}
+
+	//ancestors of parents first, each group computed once
+	private static Set<URI<AccountGroup>> computeAncestors(final URI<AccountGroup> groupURI, final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parents, final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> ancestors, final Set<URI<AccountGroup>> path) {
+		final Set<URI<AccountGroup>> knownAncestors = ancestors.get(groupURI);
+		if (knownAncestors != null) {
+			return knownAncestors;
+		}
+		final Set<URI<AccountGroup>> groupParents = parents.get(groupURI);
+		if (groupParents == null) {
+			return Collections.emptySet();
+		}
+		Assertion.checkState(path.add(groupURI), "group {0} is included in itself : groups are in a cycle", groupURI);
+		final Set<URI<AccountGroup>> groupAncestors = new HashSet<>();
+		for (final URI<AccountGroup> groupParentURI : groupParents) {
+			groupAncestors.add(groupParentURI);
+			groupAncestors.addAll(computeAncestors(groupParentURI, parents, ancestors, path));
+		}
+		path.remove(groupURI);
+		ancestors.put(groupURI, Collections.unmodifiableSet(groupAncestors));
+		return groupAncestors;
+	}
+
+	/**
+	 * @param childGroupURI Group included
+	 * @param parentGroupURI Group including
+	 * @return New hierarchy with this edge
+	 */
+	public AccountGroupHierarchy withEdge(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		Assertion.checkArgument(!getSelfAndAncestors(parentGroupURI).contains(childGroupURI), "group {0} can't be attached to group {1} : it would create a cycle", childGroupURI, parentGroupURI);
+		//-----
+		if (getParents(childGroupURI).contains(parentGroupURI)) {
+			return this;
+		}
+		return update(childGroupURI, parentGroupURI, true);
+	}
+
+	/**
+	 * @param childGroupURI Group included
+	 * @param parentGroupURI Group including
+	 * @return New hierarchy without this edge
+	 */
+	public AccountGroupHierarchy withoutEdge(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		if (!getParents(childGroupURI).contains(parentGroupURI)) {
+			return this;
+		}
+		return update(childGroupURI, parentGroupURI, false);
+	}
+
+	private AccountGroupHierarchy update(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI, final boolean add) {
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parents = new HashMap<>(parentsByGroupURI);
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> children = new HashMap<>(childrenByGroupURI);
+		putOrRemove(parents, childGroupURI, parentGroupURI, add);
+		putOrRemove(children, parentGroupURI, childGroupURI, add);
+		//only the child and its descendants get new ancestors, from top to bottom
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> ancestors = new HashMap<>(ancestorsByGroupURI);
+		for (final URI<AccountGroup> groupURI : getSelfAndDescendants(childGroupURI)) {
+			final Set<URI<AccountGroup>> groupAncestors = new HashSet<>();
+			final Set<URI<AccountGroup>> groupParents = parents.get(groupURI);
+			if (groupParents != null) {
+				for (final URI<AccountGroup> groupParentURI : groupParents) {
+					groupAncestors.add(groupParentURI);
+					final Set<URI<AccountGroup>> parentAncestors = ancestors.get(groupParentURI);
+					if (parentAncestors != null) {
+						groupAncestors.addAll(parentAncestors);
+					}
+				}
+			}
+			if (groupAncestors.isEmpty()) {
+				ancestors.remove(groupURI);
+			} else {
+				ancestors.put(groupURI, Collections.unmodifiableSet(groupAncestors));
+			}
+		}
+		return new AccountGroupHierarchy(parents, children, ancestors);
+	}
+
+	private static void putOrRemove(final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> map, final URI<AccountGroup> key, final URI<AccountGroup> value, final boolean add) {
+		final Set<URI<AccountGroup>> values = new HashSet<>(map.containsKey(key) ? map.get(key) : Collections.<URI<AccountGroup>> emptySet());
+		if (add) {
+			values.add(value);
+		} else {
+			values.remove(value);
+		}
+		if (values.isEmpty()) {
+			map.remove(key);
+		} else {
+			map.put(key, Collections.unmodifiableSet(values));
+		}
+	}
+
+	/**
+	 * @param groupURI Group
+	 * @return Groups directly including this group
+	 */
+	public Set<URI<AccountGroup>> getParents(final URI<AccountGroup> groupURI) {
+		final Set<URI<AccountGroup>> parents = parentsByGroupURI.get(groupURI);
+		return parents == null ? Collections.<URI<AccountGroup>> emptySet() : parents;
+	}
+
+	/**
+	 * @param groupURI Group
+	 * @return Groups directly included in this group
+	 */
+	public Set<URI<AccountGroup>> getChildren(final URI<AccountGroup> groupURI) {
+		final Set<URI<AccountGroup>> children = childrenByGroupURI.get(groupURI);
+		return children == null ? Collections.<URI<AccountGroup>> emptySet() : children;
+	}
+
+	/**
+	 * @return Groups included in at least one group
+	 */
+	public Set<URI<AccountGroup>> getNestedGroups() {
+		return Collections.unmodifiableSet(parentsByGroupURI.keySet());
+	}
+
+	/**
+	 * @param groupURI Group
+	 * @return This group and all groups including it, directly or not
+	 */
+	public Set<URI<AccountGroup>> getSelfAndAncestors(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		final Set<URI<AccountGroup>> ancestors = ancestorsByGroupURI.get(groupURI);
+		if (ancestors == null) {
+			return Collections.singleton(groupURI);
+		}
+		final Set<URI<AccountGroup>> result = new HashSet<>(ancestors);
+		result.add(groupURI);
+		return result;
+	}
+
+	/**
+	 * @param groupURI Group
+	 * @return This group and all groups included in it, directly or not : each group comes after its parents
+	 */
+	public Set<URI<AccountGroup>> getSelfAndDescendants(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		//topological order : a group is added once all its parents below groupURI are added
+		final Set<URI<AccountGroup>> result = new LinkedHashSet<>();
+		final Deque<URI<AccountGroup>> queue = new ArrayDeque<>();
+		queue.add(groupURI);
+		while (!queue.isEmpty()) {
+			final URI<AccountGroup> current = queue.poll();
+			if (result.add(current)) {
+				final Set<URI<AccountGroup>> currentChildren = childrenByGroupURI.get(current);
+				if (currentChildren != null) {
+					for (final URI<AccountGroup> child : currentChildren) {
+						if (isReady(child, groupURI, result)) {
+							queue.add(child);
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean isReady(final URI<AccountGroup> groupURI, final URI<AccountGroup> rootGroupURI, final Set<URI<AccountGroup>> done) {
+		for (final URI<AccountGroup> parentURI : getParents(groupURI)) {
+			if (!done.contains(parentURI) && getSelfAndAncestors(parentURI).contains(rootGroupURI)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,48 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.AccountGroup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dense integer ids of groups, used in group sets of accounts.
+ * Indexes are local to this node, never reused nor changed : the mapping only grows.
+ * Reads are lock-free.
+ *
+ * @author pchretien
+ */
+final class AccountGroupIndexMapping {
+	private final ConcurrentMap<URI<AccountGroup>, Integer> indexByGroupURI = new ConcurrentHashMap<>();
+	private final AtomicInteger nextIndex = new AtomicInteger();
+
+	/**
+	 * @param groupURI Group uri
+	 * @return Index of this group, -1 if unknown
+	 */
+	int getIndex(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		final Integer index = indexByGroupURI.get(groupURI);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Get index of a group, a new one is assigned if this group is unknown.
+	 * @param groupURI Group uri
+	 * @return Index of this group
+	 */
+	int obtainIndex(final URI<AccountGroup> groupURI) {
+		final int index = getIndex(groupURI);
+		if (index >= 0) {
+			return index;
+		}
+		//an index lost by a concurrent assignment is never used
+		final int newIndex = nextIndex.getAndIncrement();
+		final Integer existingIndex = indexByGroupURI.putIfAbsent(groupURI, newIndex);
+		return existingIndex == null ? newIndex : existingIndex;
+	}
+}
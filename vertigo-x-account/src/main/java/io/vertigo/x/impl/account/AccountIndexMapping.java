@@ -0,0 +1,91 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.Account;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dense integer ids of accounts, used as positions in AccountBitmap.
+ * Indexes are never reused nor changed : a mapping can be cached and only grows.
+ * Each account URI is kept once, so reading a group never creates URI objects.
+ * Reads are lock-free.
+ *
+ * @author pchretien
+ */
+public final class AccountIndexMapping {
+	private final ConcurrentMap<URI<Account>, Integer> indexByAccountURI = new ConcurrentHashMap<>();
+	//replaced (never modified) when growing
+	private volatile URI<Account>[] accountURIByIndex = newArray(1024);
+	private int nextIndex; //guarded by this
+
+	private static URI<Account>[] newArray(final int length) {
+		@SuppressWarnings("unchecked")
+		final URI<Account>[] array = (URI<Account>[]) new URI<?>[length];
+		return array;
+	}
+
+	/**
+	 * @param accountURI Account uri
+	 * @return Index of this account, -1 if unknown
+	 */
+	public int getIndex(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		final Integer index = indexByAccountURI.get(accountURI);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param index Account index
+	 * @return Account uri of this index, null if unknown
+	 */
+	public URI<Account> getAccountURI(final int index) {
+		final URI<Account>[] uris = accountURIByIndex;
+		return index >= 0 && index < uris.length ? uris[index] : null;
+	}
+
+	/**
+	 * Get index of an account, a new one is assigned if this account is unknown.
+	 * @param accountURI Account uri
+	 * @return Index of this account
+	 */
+	public int obtainIndex(final URI<Account> accountURI) {
+		final int index = getIndex(accountURI);
+		if (index >= 0) {
+			return index;
+		}
+		synchronized (this) {
+			final Integer existingIndex = indexByAccountURI.get(accountURI);
+			if (existingIndex != null) {
+				return existingIndex;
+			}
+			final int newIndex = nextIndex;
+			register(accountURI, newIndex);
+			return newIndex;
+		}
+	}
+
+	/**
+	 * Register an index assigned elsewhere (ie : by a shared store).
+	 * @param accountURI Account uri
+	 * @param index Account index
+	 */
+	public synchronized void register(final URI<Account> accountURI, final int index) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkArgument(index >= 0, "index must be positive ({0})", index);
+		//-----
+		URI<Account>[] uris = accountURIByIndex;
+		if (index >= uris.length) {
+			uris = Arrays.copyOf(uris, Math.max(index + 1, uris.length * 2));
+		}
+		uris[index] = accountURI;
+		//array is published before the index : a known index always resolves
+		accountURIByIndex = uris;
+		indexByAccountURI.put(accountURI, index);
+		nextIndex = Math.max(nextIndex, index + 1);
+	}
+}
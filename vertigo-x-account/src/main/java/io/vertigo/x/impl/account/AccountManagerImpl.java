@@ -1,25 +1,37 @@
 package io.vertigo.x.impl.account;
 
+import io.vertigo.commons.codec.CodecManager;
 import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
 import io.vertigo.dynamo.file.FileManager;
-import io.vertigo.dynamo.file.model.InputStreamBuilder;
 import io.vertigo.dynamo.file.model.VFile;
 import io.vertigo.lang.Assertion;
 import io.vertigo.lang.Option;
 import io.vertigo.persona.security.UserSession;
 import io.vertigo.persona.security.VSecurityManager;
 import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountEvent;
+import io.vertigo.x.account.AccountEventListener;
 import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountGroupSet;
+import io.vertigo.x.account.AccountImportListener;
 import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.account.AccountSyncSummary;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
@@ -28,51 +40,65 @@ import javax.inject.Inject;
  */
 public final class AccountManagerImpl implements AccountManager {
 	private static final String X_ACCOUNT_ID = "X_ACCOUNT_ID";
+	//thumbnail sizes in pixels, sorted
+	private static final int[] THUMBNAIL_SIZES = { 32, 64, 256 };
+	private static final int IMPORT_CHUNK_SIZE = 1000;
+	private static final int MAX_GROUP_SETS = 100 * 1000;
+	//without event plugin, changes made by other nodes are only seen once a group set is read again
+	private static final long GROUP_SET_TTL_MILLIS = 10 * 1000;
 	private final VSecurityManager securityManager;
 	private final AccountStorePlugin accountStorePlugin;
-	private final VFile defaultPhoto;
+	private final Option<AccountPhotoStorePlugin> accountPhotoStorePlugin;
+	private final FileManager fileManager;
+	private final CodecManager codecManager;
+	private final StaticFile defaultPhoto;
+	private final Map<Integer, StaticFile> defaultThumbnails = new HashMap<>();
+	private final Option<AccountEventPlugin> accountEventPlugin;
+	private final List<AccountEventListener> eventListeners = new CopyOnWriteArrayList<>();
+	//sequence of events when there is no event plugin (single node)
+	private final AtomicLong localSequence = new AtomicLong();
+	//group sets of accounts, dropped on membership changes of this node and others (events, or a delay without event plugin)
+	private final AccountGroupIndexMapping groupIndexMapping = new AccountGroupIndexMapping();
+	private final ConcurrentMap<URI<Account>, CachedGroupSet> groupSetByAccountURI = new ConcurrentHashMap<>();
+	private final AtomicLong groupSetVersion = new AtomicLong();
 
 	/**
 	 * Constructor.
 	 * @param accountStorePlugin Account store plugin
+	 * @param accountPhotoStorePlugin Photo store plugin (optional, photos are kept by accountStorePlugin if not set)
+	 * @param accountEventPlugin Event plugin (optional, events are only delivered on this node if not set)
 	 * @param fileManager File Manager
+	 * @param codecManager Codec Manager
 	 * @param securityManager Security manager
 	 */
 	@Inject
-	public AccountManagerImpl(final AccountStorePlugin accountStorePlugin, final FileManager fileManager, final VSecurityManager securityManager) {
+	public AccountManagerImpl(final AccountStorePlugin accountStorePlugin, final Option<AccountPhotoStorePlugin> accountPhotoStorePlugin, final Option<AccountEventPlugin> accountEventPlugin, final FileManager fileManager, final CodecManager codecManager, final VSecurityManager securityManager) {
 		Assertion.checkNotNull(accountStorePlugin);
+		Assertion.checkNotNull(accountPhotoStorePlugin);
+		Assertion.checkNotNull(accountEventPlugin);
 		Assertion.checkNotNull(fileManager);
+		Assertion.checkNotNull(codecManager);
 		Assertion.checkNotNull(securityManager);
 		//-----
 		this.accountStorePlugin = accountStorePlugin;
-		//TODO a remplacer par l'appel a fileManager en v0.9.1
-		defaultPhoto = createFile("defaultPhoto.png", "image/png", AccountManagerImpl.class.getResource("defaultPhoto.png"), fileManager);
+		this.accountPhotoStorePlugin = accountPhotoStorePlugin;
+		this.accountEventPlugin = accountEventPlugin;
+		this.fileManager = fileManager;
+		this.codecManager = codecManager;
+		//most accounts have no photo : default photo and its thumbnails are kept in memory, with their ETag
+		defaultPhoto = StaticFile.load("defaultPhoto.png", "image/png", AccountManagerImpl.class.getResource("defaultPhoto.png"), codecManager);
+		for (final int size : THUMBNAIL_SIZES) {
+			defaultThumbnails.put(size, StaticFile.of(PhotoScaler.scale(defaultPhoto, size, fileManager), codecManager));
+		}
 		this.securityManager = securityManager;
-	}
-
-	private static VFile createFile(final String fileName, final String typeMime, final URL ressourceUrl, final FileManager fileManager) {
-		final long length;
-		final long lastModified;
-		final URLConnection conn;
-		try {
-			conn = ressourceUrl.openConnection();
-			try {
-				length = conn.getContentLength();
-				lastModified = conn.getLastModified();
-			} finally {
-				conn.getInputStream().close();
-			}
-		} catch (final IOException e) {
-			throw new RuntimeException("Can't get file size", e);
-		}
-		Assertion.checkArgument(length >= 0, "Can't get file size");
-		final InputStreamBuilder inputStreamBuilder = new InputStreamBuilder() {
-			@Override
-			public InputStream createInputStream() throws IOException {
-				return ressourceUrl.openStream();
-			}
-		};
-		return fileManager.createFile(fileName, typeMime, new Date(lastModified), length, inputStreamBuilder);
+		if (accountEventPlugin.isDefined()) {
+			accountEventPlugin.get().subscribe(new AccountEventListener() {
+				@Override
+				public void onEvent(final AccountEvent event) {
+					notifyListeners(event);
+				}
+			});
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -80,14 +106,26 @@ public final class AccountManagerImpl implements AccountManager {
 	public void login(final URI<Account> accountURI) {
 		final UserSession userSession = securityManager.getCurrentUserSession().get();
 		userSession.putAttribute(X_ACCOUNT_ID, accountURI);
+		final AccountRequestContext requestContext = AccountRequestContext.current();
+		if (requestContext != null) {
+			requestContext.setLoggedAccountURI(accountURI);
+		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public URI<Account> getLoggedAccount() {
+		//resolved once per request
+		final AccountRequestContext requestContext = AccountRequestContext.current();
+		if (requestContext != null && requestContext.getLoggedAccountURI() != null) {
+			return requestContext.getLoggedAccountURI();
+		}
 		final UserSession userSession = securityManager.getCurrentUserSession().get();
 		final URI<Account> accountUri = userSession.getAttribute(X_ACCOUNT_ID);
 		Assertion.checkNotNull(accountUri, "Account was not logged");
+		if (requestContext != null) {
+			requestContext.setLoggedAccountURI(accountUri);
+		}
 		return accountUri;
 	}
 
@@ -100,19 +138,269 @@ public final class AccountManagerImpl implements AccountManager {
 	/** {@inheritDoc} */
 	@Override
 	public Account getAccount(final URI<Account> accountURI) {
+		final AccountRequestContext requestContext = AccountRequestContext.current();
+		if (requestContext != null && requestContext.isLoggedAccount(accountURI)) {
+			if (requestContext.getLoggedAccount() == null) {
+				requestContext.setLoggedAccount(accountStorePlugin.getAccount(accountURI));
+			}
+			return requestContext.getLoggedAccount();
+		}
 		return accountStorePlugin.getAccount(accountURI);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<Account>, Account> findAccounts(final Collection<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		if (accountURIs.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return accountStorePlugin.findAccounts(accountURIs);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Set<URI<AccountGroup>> getGroupURIs(final URI<Account> accountURI) {
+		final AccountRequestContext requestContext = AccountRequestContext.current();
+		if (requestContext != null && requestContext.isLoggedAccount(accountURI)) {
+			if (requestContext.getLoggedGroupURIs() == null) {
+				requestContext.setLoggedGroupURIs(Collections.unmodifiableSet(accountStorePlugin.getGroupURIs(accountURI)));
+			}
+			return requestContext.getLoggedGroupURIs();
+		}
 		return accountStorePlugin.getGroupURIs(accountURI);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public AccountGroupSet getGroupSet(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		final CachedGroupSet cachedGroupSet = groupSetByAccountURI.get(accountURI);
+		if (cachedGroupSet != null && !isExpired(cachedGroupSet)) {
+			return cachedGroupSet.groupSet;
+		}
+		final long version = groupSetVersion.get();
+		final AccountGroupSet groupSet = new SortedAccountGroupSet(version, getGroupURIs(accountURI), groupIndexMapping);
+		if (groupSetByAccountURI.size() >= MAX_GROUP_SETS) {
+			evictGroupSets();
+		}
+		final CachedGroupSet newCachedGroupSet = new CachedGroupSet(groupSet, System.currentTimeMillis());
+		groupSetByAccountURI.put(accountURI, newCachedGroupSet);
+		//kept then checked : if memberships changed since the read, it's removed here or by the invalidation
+		if (groupSetVersion.get() != version) {
+			groupSetByAccountURI.remove(accountURI, newCachedGroupSet);
+		}
+		return groupSet;
+	}
+
+	private boolean isExpired(final CachedGroupSet cachedGroupSet) {
+		return !accountEventPlugin.isDefined() && System.currentTimeMillis() - cachedGroupSet.loadTime > GROUP_SET_TTL_MILLIS;
+	}
+
+	//expired group sets are dropped, then others until a tenth is free : most stay cached
+	private void evictGroupSets() {
+		final int targetSize = MAX_GROUP_SETS - MAX_GROUP_SETS / 10;
+		final Iterator<CachedGroupSet> it = groupSetByAccountURI.values().iterator();
+		while (it.hasNext()) {
+			final CachedGroupSet cachedGroupSet = it.next();
+			if (isExpired(cachedGroupSet) || groupSetByAccountURI.size() > targetSize) {
+				it.remove();
+			}
+		}
+	}
+
+	//version first : a group set read before this change is never kept
+	private void invalidateGroupSets(final AccountEvent event) {
+		switch (event.getType()) {
+			case ATTACHED:
+			case DETACHED:
+			case ACCOUNTS_DELETED:
+				groupSetVersion.incrementAndGet();
+				for (final URI<Account> accountURI : event.getAccountURIs()) {
+					groupSetByAccountURI.remove(accountURI);
+				}
+				break;
+			case GROUP_ATTACHED:
+			case GROUP_DETACHED:
+			case GROUP_DELETED:
+			case EVENTS_LOST:
+				//nested memberships of any account may change
+				groupSetVersion.incrementAndGet();
+				groupSetByAccountURI.clear();
+				break;
+			default:
+				//memberships unchanged
+		}
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void saveAccounts(final List<Account> accounts) {
 		accountStorePlugin.saveAccounts(accounts);
+		//events stay small, whatever the number of accounts
+		for (int from = 0; from < accounts.size(); from += IMPORT_CHUNK_SIZE) {
+			fireEvent(AccountEvent.Type.ACCOUNTS_SAVED, toAccountURIs(accounts.subList(from, Math.min(from + IMPORT_CHUNK_SIZE, accounts.size()))), Collections.<URI<AccountGroup>> emptyList());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteAccounts(final List<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		if (accountURIs.isEmpty()) {
+			return;
+		}
+		accountStorePlugin.deleteAccounts(accountURIs);
+		if (accountPhotoStorePlugin.isDefined()) {
+			accountPhotoStorePlugin.get().deletePhotos(accountURIs);
+		}
+		for (int from = 0; from < accountURIs.size(); from += IMPORT_CHUNK_SIZE) {
+			fireEvent(AccountEvent.Type.ACCOUNTS_DELETED, new ArrayList<>(accountURIs.subList(from, Math.min(from + IMPORT_CHUNK_SIZE, accountURIs.size()))), Collections.<URI<AccountGroup>> emptyList());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addEventListener(final AccountEventListener listener) {
+		Assertion.checkNotNull(listener);
+		//-----
+		eventListeners.add(listener);
+	}
+
+	//each write fires an event : the logged account of this request is read again
+	private void fireEvent(final AccountEvent.Type type, final List<URI<Account>> accountURIs, final List<URI<AccountGroup>> groupURIs) {
+		final AccountRequestContext requestContext = AccountRequestContext.current();
+		if (requestContext != null) {
+			requestContext.invalidate();
+		}
+		if (accountEventPlugin.isDefined()) {
+			notifyListeners(accountEventPlugin.get().publish(type, accountURIs, groupURIs));
+		} else {
+			notifyListeners(new AccountEvent(localSequence.incrementAndGet(), type, accountURIs, groupURIs));
+		}
+	}
+
+	private void notifyListeners(final AccountEvent event) {
+		invalidateGroupSets(event);
+		for (final AccountEventListener eventListener : eventListeners) {
+			eventListener.onEvent(event);
+		}
+	}
+
+	private static List<URI<Account>> toAccountURIs(final List<Account> accounts) {
+		final List<URI<Account>> accountURIs = new ArrayList<>(accounts.size());
+		for (final Account account : accounts) {
+			accountURIs.add(DtObjectUtil.createURI(Account.class, account.getId()));
+		}
+		return accountURIs;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long importAccounts(final Iterator<Account> accounts, final long checkpoint, final AccountImportListener listener) {
+		Assertion.checkNotNull(accounts);
+		Assertion.checkArgument(checkpoint >= 0, "checkpoint must be positive ({0})", checkpoint);
+		Assertion.checkNotNull(listener);
+		//-----
+		long position = 0;
+		//accounts stored by the interrupted import are skipped
+		while (position < checkpoint && accounts.hasNext()) {
+			accounts.next();
+			position++;
+		}
+		final List<Account> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+		while (accounts.hasNext()) {
+			chunk.add(accounts.next());
+			if (chunk.size() == IMPORT_CHUNK_SIZE || !accounts.hasNext()) {
+				saveAccounts(chunk);
+				position += chunk.size();
+				chunk.clear();
+				listener.onProgress(position);
+			}
+		}
+		return position;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AccountSyncSummary syncAccounts(final List<Account> accounts, final Map<String, Set<URI<AccountGroup>>> groupURIsByAccountId) {
+		Assertion.checkNotNull(accounts);
+		Assertion.checkNotNull(groupURIsByAccountId);
+		//-----
+		final Map<String, String> storedFingerprints = new HashMap<>(accountStorePlugin.getAccountFingerprints());
+		final Map<String, String> newFingerprints = new HashMap<>();
+		final List<Account> changedAccounts = new ArrayList<>();
+		int created = 0;
+		int unchanged = 0;
+		for (final Account account : accounts) {
+			final String fingerprint = fingerprint(account, getGroupURIs(groupURIsByAccountId, account.getId()));
+			final String storedFingerprint = storedFingerprints.remove(account.getId());
+			if (fingerprint.equals(storedFingerprint)) {
+				unchanged++;
+			} else {
+				//not synced yet : maybe already stored (first sync or saved by other means)
+				if (storedFingerprint == null && !accountStorePlugin.exists(DtObjectUtil.createURI(Account.class, account.getId()))) {
+					created++;
+				}
+				changedAccounts.add(account);
+				newFingerprints.put(account.getId(), fingerprint);
+			}
+		}
+		//remaining fingerprints, reset or not : synced accounts not in the reference anymore
+		final List<URI<Account>> deletedAccountURIs = new ArrayList<>();
+		for (final String accountId : storedFingerprints.keySet()) {
+			deletedAccountURIs.add(DtObjectUtil.createURI(Account.class, accountId));
+		}
+		deleteAccounts(deletedAccountURIs);
+		saveAccounts(changedAccounts);
+		//-----
+		int attached = 0;
+		int detached = 0;
+		for (final Account account : changedAccounts) {
+			final URI<Account> accountURI = DtObjectUtil.createURI(Account.class, account.getId());
+			final Set<URI<AccountGroup>> storedGroupURIs = accountStorePlugin.getDirectGroupURIs(accountURI);
+			final Set<URI<AccountGroup>> groupURIs = getGroupURIs(groupURIsByAccountId, account.getId());
+			for (final URI<AccountGroup> groupURI : groupURIs) {
+				if (!storedGroupURIs.contains(groupURI)) {
+					attach(accountURI, groupURI);
+					attached++;
+				}
+			}
+			for (final URI<AccountGroup> storedGroupURI : storedGroupURIs) {
+				if (!groupURIs.contains(storedGroupURI)) {
+					detach(accountURI, storedGroupURI);
+					detached++;
+				}
+			}
+		}
+		//fingerprints last : an interrupted sync is done again
+		accountStorePlugin.setAccountFingerprints(newFingerprints);
+		return new AccountSyncSummary(created, changedAccounts.size() - created, deletedAccountURIs.size(), unchanged, attached, detached);
+	}
+
+	private static Set<URI<AccountGroup>> getGroupURIs(final Map<String, Set<URI<AccountGroup>>> groupURIsByAccountId, final String accountId) {
+		final Set<URI<AccountGroup>> groupURIs = groupURIsByAccountId.get(accountId);
+		return groupURIs == null ? Collections.<URI<AccountGroup>> emptySet() : groupURIs;
+	}
+
+	private String fingerprint(final Account account, final Set<URI<AccountGroup>> groupURIs) {
+		final StringBuilder sb = new StringBuilder()
+				.append(account.getId()).append('\u0000')
+				.append(account.getDisplayName()).append('\u0000')
+				.append(account.getEmail());
+		final List<String> groupIds = new ArrayList<>();
+		for (final URI<AccountGroup> groupURI : groupURIs) {
+			groupIds.add(String.valueOf(groupURI.getId()));
+		}
+		Collections.sort(groupIds);
+		for (final String groupId : groupIds) {
+			sb.append('\u0000').append(groupId);
+		}
+		final byte[] digest = codecManager.getMD5Encoder().encode(sb.toString().getBytes(StandardCharsets.UTF_8));
+		return codecManager.getHexEncoder().encode(digest);
 	}
 
 	/** {@inheritDoc} */
@@ -139,35 +427,157 @@ public final class AccountManagerImpl implements AccountManager {
 		return accountStorePlugin.getAccountURIs(groupURI);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final List<URI<AccountGroup>> includedGroupURIs, final List<URI<AccountGroup>> excludedGroupURIs) {
+		Assertion.checkNotNull(includedGroupURIs);
+		Assertion.checkArgument(!includedGroupURIs.isEmpty(), "at least one group must be included");
+		Assertion.checkNotNull(excludedGroupURIs);
+		//-----
+		final List<AccountBitmap> includedBitmaps = accountStorePlugin.getAccountBitmaps(includedGroupURIs);
+		AccountBitmap result = includedBitmaps.get(0);
+		for (final AccountBitmap includedBitmap : includedBitmaps.subList(1, includedBitmaps.size())) {
+			result = result.and(includedBitmap);
+		}
+		if (!excludedGroupURIs.isEmpty()) {
+			for (final AccountBitmap excludedBitmap : accountStorePlugin.getAccountBitmaps(excludedGroupURIs)) {
+				result = result.andNot(excludedBitmap);
+			}
+		}
+		return accountStorePlugin.getAccountURIs(result);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIsOfAnyGroup(final List<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		AccountBitmap result = AccountBitmap.empty();
+		for (final AccountBitmap groupBitmap : accountStorePlugin.getAccountBitmaps(groupURIs)) {
+			result = result.or(groupBitmap);
+		}
+		return accountStorePlugin.getAccountURIs(result);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void saveGroup(final AccountGroup saveGroup) {
 		accountStorePlugin.saveGroup(saveGroup);
+		fireEvent(AccountEvent.Type.GROUP_SAVED, Collections.<URI<Account>> emptyList(), Collections.singletonList(DtObjectUtil.createURI(AccountGroup.class, saveGroup.getId())));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		accountStorePlugin.deleteGroup(groupURI);
+		fireEvent(AccountEvent.Type.GROUP_DELETED, Collections.<URI<Account>> emptyList(), Collections.singletonList(groupURI));
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void attach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
 		accountStorePlugin.attach(accountURI, groupURI);
+		fireEvent(AccountEvent.Type.ATTACHED, Collections.singletonList(accountURI), Collections.singletonList(groupURI));
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void detach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
 		accountStorePlugin.detach(accountURI, groupURI);
+		fireEvent(AccountEvent.Type.DETACHED, Collections.singletonList(accountURI), Collections.singletonList(groupURI));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void attachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		accountStorePlugin.attachGroup(childGroupURI, parentGroupURI);
+		fireEvent(AccountEvent.Type.GROUP_ATTACHED, Collections.<URI<Account>> emptyList(), Arrays.asList(childGroupURI, parentGroupURI));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void detachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		accountStorePlugin.detachGroup(childGroupURI, parentGroupURI);
+		fireEvent(AccountEvent.Type.GROUP_DETACHED, Collections.<URI<Account>> emptyList(), Arrays.asList(childGroupURI, parentGroupURI));
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void setPhoto(final URI<Account> accountURI, final VFile photo) {
-		accountStorePlugin.setPhoto(accountURI, photo);
+		if (accountPhotoStorePlugin.isDefined()) {
+			accountPhotoStorePlugin.get().setPhoto(accountURI, photo);
+		} else {
+			accountStorePlugin.setPhoto(accountURI, photo);
+		}
+		//thumbnails are computed once here, so avatars lists never download the full photo
+		for (final int size : THUMBNAIL_SIZES) {
+			final VFile thumbnail = PhotoScaler.scale(photo, size, fileManager);
+			if (accountPhotoStorePlugin.isDefined()) {
+				accountPhotoStorePlugin.get().setThumbnail(accountURI, size, thumbnail);
+			} else {
+				accountStorePlugin.setThumbnail(accountURI, size, thumbnail);
+			}
+		}
+		fireEvent(AccountEvent.Type.PHOTO_SET, Collections.singletonList(accountURI), Collections.<URI<AccountGroup>> emptyList());
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public VFile getPhoto(final URI<Account> accountURI) {
-		final Option<VFile> photo = accountStorePlugin.getPhoto(accountURI);
+		final Option<VFile> photo = readPhoto(accountURI);
 		return photo.getOrElse(defaultPhoto);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public VFile getPhoto(final URI<Account> accountURI, final int size) {
+		Assertion.checkArgument(size > 0, "size must be positive ({0})", size);
+		//-----
+		for (final int thumbnailSize : THUMBNAIL_SIZES) {
+			if (size <= thumbnailSize) {
+				final Option<VFile> thumbnail = readThumbnail(accountURI, thumbnailSize);
+				if (thumbnail.isDefined()) {
+					return thumbnail.get();
+				}
+				//photos stored before thumbnails were computed are served as is
+				final Option<VFile> photo = readPhoto(accountURI);
+				return photo.getOrElse(defaultThumbnails.get(thumbnailSize));
+			}
+		}
+		return getPhoto(accountURI);
+	}
+
+	private Option<VFile> readPhoto(final URI<Account> accountURI) {
+		if (accountPhotoStorePlugin.isDefined()) {
+			final Option<VFile> photo = accountPhotoStorePlugin.get().getPhoto(accountURI);
+			if (photo.isDefined()) {
+				return photo;
+			}
+			//photos stored by the accountStorePlugin before the photo store was declared
+		}
+		return accountStorePlugin.getPhoto(accountURI);
+	}
+
+	private Option<VFile> readThumbnail(final URI<Account> accountURI, final int size) {
+		if (accountPhotoStorePlugin.isDefined()) {
+			final Option<VFile> thumbnail = accountPhotoStorePlugin.get().getThumbnail(accountURI, size);
+			if (thumbnail.isDefined()) {
+				return thumbnail;
+			}
+			//thumbnails stored by the accountStorePlugin before the photo store was declared
+		}
+		return accountStorePlugin.getThumbnail(accountURI, size);
+	}
+
+	private static final class CachedGroupSet {
+		final AccountGroupSet groupSet;
+		final long loadTime;
+
+		CachedGroupSet(final AccountGroupSet groupSet, final long loadTime) {
+			this.groupSet = groupSet;
+			this.loadTime = loadTime;
+		}
+	}
 }
@@ -0,0 +1,50 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Option;
+import io.vertigo.lang.Plugin;
+import io.vertigo.x.account.Account;
+
+import java.util.List;
+
+/**
+ * Store of account photos.
+ * Optional : when no photo store is declared, photos are kept by the AccountStorePlugin.
+ * It allows to keep accounts in a fast store (memory, redis) and photos in a cheaper one (file system).
+ * Photos kept by the AccountStorePlugin before a photo store was declared are still read, when this store has none.
+ * @author npiedeloup
+ */
+public interface AccountPhotoStorePlugin extends Plugin {
+
+	/**
+	 * @param accountURI Account uri
+	 * @param photo Original photo
+	 */
+	void setPhoto(URI<Account> accountURI, VFile photo);
+
+	/**
+	 * @param accountURI Account uri
+	 * @return Original photo if any
+	 */
+	Option<VFile> getPhoto(URI<Account> accountURI);
+
+	/**
+	 * @param accountURI Account uri
+	 * @param size Thumbnail size in pixels
+	 * @param thumbnail Pre-scaled photo
+	 */
+	void setThumbnail(URI<Account> accountURI, int size, VFile thumbnail);
+
+	/**
+	 * @param accountURI Account uri
+	 * @param size Thumbnail size in pixels
+	 * @return Pre-scaled photo if any
+	 */
+	Option<VFile> getThumbnail(URI<Account> accountURI, int size);
+
+	/**
+	 * @param accountURIs Accounts deleted : their photos and thumbnails are removed
+	 */
+	void deletePhotos(List<URI<Account>> accountURIs);
+}
@@ -0,0 +1,144 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountBuilder;
+import io.vertigo.x.account.AccountGroup;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary records of accounts and groups : one blob instead of one field per attribute.
+ * Layout : schema version (1 byte), flags (1 byte, accounts only), then each string as varint length + UTF-8 bytes.
+ * A reader supports all previous versions : add fields at the end with a new version.
+ *
+ * @author pchretien
+ */
+public final class AccountRecords {
+	private static final byte ACCOUNT_VERSION = 1;
+	private static final byte GROUP_VERSION = 1;
+	private static final int FLAG_EMAIL = 1;
+
+	private AccountRecords() {
+		//private
+	}
+
+	/**
+	 * @param account Account
+	 * @return Binary record
+	 */
+	public static byte[] encodeAccount(final Account account) {
+		Assertion.checkNotNull(account);
+		//-----
+		final byte[] id = account.getId().getBytes(StandardCharsets.UTF_8);
+		final byte[] displayName = account.getDisplayName().getBytes(StandardCharsets.UTF_8);
+		final byte[] email = account.getEmail() == null ? null : account.getEmail().getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer buffer = ByteBuffer.allocate(2 + size(id) + size(displayName) + (email == null ? 0 : size(email)));
+		buffer.put(ACCOUNT_VERSION);
+		buffer.put((byte) (email == null ? 0 : FLAG_EMAIL));
+		put(buffer, id);
+		put(buffer, displayName);
+		if (email != null) {
+			put(buffer, email);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * @param record Binary record
+	 * @return Account
+	 */
+	public static Account decodeAccount(final byte[] record) {
+		Assertion.checkNotNull(record);
+		//-----
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		try {
+			final byte version = buffer.get();
+			Assertion.checkState(version == ACCOUNT_VERSION, "Unsupported account record version {0}", version);
+			final byte flags = buffer.get();
+			final String id = getString(buffer);
+			final String displayName = getString(buffer);
+			final String email = (flags & FLAG_EMAIL) != 0 ? getString(buffer) : null;
+			return new AccountBuilder(id)
+					.withDisplayName(displayName)
+					.withEmail(email)
+					.build();
+		} catch (final BufferUnderflowException e) {
+			throw new RuntimeException("Truncated account record", e);
+		}
+	}
+
+	/**
+	 * @param group Group
+	 * @return Binary record
+	 */
+	public static byte[] encodeGroup(final AccountGroup group) {
+		Assertion.checkNotNull(group);
+		//-----
+		final byte[] id = group.getId().getBytes(StandardCharsets.UTF_8);
+		final byte[] displayName = group.getDisplayName().getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer buffer = ByteBuffer.allocate(1 + size(id) + size(displayName));
+		buffer.put(GROUP_VERSION);
+		put(buffer, id);
+		put(buffer, displayName);
+		return buffer.array();
+	}
+
+	/**
+	 * @param record Binary record
+	 * @return Group
+	 */
+	public static AccountGroup decodeGroup(final byte[] record) {
+		Assertion.checkNotNull(record);
+		//-----
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		try {
+			final byte version = buffer.get();
+			Assertion.checkState(version == GROUP_VERSION, "Unsupported group record version {0}", version);
+			return new AccountGroup(getString(buffer), getString(buffer));
+		} catch (final BufferUnderflowException e) {
+			throw new RuntimeException("Truncated group record", e);
+		}
+	}
+
+	private static int size(final byte[] bytes) {
+		return varIntSize(bytes.length) + bytes.length;
+	}
+
+	private static int varIntSize(final int value) {
+		int size = 1;
+		for (int v = value >>> 7; v != 0; v >>>= 7) {
+			size++;
+		}
+		return size;
+	}
+
+	private static void put(final ByteBuffer buffer, final byte[] bytes) {
+		int length = bytes.length;
+		while ((length & ~0x7F) != 0) {
+			buffer.put((byte) (length & 0x7F | 0x80));
+			length >>>= 7;
+		}
+		buffer.put((byte) length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		int length = 0;
+		for (int shift = 0;; shift += 7) {
+			final byte b = buffer.get();
+			length |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		final String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+}
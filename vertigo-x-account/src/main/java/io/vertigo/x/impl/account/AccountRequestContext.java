@@ -0,0 +1,90 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountGroup;
+
+import java.util.Set;
+
+/**
+ * Logged account of the current request, resolved once and shared by all managers of this request.
+ * A request is opened by begin() and closed by end() on the same thread (see AccountRequestFilter) :
+ * outside of a request, nothing is cached.
+ * Cached account and groups are dropped on each account write of this thread.
+ *
+ * @author pchretien
+ */
+public final class AccountRequestContext {
+	private static final ThreadLocal<AccountRequestContext> CURRENT_CONTEXT = new ThreadLocal<>();
+	private URI<Account> loggedAccountURI;
+	private Account loggedAccount;
+	private Set<URI<AccountGroup>> loggedGroupURIs;
+
+	private AccountRequestContext() {
+		//created by begin
+	}
+
+	/**
+	 * Opens a request on this thread.
+	 */
+	public static void begin() {
+		CURRENT_CONTEXT.set(new AccountRequestContext());
+	}
+
+	/**
+	 * Closes the request of this thread.
+	 */
+	public static void end() {
+		CURRENT_CONTEXT.remove();
+	}
+
+	/**
+	 * @return Context of the current request, null outside of a request
+	 */
+	static AccountRequestContext current() {
+		return CURRENT_CONTEXT.get();
+	}
+
+	URI<Account> getLoggedAccountURI() {
+		return loggedAccountURI;
+	}
+
+	void setLoggedAccountURI(final URI<Account> loggedAccountURI) {
+		if (!loggedAccountURI.equals(this.loggedAccountURI)) {
+			this.loggedAccountURI = loggedAccountURI;
+			invalidate();
+		}
+	}
+
+	/**
+	 * @param accountURI Account
+	 * @return if this account is the logged account of this request
+	 */
+	boolean isLoggedAccount(final URI<Account> accountURI) {
+		return accountURI.equals(loggedAccountURI);
+	}
+
+	Account getLoggedAccount() {
+		return loggedAccount;
+	}
+
+	void setLoggedAccount(final Account loggedAccount) {
+		this.loggedAccount = loggedAccount;
+	}
+
+	Set<URI<AccountGroup>> getLoggedGroupURIs() {
+		return loggedGroupURIs;
+	}
+
+	void setLoggedGroupURIs(final Set<URI<AccountGroup>> loggedGroupURIs) {
+		this.loggedGroupURIs = loggedGroupURIs;
+	}
+
+	/**
+	 * Drops cached account and groups, the logged account is kept.
+	 */
+	void invalidate() {
+		loggedAccount = null;
+		loggedGroupURIs = null;
+	}
+}
@@ -9,6 +9,7 @@ import io.vertigo.x.account.AccountGroup;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -22,11 +23,27 @@ public interface AccountStorePlugin extends Plugin {
 
 	Account getAccount(URI<Account> accountURI);
 
+	//accounts not found are missing from the result
+	Map<URI<Account>, Account> findAccounts(Collection<URI<Account>> accountURIs);
+
 	Set<URI<AccountGroup>> getGroupURIs(URI<Account> accountURI);
 
 	//l'id doit être renseigné  pour chaque account !!
 	void saveAccounts(List<Account> account);
 
+	//accounts, their memberships, photos and thumbnails
+	void deleteAccounts(List<URI<Account>> accountURIs);
+
+	//-----Differential sync : each account written by a sync keeps a fingerprint, reset (not removed) when the account or its memberships are changed by other means
+	String RESET_FINGERPRINT = "-";
+
+	Map<String, String> getAccountFingerprints();
+
+	void setAccountFingerprints(Map<String, String> fingerprints);
+
+	//groups of this account, without nested memberships
+	Set<URI<AccountGroup>> getDirectGroupURIs(URI<Account> accountURI);
+
 	//-----Gestion des groupes
 	long getGroupsCount();
 
@@ -37,15 +54,34 @@ public interface AccountStorePlugin extends Plugin {
 
 	Set<URI<Account>> getAccountURIs(URI<AccountGroup> groupURI);
 
+	//membership index : members of each group as a bitmap of account indexes
+	List<AccountBitmap> getAccountBitmaps(List<URI<AccountGroup>> groupURIs);
+
+	//accounts of a bitmap returned by this store
+	Set<URI<Account>> getAccountURIs(AccountBitmap accountBitmap);
+
 	void saveGroup(AccountGroup group);
 
+	//group, its memberships and nested groups edges (members of included groups are no longer members of its parents)
+	void deleteGroup(URI<AccountGroup> groupURI);
+
 	//-----
 	void attach(URI<Account> accountURI, URI<AccountGroup> groupURI);
 
 	void detach(URI<Account> accountURI, URI<AccountGroup> groupURI);
 
+	//nested groups : members of child are members of parent, getAccountURIs and getGroupURIs include nested memberships
+	void attachGroup(URI<AccountGroup> childGroupURI, URI<AccountGroup> parentGroupURI);
+
+	void detachGroup(URI<AccountGroup> childGroupURI, URI<AccountGroup> parentGroupURI);
+
 	//-----
 	void setPhoto(URI<Account> accountURI, VFile photo);
 
 	Option<VFile> getPhoto(URI<Account> accountURI);
+
+	//pre-scaled photos, one per size (in pixels)
+	void setThumbnail(URI<Account> accountURI, int size, VFile thumbnail);
+
+	Option<VFile> getThumbnail(URI<Account> accountURI, int size);
 }
@@ -0,0 +1,79 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.Account;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only set of accounts backed by a bitmap.
+ * Nothing is copied : iteration reads the shared account URIs of the mapping.
+ *
+ * @author pchretien
+ */
+public final class AccountURISet extends AbstractSet<URI<Account>> {
+	private final AccountBitmap bitmap;
+	private final AccountIndexMapping indexMapping;
+
+	/**
+	 * Constructor.
+	 * @param bitmap Accounts bitmap (each index must be known by indexMapping)
+	 * @param indexMapping Account index mapping
+	 */
+	public AccountURISet(final AccountBitmap bitmap, final AccountIndexMapping indexMapping) {
+		Assertion.checkNotNull(bitmap);
+		Assertion.checkNotNull(indexMapping);
+		//-----
+		this.bitmap = bitmap;
+		this.indexMapping = indexMapping;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int size() {
+		return bitmap.cardinality();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean contains(final Object o) {
+		if (!(o instanceof URI)) {
+			return false;
+		}
+		@SuppressWarnings("unchecked")
+		final URI<Account> accountURI = (URI<Account>) o;
+		return bitmap.contains(indexMapping.getIndex(accountURI));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<URI<Account>> iterator() {
+		return new Iterator<URI<Account>>() {
+			private int next = bitmap.nextIndex(0);
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public URI<Account> next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				final URI<Account> accountURI = indexMapping.getAccountURI(next);
+				Assertion.checkNotNull(accountURI, "unknown account index {0}", next);
+				next = bitmap.nextIndex(next + 1);
+				return accountURI;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,107 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.file.FileManager;
+import io.vertigo.dynamo.file.model.InputStreamBuilder;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Assertion;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Builds pre-scaled photos (thumbnails).
+ * Images are reduced by successive halvings before the last bilinear pass, this keeps a good quality for small avatars.
+ * @author npiedeloup
+ */
+final class PhotoScaler {
+
+	private PhotoScaler() {
+		//private
+	}
+
+	/**
+	 * Scale a photo to fit in a size x size square.
+	 * Photo is never enlarged : if it already fits (or can't be read as an image), the original photo is returned.
+	 * @param photo Original photo
+	 * @param size Size in pixels
+	 * @param fileManager File manager
+	 * @return Scaled photo
+	 */
+	static VFile scale(final VFile photo, final int size, final FileManager fileManager) {
+		Assertion.checkNotNull(photo);
+		Assertion.checkArgument(size > 0, "size must be positive ({0})", size);
+		Assertion.checkNotNull(fileManager);
+		//-----
+		final BufferedImage image = readImage(photo);
+		if (image == null || image.getWidth() <= size && image.getHeight() <= size) {
+			return photo;
+		}
+		final double ratio = Math.min((double) size / image.getWidth(), (double) size / image.getHeight());
+		final int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+		final int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+		final boolean hasAlpha = image.getColorModel().hasAlpha();
+
+		BufferedImage scaled = image;
+		int width = image.getWidth();
+		int height = image.getHeight();
+		do {
+			width = Math.max(targetWidth, width / 2);
+			height = Math.max(targetHeight, height / 2);
+			scaled = resize(scaled, width, height, hasAlpha);
+		} while (width != targetWidth || height != targetHeight);
+
+		final String format = hasAlpha ? "png" : "jpeg";
+		final byte[] content = writeImage(scaled, format);
+		final InputStreamBuilder inputStreamBuilder = new InputStreamBuilder() {
+			@Override
+			public InputStream createInputStream() {
+				return new ByteArrayInputStream(content);
+			}
+		};
+		return fileManager.createFile(toFileName(photo.getFileName(), size, format), "image/" + format, photo.getLastModified(), content.length, inputStreamBuilder);
+	}
+
+	private static BufferedImage readImage(final VFile photo) {
+		try (final InputStream in = photo.createInputStream()) {
+			return ImageIO.read(in);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read photo " + photo.getFileName(), e);
+		}
+	}
+
+	private static byte[] writeImage(final BufferedImage image, final String format) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			ImageIO.write(image, format, out);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't write thumbnail", e);
+		}
+		return out.toByteArray();
+	}
+
+	private static BufferedImage resize(final BufferedImage image, final int width, final int height, final boolean hasAlpha) {
+		final BufferedImage resized = new BufferedImage(width, height, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = resized.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		return resized;
+	}
+
+	private static String toFileName(final String fileName, final int size, final String format) {
+		final int dot = fileName.lastIndexOf('.');
+		final String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+		return baseName + "_" + size + "." + ("jpeg".equals(format) ? "jpg" : format);
+	}
+}
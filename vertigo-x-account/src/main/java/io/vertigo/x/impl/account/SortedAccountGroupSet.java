@@ -0,0 +1,66 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountGroupSet;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Groups of an account as a sorted array of group indexes : a check is a binary search, without any allocation.
+ *
+ * @author pchretien
+ */
+final class SortedAccountGroupSet implements AccountGroupSet {
+	private final long version;
+	private final int[] groupIndexes;
+	private final AccountGroupIndexMapping indexMapping;
+
+	/**
+	 * @param version Version
+	 * @param groupURIs Groups of the account, including nested groups
+	 * @param indexMapping Indexes of groups
+	 */
+	SortedAccountGroupSet(final long version, final Collection<URI<AccountGroup>> groupURIs, final AccountGroupIndexMapping indexMapping) {
+		Assertion.checkNotNull(groupURIs);
+		Assertion.checkNotNull(indexMapping);
+		//-----
+		this.version = version;
+		this.indexMapping = indexMapping;
+		groupIndexes = new int[groupURIs.size()];
+		int i = 0;
+		for (final URI<AccountGroup> groupURI : groupURIs) {
+			groupIndexes[i++] = indexMapping.obtainIndex(groupURI);
+		}
+		Arrays.sort(groupIndexes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isInGroup(final URI<AccountGroup> groupURI) {
+		//groups of this set all have an index
+		final int index = indexMapping.getIndex(groupURI);
+		return index >= 0 && Arrays.binarySearch(groupIndexes, index) >= 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isInAnyGroup(final Collection<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		for (final URI<AccountGroup> groupURI : groupURIs) {
+			if (isInGroup(groupURI)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,139 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.commons.codec.CodecManager;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Assertion;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Date;
+
+/**
+ * Immutable file kept in memory (default photo and its thumbnails).
+ * Content is read once at startup, then each download is served from the same buffer without any I/O.
+ * ETag is computed once from the content.
+ *
+ * @author npiedeloup
+ */
+public final class StaticFile implements VFile {
+	private static final long serialVersionUID = 1L;
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private final String fileName;
+	private final String mimeType;
+	private final long lastModified;
+	private final byte[] content;
+	private final String eTag;
+
+	private StaticFile(final String fileName, final String mimeType, final long lastModified, final byte[] content, final CodecManager codecManager) {
+		Assertion.checkArgNotEmpty(fileName);
+		Assertion.checkArgNotEmpty(mimeType);
+		Assertion.checkNotNull(content);
+		//-----
+		this.fileName = fileName;
+		this.mimeType = mimeType;
+		this.lastModified = lastModified;
+		this.content = content;
+		eTag = '"' + codecManager.getHexEncoder().encode(codecManager.getMD5Encoder().encode(content)) + '"';
+	}
+
+	/**
+	 * Reads a resource once.
+	 * @param fileName File name
+	 * @param mimeType Mime type
+	 * @param resourceUrl Resource url (classpath)
+	 * @param codecManager Codec manager (ETag)
+	 * @return File kept in memory
+	 */
+	static StaticFile load(final String fileName, final String mimeType, final URL resourceUrl, final CodecManager codecManager) {
+		Assertion.checkNotNull(resourceUrl, "Resource {0} not found", fileName);
+		//-----
+		try {
+			final URLConnection conn = resourceUrl.openConnection();
+			try (final InputStream in = conn.getInputStream()) {
+				return new StaticFile(fileName, mimeType, conn.getLastModified(), readAll(in), codecManager);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read resource " + fileName, e);
+		}
+	}
+
+	/**
+	 * Reads a file once.
+	 * @param file File
+	 * @param codecManager Codec manager (ETag)
+	 * @return File kept in memory
+	 */
+	static StaticFile of(final VFile file, final CodecManager codecManager) {
+		Assertion.checkNotNull(file);
+		//-----
+		if (file instanceof StaticFile) {
+			return (StaticFile) file;
+		}
+		try (final InputStream in = file.createInputStream()) {
+			return new StaticFile(file.getFileName(), file.getMimeType(), file.getLastModified().getTime(), readAll(in), codecManager);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read file " + file.getFileName(), e);
+		}
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return Entity tag of the content (quoted)
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * Writes the whole content in one call, without intermediate buffer.
+	 * @param out Output
+	 * @throws IOException I/O error
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		out.write(content);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getFileName() {
+		return fileName;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Long getLength() {
+		return Long.valueOf(content.length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Date getLastModified() {
+		return new Date(lastModified);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public InputStream createInputStream() {
+		return new ByteArrayInputStream(content);
+	}
+}
@@ -0,0 +1,21 @@
+package io.vertigo.x.impl.account;
+
+import io.vertigo.dynamo.file.model.VFile;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * File whose content can be sent to a channel by the store, without reading it in the java heap (photo files).
+ *
+ * @author npiedeloup
+ */
+public interface TransferableFile extends VFile {
+
+	/**
+	 * Send content to a channel.
+	 * @param target Target channel (a socket or servlet output channel)
+	 * @throws IOException If file can't be read
+	 */
+	void transferTo(WritableByteChannel target) throws IOException;
+}
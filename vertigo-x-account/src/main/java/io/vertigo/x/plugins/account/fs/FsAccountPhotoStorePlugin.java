@@ -0,0 +1,241 @@
+package io.vertigo.x.plugins.account.fs;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.impl.account.AccountPhotoStorePlugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Photo store on a local or shared directory.
+ * Each photo is one file : a small header (name, mime type, dates, generation) followed by the raw content.
+ * Files are written in a temp file then renamed, so readers never see a partial photo.
+ * Each write has a new generation : a photo read before an overwrite is never served with the content of the new one.
+ * Layout : root/shard/accountId(hex)/photo.bin and thumbnail_size.bin
+ *
+ * @author npiedeloup
+ */
+public final class FsAccountPhotoStorePlugin implements AccountPhotoStorePlugin {
+	private static final byte FORMAT_VERSION = 2;
+	//photos written before generations were kept
+	private static final byte LEGACY_FORMAT_VERSION = 1;
+	private static final SecureRandom GENERATIONS = new SecureRandom();
+	private static final int HEADER_LENGTH_SIZE = 4;
+	private static final String PHOTO_FILE_NAME = "photo.bin";
+	private final Path rootPath;
+
+	/**
+	 * @param path Root directory of photos
+	 */
+	@Inject
+	public FsAccountPhotoStorePlugin(@Named("path") final String path) {
+		Assertion.checkArgNotEmpty(path);
+		//-----
+		rootPath = new File(path).toPath();
+		try {
+			Files.createDirectories(rootPath);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't create photo directory " + path, e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setPhoto(final URI<Account> accountURI, final VFile photo) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(photo);
+		//-----
+		write(resolveAccountPath(accountURI).resolve(PHOTO_FILE_NAME), photo);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getPhoto(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return read(resolveAccountPath(accountURI).resolve(PHOTO_FILE_NAME));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setThumbnail(final URI<Account> accountURI, final int size, final VFile thumbnail) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(thumbnail);
+		//-----
+		write(resolveAccountPath(accountURI).resolve(toThumbnailFileName(size)), thumbnail);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getThumbnail(final URI<Account> accountURI, final int size) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return read(resolveAccountPath(accountURI).resolve(toThumbnailFileName(size)));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deletePhotos(final List<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		for (final URI<Account> accountURI : accountURIs) {
+			final Path accountPath = resolveAccountPath(accountURI);
+			//photo, thumbnails and temp files left by an interrupted write
+			try (final DirectoryStream<Path> files = Files.newDirectoryStream(accountPath)) {
+				for (final Path file : files) {
+					Files.deleteIfExists(file);
+				}
+			} catch (final NoSuchFileException e) {
+				continue; //no photo
+			} catch (final IOException e) {
+				throw new RuntimeException("Can't delete photos of " + accountURI, e);
+			}
+			try {
+				Files.deleteIfExists(accountPath);
+			} catch (final IOException e) {
+				throw new RuntimeException("Can't delete photos of " + accountURI, e);
+			}
+		}
+	}
+
+	private static String toThumbnailFileName(final int size) {
+		return "thumbnail_" + size + ".bin";
+	}
+
+	private Path resolveAccountPath(final URI<Account> accountURI) {
+		//account id is hex encoded : any id is a safe file name
+		final String id = String.valueOf(accountURI.getId());
+		final StringBuilder hexId = new StringBuilder();
+		for (final byte b : id.getBytes(StandardCharsets.UTF_8)) {
+			hexId.append(String.format("%02x", b));
+		}
+		//256 shards : keeps directories small with many accounts
+		final String shard = String.format("%02x", id.hashCode() & 0xFF);
+		return rootPath.resolve(shard).resolve(hexId.toString());
+	}
+
+	private static void write(final Path target, final VFile vFile) {
+		try {
+			Files.createDirectories(target.getParent());
+			final Path tempFile = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				try (final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+					final OutputStream out = Channels.newOutputStream(channel);
+					final int headerSize = writeHeader(out, vFile);
+					final long length;
+					try (final InputStream in = vFile.createInputStream()) {
+						length = copy(in, out);
+					}
+					//length is the last header field : we store the real content length
+					final ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+					lengthBuffer.putLong(0, length);
+					channel.write(lengthBuffer, HEADER_LENGTH_SIZE + headerSize - 8);
+					channel.force(true);
+				}
+				Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't write photo " + target, e);
+		}
+	}
+
+	private static int writeHeader(final OutputStream out, final VFile vFile) throws IOException {
+		final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		try (final DataOutputStream dataOut = new DataOutputStream(header)) {
+			dataOut.writeByte(FORMAT_VERSION);
+			dataOut.writeUTF(vFile.getFileName());
+			dataOut.writeUTF(vFile.getMimeType());
+			dataOut.writeLong(vFile.getLastModified().getTime());
+			dataOut.writeLong(GENERATIONS.nextLong());
+			dataOut.writeLong(vFile.getLength());
+		}
+		final DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.writeInt(header.size());
+		header.writeTo(dataOut);
+		dataOut.flush();
+		return header.size();
+	}
+
+	private static long copy(final InputStream in, final OutputStream out) throws IOException {
+		final byte[] buffer = new byte[8 * 1024];
+		long length = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			length += read;
+		}
+		return length;
+	}
+
+	private static Option<VFile> read(final Path path) {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final byte[] header = readHeader(channel);
+			try (final DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(header))) {
+				final byte version = dataIn.readByte();
+				Assertion.checkState(version == FORMAT_VERSION || version == LEGACY_FORMAT_VERSION, "Unsupported photo format {0} for {1}", version, path);
+				final String fileName = dataIn.readUTF();
+				final String mimeType = dataIn.readUTF();
+				final Date lastModified = new Date(dataIn.readLong());
+				if (version != LEGACY_FORMAT_VERSION) {
+					dataIn.readLong(); //generation : checked with the whole header when the content is read
+				}
+				final long length = dataIn.readLong();
+				return Option.<VFile> some(new FsPhotoFile(fileName, mimeType, length, lastModified, path.toFile(), header));
+			}
+		} catch (final NoSuchFileException e) {
+			return Option.none();
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read photo " + path, e);
+		}
+	}
+
+	/**
+	 * Reads the header of a photo file : the channel is left at the start of the content.
+	 * @param channel Opened photo file
+	 * @return Header
+	 * @throws IOException If the file can't be read
+	 */
+	static byte[] readHeader(final FileChannel channel) throws IOException {
+		final ByteBuffer headerLength = ByteBuffer.allocate(HEADER_LENGTH_SIZE);
+		readFully(channel, headerLength);
+		final ByteBuffer header = ByteBuffer.allocate(headerLength.getInt(0));
+		readFully(channel, header);
+		return header.array();
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of photo file");
+			}
+		}
+	}
+}
@@ -0,0 +1,725 @@
+package io.vertigo.x.plugins.account.fs;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Activeable;
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.impl.account.AccountBitmap;
+import io.vertigo.x.impl.account.AccountGroupHierarchy;
+import io.vertigo.x.impl.account.AccountRecords;
+import io.vertigo.x.impl.account.AccountStorePlugin;
+import io.vertigo.x.plugins.account.memory.MemoryAccountStorePlugin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Account store on a local directory, for single node deployments.
+ * The working set is a memory store (see MemoryAccountStorePlugin) : reads never touch the disk.
+ * Each write is checked, appended to a log (fsync) then applied in memory before returning : memory never holds a write the log may lose.
+ * When the log grows, it is rotated and a compacted snapshot of the store is written in background, then older logs are removed.
+ * On start, the snapshot is read and loaded, then only the logs written after it are replayed :
+ * startup time depends on the snapshot size, not on the history.
+ * Photos are stored as files (see FsAccountPhotoStorePlugin).
+ * Layout : root/snapshot, root/log.generation, root/photos/
+ *
+ * @author pchretien
+ */
+public final class FsAccountStorePlugin implements AccountStorePlugin, Activeable {
+	private static final Logger LOG = Logger.getLogger(FsAccountStorePlugin.class);
+	private static final int SNAPSHOT_MAGIC = 0x58414353;
+	private static final byte SNAPSHOT_VERSION = 1;
+	private static final String SNAPSHOT_FILE_NAME = "snapshot";
+	private static final String LOG_FILE_PREFIX = "log.";
+	private static final long COMPACT_LOG_SIZE = 16 * 1024 * 1024;
+	//--- log operations
+	private static final byte SAVE_ACCOUNTS = 1;
+	private static final byte DELETE_ACCOUNTS = 2;
+	private static final byte SET_FINGERPRINTS = 3;
+	private static final byte SAVE_GROUP = 4;
+	private static final byte ATTACH = 5;
+	private static final byte DETACH = 6;
+	private static final byte ATTACH_GROUP = 7;
+	private static final byte DETACH_GROUP = 8;
+	private static final byte DELETE_GROUP = 9;
+
+	private final Path rootPath;
+	private final MemoryAccountStorePlugin memoryStore = new MemoryAccountStorePlugin();
+	private final FsAccountPhotoStorePlugin photoStore;
+	//---
+	private final Object writeLock = new Object();
+	private long generation; //guarded by writeLock, generation of the current log
+	private FileChannel logChannel; //guarded by writeLock
+	private long logSize; //guarded by writeLock
+	private Thread compactionThread; //guarded by writeLock
+
+	/**
+	 * @param path Root directory of the store
+	 */
+	@Inject
+	public FsAccountStorePlugin(@Named("path") final String path) {
+		Assertion.checkArgNotEmpty(path);
+		//-----
+		rootPath = new File(path).toPath();
+		try {
+			Files.createDirectories(rootPath);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't create account directory " + path, e);
+		}
+		photoStore = new FsAccountPhotoStorePlugin(rootPath.resolve("photos").toString());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void start() {
+		synchronized (writeLock) {
+			final long snapshotGeneration = loadSnapshot();
+			final List<Long> logGenerations = getLogGenerations();
+			generation = snapshotGeneration;
+			int replayedLogs = 0;
+			for (final Long logGeneration : logGenerations) {
+				if (logGeneration >= snapshotGeneration) {
+					replayLog(getLogPath(logGeneration), logGeneration.equals(logGenerations.get(logGenerations.size() - 1)));
+					generation = logGeneration;
+					replayedLogs++;
+				}
+			}
+			openLog();
+			if (replayedLogs > 1 || logSize > COMPACT_LOG_SIZE) {
+				startCompaction();
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void stop() {
+		final Thread thread;
+		synchronized (writeLock) {
+			thread = compactionThread;
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (writeLock) {
+			closeLog();
+		}
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public long getAccountsCount() {
+		return memoryStore.getAccountsCount();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean exists(final URI<Account> accountURI) {
+		return memoryStore.exists(accountURI);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Account getAccount(final URI<Account> accountURI) {
+		return memoryStore.getAccount(accountURI);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<Account>, Account> findAccounts(final Collection<URI<Account>> accountURIs) {
+		return memoryStore.findAccounts(accountURIs);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getGroupURIs(final URI<Account> accountURI) {
+		return memoryStore.getGroupURIs(accountURI);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void saveAccounts(final List<Account> accounts) {
+		Assertion.checkNotNull(accounts);
+		//-----
+		final LogEntry entry = new LogEntry(SAVE_ACCOUNTS).putInt(accounts.size());
+		for (final Account account : accounts) {
+			entry.putBytes(AccountRecords.encodeAccount(account));
+		}
+		synchronized (writeLock) {
+			append(entry);
+			memoryStore.saveAccounts(accounts);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteAccounts(final List<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		final LogEntry entry = new LogEntry(DELETE_ACCOUNTS).putInt(accountURIs.size());
+		for (final URI<Account> accountURI : accountURIs) {
+			entry.putString(String.valueOf(accountURI.getId()));
+		}
+		synchronized (writeLock) {
+			append(entry);
+			memoryStore.deleteAccounts(accountURIs);
+			//before the accounts can be saved again : a re-created account never loses its new photo
+			//not replayed : if this is interrupted, photos are left orphans
+			photoStore.deletePhotos(accountURIs);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, String> getAccountFingerprints() {
+		return memoryStore.getAccountFingerprints();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAccountFingerprints(final Map<String, String> fingerprints) {
+		Assertion.checkNotNull(fingerprints);
+		//-----
+		final LogEntry entry = new LogEntry(SET_FINGERPRINTS).putInt(fingerprints.size());
+		for (final Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+			entry.putString(fingerprint.getKey()).putString(fingerprint.getValue());
+		}
+		synchronized (writeLock) {
+			append(entry);
+			memoryStore.setAccountFingerprints(fingerprints);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getDirectGroupURIs(final URI<Account> accountURI) {
+		return memoryStore.getDirectGroupURIs(accountURI);
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public long getGroupsCount() {
+		return memoryStore.getGroupsCount();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Collection<AccountGroup> getAllGroups() {
+		return memoryStore.getAllGroups();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AccountGroup getGroup(final URI<AccountGroup> groupURI) {
+		return memoryStore.getGroup(groupURI);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final URI<AccountGroup> groupURI) {
+		return memoryStore.getAccountURIs(groupURI);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<AccountBitmap> getAccountBitmaps(final List<URI<AccountGroup>> groupURIs) {
+		return memoryStore.getAccountBitmaps(groupURIs);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final AccountBitmap accountBitmap) {
+		return memoryStore.getAccountURIs(accountBitmap);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void saveGroup(final AccountGroup group) {
+		Assertion.checkNotNull(group);
+		//-----
+		final LogEntry entry = new LogEntry(SAVE_GROUP).putBytes(AccountRecords.encodeGroup(group));
+		synchronized (writeLock) {
+			append(entry);
+			memoryStore.saveGroup(group);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		//one entry : the group, its memberships and its edges are removed together
+		final LogEntry entry = new LogEntry(DELETE_GROUP).putString(String.valueOf(groupURI.getId()));
+		synchronized (writeLock) {
+			append(entry);
+			memoryStore.deleteGroup(groupURI);
+		}
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public void attach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(groupURI);
+		//-----
+		final LogEntry entry = new LogEntry(ATTACH).putString(String.valueOf(accountURI.getId())).putString(String.valueOf(groupURI.getId()));
+		synchronized (writeLock) {
+			checkMembership(accountURI, groupURI);
+			append(entry);
+			memoryStore.attach(accountURI, groupURI);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void detach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(groupURI);
+		//-----
+		final LogEntry entry = new LogEntry(DETACH).putString(String.valueOf(accountURI.getId())).putString(String.valueOf(groupURI.getId()));
+		synchronized (writeLock) {
+			checkMembership(accountURI, groupURI);
+			append(entry);
+			memoryStore.detach(accountURI, groupURI);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void attachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		final LogEntry entry = new LogEntry(ATTACH_GROUP).putString(String.valueOf(childGroupURI.getId())).putString(String.valueOf(parentGroupURI.getId()));
+		synchronized (writeLock) {
+			checkGroup(childGroupURI);
+			checkGroup(parentGroupURI);
+			Assertion.checkArgument(!memoryStore.getGroupHierarchy().getSelfAndAncestors(parentGroupURI).contains(childGroupURI), "group {0} can't be attached to group {1} : it would create a cycle", childGroupURI, parentGroupURI);
+			append(entry);
+			memoryStore.attachGroup(childGroupURI, parentGroupURI);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void detachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		final LogEntry entry = new LogEntry(DETACH_GROUP).putString(String.valueOf(childGroupURI.getId())).putString(String.valueOf(parentGroupURI.getId()));
+		synchronized (writeLock) {
+			append(entry);
+			memoryStore.detachGroup(childGroupURI, parentGroupURI);
+		}
+	}
+
+	//a rejected write must not be logged : it would be rejected again when replayed
+	private void checkMembership(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+		Assertion.checkArgument(memoryStore.exists(accountURI), "account {0} must be create before this operation", accountURI);
+		checkGroup(groupURI);
+	}
+
+	private void checkGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkArgument(memoryStore.existsGroup(groupURI), "group {0} must be create before this operation", groupURI);
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public void setPhoto(final URI<Account> accountURI, final VFile photo) {
+		photoStore.setPhoto(accountURI, photo);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getPhoto(final URI<Account> accountURI) {
+		return photoStore.getPhoto(accountURI);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setThumbnail(final URI<Account> accountURI, final int size, final VFile thumbnail) {
+		photoStore.setThumbnail(accountURI, size, thumbnail);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getThumbnail(final URI<Account> accountURI, final int size) {
+		return photoStore.getThumbnail(accountURI, size);
+	}
+
+	//-----Log
+	private Path getLogPath(final long logGeneration) {
+		return rootPath.resolve(LOG_FILE_PREFIX + logGeneration);
+	}
+
+	private List<Long> getLogGenerations() {
+		final List<Long> logGenerations = new ArrayList<>();
+		try (final DirectoryStream<Path> paths = Files.newDirectoryStream(rootPath, LOG_FILE_PREFIX + "*")) {
+			for (final Path path : paths) {
+				logGenerations.add(Long.valueOf(path.getFileName().toString().substring(LOG_FILE_PREFIX.length())));
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't list account logs in " + rootPath, e);
+		}
+		Collections.sort(logGenerations);
+		return logGenerations;
+	}
+
+	private void openLog() {
+		final Path logPath = getLogPath(generation);
+		try {
+			logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			logSize = logChannel.size();
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't open account log " + logPath, e);
+		}
+	}
+
+	private void closeLog() {
+		if (logChannel != null) {
+			try {
+				logChannel.close();
+			} catch (final IOException e) {
+				throw new RuntimeException("Can't close account log " + getLogPath(generation), e);
+			}
+			logChannel = null;
+		}
+	}
+
+	//entry : length (4 bytes), crc32 (4 bytes), operation (1 byte) and its arguments
+	private void append(final LogEntry entry) {
+		Assertion.checkState(logChannel != null, "account store is not started");
+		//-----
+		//before writing : the snapshot includes every entry of the rotated log, all applied in memory
+		if (logSize > COMPACT_LOG_SIZE) {
+			startCompaction();
+		}
+		final byte[] bytes = entry.toBytes();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+		buffer.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+		try {
+			while (buffer.hasRemaining()) {
+				logChannel.write(buffer);
+			}
+			logChannel.force(false);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't write account log " + getLogPath(generation), e);
+		}
+		logSize += buffer.limit();
+	}
+
+	private void replayLog(final Path logPath, final boolean lastLog) {
+		try {
+			//logs are small (see COMPACT_LOG_SIZE)
+			final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(logPath));
+			int validSize = 0;
+			while (buffer.remaining() >= 8) {
+				final int length = buffer.getInt();
+				final int checksum = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					break;
+				}
+				final byte[] bytes = new byte[length];
+				buffer.get(bytes);
+				final CRC32 crc = new CRC32();
+				crc.update(bytes, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(ByteBuffer.wrap(bytes));
+				validSize = buffer.position();
+			}
+			if (validSize < buffer.capacity()) {
+				Assertion.checkState(lastLog, "account log {0} is corrupted at {1}", logPath, validSize);
+				//the last entry was not fully written (crash) : it was never acknowledged
+				try (final FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+					channel.truncate(validSize);
+				}
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read account log " + logPath, e);
+		}
+	}
+
+	private void apply(final ByteBuffer buffer) {
+		final byte operation = buffer.get();
+		switch (operation) {
+			case SAVE_ACCOUNTS:
+				final List<Account> accounts = new ArrayList<>();
+				for (int i = buffer.getInt(); i > 0; i--) {
+					accounts.add(AccountRecords.decodeAccount(getBytes(buffer)));
+				}
+				memoryStore.saveAccounts(accounts);
+				break;
+			case DELETE_ACCOUNTS:
+				final List<URI<Account>> accountURIs = new ArrayList<>();
+				for (int i = buffer.getInt(); i > 0; i--) {
+					accountURIs.add(createAccountURI(getString(buffer)));
+				}
+				memoryStore.deleteAccounts(accountURIs);
+				break;
+			case SET_FINGERPRINTS:
+				memoryStore.setAccountFingerprints(getFingerprints(buffer));
+				break;
+			case SAVE_GROUP:
+				memoryStore.saveGroup(AccountRecords.decodeGroup(getBytes(buffer)));
+				break;
+			case ATTACH:
+				memoryStore.attach(createAccountURI(getString(buffer)), createGroupURI(getString(buffer)));
+				break;
+			case DETACH:
+				memoryStore.detach(createAccountURI(getString(buffer)), createGroupURI(getString(buffer)));
+				break;
+			case ATTACH_GROUP:
+				memoryStore.attachGroup(createGroupURI(getString(buffer)), createGroupURI(getString(buffer)));
+				break;
+			case DETACH_GROUP:
+				memoryStore.detachGroup(createGroupURI(getString(buffer)), createGroupURI(getString(buffer)));
+				break;
+			case DELETE_GROUP:
+				memoryStore.deleteGroup(createGroupURI(getString(buffer)));
+				break;
+			default:
+				throw new RuntimeException("Unknown account log operation " + operation);
+		}
+	}
+
+	//-----Snapshot
+	//snapshot : generation of the first log not included, groups, accounts with their direct groups, nested groups, fingerprints
+	private long loadSnapshot() {
+		final Path snapshotPath = rootPath.resolve(SNAPSHOT_FILE_NAME);
+		if (!Files.exists(snapshotPath)) {
+			return 0;
+		}
+		try (final FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+			//read in a heap buffer : a mapping would only be released by the gc, keeping the file busy
+			final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining()) {
+				Assertion.checkState(channel.read(buffer) >= 0, "account snapshot {0} is truncated", snapshotPath);
+			}
+			buffer.flip();
+			Assertion.checkState(buffer.getInt() == SNAPSHOT_MAGIC, "{0} is not an account snapshot", snapshotPath);
+			final byte version = buffer.get();
+			Assertion.checkState(version == SNAPSHOT_VERSION, "Unsupported account snapshot version {0}", version);
+			final long snapshotGeneration = buffer.getLong();
+			for (int i = buffer.getInt(); i > 0; i--) {
+				memoryStore.saveGroup(AccountRecords.decodeGroup(getBytes(buffer)));
+			}
+			final Map<Account, Set<URI<AccountGroup>>> groupURIsByAccount = new HashMap<>();
+			for (int i = buffer.getInt(); i > 0; i--) {
+				final Account account = AccountRecords.decodeAccount(getBytes(buffer));
+				final Set<URI<AccountGroup>> groupURIs = new HashSet<>();
+				for (int j = buffer.getInt(); j > 0; j--) {
+					groupURIs.add(createGroupURI(getString(buffer)));
+				}
+				groupURIsByAccount.put(account, groupURIs);
+			}
+			//one bitmap by group, built once
+			memoryStore.loadAccounts(groupURIsByAccount);
+			for (int i = buffer.getInt(); i > 0; i--) {
+				memoryStore.attachGroup(createGroupURI(getString(buffer)), createGroupURI(getString(buffer)));
+			}
+			//last : saves and attachments remove fingerprints
+			memoryStore.setAccountFingerprints(getFingerprints(buffer));
+			return snapshotGeneration;
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read account snapshot " + snapshotPath, e);
+		}
+	}
+
+	//log is rotated : the snapshot contains everything before the new log
+	private void startCompaction() {
+		if (compactionThread != null && compactionThread.isAlive()) {
+			return;
+		}
+		final Collection<Account> accounts = memoryStore.getAllAccounts();
+		final Map<Account, Set<URI<AccountGroup>>> groupURIsByAccount = new HashMap<>();
+		for (final Account account : accounts) {
+			groupURIsByAccount.put(account, memoryStore.getDirectGroupURIs(createAccountURI(account.getId())));
+		}
+		final Collection<AccountGroup> groups = memoryStore.getAllGroups();
+		final AccountGroupHierarchy groupHierarchy = memoryStore.getGroupHierarchy();
+		final Map<String, String> fingerprints = memoryStore.getAccountFingerprints();
+		closeLog();
+		generation++;
+		openLog();
+		final long snapshotGeneration = generation;
+		compactionThread = new Thread(new Runnable() {
+			/** {@inheritDoc} */
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(snapshotGeneration, groups, groupURIsByAccount, groupHierarchy, fingerprints);
+				} catch (final RuntimeException e) {
+					//the previous snapshot and all the logs are kept : nothing is lost, they are replayed on start and the next rotation tries again
+					LOG.error("Account snapshot " + snapshotGeneration + " not written, logs are kept", e);
+				}
+			}
+		}, "account-store-compaction");
+		compactionThread.setDaemon(true);
+		compactionThread.start();
+	}
+
+	private void writeSnapshot(final long snapshotGeneration, final Collection<AccountGroup> groups, final Map<Account, Set<URI<AccountGroup>>> groupURIsByAccount, final AccountGroupHierarchy groupHierarchy, final Map<String, String> fingerprints) {
+		final Path snapshotPath = rootPath.resolve(SNAPSHOT_FILE_NAME);
+		try {
+			final Path tempFile = Files.createTempFile(rootPath, SNAPSHOT_FILE_NAME, ".tmp");
+			try {
+				try (final FileOutputStream fileOut = new FileOutputStream(tempFile.toFile());
+						final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+					out.writeInt(SNAPSHOT_MAGIC);
+					out.writeByte(SNAPSHOT_VERSION);
+					out.writeLong(snapshotGeneration);
+					out.writeInt(groups.size());
+					for (final AccountGroup group : groups) {
+						writeBytes(out, AccountRecords.encodeGroup(group));
+					}
+					out.writeInt(groupURIsByAccount.size());
+					for (final Map.Entry<Account, Set<URI<AccountGroup>>> entry : groupURIsByAccount.entrySet()) {
+						writeBytes(out, AccountRecords.encodeAccount(entry.getKey()));
+						out.writeInt(entry.getValue().size());
+						for (final URI<AccountGroup> groupURI : entry.getValue()) {
+							writeString(out, String.valueOf(groupURI.getId()));
+						}
+					}
+					final List<URI<AccountGroup>> edges = new ArrayList<>();
+					for (final URI<AccountGroup> childGroupURI : groupHierarchy.getNestedGroups()) {
+						for (final URI<AccountGroup> parentGroupURI : groupHierarchy.getParents(childGroupURI)) {
+							edges.add(childGroupURI);
+							edges.add(parentGroupURI);
+						}
+					}
+					out.writeInt(edges.size() / 2);
+					for (final URI<AccountGroup> groupURI : edges) {
+						writeString(out, String.valueOf(groupURI.getId()));
+					}
+					out.writeInt(fingerprints.size());
+					for (final Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+						writeString(out, fingerprint.getKey());
+						writeString(out, fingerprint.getValue());
+					}
+					out.flush();
+					fileOut.getFD().sync();
+				}
+				Files.move(tempFile, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			for (final Long logGeneration : getLogGenerations()) {
+				if (logGeneration < snapshotGeneration) {
+					Files.delete(getLogPath(logGeneration));
+				}
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't write account snapshot " + snapshotPath, e);
+		}
+	}
+
+	//-----
+	private static URI<Account> createAccountURI(final String id) {
+		return DtObjectUtil.createURI(Account.class, id);
+	}
+
+	private static URI<AccountGroup> createGroupURI(final String id) {
+		return DtObjectUtil.createURI(AccountGroup.class, id);
+	}
+
+	private static Map<String, String> getFingerprints(final ByteBuffer buffer) {
+		final Map<String, String> fingerprints = new HashMap<>();
+		for (int i = buffer.getInt(); i > 0; i--) {
+			fingerprints.put(getString(buffer), getString(buffer));
+		}
+		return fingerprints;
+	}
+
+	private static byte[] getBytes(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		return new String(getBytes(buffer), StandardCharsets.UTF_8);
+	}
+
+	private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	//same layout as the snapshot : int length then bytes
+	private static final class LogEntry {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		LogEntry(final byte operation) {
+			bytes.write(operation);
+		}
+
+		LogEntry putInt(final int value) {
+			bytes.write(value >>> 24);
+			bytes.write(value >>> 16);
+			bytes.write(value >>> 8);
+			bytes.write(value);
+			return this;
+		}
+
+		LogEntry putBytes(final byte[] value) {
+			putInt(value.length);
+			bytes.write(value, 0, value.length);
+			return this;
+		}
+
+		LogEntry putString(final String value) {
+			return putBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		byte[] toBytes() {
+			return bytes.toByteArray();
+		}
+	}
+}
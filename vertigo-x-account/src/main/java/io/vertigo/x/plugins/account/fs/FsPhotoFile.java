@@ -0,0 +1,162 @@
+package io.vertigo.x.plugins.account.fs;
+
+import io.vertigo.x.impl.account.TransferableFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * VFile read from a photo file of the FsAccountPhotoStorePlugin.
+ * Content is a region of the stored file, after its header.
+ * It's read through the file channel, or sent directly to a channel with transferTo (zero-copy).
+ * The header read with the photo is checked against the file opened for the content : a photo overwritten meanwhile
+ * (another generation, or another length) is never served in place of this one.
+ *
+ * @author npiedeloup
+ */
+final class FsPhotoFile implements TransferableFile {
+	private static final long serialVersionUID = 4135029471963217452L;
+
+	private final String fileName;
+	private final String mimeType;
+	private final Long length;
+	private final Date lastModified;
+	private final File file;
+	private final byte[] header;
+
+	/**
+	 * @param fileName file name
+	 * @param mimeType type mime
+	 * @param length content length
+	 * @param lastModified file lastModified date
+	 * @param file stored file
+	 * @param header header read with this photo : content follows it in the stored file
+	 */
+	FsPhotoFile(final String fileName, final String mimeType, final Long length, final Date lastModified, final File file, final byte[] header) {
+		this.fileName = fileName;
+		this.mimeType = mimeType;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.file = file;
+		this.header = header;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getFileName() {
+		return fileName;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Long getLength() {
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Date getLastModified() {
+		return lastModified;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public InputStream createInputStream() throws IOException {
+		final FileChannel channel = openContent();
+		//the stream closes the channel : the opened file stays readable even if the photo is overwritten meanwhile
+		return new BoundedInputStream(Channels.newInputStream(channel), length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void transferTo(final WritableByteChannel target) throws IOException {
+		try (final FileChannel channel = openContent()) {
+			long position = channel.position();
+			final long end = position + length;
+			while (position < end) {
+				position += channel.transferTo(position, end - position, target);
+			}
+		}
+	}
+
+	/*
+	 * Opens the stored file, positioned at the content of this photo.
+	 * Offset and length come from the header, read from the same opened file as the content.
+	 */
+	private FileChannel openContent() throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (!Arrays.equals(header, FsAccountPhotoStorePlugin.readHeader(channel))) {
+				throw new IOException("Photo " + file + " was overwritten since it was read");
+			}
+			return channel;
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static final class BoundedInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		BoundedInputStream(final InputStream in, final long length) {
+			this.in = in;
+			remaining = length;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int read = in.read();
+			if (read >= 0) {
+				remaining--;
+			}
+			return read;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int read(final byte[] bytes, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int read = in.read(bytes, off, (int) Math.min(len, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
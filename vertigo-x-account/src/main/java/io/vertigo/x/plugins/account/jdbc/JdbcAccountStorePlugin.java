@@ -0,0 +1,960 @@
+package io.vertigo.x.plugins.account.jdbc;
+
+import io.vertigo.dynamo.database.SqlDataBaseManager;
+import io.vertigo.dynamo.database.connection.SqlConnectionProvider;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.dynamo.file.FileManager;
+import io.vertigo.dynamo.file.model.InputStreamBuilder;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Activeable;
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountBuilder;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.impl.account.AccountBitmap;
+import io.vertigo.x.impl.account.AccountGroupHierarchy;
+import io.vertigo.x.impl.account.AccountIndexMapping;
+import io.vertigo.x.impl.account.AccountStorePlugin;
+import io.vertigo.x.impl.account.AccountURISet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Accounts store in a relational database (main connection provider of SqlDataBaseManager).
+ * Tables : X_ACCOUNT, X_GROUP, X_MEMBERSHIP (direct memberships, indexed by account and by group), X_GROUP_NESTING and X_PHOTO.
+ * They are created on start if missing (standard sql types, see CREATE_TABLES).
+ * saveAccounts works by chunks : one select of the existing ids, then a batch of updates and a batch of inserts.
+ * An account inserted meanwhile by another transaction makes the chunk fail : it is rolled back to a savepoint and saved again.
+ * Listings are read with a fetch size, large groups are streamed instead of loaded in one response.
+ * Each call is a transaction of its own, it doesn't join the current VTransaction : as with the redis store, writes are not rolled back with the caller's.
+ * The store keeps its connections, each one with its prepared statements (see JdbcSession) :
+ * at most maxConnections, callers wait for a free one up to CONNECTION_TIMEOUT_SECONDS.
+ * Connections are released to the provider when idle for IDLE_TIMEOUT_MS or open for MAX_SESSION_AGE_MS, and validated before reuse after a pause.
+ * Nested groups are resolved in memory from X_GROUP_NESTING (a few rows), kept for NESTING_CACHE_MS :
+ * changes of this node are seen at once, changes of other nodes within this delay.
+ * Nesting changes lock the nested groups rows (select for update) : the cycle check of attachGroup reads every edge committed before.
+ *
+ * @author pchretien
+ */
+public final class JdbcAccountStorePlugin implements AccountStorePlugin, Activeable {
+	private static final int SAVE_CHUNK_SIZE = 500;
+	private static final int FETCH_SIZE = 1000;
+	private static final int DEFAULT_MAX_CONNECTIONS = 8;
+	private static final long CONNECTION_TIMEOUT_SECONDS = 30;
+	private static final long NESTING_CACHE_MS = 1000;
+	private static final long IDLE_TIMEOUT_MS = 60 * 1000;
+	private static final long MAX_SESSION_AGE_MS = 30 * 60 * 1000;
+	private static final int MAX_SAVE_ATTEMPTS = 3;
+	private static final int PHOTO_SIZE = 0; //photo is stored as a thumbnail of size 0
+	//accounts never synced keep no fingerprint
+	private static final String RESET_FINGERPRINT_SQL = "case when FINGERPRINT is null then null else '" + RESET_FINGERPRINT + "' end";
+	private static final String[] CREATE_TABLES = {
+			"create table X_ACCOUNT (ACC_ID varchar(100) not null, DISPLAY_NAME varchar(200), EMAIL varchar(200), FINGERPRINT varchar(64), primary key (ACC_ID))",
+			"create table X_GROUP (GRP_ID varchar(100) not null, DISPLAY_NAME varchar(200), primary key (GRP_ID))",
+			"create table X_MEMBERSHIP (ACC_ID varchar(100) not null, GRP_ID varchar(100) not null, primary key (ACC_ID, GRP_ID))",
+			"create index X_MEMBERSHIP_GRP_IDX on X_MEMBERSHIP (GRP_ID, ACC_ID)",
+			"create table X_GROUP_NESTING (CHILD_ID varchar(100) not null, PARENT_ID varchar(100) not null, primary key (CHILD_ID, PARENT_ID))",
+			"create table X_PHOTO (ACC_ID varchar(100) not null, PHOTO_SIZE integer not null, FILE_NAME varchar(200), MIME_TYPE varchar(100), LAST_MODIFIED timestamp, CONTENT blob, primary key (ACC_ID, PHOTO_SIZE))",
+	};
+	private final SqlConnectionProvider connectionProvider;
+	private final FileManager fileManager;
+	private final int maxConnections;
+	//indexes are local : bitmaps never leave this node
+	private final AccountIndexMapping indexMapping = new AccountIndexMapping();
+	//---
+	private final Semaphore sessionPermits;
+	//most recently used first : the least used sessions stay idle and are closed
+	private final ConcurrentLinkedDeque<JdbcSession> idleSessions = new ConcurrentLinkedDeque<>();
+	private Timer idleTimer;
+	//incremented once a nesting change is committed : hierarchies loaded before are not cached
+	private final AtomicLong nestingVersion = new AtomicLong();
+	private volatile CachedGroupHierarchy cachedGroupHierarchy;
+
+	/**
+	 * @param sqlDataBaseManager Sql database manager
+	 * @param fileManager File manager
+	 * @param maxConnectionsOption Max connections kept by this store (8 by default)
+	 */
+	@Inject
+	public JdbcAccountStorePlugin(final SqlDataBaseManager sqlDataBaseManager, final FileManager fileManager, @Named("maxConnections") final Option<Integer> maxConnectionsOption) {
+		Assertion.checkNotNull(sqlDataBaseManager);
+		Assertion.checkNotNull(fileManager);
+		Assertion.checkNotNull(maxConnectionsOption);
+		//-----
+		connectionProvider = sqlDataBaseManager.getMainConnectionProvider();
+		this.fileManager = fileManager;
+		maxConnections = maxConnectionsOption.getOrElse(DEFAULT_MAX_CONNECTIONS);
+		Assertion.checkArgument(maxConnections > 0, "maxConnections must be positive ({0})", maxConnections);
+		//fair : waiting callers are served in order
+		sessionPermits = new Semaphore(maxConnections, true);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void start() {
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				//unquoted names are stored in upper case, or lower case by some databases
+				if (!existsTable(session, "X_ACCOUNT") && !existsTable(session, "x_account")) {
+					try (final Statement statement = session.getJdbcConnection().createStatement()) {
+						for (final String sql : CREATE_TABLES) {
+							statement.executeUpdate(sql);
+						}
+					}
+				}
+				return null;
+			}
+		});
+		//idle connections are closed even if the store is no longer called
+		idleTimer = new Timer("account-store-idle-connections", true);
+		idleTimer.schedule(new TimerTask() {
+			/** {@inheritDoc} */
+			@Override
+			public void run() {
+				closeIdleSessions();
+			}
+		}, IDLE_TIMEOUT_MS, IDLE_TIMEOUT_MS);
+	}
+
+	private static boolean existsTable(final JdbcSession session, final String tableName) throws SQLException {
+		try (final ResultSet tables = session.getJdbcConnection().getMetaData().getTables(null, null, tableName, null)) {
+			return tables.next();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void stop() {
+		if (idleTimer != null) {
+			idleTimer.cancel();
+			idleTimer = null;
+		}
+		for (JdbcSession session = idleSessions.poll(); session != null; session = idleSessions.poll()) {
+			session.close();
+		}
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public long getAccountsCount() {
+		return count("select count(*) from X_ACCOUNT");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getGroupsCount() {
+		return count("select count(*) from X_GROUP");
+	}
+
+	private long count(final String sql) {
+		return execute(new JdbcWork<Long>() {
+			@Override
+			public Long execute(final JdbcSession session) throws SQLException {
+				try (final ResultSet resultSet = session.prepare(sql).executeQuery()) {
+					resultSet.next();
+					return resultSet.getLong(1);
+				}
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean exists(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return execute(new JdbcWork<Boolean>() {
+			@Override
+			public Boolean execute(final JdbcSession session) throws SQLException {
+				return exists(session, "select 1 from X_ACCOUNT where ACC_ID = ?", toId(accountURI));
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Account getAccount(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return execute(new JdbcWork<Account>() {
+			@Override
+			public Account execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement statement = session.prepare("select DISPLAY_NAME, EMAIL from X_ACCOUNT where ACC_ID = ?");
+				statement.setString(1, toId(accountURI));
+				try (final ResultSet resultSet = statement.executeQuery()) {
+					Assertion.checkState(resultSet.next(), "account {0} not found", accountURI);
+					return new AccountBuilder(toId(accountURI))
+							.withDisplayName(resultSet.getString(1))
+							.withEmail(resultSet.getString(2))
+							.build();
+				}
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<Account>, Account> findAccounts(final Collection<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		return execute(new JdbcWork<Map<URI<Account>, Account>>() {
+			@Override
+			public Map<URI<Account>, Account> execute(final JdbcSession session) throws SQLException {
+				final List<URI<Account>> uris = new ArrayList<>(accountURIs);
+				final Map<URI<Account>, Account> accounts = new HashMap<>();
+				for (int i = 0; i < uris.size(); i += SAVE_CHUNK_SIZE) {
+					readAccountsChunk(session, uris.subList(i, Math.min(i + SAVE_CHUNK_SIZE, uris.size())), accounts);
+				}
+				return accounts;
+			}
+		});
+	}
+
+	private static void readAccountsChunk(final JdbcSession session, final List<URI<Account>> accountURIs, final Map<URI<Account>, Account> accounts) throws SQLException {
+		final Map<String, URI<Account>> uriById = new HashMap<>();
+		for (final URI<Account> accountURI : accountURIs) {
+			uriById.put(toId(accountURI), accountURI);
+		}
+		final PreparedStatement statement = session.prepare("select ACC_ID, DISPLAY_NAME, EMAIL from X_ACCOUNT where ACC_ID in " + toInClause(accountURIs.size()));
+		for (int i = 0; i < accountURIs.size(); i++) {
+			statement.setString(i + 1, toId(accountURIs.get(i)));
+		}
+		try (final ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				final String id = resultSet.getString(1);
+				accounts.put(uriById.get(id), new AccountBuilder(id)
+						.withDisplayName(resultSet.getString(2))
+						.withEmail(resultSet.getString(3))
+						.build());
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getGroupURIs(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return execute(new JdbcWork<Set<URI<AccountGroup>>>() {
+			@Override
+			public Set<URI<AccountGroup>> execute(final JdbcSession session) throws SQLException {
+				final AccountGroupHierarchy groupHierarchy = obtainGroupHierarchy(session);
+				final Set<URI<AccountGroup>> groupURIs = new HashSet<>();
+				for (final URI<AccountGroup> groupURI : readDirectGroupURIs(session, accountURI)) {
+					groupURIs.addAll(groupHierarchy.getSelfAndAncestors(groupURI));
+				}
+				return groupURIs;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getDirectGroupURIs(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return execute(new JdbcWork<Set<URI<AccountGroup>>>() {
+			@Override
+			public Set<URI<AccountGroup>> execute(final JdbcSession session) throws SQLException {
+				return readDirectGroupURIs(session, accountURI);
+			}
+		});
+	}
+
+	private static Set<URI<AccountGroup>> readDirectGroupURIs(final JdbcSession session, final URI<Account> accountURI) throws SQLException {
+		final PreparedStatement statement = session.prepare("select GRP_ID from X_MEMBERSHIP where ACC_ID = ?");
+		statement.setString(1, toId(accountURI));
+		final Set<URI<AccountGroup>> groupURIs = new HashSet<>();
+		try (final ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				groupURIs.add(DtObjectUtil.createURI(AccountGroup.class, resultSet.getString(1)));
+			}
+		}
+		return groupURIs;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void saveAccounts(final List<Account> accounts) {
+		Assertion.checkNotNull(accounts);
+		//-----
+		//last one wins : an id must not be inserted twice in a batch
+		final Map<String, Account> accountById = new LinkedHashMap<>();
+		for (final Account account : accounts) {
+			accountById.put(account.getId(), account);
+		}
+		final List<Account> uniqueAccounts = new ArrayList<>(accountById.values());
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				for (int i = 0; i < uniqueAccounts.size(); i += SAVE_CHUNK_SIZE) {
+					saveAccountsChunk(session, uniqueAccounts.subList(i, Math.min(i + SAVE_CHUNK_SIZE, uniqueAccounts.size())));
+				}
+				return null;
+			}
+		});
+	}
+
+	//an account inserted by another transaction since the select : the chunk is rolled back and saved again, this account is now updated
+	private static void saveAccountsChunk(final JdbcSession session, final List<Account> accounts) throws SQLException {
+		for (int attempt = 1;; attempt++) {
+			final Savepoint savepoint = session.getJdbcConnection().setSavepoint();
+			try {
+				upsertAccounts(session, accounts);
+				return;
+			} catch (final SQLException e) {
+				if (!isConstraintViolation(e) || attempt == MAX_SAVE_ATTEMPTS) {
+					throw e;
+				}
+				session.rollback(savepoint);
+			}
+		}
+	}
+
+	private static void upsertAccounts(final JdbcSession session, final List<Account> accounts) throws SQLException {
+		final PreparedStatement select = session.prepare("select ACC_ID from X_ACCOUNT where ACC_ID in " + toInClause(accounts.size()));
+		for (int i = 0; i < accounts.size(); i++) {
+			select.setString(i + 1, accounts.get(i).getId());
+		}
+		final Set<String> existingIds = new HashSet<>();
+		try (final ResultSet resultSet = select.executeQuery()) {
+			while (resultSet.next()) {
+				existingIds.add(resultSet.getString(1));
+			}
+		}
+		//saving an account resets its fingerprint
+		final PreparedStatement update = session.prepare("update X_ACCOUNT set DISPLAY_NAME = ?, EMAIL = ?, FINGERPRINT = " + RESET_FINGERPRINT_SQL + " where ACC_ID = ?");
+		final PreparedStatement insert = session.prepare("insert into X_ACCOUNT (DISPLAY_NAME, EMAIL, ACC_ID) values (?, ?, ?)");
+		for (final Account account : accounts) {
+			final PreparedStatement statement = existingIds.contains(account.getId()) ? update : insert;
+			statement.setString(1, account.getDisplayName());
+			statement.setString(2, account.getEmail());
+			statement.setString(3, account.getId());
+			statement.addBatch();
+		}
+		if (!existingIds.isEmpty()) {
+			update.executeBatch();
+		}
+		if (existingIds.size() < accounts.size()) {
+			insert.executeBatch();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteAccounts(final List<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		//one transaction : accounts are all deleted or none, batches are sent by chunks
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement deleteMemberships = session.prepare("delete from X_MEMBERSHIP where ACC_ID = ?");
+				final PreparedStatement deletePhotos = session.prepare("delete from X_PHOTO where ACC_ID = ?");
+				final PreparedStatement deleteAccount = session.prepare("delete from X_ACCOUNT where ACC_ID = ?");
+				int batchSize = 0;
+				for (final URI<Account> accountURI : accountURIs) {
+					deleteMemberships.setString(1, toId(accountURI));
+					deleteMemberships.addBatch();
+					deletePhotos.setString(1, toId(accountURI));
+					deletePhotos.addBatch();
+					deleteAccount.setString(1, toId(accountURI));
+					deleteAccount.addBatch();
+					if (++batchSize == SAVE_CHUNK_SIZE) {
+						executeBatches(deleteMemberships, deletePhotos, deleteAccount);
+						batchSize = 0;
+					}
+				}
+				if (batchSize > 0) {
+					executeBatches(deleteMemberships, deletePhotos, deleteAccount);
+				}
+				return null;
+			}
+		});
+	}
+
+	private static void executeBatches(final PreparedStatement... statements) throws SQLException {
+		for (final PreparedStatement statement : statements) {
+			statement.executeBatch();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, String> getAccountFingerprints() {
+		return execute(new JdbcWork<Map<String, String>>() {
+			@Override
+			public Map<String, String> execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement statement = session.prepare("select ACC_ID, FINGERPRINT from X_ACCOUNT where FINGERPRINT is not null");
+				statement.setFetchSize(FETCH_SIZE);
+				final Map<String, String> fingerprints = new HashMap<>();
+				try (final ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						fingerprints.put(resultSet.getString(1), resultSet.getString(2));
+					}
+				}
+				return fingerprints;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAccountFingerprints(final Map<String, String> fingerprints) {
+		Assertion.checkNotNull(fingerprints);
+		//-----
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement statement = session.prepare("update X_ACCOUNT set FINGERPRINT = ? where ACC_ID = ?");
+				int batchSize = 0;
+				for (final Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+					statement.setString(1, fingerprint.getValue());
+					statement.setString(2, fingerprint.getKey());
+					statement.addBatch();
+					if (++batchSize == SAVE_CHUNK_SIZE) {
+						statement.executeBatch();
+						batchSize = 0;
+					}
+				}
+				if (batchSize > 0) {
+					statement.executeBatch();
+				}
+				return null;
+			}
+		});
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public Collection<AccountGroup> getAllGroups() {
+		return execute(new JdbcWork<Collection<AccountGroup>>() {
+			@Override
+			public Collection<AccountGroup> execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement statement = session.prepare("select GRP_ID, DISPLAY_NAME from X_GROUP");
+				statement.setFetchSize(FETCH_SIZE);
+				final List<AccountGroup> groups = new ArrayList<>();
+				try (final ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						groups.add(new AccountGroup(resultSet.getString(1), resultSet.getString(2)));
+					}
+				}
+				return groups;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AccountGroup getGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		return execute(new JdbcWork<AccountGroup>() {
+			@Override
+			public AccountGroup execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement statement = session.prepare("select DISPLAY_NAME from X_GROUP where GRP_ID = ?");
+				statement.setString(1, toId(groupURI));
+				try (final ResultSet resultSet = statement.executeQuery()) {
+					Assertion.checkState(resultSet.next(), "group {0} not found", groupURI);
+					return new AccountGroup(toId(groupURI), resultSet.getString(1));
+				}
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void saveGroup(final AccountGroup group) {
+		Assertion.checkNotNull(group);
+		//-----
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement update = session.prepare("update X_GROUP set DISPLAY_NAME = ? where GRP_ID = ?");
+				update.setString(1, group.getDisplayName());
+				update.setString(2, group.getId());
+				//inserted meanwhile by another transaction : updated
+				if (update.executeUpdate() == 0 && !insertIfAbsent(session, "insert into X_GROUP (DISPLAY_NAME, GRP_ID) values (?, ?)", group.getDisplayName(), group.getId())) {
+					update.executeUpdate();
+				}
+				return null;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		//one transaction : nested memberships are computed from X_GROUP_NESTING, nothing else to update
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				update(session, "update X_ACCOUNT set FINGERPRINT = " + RESET_FINGERPRINT_SQL + " where ACC_ID in (select ACC_ID from X_MEMBERSHIP where GRP_ID = ?)", toId(groupURI));
+				update(session, "delete from X_MEMBERSHIP where GRP_ID = ?", toId(groupURI));
+				update(session, "delete from X_GROUP_NESTING where CHILD_ID = ? or PARENT_ID = ?", toId(groupURI), toId(groupURI));
+				update(session, "delete from X_GROUP where GRP_ID = ?", toId(groupURI));
+				return null;
+			}
+		});
+		nestingVersion.incrementAndGet();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		return execute(new JdbcWork<Set<URI<Account>>>() {
+			@Override
+			public Set<URI<Account>> execute(final JdbcSession session) throws SQLException {
+				final Set<URI<Account>> accountURIs = new HashSet<>();
+				for (final String accountId : readAccountIds(session, obtainGroupHierarchy(session), groupURI)) {
+					accountURIs.add(DtObjectUtil.createURI(Account.class, accountId));
+				}
+				return accountURIs;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<AccountBitmap> getAccountBitmaps(final List<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		return execute(new JdbcWork<List<AccountBitmap>>() {
+			@Override
+			public List<AccountBitmap> execute(final JdbcSession session) throws SQLException {
+				final AccountGroupHierarchy groupHierarchy = obtainGroupHierarchy(session);
+				final List<AccountBitmap> accountBitmaps = new ArrayList<>(groupURIs.size());
+				for (final URI<AccountGroup> groupURI : groupURIs) {
+					final List<String> accountIds = readAccountIds(session, groupHierarchy, groupURI);
+					final int[] indexes = new int[accountIds.size()];
+					for (int i = 0; i < indexes.length; i++) {
+						indexes[i] = indexMapping.obtainIndex(DtObjectUtil.<Account> createURI(Account.class, accountIds.get(i)));
+					}
+					accountBitmaps.add(AccountBitmap.of(indexes));
+				}
+				return accountBitmaps;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final AccountBitmap accountBitmap) {
+		Assertion.checkNotNull(accountBitmap);
+		//-----
+		return new AccountURISet(accountBitmap, indexMapping);
+	}
+
+	//members of this group and of the groups nested in it, streamed
+	private static List<String> readAccountIds(final JdbcSession session, final AccountGroupHierarchy groupHierarchy, final URI<AccountGroup> groupURI) throws SQLException {
+		final List<URI<AccountGroup>> groupURIs = new ArrayList<>(groupHierarchy.getSelfAndDescendants(groupURI));
+		final PreparedStatement statement;
+		if (groupURIs.size() == 1) {
+			statement = session.prepare("select ACC_ID from X_MEMBERSHIP where GRP_ID = ?");
+		} else {
+			statement = session.prepare("select distinct ACC_ID from X_MEMBERSHIP where GRP_ID in " + toInClause(groupURIs.size()));
+		}
+		for (int i = 0; i < groupURIs.size(); i++) {
+			statement.setString(i + 1, toId(groupURIs.get(i)));
+		}
+		statement.setFetchSize(FETCH_SIZE);
+		final List<String> accountIds = new ArrayList<>();
+		try (final ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				accountIds.add(resultSet.getString(1));
+			}
+		}
+		return accountIds;
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public void attach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(groupURI);
+		//-----
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				Assertion.checkState(resetFingerprint(session, accountURI), "account must be create before this operation");
+				Assertion.checkState(exists(session, "select 1 from X_GROUP where GRP_ID = ?", toId(groupURI)), "group must be create before this operation");
+				//-----
+				insertIfAbsent(session, "insert into X_MEMBERSHIP (ACC_ID, GRP_ID) values (?, ?)", toId(accountURI), toId(groupURI));
+				return null;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void detach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(groupURI);
+		//-----
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				Assertion.checkState(resetFingerprint(session, accountURI), "account does not long exist");
+				//-----
+				update(session, "delete from X_MEMBERSHIP where ACC_ID = ? and GRP_ID = ?", toId(accountURI), toId(groupURI));
+				return null;
+			}
+		});
+	}
+
+	//memberships changed : fingerprint is reset. Returns if the account exists
+	private static boolean resetFingerprint(final JdbcSession session, final URI<Account> accountURI) throws SQLException {
+		return update(session, "update X_ACCOUNT set FINGERPRINT = " + RESET_FINGERPRINT_SQL + " where ACC_ID = ?", toId(accountURI)) > 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void attachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				final Set<String> lockedGroupIds = lockNestedGroups(session, childGroupURI, parentGroupURI);
+				Assertion.checkArgument(lockedGroupIds.contains(toId(childGroupURI)), "group {0} must be create before this operation", childGroupURI);
+				Assertion.checkArgument(lockedGroupIds.contains(toId(parentGroupURI)), "group {0} must be create before this operation", parentGroupURI);
+				//-----
+				//read again, once locked : checks cycles against the edges committed by the other transactions
+				loadGroupHierarchy(session).withEdge(childGroupURI, parentGroupURI);
+				insertIfAbsent(session, "insert into X_GROUP_NESTING (CHILD_ID, PARENT_ID) values (?, ?)", toId(childGroupURI), toId(parentGroupURI));
+				return null;
+			}
+		});
+		nestingVersion.incrementAndGet();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void detachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				update(session, "delete from X_GROUP_NESTING where CHILD_ID = ? and PARENT_ID = ?", toId(childGroupURI), toId(parentGroupURI));
+				return null;
+			}
+		});
+		nestingVersion.incrementAndGet();
+	}
+
+	//a cycle made by concurrent edges goes through a group already nested or through a group of both edges : these transactions lock a common row, one waits for the other
+	private static Set<String> lockNestedGroups(final JdbcSession session, final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) throws SQLException {
+		final PreparedStatement statement = session.prepare("select GRP_ID from X_GROUP where GRP_ID in (?, ?)"
+				+ " or GRP_ID in (select CHILD_ID from X_GROUP_NESTING) or GRP_ID in (select PARENT_ID from X_GROUP_NESTING)"
+				+ " order by GRP_ID for update");
+		statement.setString(1, toId(childGroupURI));
+		statement.setString(2, toId(parentGroupURI));
+		final Set<String> groupIds = new HashSet<>();
+		try (final ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				groupIds.add(resultSet.getString(1));
+			}
+		}
+		return groupIds;
+	}
+
+	private AccountGroupHierarchy obtainGroupHierarchy(final JdbcSession session) throws SQLException {
+		final long version = nestingVersion.get();
+		final long now = System.currentTimeMillis();
+		final CachedGroupHierarchy cached = cachedGroupHierarchy;
+		if (cached != null && cached.version == version && now - cached.loadTime < NESTING_CACHE_MS) {
+			return cached.groupHierarchy;
+		}
+		final AccountGroupHierarchy groupHierarchy = loadGroupHierarchy(session);
+		cachedGroupHierarchy = new CachedGroupHierarchy(version, now, groupHierarchy);
+		return groupHierarchy;
+	}
+
+	private static AccountGroupHierarchy loadGroupHierarchy(final JdbcSession session) throws SQLException {
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parentsByGroupURI = new HashMap<>();
+		try (final ResultSet resultSet = session.prepare("select CHILD_ID, PARENT_ID from X_GROUP_NESTING").executeQuery()) {
+			while (resultSet.next()) {
+				final URI<AccountGroup> childGroupURI = DtObjectUtil.createURI(AccountGroup.class, resultSet.getString(1));
+				Set<URI<AccountGroup>> parentGroupURIs = parentsByGroupURI.get(childGroupURI);
+				if (parentGroupURIs == null) {
+					parentGroupURIs = new HashSet<>();
+					parentsByGroupURI.put(childGroupURI, parentGroupURIs);
+				}
+				parentGroupURIs.add(DtObjectUtil.<AccountGroup> createURI(AccountGroup.class, resultSet.getString(2)));
+			}
+		}
+		return AccountGroupHierarchy.of(parentsByGroupURI);
+	}
+
+	//-----
+	/** {@inheritDoc} */
+	@Override
+	public void setPhoto(final URI<Account> accountURI, final VFile photo) {
+		setThumbnail(accountURI, PHOTO_SIZE, photo);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getPhoto(final URI<Account> accountURI) {
+		return getThumbnail(accountURI, PHOTO_SIZE);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setThumbnail(final URI<Account> accountURI, final int size, final VFile thumbnail) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(thumbnail);
+		//-----
+		final byte[] content = readContent(thumbnail);
+		execute(new JdbcWork<Void>() {
+			@Override
+			public Void execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement delete = session.prepare("delete from X_PHOTO where ACC_ID = ? and PHOTO_SIZE = ?");
+				delete.setString(1, toId(accountURI));
+				delete.setInt(2, size);
+				delete.executeUpdate();
+				final PreparedStatement insert = session.prepare("insert into X_PHOTO (ACC_ID, PHOTO_SIZE, FILE_NAME, MIME_TYPE, LAST_MODIFIED, CONTENT) values (?, ?, ?, ?, ?, ?)");
+				insert.setString(1, toId(accountURI));
+				insert.setInt(2, size);
+				insert.setString(3, thumbnail.getFileName());
+				insert.setString(4, thumbnail.getMimeType());
+				insert.setTimestamp(5, new Timestamp(thumbnail.getLastModified().getTime()));
+				insert.setBytes(6, content);
+				insert.executeUpdate();
+				return null;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getThumbnail(final URI<Account> accountURI, final int size) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		return execute(new JdbcWork<Option<VFile>>() {
+			@Override
+			public Option<VFile> execute(final JdbcSession session) throws SQLException {
+				final PreparedStatement statement = session.prepare("select FILE_NAME, MIME_TYPE, LAST_MODIFIED, CONTENT from X_PHOTO where ACC_ID = ? and PHOTO_SIZE = ?");
+				statement.setString(1, toId(accountURI));
+				statement.setInt(2, size);
+				try (final ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next()) {
+						return Option.none();
+					}
+					final byte[] content = resultSet.getBytes(4);
+					return Option.some(fileManager.createFile(resultSet.getString(1), resultSet.getString(2), new Date(resultSet.getTimestamp(3).getTime()), content.length, new InputStreamBuilder() {
+						@Override
+						public InputStream createInputStream() {
+							return new ByteArrayInputStream(content);
+						}
+					}));
+				}
+			}
+		});
+	}
+
+	private static byte[] readContent(final VFile vFile) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final InputStream in = vFile.createInputStream()) {
+			final byte[] buffer = new byte[8 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read photo " + vFile.getFileName(), e);
+		}
+		return out.toByteArray();
+	}
+
+	//-----
+	private static String toId(final URI<?> uri) {
+		return String.valueOf(uri.getId());
+	}
+
+	private static String toInClause(final int size) {
+		final StringBuilder sb = new StringBuilder("(?");
+		for (int i = 1; i < size; i++) {
+			sb.append(", ?");
+		}
+		return sb.append(')').toString();
+	}
+
+	private static boolean exists(final JdbcSession session, final String sql, final String... params) throws SQLException {
+		final PreparedStatement statement = session.prepare(sql);
+		for (int i = 0; i < params.length; i++) {
+			statement.setString(i + 1, params[i]);
+		}
+		try (final ResultSet resultSet = statement.executeQuery()) {
+			return resultSet.next();
+		}
+	}
+
+	//inserted by another transaction meanwhile : the row exists, this transaction goes on. Returns if the row was inserted
+	private static boolean insertIfAbsent(final JdbcSession session, final String sql, final String... params) throws SQLException {
+		final Savepoint savepoint = session.getJdbcConnection().setSavepoint();
+		try {
+			update(session, sql, params);
+			return true;
+		} catch (final SQLException e) {
+			if (!isConstraintViolation(e)) {
+				throw e;
+			}
+			session.rollback(savepoint);
+			return false;
+		}
+	}
+
+	//sql state class 23 : integrity constraint violation (duplicate primary key), batches may report it as the next exception
+	private static boolean isConstraintViolation(final SQLException e) {
+		for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+			if (cause.getSQLState() != null && cause.getSQLState().startsWith("23")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int update(final JdbcSession session, final String sql, final String... params) throws SQLException {
+		final PreparedStatement statement = session.prepare(sql);
+		for (int i = 0; i < params.length; i++) {
+			statement.setString(i + 1, params[i]);
+		}
+		return statement.executeUpdate();
+	}
+
+	//each work is a transaction, on a session used by this thread only
+	private <R> R execute(final JdbcWork<R> work) {
+		final JdbcSession session = obtainSession();
+		final R result;
+		try {
+			result = work.execute(session);
+			session.commit();
+		} catch (final SQLException e) {
+			//the connection may be broken : it is dropped
+			dropSession(session);
+			throw new RuntimeException("Account store error", e);
+		} catch (final RuntimeException e) {
+			try {
+				session.rollback();
+			} catch (final SQLException rollbackException) {
+				dropSession(session);
+				throw e;
+			}
+			releaseSession(session);
+			throw e;
+		}
+		releaseSession(session);
+		return result;
+	}
+
+	//a permit by session in use : idle sessions are reused, new ones are opened up to maxConnections
+	private JdbcSession obtainSession() {
+		try {
+			if (!sessionPermits.tryAcquire(CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new RuntimeException("No connection for accounts after " + CONNECTION_TIMEOUT_SECONDS + "s (maxConnections : " + maxConnections + ")");
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting a connection for accounts", e);
+		}
+		final long now = System.currentTimeMillis();
+		for (JdbcSession session = idleSessions.pollFirst(); session != null; session = idleSessions.pollFirst()) {
+			if (session.isReusable(now, MAX_SESSION_AGE_MS, IDLE_TIMEOUT_MS)) {
+				return session;
+			}
+			//too old, idle for too long or broken : released to the provider
+			session.close();
+		}
+		try {
+			return new JdbcSession(connectionProvider.obtainConnection());
+		} catch (final SQLException e) {
+			sessionPermits.release();
+			throw new RuntimeException("Can't obtain a connection for accounts", e);
+		}
+	}
+
+	private void releaseSession(final JdbcSession session) {
+		session.markIdle(System.currentTimeMillis());
+		idleSessions.offerFirst(session);
+		sessionPermits.release();
+	}
+
+	//least recently used last : closed from the tail while idle for too long
+	private void closeIdleSessions() {
+		final long now = System.currentTimeMillis();
+		for (JdbcSession session = idleSessions.peekLast(); session != null && session.getIdleTime(now) > IDLE_TIMEOUT_MS; session = idleSessions.peekLast()) {
+			//not removed : obtained meanwhile by a caller
+			if (idleSessions.removeLastOccurrence(session)) {
+				session.close();
+			}
+		}
+	}
+
+	//the transaction is rolled back if the connection still answers, then the connection is released
+	private void dropSession(final JdbcSession session) {
+		try {
+			session.rollback();
+		} catch (final SQLException e) {
+			//broken connection : released anyway
+		}
+		session.close();
+		sessionPermits.release();
+	}
+
+	private interface JdbcWork<R> {
+		R execute(JdbcSession session) throws SQLException;
+	}
+
+	private static final class CachedGroupHierarchy {
+		final long version;
+		final long loadTime;
+		final AccountGroupHierarchy groupHierarchy;
+
+		CachedGroupHierarchy(final long version, final long loadTime, final AccountGroupHierarchy groupHierarchy) {
+			this.version = version;
+			this.loadTime = loadTime;
+			this.groupHierarchy = groupHierarchy;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package io.vertigo.x.plugins.account.jdbc;
+
+import io.vertigo.dynamo.database.connection.SqlConnection;
+import io.vertigo.lang.Assertion;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection kept by the jdbc account store, with its prepared statements.
+ * Statements are cached by sql (LRU) : each query is parsed once per connection.
+ * Sessions are recycled : a session is validated before being reused after VALIDATION_IDLE_MS, and closed when too old or idle for too long.
+ * Not thread safe : a session is used by one thread at a time.
+ *
+ * @author pchretien
+ */
+final class JdbcSession {
+	private static final int MAX_STATEMENTS = 64;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+	private static final long VALIDATION_IDLE_MS = 5 * 1000;
+	private final SqlConnection connection;
+	private final long openTime = System.currentTimeMillis();
+	private volatile long idleSince;
+	private final Map<String, PreparedStatement> statementBySql = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		/** {@inheritDoc} */
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+			if (size() > MAX_STATEMENTS) {
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * @param connection Connection (not auto commit)
+	 */
+	JdbcSession(final SqlConnection connection) {
+		Assertion.checkNotNull(connection);
+		//-----
+		this.connection = connection;
+	}
+
+	/**
+	 * @param sql Sql query
+	 * @return Prepared statement (cached, forward only), parameters must all be set again
+	 * @throws SQLException Sql exception
+	 */
+	PreparedStatement prepare(final String sql) throws SQLException {
+		PreparedStatement statement = statementBySql.get(sql);
+		if (statement == null) {
+			statement = getJdbcConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statementBySql.put(sql, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * @return Jdbc connection (for metadata and ddl)
+	 */
+	Connection getJdbcConnection() {
+		return connection.getJdbcConnection();
+	}
+
+	void commit() throws SQLException {
+		connection.commit();
+	}
+
+	/**
+	 * Rollbacks the transaction, and the batches not executed.
+	 * @throws SQLException Sql exception
+	 */
+	void rollback() throws SQLException {
+		clearBatches();
+		connection.rollback();
+	}
+
+	/**
+	 * Rollbacks the transaction to a savepoint, and the batches not executed.
+	 * @param savepoint Savepoint of the current transaction
+	 * @throws SQLException Sql exception
+	 */
+	void rollback(final Savepoint savepoint) throws SQLException {
+		clearBatches();
+		getJdbcConnection().rollback(savepoint);
+	}
+
+	private void clearBatches() throws SQLException {
+		for (final PreparedStatement statement : statementBySql.values()) {
+			statement.clearBatch();
+		}
+	}
+
+	/**
+	 * The session is no longer used, from now.
+	 * @param now Current time (ms)
+	 */
+	void markIdle(final long now) {
+		idleSince = now;
+	}
+
+	/**
+	 * @param now Current time (ms)
+	 * @return Time since this session is idle (ms)
+	 */
+	long getIdleTime(final long now) {
+		return now - idleSince;
+	}
+
+	/**
+	 * @param now Current time (ms)
+	 * @param maxAge Max age of a session (ms)
+	 * @param idleTimeout Max idle time of a session (ms)
+	 * @return If this session may be used again : not too old, not idle for too long and its connection still answers
+	 */
+	boolean isReusable(final long now, final long maxAge, final long idleTimeout) {
+		final long idleTime = getIdleTime(now);
+		if (now - openTime > maxAge || idleTime > idleTimeout) {
+			return false;
+		}
+		//recently used : not checked again
+		return idleTime < VALIDATION_IDLE_MS || isValid();
+	}
+
+	private boolean isValid() {
+		try {
+			return getJdbcConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (final SQLException e) {
+			//the connection doesn't answer : the session is dropped
+			return false;
+		}
+	}
+
+	/**
+	 * Closes statements and releases the connection, errors are ignored : the session is dropped anyway.
+	 */
+	void close() {
+		for (final PreparedStatement statement : statementBySql.values()) {
+			closeQuietly(statement);
+		}
+		statementBySql.clear();
+		try {
+			connection.release();
+		} catch (final SQLException e) {
+			//the connection is dropped anyway
+		}
+	}
+
+	private static void closeQuietly(final PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (final SQLException e) {
+			//the statement is dropped anyway
+		}
+	}
+}
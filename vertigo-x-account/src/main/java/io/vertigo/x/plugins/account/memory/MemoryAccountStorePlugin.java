@@ -8,8 +8,13 @@ import io.vertigo.lang.Assertion;
 import io.vertigo.lang.Option;
 import io.vertigo.x.account.Account;
 import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.impl.account.AccountBitmap;
+import io.vertigo.x.impl.account.AccountGroupHierarchy;
+import io.vertigo.x.impl.account.AccountIndexMapping;
 import io.vertigo.x.impl.account.AccountStorePlugin;
+import io.vertigo.x.impl.account.AccountURISet;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -17,18 +22,35 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Memory store of accounts.
+ * Reads never block : maps are concurrent, and membership sets are immutable copies replaced on each write (copy-on-write).
+ * Writes are serialized on a single lock, so both sides of a membership are always updated together.
+ * Members of a group are kept as a bitmap of account indexes.
+ * Nested groups : members and groups including nested ones (all*) are updated on each write, so reads are single lookups.
+ *
  * @author pchretien
  */
 public final class MemoryAccountStorePlugin implements AccountStorePlugin {
-	private final Map<URI<Account>, Account> accountByURI = new HashMap<>();
-	private final Map<URI<AccountGroup>, AccountGroup> groupByURI = new HashMap<>();
+	private final Object writeLock = new Object();
 	//---
-	private final Map<URI<Account>, Set<URI<AccountGroup>>> groupByAccountURI = new HashMap<>();
-	private final Map<URI<AccountGroup>, Set<URI<Account>>> accountBygroupURI = new HashMap<>();
+	private final ConcurrentMap<URI<Account>, Account> accountByURI = new ConcurrentHashMap<>();
+	private final ConcurrentMap<URI<AccountGroup>, AccountGroup> groupByURI = new ConcurrentHashMap<>();
+	//--- values are immutable sets, direct memberships
+	private final ConcurrentMap<URI<Account>, Set<URI<AccountGroup>>> groupByAccountURI = new ConcurrentHashMap<>();
+	private final ConcurrentMap<URI<AccountGroup>, AccountBitmap> accountBitmapByGroupURI = new ConcurrentHashMap<>();
+	//--- memberships including nested groups
+	private final ConcurrentMap<URI<Account>, Set<URI<AccountGroup>>> allGroupByAccountURI = new ConcurrentHashMap<>();
+	private final ConcurrentMap<URI<AccountGroup>, AccountBitmap> allAccountBitmapByGroupURI = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> fingerprintByAccountId = new ConcurrentHashMap<>();
+	private AccountGroupHierarchy groupHierarchy = AccountGroupHierarchy.empty(); //guarded by writeLock
+	private final AccountIndexMapping indexMapping = new AccountIndexMapping();
 	//---
-	private final Map<URI<Account>, VFile> photoByAccountURI = new HashMap<>();
+	private final ConcurrentMap<URI<Account>, VFile> photoByAccountURI = new ConcurrentHashMap<>();
+	private final ConcurrentMap<URI<Account>, ConcurrentMap<Integer, VFile>> thumbnailsByAccountURI = new ConcurrentHashMap<>();
 
 	/** {@inheritDoc} */
 	@Override
@@ -44,7 +66,7 @@ public final class MemoryAccountStorePlugin implements AccountStorePlugin {
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized boolean exists(final URI<Account> accountURI) {
+	public boolean exists(final URI<Account> accountURI) {
 		Assertion.checkNotNull(accountURI);
 		//-----
 		return accountByURI.containsKey(accountURI);
@@ -52,7 +74,7 @@ public final class MemoryAccountStorePlugin implements AccountStorePlugin {
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized Account getAccount(final URI<Account> accountURI) {
+	public Account getAccount(final URI<Account> accountURI) {
 		Assertion.checkNotNull(accountURI);
 		//-----
 		final Account account = accountByURI.get(accountURI);
@@ -62,30 +84,95 @@ public final class MemoryAccountStorePlugin implements AccountStorePlugin {
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized void saveAccounts(final List<Account> accounts) {
+	public Map<URI<Account>, Account> findAccounts(final Collection<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		final Map<URI<Account>, Account> accounts = new HashMap<>();
+		for (final URI<Account> accountURI : accountURIs) {
+			final Account account = accountByURI.get(accountURI);
+			if (account != null) {
+				accounts.put(accountURI, account);
+			}
+		}
+		return accounts;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void saveAccounts(final List<Account> accounts) {
 		Assertion.checkNotNull(accounts);
 		//-----
-		for (final Account account : accounts) {
-			saveAccount(account);
+		synchronized (writeLock) {
+			for (final Account account : accounts) {
+				saveAccount(account);
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteAccounts(final List<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		synchronized (writeLock) {
+			for (final URI<Account> accountURI : accountURIs) {
+				final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
+				if (groupURIs != null) {
+					for (final URI<AccountGroup> groupURI : groupURIs) {
+						detach(accountURI, groupURI);
+					}
+				}
+				groupByAccountURI.remove(accountURI);
+				allGroupByAccountURI.remove(accountURI);
+				accountByURI.remove(accountURI);
+				fingerprintByAccountId.remove(String.valueOf(accountURI.getId()));
+				photoByAccountURI.remove(accountURI);
+				thumbnailsByAccountURI.remove(accountURI);
+			}
 		}
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, String> getAccountFingerprints() {
+		return new HashMap<>(fingerprintByAccountId);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAccountFingerprints(final Map<String, String> fingerprints) {
+		Assertion.checkNotNull(fingerprints);
+		//-----
+		fingerprintByAccountId.putAll(fingerprints);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getDirectGroupURIs(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
+		Assertion.checkNotNull(groupURIs, "account {0} must be create before this operation", accountURI);
+		return groupURIs;
+	}
+
 	private void saveAccount(final Account account) {
 		Assertion.checkNotNull(account);
 		//-----
 		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(account);
 		final URI<Account> uri = new URI<>(dtDefinition, account.getId());
 		//----
-		final Object old = accountByURI.put(uri, account);
-		if (old == null) {
-			groupByAccountURI.put(uri, new HashSet<URI<AccountGroup>>());
-		}
+		accountByURI.put(uri, account);
+		fingerprintByAccountId.replace(account.getId(), RESET_FINGERPRINT);
+		indexMapping.obtainIndex(uri);
+		groupByAccountURI.putIfAbsent(uri, Collections.<URI<AccountGroup>> emptySet());
+		allGroupByAccountURI.putIfAbsent(uri, Collections.<URI<AccountGroup>> emptySet());
 	}
 
 	//-----
 	/** {@inheritDoc} */
 	@Override
-	public synchronized AccountGroup getGroup(final URI<AccountGroup> groupURI) {
+	public AccountGroup getGroup(final URI<AccountGroup> groupURI) {
 		Assertion.checkNotNull(groupURI);
 		//-----
 		final AccountGroup accountGroup = groupByURI.get(groupURI);
@@ -95,81 +182,290 @@ public final class MemoryAccountStorePlugin implements AccountStorePlugin {
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized Collection<AccountGroup> getAllGroups() {
-		return groupByURI.values();
+	public Collection<AccountGroup> getAllGroups() {
+		//snapshot : callers never see later changes
+		return Collections.unmodifiableList(new ArrayList<>(groupByURI.values()));
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized void saveGroup(final AccountGroup group) {
+	public void saveGroup(final AccountGroup group) {
 		Assertion.checkNotNull(group);
 		//-----
 		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(group);
 		final URI<AccountGroup> uri = new URI<>(dtDefinition, group.getId());
 		//----
-		Assertion.checkArgument(!accountByURI.containsKey(uri), "this group is already registered, you can't create it");
+		synchronized (writeLock) {
+			//saving an existing group keeps its members
+			accountBitmapByGroupURI.putIfAbsent(uri, AccountBitmap.empty());
+			allAccountBitmapByGroupURI.putIfAbsent(uri, AccountBitmap.empty());
+			groupByURI.put(uri, group);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
 		//-----
-		accountBygroupURI.put(uri, new HashSet<URI<Account>>());
-		groupByURI.put(uri, group);
+		synchronized (writeLock) {
+			if (!groupByURI.containsKey(groupURI)) {
+				return;
+			}
+			for (final URI<AccountGroup> parentURI : groupHierarchy.getParents(groupURI)) {
+				detachGroup(groupURI, parentURI);
+			}
+			for (final URI<AccountGroup> childURI : groupHierarchy.getChildren(groupURI)) {
+				detachGroup(childURI, groupURI);
+			}
+			//no more nested groups : only direct members are left
+			for (final URI<Account> accountURI : new ArrayList<>(new AccountURISet(accountBitmapByGroupURI.get(groupURI), indexMapping))) {
+				detach(accountURI, groupURI);
+			}
+			groupByURI.remove(groupURI);
+			accountBitmapByGroupURI.remove(groupURI);
+			allAccountBitmapByGroupURI.remove(groupURI);
+		}
 	}
 
 	//-----
 	/** {@inheritDoc} */
 	@Override
-	public synchronized void attach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+	public void attach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
 		Assertion.checkNotNull(accountURI);
 		Assertion.checkNotNull(groupURI);
 		//-----
-		final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
-		Assertion.checkNotNull(groupURIs, "account must be create before this operation");
-		groupURIs.add(groupURI);
-		//-----
-		final Set<URI<Account>> accountURIs = accountBygroupURI.get(groupURI);
-		Assertion.checkNotNull(accountURIs, "group must be create before this operation");
-		accountURIs.add(accountURI);
+		synchronized (writeLock) {
+			final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
+			Assertion.checkNotNull(groupURIs, "account must be create before this operation");
+			final AccountBitmap accountBitmap = accountBitmapByGroupURI.get(groupURI);
+			Assertion.checkNotNull(accountBitmap, "group must be create before this operation");
+			//-----
+			final int index = indexMapping.obtainIndex(accountURI);
+			fingerprintByAccountId.replace(String.valueOf(accountURI.getId()), RESET_FINGERPRINT);
+			groupByAccountURI.put(accountURI, copyWith(groupURIs, groupURI));
+			accountBitmapByGroupURI.put(groupURI, accountBitmap.with(index));
+			//the account joins this group and all groups including it
+			final Set<URI<AccountGroup>> allGroupURIs = new HashSet<>(allGroupByAccountURI.get(accountURI));
+			for (final URI<AccountGroup> ancestorURI : groupHierarchy.getSelfAndAncestors(groupURI)) {
+				allGroupURIs.add(ancestorURI);
+				allAccountBitmapByGroupURI.put(ancestorURI, allAccountBitmapByGroupURI.get(ancestorURI).with(index));
+			}
+			allGroupByAccountURI.put(accountURI, Collections.unmodifiableSet(allGroupURIs));
+		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized void detach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
+	public void detach(final URI<Account> accountURI, final URI<AccountGroup> groupURI) {
 		Assertion.checkNotNull(accountURI);
 		Assertion.checkNotNull(groupURI);
 		//-----
-		final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
-		Assertion.checkNotNull(groupURIs, "account does not long exist");
-		groupURIs.remove(groupURI);
+		synchronized (writeLock) {
+			final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
+			Assertion.checkNotNull(groupURIs, "account does not long exist");
+			final AccountBitmap accountBitmap = accountBitmapByGroupURI.get(groupURI);
+			Assertion.checkNotNull(accountBitmap, "group does not long exist");
+			//-----
+			final int index = indexMapping.getIndex(accountURI);
+			fingerprintByAccountId.replace(String.valueOf(accountURI.getId()), RESET_FINGERPRINT);
+			groupByAccountURI.put(accountURI, copyWithout(groupURIs, groupURI));
+			accountBitmapByGroupURI.put(groupURI, accountBitmap.without(index));
+			//the account may still be in some of these groups through another group
+			final Set<URI<AccountGroup>> allGroupURIs = computeAllGroupURIs(accountURI);
+			for (final URI<AccountGroup> ancestorURI : groupHierarchy.getSelfAndAncestors(groupURI)) {
+				if (!allGroupURIs.contains(ancestorURI)) {
+					allAccountBitmapByGroupURI.put(ancestorURI, allAccountBitmapByGroupURI.get(ancestorURI).without(index));
+				}
+			}
+			allGroupByAccountURI.put(accountURI, allGroupURIs);
+		}
+	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void attachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
 		//-----
-		final Set<URI<Account>> accountURIs = accountBygroupURI.get(groupURI);
-		Assertion.checkNotNull(accountURIs, "group does not long exist");
-		accountURIs.remove(accountURI);
+		synchronized (writeLock) {
+			Assertion.checkArgument(groupByURI.containsKey(childGroupURI), "group {0} must be create before this operation", childGroupURI);
+			Assertion.checkArgument(groupByURI.containsKey(parentGroupURI), "group {0} must be create before this operation", parentGroupURI);
+			//-----
+			groupHierarchy = groupHierarchy.withEdge(childGroupURI, parentGroupURI);
+			refreshNestedGroups(childGroupURI, parentGroupURI);
+		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized Set<URI<AccountGroup>> getGroupURIs(final URI<Account> accountURI) {
+	public void detachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		synchronized (writeLock) {
+			groupHierarchy = groupHierarchy.withoutEdge(childGroupURI, parentGroupURI);
+			refreshNestedGroups(childGroupURI, parentGroupURI);
+		}
+	}
+
+	//an edge changed : only the parent, its ancestors and the members of the child are updated
+	private void refreshNestedGroups(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		for (final URI<AccountGroup> ancestorURI : groupHierarchy.getSelfAndAncestors(parentGroupURI)) {
+			AccountBitmap allAccountBitmap = AccountBitmap.empty();
+			for (final URI<AccountGroup> descendantURI : groupHierarchy.getSelfAndDescendants(ancestorURI)) {
+				allAccountBitmap = allAccountBitmap.or(accountBitmapByGroupURI.get(descendantURI));
+			}
+			allAccountBitmapByGroupURI.put(ancestorURI, allAccountBitmap);
+		}
+		for (final URI<Account> accountURI : new AccountURISet(allAccountBitmapByGroupURI.get(childGroupURI), indexMapping)) {
+			allGroupByAccountURI.put(accountURI, computeAllGroupURIs(accountURI));
+		}
+	}
+
+	private Set<URI<AccountGroup>> computeAllGroupURIs(final URI<Account> accountURI) {
+		final Set<URI<AccountGroup>> allGroupURIs = new HashSet<>();
+		for (final URI<AccountGroup> groupURI : groupByAccountURI.get(accountURI)) {
+			allGroupURIs.addAll(groupHierarchy.getSelfAndAncestors(groupURI));
+		}
+		return Collections.unmodifiableSet(allGroupURIs);
+	}
+
+	/**
+	 * Used by stores keeping this memory store as their working set (snapshots).
+	 * @return All accounts
+	 */
+	public Collection<Account> getAllAccounts() {
+		return Collections.unmodifiableList(new ArrayList<>(accountByURI.values()));
+	}
+
+	/**
+	 * Used by stores keeping this memory store as their working set (checks before logging a write).
+	 * @param groupURI Group
+	 * @return if this group exists
+	 */
+	public boolean existsGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		return groupByURI.containsKey(groupURI);
+	}
+
+	/**
+	 * Used by stores keeping this memory store as their working set (snapshots) : saves accounts and attaches them to their groups,
+	 * each group bitmap is built once (instead of one copy by attachment).
+	 * @param groupURIsByAccount Accounts with their direct groups (groups must be saved before)
+	 */
+	public void loadAccounts(final Map<Account, Set<URI<AccountGroup>>> groupURIsByAccount) {
+		Assertion.checkNotNull(groupURIsByAccount);
+		//-----
+		synchronized (writeLock) {
+			final Map<URI<AccountGroup>, List<Integer>> indexesByGroupURI = new HashMap<>();
+			final Map<URI<AccountGroup>, List<Integer>> allIndexesByGroupURI = new HashMap<>();
+			for (final Map.Entry<Account, Set<URI<AccountGroup>>> entry : groupURIsByAccount.entrySet()) {
+				saveAccount(entry.getKey());
+				final URI<Account> accountURI = new URI<>(DtObjectUtil.findDtDefinition(entry.getKey()), entry.getKey().getId());
+				final int index = indexMapping.obtainIndex(accountURI);
+				final Set<URI<AccountGroup>> groupURIs = new HashSet<>(groupByAccountURI.get(accountURI));
+				for (final URI<AccountGroup> groupURI : entry.getValue()) {
+					Assertion.checkArgument(groupByURI.containsKey(groupURI), "group {0} must be create before this operation", groupURI);
+					if (groupURIs.add(groupURI)) {
+						addIndex(indexesByGroupURI, groupURI, index);
+						for (final URI<AccountGroup> ancestorURI : groupHierarchy.getSelfAndAncestors(groupURI)) {
+							addIndex(allIndexesByGroupURI, ancestorURI, index);
+						}
+					}
+				}
+				groupByAccountURI.put(accountURI, Collections.unmodifiableSet(groupURIs));
+				allGroupByAccountURI.put(accountURI, computeAllGroupURIs(accountURI));
+			}
+			orIndexes(accountBitmapByGroupURI, indexesByGroupURI);
+			orIndexes(allAccountBitmapByGroupURI, allIndexesByGroupURI);
+		}
+	}
+
+	private static void addIndex(final Map<URI<AccountGroup>, List<Integer>> indexesByGroupURI, final URI<AccountGroup> groupURI, final int index) {
+		List<Integer> indexes = indexesByGroupURI.get(groupURI);
+		if (indexes == null) {
+			indexes = new ArrayList<>();
+			indexesByGroupURI.put(groupURI, indexes);
+		}
+		indexes.add(index);
+	}
+
+	private static void orIndexes(final ConcurrentMap<URI<AccountGroup>, AccountBitmap> accountBitmapByGroupURI, final Map<URI<AccountGroup>, List<Integer>> indexesByGroupURI) {
+		for (final Map.Entry<URI<AccountGroup>, List<Integer>> entry : indexesByGroupURI.entrySet()) {
+			final int[] indexes = new int[entry.getValue().size()];
+			for (int i = 0; i < indexes.length; i++) {
+				indexes[i] = entry.getValue().get(i);
+			}
+			accountBitmapByGroupURI.put(entry.getKey(), accountBitmapByGroupURI.get(entry.getKey()).or(AccountBitmap.of(indexes)));
+		}
+	}
+
+	/**
+	 * Used by stores keeping this memory store as their working set (snapshots).
+	 * @return Nested groups (immutable)
+	 */
+	public AccountGroupHierarchy getGroupHierarchy() {
+		synchronized (writeLock) {
+			return groupHierarchy;
+		}
+	}
+
+	private static <O> Set<O> copyWith(final Set<O> set, final O element) {
+		final Set<O> copy = new HashSet<>(set);
+		copy.add(element);
+		return Collections.unmodifiableSet(copy);
+	}
+
+	private static <O> Set<O> copyWithout(final Set<O> set, final O element) {
+		final Set<O> copy = new HashSet<>(set);
+		copy.remove(element);
+		return Collections.unmodifiableSet(copy);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getGroupURIs(final URI<Account> accountURI) {
 		Assertion.checkNotNull(accountURI);
 		//-----
-		final Set<URI<AccountGroup>> groupURIs = groupByAccountURI.get(accountURI);
-		Assertion.checkNotNull(accountURI, "account {0} must be create before this operation", accountURI);
-		return Collections.unmodifiableSet(groupURIs);
-		//
-		//		Assertion.checkNotNull(groupURIs, "account must be create before this operation");
-		//		List<AccountGroup> groups = new ArrayList<>();
-		//		for (URI<AccountGroup> groupURI : groupURIs) {
-		//			groups.add(groupByURI.get(groupURI));
-		//		}
-		//		return Collections.unmodifiableList(groups);
+		final Set<URI<AccountGroup>> groupURIs = allGroupByAccountURI.get(accountURI);
+		Assertion.checkNotNull(groupURIs, "account {0} must be create before this operation", accountURI);
+		//immutable snapshot, no copy needed
+		return groupURIs;
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public synchronized Set<URI<Account>> getAccountURIs(final URI<AccountGroup> groupURI) {
+	public Set<URI<Account>> getAccountURIs(final URI<AccountGroup> groupURI) {
 		Assertion.checkNotNull(groupURI);
 		//-----
-		final Set<URI<Account>> accountURIs = accountBygroupURI.get(groupURI);
-		Assertion.checkNotNull(accountURIs, "group {0} must be create before this operation", groupURI);
-		return Collections.unmodifiableSet(accountURIs);
+		final AccountBitmap accountBitmap = allAccountBitmapByGroupURI.get(groupURI);
+		Assertion.checkNotNull(accountBitmap, "group {0} must be create before this operation", groupURI);
+		//immutable snapshot, no copy needed
+		return new AccountURISet(accountBitmap, indexMapping);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<AccountBitmap> getAccountBitmaps(final List<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		final List<AccountBitmap> accountBitmaps = new ArrayList<>(groupURIs.size());
+		for (final URI<AccountGroup> groupURI : groupURIs) {
+			final AccountBitmap accountBitmap = allAccountBitmapByGroupURI.get(groupURI);
+			Assertion.checkNotNull(accountBitmap, "group {0} must be create before this operation", groupURI);
+			accountBitmaps.add(accountBitmap);
+		}
+		return accountBitmaps;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final AccountBitmap accountBitmap) {
+		Assertion.checkNotNull(accountBitmap);
+		//-----
+		return new AccountURISet(accountBitmap, indexMapping);
 	}
 
 	/** {@inheritDoc} */
@@ -189,4 +485,25 @@ public final class MemoryAccountStorePlugin implements AccountStorePlugin {
 		return Option.option(photoByAccountURI.get(accountURI));
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void setThumbnail(final URI<Account> accountURI, final int size, final VFile thumbnail) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(thumbnail);
+		//-----
+		final ConcurrentMap<Integer, VFile> newThumbnails = new ConcurrentHashMap<>();
+		//the map put by a concurrent writer if any : a get would return null after a concurrent delete
+		final ConcurrentMap<Integer, VFile> thumbnails = thumbnailsByAccountURI.putIfAbsent(accountURI, newThumbnails);
+		(thumbnails != null ? thumbnails : newThumbnails).put(size, thumbnail);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getThumbnail(final URI<Account> accountURI, final int size) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		final ConcurrentMap<Integer, VFile> thumbnails = thumbnailsByAccountURI.get(accountURI);
+		return thumbnails == null ? Option.<VFile> none() : Option.option(thumbnails.get(size));
+	}
+
 }
@@ -0,0 +1,296 @@
+package io.vertigo.x.plugins.account.redis;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Activeable;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountEvent;
+import io.vertigo.x.account.AccountEventListener;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.account.AccountEventPlugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Account events across nodes with Redis pub/sub.
+ * Publishing is one script : the sequence number (accountEventSeq), the log of last events (accountEventLog) and the message are written together,
+ * so messages are received in sequence order.
+ * A subscriber that missed messages (ie : reconnection) replays them from the log, or gets an EVENTS_LOST event if the log is too short.
+ * The subscriber connection of a node is named (see getSubscriberName), so it can be told from other clients.
+ *
+ * @author pchretien
+ */
+public final class RedisAccountEventPlugin implements AccountEventPlugin, Activeable {
+	private static final Logger LOG = Logger.getLogger(RedisAccountEventPlugin.class);
+	private static final String SEQUENCE_KEY = "accountEventSeq";
+	private static final String LOG_KEY = "accountEventLog";
+	private static final String CHANNEL = "accountEvents";
+	private static final int LOG_SIZE = 1000;
+	private static final long RETRY_DELAY_MS = 1000;
+	private static final byte SEPARATOR = '|';
+	private static final String PUBLISH_SCRIPT = "local seq = redis.call('INCR', KEYS[1]) "
+			+ "local message = seq .. '|' .. ARGV[1] "
+			+ "redis.call('LPUSH', KEYS[2], message) "
+			+ "redis.call('LTRIM', KEYS[2], 0, tonumber(ARGV[2]) - 1) "
+			+ "redis.call('PUBLISH', ARGV[3], message) "
+			+ "return seq";
+
+	private final RedisConnector redisConnector;
+	//events of this node are delivered locally by the manager
+	private final String nodeId = UUID.randomUUID().toString();
+	private final List<AccountEventListener> listeners = new CopyOnWriteArrayList<>();
+	private final Subscriber subscriber = new Subscriber();
+	private Thread subscriberThread;
+	private volatile boolean running;
+	private long lastSequence; //only used by subscriberThread
+
+	/**
+	 * @param redisConnector Connector Redis
+	 */
+	@Inject
+	public RedisAccountEventPlugin(final RedisConnector redisConnector) {
+		Assertion.checkNotNull(redisConnector);
+		//-----
+		this.redisConnector = redisConnector;
+	}
+
+	/**
+	 * @return Name of the subscriber connection of this node (CLIENT LIST)
+	 */
+	public String getSubscriberName() {
+		return "x-account-events:" + nodeId;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void start() {
+		lastSequence = readSequence();
+		running = true;
+		subscriberThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					try (final Jedis jedis = redisConnector.getResource()) {
+						jedis.clientSetname(getSubscriberName());
+						jedis.subscribe(subscriber, CHANNEL.getBytes(StandardCharsets.UTF_8));
+					} catch (final JedisConnectionException e) {
+						if (running) {
+							//missed events are replayed once subscribed again
+							LOG.warn("Account events subscriber disconnected, subscribing again", e);
+							sleep();
+						}
+					}
+				}
+			}
+		}, "x-account-events");
+		subscriberThread.setDaemon(true);
+		subscriberThread.start();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void stop() {
+		running = false;
+		if (subscriber.isSubscribed()) {
+			subscriber.unsubscribe();
+		}
+		try {
+			subscriberThread.join(RETRY_DELAY_MS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(RETRY_DELAY_MS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public AccountEvent publish(final AccountEvent.Type type, final List<URI<Account>> accountURIs, final List<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(type);
+		Assertion.checkNotNull(accountURIs);
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		final long sequence;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			sequence = (Long) jedis.eval(PUBLISH_SCRIPT.getBytes(StandardCharsets.UTF_8),
+					Arrays.asList(SEQUENCE_KEY.getBytes(StandardCharsets.UTF_8), LOG_KEY.getBytes(StandardCharsets.UTF_8)),
+					Arrays.asList(encode(type, accountURIs, groupURIs), String.valueOf(LOG_SIZE).getBytes(StandardCharsets.UTF_8), CHANNEL.getBytes(StandardCharsets.UTF_8)));
+		}
+		return new AccountEvent(sequence, type, accountURIs, groupURIs);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void subscribe(final AccountEventListener listener) {
+		Assertion.checkNotNull(listener);
+		//-----
+		listeners.add(listener);
+	}
+
+	private long readSequence() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final String sequence = jedis.get(SEQUENCE_KEY);
+			return sequence == null ? 0 : Long.parseLong(sequence);
+		}
+	}
+
+	private void receive(final byte[] message) {
+		final long sequence = readSequence(message);
+		if (sequence <= lastSequence) {
+			//already replayed
+			return;
+		}
+		if (sequence > lastSequence + 1) {
+			replay(sequence);
+		}
+		deliver(sequence, message);
+	}
+
+	//delivers events after lastSequence and before toSequence, from the log
+	private void replay(final long toSequence) {
+		final List<byte[]> log;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			log = jedis.lrange(LOG_KEY.getBytes(StandardCharsets.UTF_8), 0, LOG_SIZE - 1);
+		}
+		//log is newest first
+		Collections.reverse(log);
+		final List<byte[]> missed = new ArrayList<>();
+		for (final byte[] message : log) {
+			final long sequence = readSequence(message);
+			if (sequence > lastSequence && sequence < toSequence) {
+				missed.add(message);
+			}
+		}
+		if (missed.isEmpty() || readSequence(missed.get(0)) > lastSequence + 1) {
+			notifyListeners(new AccountEvent(lastSequence + 1, AccountEvent.Type.EVENTS_LOST, Collections.<URI<Account>> emptyList(), Collections.<URI<AccountGroup>> emptyList()));
+		}
+		for (final byte[] message : missed) {
+			deliver(readSequence(message), message);
+		}
+		lastSequence = Math.max(lastSequence, toSequence - 1);
+	}
+
+	private void deliver(final long sequence, final byte[] message) {
+		lastSequence = sequence;
+		final AccountEvent event = decode(sequence, message);
+		if (event != null) {
+			notifyListeners(event);
+		}
+	}
+
+	private void notifyListeners(final AccountEvent event) {
+		for (final AccountEventListener listener : listeners) {
+			try {
+				listener.onEvent(event);
+			} catch (final RuntimeException e) {
+				//a failing listener doesn't stop the subscriber, nor the other listeners
+				LOG.error("Account event listener failed on " + event.getType() + " " + event.getSequence(), e);
+			}
+		}
+	}
+
+	private byte[] encode(final AccountEvent.Type type, final List<URI<Account>> accountURIs, final List<URI<AccountGroup>> groupURIs) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeUTF(nodeId);
+			out.writeUTF(type.name());
+			out.writeInt(accountURIs.size());
+			for (final URI<Account> accountURI : accountURIs) {
+				out.writeUTF(String.valueOf(accountURI.getId()));
+			}
+			out.writeInt(groupURIs.size());
+			for (final URI<AccountGroup> groupURI : groupURIs) {
+				out.writeUTF(String.valueOf(groupURI.getId()));
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't encode account event", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static long readSequence(final byte[] message) {
+		return Long.parseLong(new String(message, 0, indexOfSeparator(message), StandardCharsets.UTF_8));
+	}
+
+	private static int indexOfSeparator(final byte[] message) {
+		for (int i = 0; i < message.length; i++) {
+			if (message[i] == SEPARATOR) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Not an account event");
+	}
+
+	//null for events of this node
+	private AccountEvent decode(final long sequence, final byte[] message) {
+		final int offset = indexOfSeparator(message) + 1;
+		try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(message, offset, message.length - offset))) {
+			if (nodeId.equals(in.readUTF())) {
+				return null;
+			}
+			final AccountEvent.Type type = AccountEvent.Type.valueOf(in.readUTF());
+			final List<URI<Account>> accountURIs = new ArrayList<>();
+			for (int i = in.readInt(); i > 0; i--) {
+				accountURIs.add(DtObjectUtil.createURI(Account.class, in.readUTF()));
+			}
+			final List<URI<AccountGroup>> groupURIs = new ArrayList<>();
+			for (int i = in.readInt(); i > 0; i--) {
+				groupURIs.add(DtObjectUtil.createURI(AccountGroup.class, in.readUTF()));
+			}
+			return new AccountEvent(sequence, type, accountURIs, groupURIs);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't decode account event", e);
+		}
+	}
+
+	private final class Subscriber extends BinaryJedisPubSub {
+
+		/** {@inheritDoc} */
+		@Override
+		public void onSubscribe(final byte[] channel, final int subscribedChannels) {
+			//events published while not subscribed
+			final long sequence = readSequence();
+			if (sequence > lastSequence) {
+				replay(sequence + 1);
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void onMessage(final byte[] channel, final byte[] message) {
+			try {
+				receive(message);
+			} catch (final RuntimeException e) {
+				//unreadable message : skipped, next ones are still received
+				LOG.error("Unreadable account event skipped : " + new String(message, StandardCharsets.UTF_8), e);
+			}
+		}
+	}
+}
@@ -13,33 +13,72 @@ import io.vertigo.x.account.Account;
 import io.vertigo.x.account.AccountBuilder;
 import io.vertigo.x.account.AccountGroup;
 import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.account.AccountBitmap;
+import io.vertigo.x.impl.account.AccountGroupHierarchy;
+import io.vertigo.x.impl.account.AccountIndexMapping;
+import io.vertigo.x.impl.account.AccountRecords;
 import io.vertigo.x.impl.account.AccountStorePlugin;
+import io.vertigo.x.impl.account.AccountURISet;
 
 import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
 
+import redis.clients.jedis.BitOP;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.MultiKeyPipelineBase;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
 
 /**
+ * Accounts store in Redis.
+ * Accounts and groups are binary records (see AccountRecords), hashes of previous versions are still read.
+ * Members of a group are also kept as a Redis bitmap of account indexes (accountsBitmapByGroup:*),
+ * indexes are assigned once per account (accountIndexById and accountIdByIndex hashes) and cached locally.
+ * Nested groups (parentGroupsByGroup:*) : memberships including nested groups are kept up to date on each write
+ * (allAccountsBitmapByGroup:* and allGroupsByAccount:*), so reads are single lookups.
+ * The hierarchy of groups is cached locally, and read again only when its version (nestedGroupsVersion) changed.
+ * Writes depending on the hierarchy (cycle check, groups including a group) WATCH its version, and are done again if an edge changed meanwhile.
+ * Bitmaps of nested groups are computed by redis (BITOP OR), so they never miss a member written concurrently.
+ * A group is marked as deleting (deletingGroup:*) before its memberships are removed by chunks : attaches WATCH this mark and are refused meanwhile.
+ * An interrupted deletion keeps the mark : the group must be deleted again.
+ *
  * @author pchretien
  */
 public final class RedisAccountStorePlugin implements AccountStorePlugin {
 	private static final int CODEC_BUFFER_SIZE = 3 * 1024;
+	private static final int SAVE_CHUNK_SIZE = 500;
 	private static final String CODEC_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+	private static final String HIERARCHY_VERSION_KEY = "nestedGroupsVersion";
+	//thumbnails written before thumbnailSizes was kept
+	private static final List<String> LEGACY_THUMBNAIL_SIZES = Arrays.asList("32", "64", "256");
+	//ARGV : account ids ; only accounts written by a sync have a fingerprint
+	private static final String RESET_FINGERPRINTS_SCRIPT = "for _, id in ipairs(ARGV) do "
+			+ "if redis.call('HEXISTS', KEYS[1], id) == 1 then redis.call('HSET', KEYS[1], id, '" + RESET_FINGERPRINT + "') end "
+			+ "end "
+			+ "return 0";
 	private final RedisConnector redisConnector;
 	private final CodecManager codecManager;
+	//indexes never change in redis : cache only grows
+	private final AccountIndexMapping indexMapping = new AccountIndexMapping();
+	//hierarchy and the version it was read at
+	private volatile CachedGroupHierarchy cachedGroupHierarchy;
 
 	/**
 	 * @param redisConnector Connector Redis
@@ -59,13 +98,130 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 	public void saveAccounts(final List<Account> accounts) {
 		Assertion.checkNotNull(accounts);
 		//-----
+		//one transaction by chunk : big lists never block redis nor buffer the whole list
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final Transaction tx = jedis.multi();
-			for (final Account account : accounts) {
-				tx.hmset("account:" + account.getId(), account2Map(account));
+			for (int from = 0; from < accounts.size(); from += SAVE_CHUNK_SIZE) {
+				saveAccountsChunk(jedis, accounts.subList(from, Math.min(from + SAVE_CHUNK_SIZE, accounts.size())));
+			}
+		}
+	}
+
+	private static void saveAccountsChunk(final Jedis jedis, final List<Account> accounts) {
+		//saving again an account (ie : resumed import) doesn't add it twice to the accounts list
+		final List<Response<Boolean>> existsResponses = new ArrayList<>(accounts.size());
+		final Pipeline pipeline = jedis.pipelined();
+		for (final Account account : accounts) {
+			existsResponses.add(pipeline.exists("account:" + account.getId()));
+		}
+		pipeline.sync();
+		final Set<String> newIds = new HashSet<>();
+		final Transaction tx = jedis.multi();
+		for (int i = 0; i < accounts.size(); i++) {
+			final Account account = accounts.get(i);
+			tx.set(SafeEncoder.encode("account:" + account.getId()), AccountRecords.encodeAccount(account));
+			resetFingerprints(tx, account.getId());
+			if (!existsResponses.get(i).get() && newIds.add(account.getId())) {
 				tx.lpush("accounts", account.getId());
 			}
-			tx.exec();
+		}
+		tx.exec();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void deleteAccounts(final List<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final AccountGroupHierarchy groupHierarchy = loadGroupHierarchy(jedis);
+			for (int from = 0; from < accountURIs.size(); from += SAVE_CHUNK_SIZE) {
+				deleteAccountsChunk(jedis, groupHierarchy, accountURIs.subList(from, Math.min(from + SAVE_CHUNK_SIZE, accountURIs.size())));
+			}
+		}
+	}
+
+	//one read and one transaction by chunk : all keys of an account are removed together
+	private void deleteAccountsChunk(final Jedis jedis, final AccountGroupHierarchy groupHierarchy, final List<URI<Account>> accountURIs) {
+		final List<Response<List<String>>> groupIdsResponses = new ArrayList<>(accountURIs.size());
+		final Pipeline pipeline = jedis.pipelined();
+		for (final URI<Account> accountURI : accountURIs) {
+			groupIdsResponses.add(pipeline.lrange("groupsByAccount:" + accountURI.getId(), 0, -1));
+		}
+		final Response<Set<String>> thumbnailSizesResponse = pipeline.smembers("thumbnailSizes");
+		pipeline.sync();
+		final Set<String> thumbnailSizes = new HashSet<>(LEGACY_THUMBNAIL_SIZES);
+		thumbnailSizes.addAll(thumbnailSizesResponse.get());
+		final List<Set<URI<AccountGroup>>> allGroupURIsList = new ArrayList<>(accountURIs.size());
+		final Set<URI<AccountGroup>> allGroupURIs = new HashSet<>();
+		for (final Response<List<String>> groupIdsResponse : groupIdsResponses) {
+			allGroupURIsList.add(computeAllGroupURIs(groupHierarchy, groupIdsResponse.get()));
+			allGroupURIs.addAll(allGroupURIsList.get(allGroupURIsList.size() - 1));
+		}
+		ensureAllAccountBitmaps(jedis, groupHierarchy, allGroupURIs);
+		final int[] indexes = new int[accountURIs.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = obtainIndex(jedis, accountURIs.get(i));
+		}
+		//-----
+		final String[] ids = new String[accountURIs.size()];
+		final Transaction tx = jedis.multi();
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = accountURIs.get(i).getId().toString();
+			for (final String groupId : groupIdsResponses.get(i).get()) {
+				tx.lrem("accountsByGroup:" + groupId, 0, ids[i]);
+				tx.setbit("accountsBitmapByGroup:" + groupId, indexes[i], false);
+			}
+			for (final URI<AccountGroup> groupURI : allGroupURIsList.get(i)) {
+				tx.setbit("allAccountsBitmapByGroup:" + groupURI.getId(), indexes[i], false);
+			}
+			tx.del("account:" + ids[i], "groupsByAccount:" + ids[i], "allGroupsByAccount:" + ids[i], "photoByAccount:" + ids[i]);
+			for (final String size : thumbnailSizes) {
+				tx.del("thumbnailByAccount:" + size + ":" + ids[i]);
+			}
+			tx.lrem("accounts", 0, ids[i]);
+		}
+		tx.hdel("accountFingerprints", ids);
+		//indexes are kept (accountIndexById, accountIdByIndex) : they are cached by all nodes and reused if the account comes back
+		tx.exec();
+	}
+
+	private static void resetFingerprints(final Transaction tx, final String... accountIds) {
+		tx.eval(RESET_FINGERPRINTS_SCRIPT, Collections.singletonList("accountFingerprints"), Arrays.asList(accountIds));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, String> getAccountFingerprints() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			return jedis.hgetAll("accountFingerprints");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAccountFingerprints(final Map<String, String> fingerprints) {
+		Assertion.checkNotNull(fingerprints);
+		//-----
+		if (fingerprints.isEmpty()) {
+			return;
+		}
+		try (final Jedis jedis = redisConnector.getResource()) {
+			jedis.hmset("accountFingerprints", fingerprints);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<AccountGroup>> getDirectGroupURIs(final URI<Account> accountURI) {
+		Assertion.checkNotNull(accountURI);
+		//-----
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		final Set<URI<AccountGroup>> set = new HashSet<>();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			for (final String id : jedis.lrange("groupsByAccount:" + accountURI.getId(), 0, -1)) {
+				set.add(new URI<AccountGroup>(dtDefinition, id));
+			}
+			return set;
 		}
 	}
 
@@ -100,9 +256,46 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 	public Account getAccount(final URI<Account> accountURI) {
 		Assertion.checkNotNull(accountURI);
 		//-----
+		final String key = "account:" + accountURI.getId();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			try {
+				final byte[] record = jedis.get(SafeEncoder.encode(key));
+				Assertion.checkNotNull(record, "account {0} not found", accountURI);
+				return AccountRecords.decodeAccount(record);
+			} catch (final JedisDataException e) {
+				//WRONGTYPE : account saved as a hash before records, rewritten on next save
+				return map2Account(jedis.hgetAll(key));
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<Account>, Account> findAccounts(final Collection<URI<Account>> accountURIs) {
+		Assertion.checkNotNull(accountURIs);
+		//-----
+		final List<URI<Account>> uris = new ArrayList<>(accountURIs);
+		final List<Response<byte[]>> responses = new ArrayList<>(uris.size());
+		final Map<URI<Account>, Account> accounts = new HashMap<>();
 		try (final Jedis jedis = redisConnector.getResource()) {
-			return map2Account(jedis.hgetAll("account:" + accountURI.getId()));
+			final Pipeline pipeline = jedis.pipelined();
+			for (final URI<Account> accountURI : uris) {
+				responses.add(pipeline.get(SafeEncoder.encode("account:" + accountURI.getId())));
+			}
+			pipeline.sync();
+			for (int i = 0; i < uris.size(); i++) {
+				try {
+					final byte[] record = responses.get(i).get();
+					if (record != null) {
+						accounts.put(uris.get(i), AccountRecords.decodeAccount(record));
+					}
+				} catch (final JedisDataException e) {
+					//WRONGTYPE : account saved as a hash before records, rewritten on next save
+					accounts.put(uris.get(i), map2Account(jedis.hgetAll("account:" + uris.get(i).getId())));
+				}
+			}
 		}
+		return accounts;
 	}
 
 	/** {@inheritDoc} */
@@ -113,43 +306,113 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		//----
 		try (final Jedis jedis = redisConnector.getResource()) {
 			final Transaction tx = jedis.multi();
-			tx.hmset("group:" + group.getId(), group2Map(group));
+			tx.set(SafeEncoder.encode("group:" + group.getId()), AccountRecords.encodeGroup(group));
+			tx.lrem("groups", 0, group.getId());
 			tx.lpush("groups", group.getId());
 			tx.exec();
 		}
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void deleteGroup(final URI<AccountGroup> groupURI) {
+		Assertion.checkNotNull(groupURI);
+		//-----
+		final String groupId = groupURI.getId().toString();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//first : attaches watching the mark are done again and refused, memberships read below are the last ones
+			jedis.set(deletingKey(groupURI), "true");
+			final AccountGroupHierarchy groupHierarchy = loadGroupHierarchy(jedis);
+			for (final URI<AccountGroup> parentURI : groupHierarchy.getParents(groupURI)) {
+				detachGroup(groupURI, parentURI);
+			}
+			for (final URI<AccountGroup> childURI : groupHierarchy.getChildren(groupURI)) {
+				detachGroup(childURI, groupURI);
+			}
+			//no more nested groups : only direct members are left, the group is only in their own sets
+			final List<String> accountIds = new ArrayList<>(new LinkedHashSet<>(jedis.lrange("accountsByGroup:" + groupId, 0, -1)));
+			for (int from = 0; from < accountIds.size(); from += SAVE_CHUNK_SIZE) {
+				final List<String> chunk = accountIds.subList(from, Math.min(from + SAVE_CHUNK_SIZE, accountIds.size()));
+				final Transaction tx = jedis.multi();
+				for (final String accountId : chunk) {
+					tx.lrem("groupsByAccount:" + accountId, 0, groupId);
+					tx.srem("allGroupsByAccount:" + accountId, groupId);
+				}
+				resetFingerprints(tx, chunk.toArray(new String[chunk.size()]));
+				tx.exec();
+			}
+			//group last : an interrupted deletion is done again
+			final Transaction tx = jedis.multi();
+			tx.del("accountsByGroup:" + groupId, "accountsBitmapByGroup:" + groupId, "allAccountsBitmapByGroup:" + groupId, "parentGroupsByGroup:" + groupId);
+			tx.srem("nestedGroups", groupId);
+			tx.incr(HIERARCHY_VERSION_KEY);
+			tx.lrem("groups", 0, groupId);
+			tx.del("group:" + groupId);
+			tx.del(deletingKey(groupURI));
+			tx.exec();
+		}
+	}
+
+	private static String deletingKey(final URI<AccountGroup> groupURI) {
+		return "deletingGroup:" + groupURI.getId();
+	}
+
+	//watched : a deletion started after this check makes the transaction fail, it is done again and refused
+	private static void watchNotDeleting(final Jedis jedis, final URI<AccountGroup> groupURI) {
+		jedis.watch(deletingKey(groupURI));
+		final boolean deleting = jedis.exists(deletingKey(groupURI));
+		if (deleting) {
+			jedis.unwatch();
+		}
+		Assertion.checkState(!deleting, "group {0} is being deleted", groupURI);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public AccountGroup getGroup(final URI<AccountGroup> groupURI) {
 		Assertion.checkNotNull(groupURI);
 		//-----
+		final String key = "group:" + groupURI.getId();
 		try (final Jedis jedis = redisConnector.getResource()) {
-			return map2Group(jedis.hgetAll("group:" + groupURI.getId()));
+			try {
+				final byte[] record = jedis.get(SafeEncoder.encode(key));
+				Assertion.checkNotNull(record, "group {0} not found", groupURI);
+				return AccountRecords.decodeGroup(record);
+			} catch (final JedisDataException e) {
+				//WRONGTYPE : group saved as a hash before records, rewritten on next save
+				return map2Group(jedis.hgetAll(key));
+			}
 		}
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public Collection<AccountGroup> getAllGroups() {
-		final List<Response<Map<String, String>>> responses = new ArrayList<>();
+		final List<String> ids;
+		final List<Response<byte[]>> responses = new ArrayList<>();
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final List<String> ids = jedis.lrange("accounts", 0, -1);
+			//groups saved before records may be listed twice
+			ids = new ArrayList<>(new LinkedHashSet<>(jedis.lrange("groups", 0, -1)));
 			final Transaction tx = jedis.multi();
 			for (final String id : ids) {
-				responses.add(tx.hgetAll("account:" + id));
+				responses.add(tx.get(SafeEncoder.encode("group:" + id)));
 			}
 			tx.exec();
-		}
-		//----- we are using tx to avoid roundtrips
-		final List<AccountGroup> groups = new ArrayList<>();
-		for (final Response<Map<String, String>> response : responses) {
-			final Map<String, String> data = response.get();
-			if (!data.isEmpty()) {
-				groups.add(map2Group(data));
+			//----- we are using tx to avoid roundtrips
+			final List<AccountGroup> groups = new ArrayList<>();
+			for (int i = 0; i < ids.size(); i++) {
+				try {
+					final byte[] record = responses.get(i).get();
+					if (record != null) {
+						groups.add(AccountRecords.decodeGroup(record));
+					}
+				} catch (final JedisDataException e) {
+					//WRONGTYPE : legacy hash
+					groups.add(map2Group(jedis.hgetAll("group:" + ids.get(i))));
+				}
 			}
+			return groups;
 		}
-		return groups;
 	}
 
 	/** {@inheritDoc} */
@@ -159,10 +422,50 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		Assertion.checkNotNull(groupURI);
 		//-----
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final Transaction tx = jedis.multi();
-			tx.lpush("accountsByGroup:" + groupURI.getId(), accountURI.getId().toString());
-			tx.lpush("groupsByAccount:" + accountURI.getId(), groupURI.getId().toString());
-			tx.exec();
+			final int index = obtainIndex(jedis, accountURI);
+			List<Object> result;
+			do {
+				//groups including this group are those of the watched hierarchy
+				final AccountGroupHierarchy groupHierarchy = watchGroupHierarchy(jedis);
+				final Set<URI<AccountGroup>> ancestorURIs = groupHierarchy.getSelfAndAncestors(groupURI);
+				ensureAllAccountBitmaps(jedis, groupHierarchy, ancestorURIs);
+				watchGroups(jedis, accountURI);
+				watchNotDeleting(jedis, groupURI);
+				final Set<URI<AccountGroup>> legacyGroupURIs = readLegacyGroupURIs(jedis, groupHierarchy, accountURI);
+				final Transaction tx = jedis.multi();
+				seedAllGroups(tx, accountURI, legacyGroupURIs);
+				tx.lpush("accountsByGroup:" + groupURI.getId(), accountURI.getId().toString());
+				tx.lpush("groupsByAccount:" + accountURI.getId(), groupURI.getId().toString());
+				tx.setbit("accountsBitmapByGroup:" + groupURI.getId(), index, true);
+				resetFingerprints(tx, accountURI.getId().toString());
+				//the account joins this group and all groups including it
+				for (final URI<AccountGroup> ancestorURI : ancestorURIs) {
+					tx.setbit("allAccountsBitmapByGroup:" + ancestorURI.getId(), index, true);
+					tx.sadd("allGroupsByAccount:" + accountURI.getId(), ancestorURI.getId().toString());
+				}
+				//null : groups of this account or the hierarchy changed meanwhile
+				result = tx.exec();
+			} while (result == null);
+		}
+	}
+
+	//groups of this account are read then written : written concurrently, the transaction is done again
+	private static void watchGroups(final Jedis jedis, final URI<Account> accountURI) {
+		jedis.watch("groupsByAccount:" + accountURI.getId(), "allGroupsByAccount:" + accountURI.getId());
+	}
+
+	//accounts attached before nested groups have no allGroupsByAccount:* : all their groups, empty if already there
+	private static Set<URI<AccountGroup>> readLegacyGroupURIs(final Jedis jedis, final AccountGroupHierarchy groupHierarchy, final URI<Account> accountURI) {
+		if (jedis.exists("allGroupsByAccount:" + accountURI.getId())) {
+			return Collections.emptySet();
+		}
+		return computeAllGroupURIs(groupHierarchy, jedis.lrange("groupsByAccount:" + accountURI.getId(), 0, -1));
+	}
+
+	//written before any update : an update never hides the groups of the legacy list
+	private static void seedAllGroups(final Transaction tx, final URI<Account> accountURI, final Set<URI<AccountGroup>> legacyGroupURIs) {
+		for (final URI<AccountGroup> legacyGroupURI : legacyGroupURIs) {
+			tx.sadd("allGroupsByAccount:" + accountURI.getId(), legacyGroupURI.getId().toString());
 		}
 	}
 
@@ -173,27 +476,374 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		Assertion.checkNotNull(groupURI);
 		//-----
 		try (final Jedis jedis = redisConnector.getResource()) {
+			final int index = obtainIndex(jedis, accountURI);
+			List<Object> result;
+			do {
+				final AccountGroupHierarchy groupHierarchy = watchGroupHierarchy(jedis);
+				final Set<URI<AccountGroup>> ancestorURIs = groupHierarchy.getSelfAndAncestors(groupURI);
+				ensureAllAccountBitmaps(jedis, groupHierarchy, ancestorURIs);
+				watchGroups(jedis, accountURI);
+				final Set<URI<AccountGroup>> legacyGroupURIs = readLegacyGroupURIs(jedis, groupHierarchy, accountURI);
+				//the account may still be in some of these groups through another group
+				final List<String> groupIds = jedis.lrange("groupsByAccount:" + accountURI.getId(), 0, -1);
+				groupIds.remove(groupURI.getId().toString());
+				final Set<URI<AccountGroup>> allGroupURIs = computeAllGroupURIs(groupHierarchy, groupIds);
+				final Transaction tx = jedis.multi();
+				seedAllGroups(tx, accountURI, legacyGroupURIs);
+				tx.lrem("accountsByGroup:" + groupURI.getId(), -1, accountURI.getId().toString());
+				tx.lrem("groupsByAccount:" + accountURI.getId(), 1, groupURI.getId().toString());
+				tx.setbit("accountsBitmapByGroup:" + groupURI.getId(), index, false);
+				resetFingerprints(tx, accountURI.getId().toString());
+				for (final URI<AccountGroup> ancestorURI : ancestorURIs) {
+					if (!allGroupURIs.contains(ancestorURI)) {
+						tx.setbit("allAccountsBitmapByGroup:" + ancestorURI.getId(), index, false);
+						tx.srem("allGroupsByAccount:" + accountURI.getId(), ancestorURI.getId().toString());
+					}
+				}
+				result = tx.exec();
+			} while (result == null);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void attachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		try (final Jedis jedis = redisConnector.getResource()) {
+			List<Object> result;
+			do {
+				//cycle checked on the watched hierarchy : two reverse edges written concurrently can't both pass
+				final AccountGroupHierarchy groupHierarchy = watchGroupHierarchy(jedis);
+				watchNotDeleting(jedis, childGroupURI);
+				watchNotDeleting(jedis, parentGroupURI);
+				try {
+					groupHierarchy.withEdge(childGroupURI, parentGroupURI);
+				} catch (final RuntimeException e) {
+					jedis.unwatch();
+					throw e;
+				}
+				final Transaction tx = jedis.multi();
+				tx.sadd("nestedGroups", childGroupURI.getId().toString());
+				tx.sadd("parentGroupsByGroup:" + childGroupURI.getId(), parentGroupURI.getId().toString());
+				tx.incr(HIERARCHY_VERSION_KEY);
+				result = tx.exec();
+			} while (result == null);
+			refreshNestedGroups(jedis, childGroupURI, parentGroupURI);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void detachGroup(final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		Assertion.checkNotNull(childGroupURI);
+		Assertion.checkNotNull(parentGroupURI);
+		//-----
+		try (final Jedis jedis = redisConnector.getResource()) {
+			List<Object> result;
+			do {
+				final AccountGroupHierarchy groupHierarchy = watchGroupHierarchy(jedis).withoutEdge(childGroupURI, parentGroupURI);
+				final Transaction tx = jedis.multi();
+				tx.srem("parentGroupsByGroup:" + childGroupURI.getId(), parentGroupURI.getId().toString());
+				if (groupHierarchy.getParents(childGroupURI).isEmpty()) {
+					tx.srem("nestedGroups", childGroupURI.getId().toString());
+				}
+				tx.incr(HIERARCHY_VERSION_KEY);
+				result = tx.exec();
+			} while (result == null);
+			refreshNestedGroups(jedis, childGroupURI, parentGroupURI);
+		}
+	}
+
+	/*
+	 * An edge changed : only the parent, its ancestors and the members of the child are updated.
+	 * Done with the watched hierarchy, and again if an edge or the groups of a member changed meanwhile.
+	 */
+	private void refreshNestedGroups(final Jedis jedis, final URI<AccountGroup> childGroupURI, final URI<AccountGroup> parentGroupURI) {
+		List<Object> result;
+		do {
+			final AccountGroupHierarchy groupHierarchy = watchGroupHierarchy(jedis);
+			final Set<URI<AccountGroup>> groupURIs = new LinkedHashSet<>(groupHierarchy.getSelfAndAncestors(parentGroupURI));
+			groupURIs.add(childGroupURI);
+			for (final URI<AccountGroup> groupURI : groupURIs) {
+				ensureAccountBitmaps(jedis, groupHierarchy.getSelfAndDescendants(groupURI));
+			}
+			//members of the child : read only, the bitmap of the child is written by redis with the others
+			AccountBitmap childAccountBitmap = AccountBitmap.empty();
+			for (final AccountBitmap accountBitmap : readAccountBitmaps(jedis, new ArrayList<>(groupHierarchy.getSelfAndDescendants(childGroupURI)))) {
+				childAccountBitmap = childAccountBitmap.or(accountBitmap);
+			}
+			final List<URI<Account>> accountURIs = new ArrayList<>(getAccountURIs(childAccountBitmap));
+			final List<Response<List<String>>> groupIdsResponses = new ArrayList<>();
+			if (!accountURIs.isEmpty()) {
+				final String[] groupsKeys = new String[accountURIs.size()];
+				for (int i = 0; i < groupsKeys.length; i++) {
+					groupsKeys[i] = "groupsByAccount:" + accountURIs.get(i).getId();
+				}
+				jedis.watch(groupsKeys);
+				final Pipeline pipeline = jedis.pipelined();
+				for (final String groupsKey : groupsKeys) {
+					groupIdsResponses.add(pipeline.lrange(groupsKey, 0, -1));
+				}
+				pipeline.sync();
+			}
 			final Transaction tx = jedis.multi();
-			tx.lrem("accountsByGroup:" + groupURI.getId(), -1, accountURI.getId().toString());
-			tx.lrem("groupsByAccount:" + accountURI.getId(), 1, groupURI.getId().toString());
-			tx.exec();
+			for (final URI<AccountGroup> groupURI : groupURIs) {
+				writeAllAccountBitmap(tx, groupHierarchy, groupURI);
+			}
+			for (int i = 0; i < accountURIs.size(); i++) {
+				final String key = "allGroupsByAccount:" + accountURIs.get(i).getId();
+				tx.del(key);
+				for (final URI<AccountGroup> groupURI : computeAllGroupURIs(groupHierarchy, groupIdsResponses.get(i).get())) {
+					tx.sadd(key, groupURI.getId().toString());
+				}
+			}
+			result = tx.exec();
+		} while (result == null);
+	}
+
+	private static Set<URI<AccountGroup>> computeAllGroupURIs(final AccountGroupHierarchy groupHierarchy, final List<String> groupIds) {
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		final Set<URI<AccountGroup>> allGroupURIs = new HashSet<>();
+		for (final String groupId : groupIds) {
+			allGroupURIs.addAll(groupHierarchy.getSelfAndAncestors(new URI<AccountGroup>(dtDefinition, groupId)));
+		}
+		return allGroupURIs;
+	}
+
+	//one read if unchanged ; each write of edges increments the version in the same transaction
+	private AccountGroupHierarchy loadGroupHierarchy(final Jedis jedis) {
+		return loadCachedGroupHierarchy(jedis).groupHierarchy;
+	}
+
+	private CachedGroupHierarchy loadCachedGroupHierarchy(final Jedis jedis) {
+		final String version = readHierarchyVersion(jedis);
+		final CachedGroupHierarchy cached = cachedGroupHierarchy;
+		if (cached != null && cached.version.equals(version)) {
+			return cached;
+		}
+		//read after the version : never older than this version
+		final CachedGroupHierarchy loaded = new CachedGroupHierarchy(version, readGroupHierarchy(jedis));
+		cachedGroupHierarchy = loaded;
+		return loaded;
+	}
+
+	/*
+	 * Hierarchy with a WATCH on its version : a transaction written from it fails (null exec) if an edge changed meanwhile.
+	 * The hierarchy is read with a transaction, which clears watches : the version is watched once it's read, then checked again.
+	 * Until the transaction, only reads and pipelines are sent.
+	 */
+	private AccountGroupHierarchy watchGroupHierarchy(final Jedis jedis) {
+		while (true) {
+			final CachedGroupHierarchy cached = loadCachedGroupHierarchy(jedis);
+			jedis.watch(HIERARCHY_VERSION_KEY);
+			if (cached.version.equals(readHierarchyVersion(jedis))) {
+				return cached.groupHierarchy;
+			}
+			jedis.unwatch();
 		}
 	}
 
+	private static String readHierarchyVersion(final Jedis jedis) {
+		final String storedVersion = jedis.get(HIERARCHY_VERSION_KEY);
+		return storedVersion != null ? storedVersion : "0";
+	}
+
+	private static AccountGroupHierarchy readGroupHierarchy(final Jedis jedis) {
+		final List<String> childIds = new ArrayList<>(jedis.smembers("nestedGroups"));
+		if (childIds.isEmpty()) {
+			return AccountGroupHierarchy.empty();
+		}
+		final List<Response<Set<String>>> parentIdsResponses = new ArrayList<>();
+		final Transaction tx = jedis.multi();
+		for (final String childId : childIds) {
+			parentIdsResponses.add(tx.smembers("parentGroupsByGroup:" + childId));
+		}
+		tx.exec();
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		final Map<URI<AccountGroup>, Set<URI<AccountGroup>>> parentsByGroupURI = new HashMap<>();
+		for (int i = 0; i < childIds.size(); i++) {
+			final Set<URI<AccountGroup>> parentURIs = new HashSet<>();
+			for (final String parentId : parentIdsResponses.get(i).get()) {
+				parentURIs.add(new URI<AccountGroup>(dtDefinition, parentId));
+			}
+			parentsByGroupURI.put(new URI<AccountGroup>(dtDefinition, childIds.get(i)), parentURIs);
+		}
+		return AccountGroupHierarchy.of(parentsByGroupURI);
+	}
+
+	//groups attached before nested groups : allAccountsBitmapByGroup:* is built once before being updated (no transaction : keeps watches)
+	private void ensureAllAccountBitmaps(final Jedis jedis, final AccountGroupHierarchy groupHierarchy, final Set<URI<AccountGroup>> groupURIs) {
+		final List<URI<AccountGroup>> groupURIList = new ArrayList<>(groupURIs);
+		final List<Response<Boolean>> existsResponses = new ArrayList<>();
+		final Pipeline pipeline = jedis.pipelined();
+		for (final URI<AccountGroup> groupURI : groupURIList) {
+			existsResponses.add(pipeline.exists("allAccountsBitmapByGroup:" + groupURI.getId()));
+		}
+		pipeline.sync();
+		for (int i = 0; i < groupURIList.size(); i++) {
+			if (!existsResponses.get(i).get()) {
+				writeAllAccountBitmap(jedis, groupHierarchy, groupURIList.get(i));
+			}
+		}
+	}
+
+	private AccountBitmap writeAllAccountBitmap(final Jedis jedis, final AccountGroupHierarchy groupHierarchy, final URI<AccountGroup> groupURI) {
+		ensureAccountBitmaps(jedis, groupHierarchy.getSelfAndDescendants(groupURI));
+		final Pipeline pipeline = jedis.pipelined();
+		final Response<byte[]> allAccountBitmapResponse = writeAllAccountBitmap(pipeline, groupHierarchy, groupURI);
+		pipeline.sync();
+		return AccountBitmap.fromRedisBitmap(allAccountBitmapResponse.get());
+	}
+
+	/*
+	 * Union of direct members of the group and of its descendants, computed by redis :
+	 * a member attached concurrently is either in a direct bitmap read by BITOP, or set after it.
+	 * Direct bitmaps must exist (see ensureAccountBitmaps).
+	 */
+	private static Response<byte[]> writeAllAccountBitmap(final MultiKeyPipelineBase pipeline, final AccountGroupHierarchy groupHierarchy, final URI<AccountGroup> groupURI) {
+		final byte[] key = SafeEncoder.encode("allAccountsBitmapByGroup:" + groupURI.getId());
+		pipeline.bitop(BitOP.OR, key, toKeys("accountsBitmapByGroup:", new ArrayList<>(groupHierarchy.getSelfAndDescendants(groupURI))));
+		//BITOP deletes the key of an empty union : kept, so it's not built again
+		pipeline.append(key, new byte[0]);
+		return pipeline.get(key);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Set<URI<Account>> getAccountURIs(final URI<AccountGroup> groupURI) {
 		Assertion.checkNotNull(groupURI);
 		//-----
-		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(Account.class);
-		final Set<URI<Account>> set = new HashSet<>();
+		return getAccountURIs(getAccountBitmaps(Collections.singletonList(groupURI)).get(0));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<AccountBitmap> getAccountBitmaps(final List<URI<AccountGroup>> groupURIs) {
+		Assertion.checkNotNull(groupURIs);
+		//-----
+		final List<AccountBitmap> accountBitmaps = new ArrayList<>(groupURIs.size());
+		if (groupURIs.isEmpty()) {
+			return accountBitmaps;
+		}
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final List<String> ids = jedis.lrange("accountsByGroup:" + groupURI.getId(), 0, -1);
-			for (final String id : ids) {
-				set.add(new URI<Account>(dtDefinition, id));
+			final List<byte[]> values = jedis.mget(toKeys("allAccountsBitmapByGroup:", groupURIs));
+			AccountGroupHierarchy groupHierarchy = null;
+			for (int i = 0; i < groupURIs.size(); i++) {
+				final byte[] value = values.get(i);
+				if (value != null) {
+					accountBitmaps.add(AccountBitmap.fromRedisBitmap(value));
+				} else {
+					if (groupHierarchy == null) {
+						groupHierarchy = loadGroupHierarchy(jedis);
+					}
+					accountBitmaps.add(writeAllAccountBitmap(jedis, groupHierarchy, groupURIs.get(i)));
+				}
 			}
-			return set;
 		}
+		return accountBitmaps;
+	}
+
+	//direct members only
+	private List<AccountBitmap> readAccountBitmaps(final Jedis jedis, final List<URI<AccountGroup>> groupURIs) {
+		final List<byte[]> values = jedis.mget(toKeys("accountsBitmapByGroup:", groupURIs));
+		final List<AccountBitmap> accountBitmaps = new ArrayList<>(groupURIs.size());
+		for (int i = 0; i < groupURIs.size(); i++) {
+			final byte[] value = values.get(i);
+			accountBitmaps.add(value != null ? AccountBitmap.fromRedisBitmap(value) : buildAccountBitmap(jedis, groupURIs.get(i)));
+		}
+		return accountBitmaps;
+	}
+
+	private static byte[][] toKeys(final String prefix, final List<URI<AccountGroup>> groupURIs) {
+		final byte[][] keys = new byte[groupURIs.size()][];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = SafeEncoder.encode(prefix + groupURIs.get(i).getId());
+		}
+		return keys;
+	}
+
+	//direct bitmaps read by BITOP (no transaction : keeps watches)
+	private void ensureAccountBitmaps(final Jedis jedis, final Set<URI<AccountGroup>> groupURIs) {
+		final List<URI<AccountGroup>> groupURIList = new ArrayList<>(groupURIs);
+		final List<Response<Boolean>> existsResponses = new ArrayList<>();
+		final Pipeline pipeline = jedis.pipelined();
+		for (final URI<AccountGroup> groupURI : groupURIList) {
+			existsResponses.add(pipeline.exists("accountsBitmapByGroup:" + groupURI.getId()));
+		}
+		pipeline.sync();
+		for (int i = 0; i < groupURIList.size(); i++) {
+			if (!existsResponses.get(i).get()) {
+				buildAccountBitmap(jedis, groupURIList.get(i));
+			}
+		}
+	}
+
+	//groups attached before the bitmap index : bitmap is built once from accountsByGroup:*
+	private AccountBitmap buildAccountBitmap(final Jedis jedis, final URI<AccountGroup> groupURI) {
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(Account.class);
+		final List<String> ids = jedis.lrange("accountsByGroup:" + groupURI.getId(), 0, -1);
+		final int[] indexes = new int[ids.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = obtainIndex(jedis, new URI<Account>(dtDefinition, ids.get(i)));
+		}
+		if (indexes.length > 0) {
+			final Pipeline pipeline = jedis.pipelined();
+			for (final int index : indexes) {
+				pipeline.setbit("accountsBitmapByGroup:" + groupURI.getId(), index, true);
+			}
+			pipeline.sync();
+		}
+		return AccountBitmap.of(indexes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<URI<Account>> getAccountURIs(final AccountBitmap accountBitmap) {
+		Assertion.checkNotNull(accountBitmap);
+		//-----
+		//only indexes assigned by other nodes are loaded, in one call
+		final List<String> unknownIndexes = new ArrayList<>();
+		for (int index = accountBitmap.nextIndex(0); index >= 0; index = accountBitmap.nextIndex(index + 1)) {
+			if (indexMapping.getAccountURI(index) == null) {
+				unknownIndexes.add(String.valueOf(index));
+			}
+		}
+		if (!unknownIndexes.isEmpty()) {
+			final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(Account.class);
+			final List<String> ids;
+			try (final Jedis jedis = redisConnector.getResource()) {
+				ids = jedis.hmget("accountIdByIndex", unknownIndexes.toArray(new String[unknownIndexes.size()]));
+			}
+			for (int i = 0; i < ids.size(); i++) {
+				Assertion.checkNotNull(ids.get(i), "unknown account index {0}", unknownIndexes.get(i));
+				indexMapping.register(new URI<Account>(dtDefinition, ids.get(i)), Integer.parseInt(unknownIndexes.get(i)));
+			}
+		}
+		return new AccountURISet(accountBitmap, indexMapping);
+	}
+
+	private int obtainIndex(final Jedis jedis, final URI<Account> accountURI) {
+		final int knownIndex = indexMapping.getIndex(accountURI);
+		if (knownIndex >= 0) {
+			return knownIndex;
+		}
+		final String id = accountURI.getId().toString();
+		String index = jedis.hget("accountIndexById", id);
+		if (index == null) {
+			final String newIndex = String.valueOf(jedis.incr("accountIndexSeq") - 1);
+			//reverse mapping first : an index is never visible before it can be resolved
+			jedis.hset("accountIdByIndex", newIndex, id);
+			if (jedis.hsetnx("accountIndexById", id, newIndex) == 1) {
+				index = newIndex;
+			} else {
+				//assigned concurrently by another node : newIndex is lost
+				index = jedis.hget("accountIndexById", id);
+			}
+		}
+		indexMapping.register(accountURI, Integer.parseInt(index));
+		return Integer.parseInt(index);
 	}
 
 	/** {@inheritDoc} */
@@ -204,7 +854,9 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
 		final Set<URI<AccountGroup>> set = new HashSet<>();
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final List<String> ids = jedis.lrange("groupsByAccount:" + accountURI.getId(), 0, -1);
+			final Collection<String> allIds = jedis.smembers("allGroupsByAccount:" + accountURI.getId());
+			//accounts attached before nested groups
+			final Collection<String> ids = allIds.isEmpty() ? jedis.lrange("groupsByAccount:" + accountURI.getId(), 0, -1) : allIds;
 			for (final String id : ids) {
 				set.add(new URI<AccountGroup>(dtDefinition, id));
 			}
@@ -212,14 +864,7 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		}
 	}
 
-	private static Map<String, String> account2Map(final Account account) {
-		return new MapBuilder<String, String>()
-				.put("id", account.getId())
-				.put("displayName", account.getDisplayName())
-				.putNullable("email", account.getEmail())
-				.build();
-	}
-
+	//legacy layout : one hash field by attribute
 	private static Account map2Account(final Map<String, String> data) {
 		return new AccountBuilder(data.get("id"))
 				.withDisplayName(data.get("displayName"))
@@ -227,13 +872,6 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 				.build();
 	}
 
-	private static Map<String, String> group2Map(final AccountGroup group) {
-		return new MapBuilder<String, String>()
-				.put("id", group.getId())
-				.put("displayName", group.getDisplayName())
-				.build();
-	}
-
 	private static AccountGroup map2Group(final Map<String, String> data) {
 		return new AccountGroup(data.get("id"), data.get("displayName"));
 	}
@@ -265,6 +903,35 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		return Option.some(map2vFile(result));
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public void setThumbnail(final URI<Account> accountURI, final int size, final VFile thumbnail) {
+		Assertion.checkNotNull(accountURI);
+		Assertion.checkNotNull(thumbnail);
+		//-----
+		final Map<String, String> vFileMapThumbnail = vFile2Map(thumbnail);
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final Transaction tx = jedis.multi();
+			tx.hmset("thumbnailByAccount:" + size + ":" + accountURI.getId(), vFileMapThumbnail);
+			//sizes in use, so thumbnails are removed with their account
+			tx.sadd("thumbnailSizes", String.valueOf(size));
+			tx.exec();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<VFile> getThumbnail(final URI<Account> accountURI, final int size) {
+		final Map<String, String> result;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			result = jedis.hgetAll("thumbnailByAccount:" + size + ":" + accountURI.getId());
+		}
+		if (result.isEmpty()) {
+			return Option.none();
+		}
+		return Option.some(map2vFile(result));
+	}
+
 	private Map<String, String> vFile2Map(final VFile vFile) {
 		final String lastModified = new SimpleDateFormat(CODEC_DATE_FORMAT).format(vFile.getLastModified());
 		final String base64Content = encode2Base64(vFile);
@@ -315,4 +982,14 @@ public final class RedisAccountStorePlugin implements AccountStorePlugin {
 		}
 		return sb.toString();
 	}
+
+	private static final class CachedGroupHierarchy {
+		final String version;
+		final AccountGroupHierarchy groupHierarchy;
+
+		CachedGroupHierarchy(final String version, final AccountGroupHierarchy groupHierarchy) {
+			this.version = version;
+			this.groupHierarchy = groupHierarchy;
+		}
+	}
 }
@@ -0,0 +1,123 @@
+package io.vertigo.x.webapi.account;
+
+import io.vertigo.core.Home;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.impl.account.StaticFile;
+import io.vertigo.x.impl.account.TransferableFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves account photos (map it on /api/accounts/*), before the generic file rendering of web services.
+ * Default photo and its thumbnails are kept in memory : they are sent with their ETag (304 if unchanged),
+ * in one write from the shared buffer.
+ * Other photos are sent as they are read from the store (transferred from the file by the file system store).
+ * An invalid size is answered with 400.
+ *
+ * @author npiedeloup
+ */
+public final class AccountPhotoFilter implements Filter {
+	private static final Pattern PHOTO_PATH = Pattern.compile(".*/api/accounts/([^/]+)/photo");
+	private static final Pattern SIZE = Pattern.compile("[1-9][0-9]{0,4}");
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/** {@inheritDoc} */
+	@Override
+	public void init(final FilterConfig filterConfig) {
+		//nothing
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+		final HttpServletRequest httpRequest = (HttpServletRequest) request;
+		final Matcher matcher = PHOTO_PATH.matcher(httpRequest.getRequestURI());
+		if (!"GET".equals(httpRequest.getMethod()) || !matcher.matches()) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final URI<Account> accountURI = DtObjectUtil.createURI(Account.class, URLDecoder.decode(matcher.group(1), "UTF-8"));
+		final String size = httpRequest.getParameter("size");
+		final HttpServletResponse httpResponse = (HttpServletResponse) response;
+		if (size != null && !SIZE.matcher(size).matches()) {
+			httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "size must be a positive number of pixels");
+			return;
+		}
+		final AccountManager accountManager = Home.getComponentSpace().resolve(AccountManager.class);
+		final VFile photo = size == null ? accountManager.getPhoto(accountURI) : accountManager.getPhoto(accountURI, Integer.parseInt(size));
+		sendPhoto(photo, httpRequest, httpResponse);
+	}
+
+	private static void sendPhoto(final VFile photo, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		response.setContentType(photo.getMimeType());
+		if (photo instanceof StaticFile) {
+			final StaticFile staticFile = (StaticFile) photo;
+			//same url serves the account photo once set : client must revalidate
+			response.setHeader("Cache-Control", "no-cache");
+			response.setHeader("ETag", staticFile.getETag());
+			if (matchesETag(request.getHeader("If-None-Match"), staticFile.getETag())) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			response.setContentLength(photo.getLength().intValue());
+			staticFile.writeTo(response.getOutputStream());
+			return;
+		}
+		response.setContentLength(photo.getLength().intValue());
+		if (photo instanceof TransferableFile) {
+			((TransferableFile) photo).transferTo(Channels.newChannel(response.getOutputStream()));
+			return;
+		}
+		try (final InputStream in = photo.createInputStream()) {
+			final OutputStream out = response.getOutputStream();
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+	}
+
+	/**
+	 * @param ifNoneMatch If-None-Match header : *, or a list of entity tags (weak comparison)
+	 * @param eTag Entity tag of the photo (quoted)
+	 * @return if the client already has this photo
+	 */
+	private static boolean matchesETag(final String ifNoneMatch, final String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (final String requestedETag : ifNoneMatch.split(",")) {
+			final String trimmedETag = requestedETag.trim();
+			if ("*".equals(trimmedETag) || eTag.equals(trimmedETag.startsWith("W/") ? trimmedETag.substring(2) : trimmedETag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		//nothing
+	}
+}
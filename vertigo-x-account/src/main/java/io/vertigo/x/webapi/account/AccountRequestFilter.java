@@ -0,0 +1,46 @@
+package io.vertigo.x.webapi.account;
+
+import io.vertigo.x.impl.account.AccountRequestContext;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+
+/**
+ * Opens an account request context for each request on /x/* (registered by the servlet container) :
+ * the logged account, its account and its groups are resolved once per request by AccountManager.
+ *
+ * @author npiedeloup
+ */
+@WebFilter(urlPatterns = "/x/*", asyncSupported = true)
+public final class AccountRequestFilter implements Filter {
+
+	/** {@inheritDoc} */
+	@Override
+	public void init(final FilterConfig filterConfig) {
+		//nothing
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+		AccountRequestContext.begin();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			AccountRequestContext.end();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		//nothing
+	}
+}
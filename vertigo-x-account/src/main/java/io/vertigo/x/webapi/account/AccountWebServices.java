@@ -1,12 +1,15 @@
 package io.vertigo.x.webapi.account;
 
+import io.vertigo.dynamo.domain.model.URI;
 import io.vertigo.dynamo.domain.util.DtObjectUtil;
 import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Option;
 import io.vertigo.vega.webservice.WebServices;
 import io.vertigo.vega.webservice.stereotype.AnonymousAccessAllowed;
 import io.vertigo.vega.webservice.stereotype.GET;
 import io.vertigo.vega.webservice.stereotype.PathParam;
 import io.vertigo.vega.webservice.stereotype.PathPrefix;
+import io.vertigo.vega.webservice.stereotype.QueryParam;
 import io.vertigo.x.account.Account;
 import io.vertigo.x.account.AccountGroup;
 import io.vertigo.x.account.AccountManager;
@@ -44,15 +47,20 @@ public final class AccountWebServices implements WebServices {
 	}
 
 	/**
-	 * Get account by id.
+	 * Get account photo by id.
 	 *
 	 * @param id account id.
-	 * @return account
+	 * @param size requested size in pixels (optional, original photo if not set)
+	 * @return account photo
 	 */
 	@GET("/api/accounts/{id}/photo")
 	@AnonymousAccessAllowed
-	public VFile getAccountPhoto(@PathParam("id") final String id) {
-		return accountManager.getPhoto(DtObjectUtil.createURI(Account.class, id));
+	public VFile getAccountPhoto(@PathParam("id") final String id, @QueryParam("size") final Option<Integer> size) {
+		final URI<Account> accountURI = DtObjectUtil.createURI(Account.class, id);
+		if (size.isDefined()) {
+			return accountManager.getPhoto(accountURI, size.get());
+		}
+		return accountManager.getPhoto(accountURI);
 	}
 
 	/**
@@ -22,7 +22,27 @@ import io.vertigo.core.App;
 import io.vertigo.core.Home;
 import io.vertigo.core.component.di.injector.Injector;
 import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.persona.security.VSecurityManager;
 import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.account.data.TestUserSession;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.account.AccountRequestContext;
+import io.vertigo.x.impl.account.StaticFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import javax.inject.Inject;
 
@@ -31,17 +51,28 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import redis.clients.jedis.Jedis;
+
 public final class AccountManagerTest {
 	private App app;
 
 	@Inject
 	private AccountManager accountManager;
+	@Inject
+	private VSecurityManager securityManager;
+	@Inject
+	private RedisConnector redisConnector;
 
 	private URI<Account> accountURI0;
 	private URI<Account> accountURI1;
 	private URI<Account> accountURI2;
 	private URI<AccountGroup> groupURI;
 	private URI<AccountGroup> groupAllURI;
+	//parent group of nested groups tests : deleted after each test, with its edges
+	private URI<AccountGroup> parentGroupURI;
+	//synced accounts : ids of this test only, deleted after it with their fingerprints
+	private final String syncPrefix = "sync-" + UUID.randomUUID() + "-";
+	private final List<URI<Account>> syncedAccountURIs = new ArrayList<>();
 
 	@Before
 	public void setUp() {
@@ -53,6 +84,7 @@ public final class AccountManagerTest {
 		accountURI2 = Accounts.createAccountURI("2");
 		groupURI = Accounts.createGroupURI("100");
 		groupAllURI = Accounts.createGroupURI("ALL");
+		parentGroupURI = Accounts.createGroupURI("200");
 
 		Accounts.initData(accountManager);
 	}
@@ -60,7 +92,14 @@ public final class AccountManagerTest {
 	@After
 	public void tearDown() {
 		if (app != null) {
-			app.close();
+			try {
+				//redis is shared by all tests : groups of initData are no longer nested
+				accountManager.deleteGroup(parentGroupURI);
+				//and synced accounts are neither counted nor deleted by the next sync
+				accountManager.deleteAccounts(syncedAccountURIs);
+			} finally {
+				app.close();
+			}
 		}
 	}
 
@@ -70,6 +109,130 @@ public final class AccountManagerTest {
 		Assert.assertEquals(10 + 3, accountManager.getAccountsCount());
 	}
 
+	@Test
+	public void testImportAccounts() {
+		final long accountsCount = accountManager.getAccountsCount();
+		final List<Long> checkpoints = new ArrayList<>();
+		final AccountImportListener listener = new AccountImportListener() {
+			@Override
+			public void onProgress(final long checkpoint) {
+				checkpoints.add(checkpoint);
+			}
+		};
+		try {
+			Assert.assertEquals(2500, accountManager.importAccounts(createImportAccounts(2500), 0, listener));
+			Assert.assertEquals(Arrays.asList(1000L, 2000L, 2500L), checkpoints);
+			Assert.assertEquals(accountsCount + 2500, accountManager.getAccountsCount());
+			Assert.assertEquals("Imported 2499", accountManager.getAccount(Accounts.createAccountURI("import-2499")).getDisplayName());
+
+			//resumed import : the last chunk is stored again, without duplicates
+			checkpoints.clear();
+			Assert.assertEquals(2500, accountManager.importAccounts(createImportAccounts(2500), 2000, listener));
+			Assert.assertEquals(Arrays.asList(2500L), checkpoints);
+			Assert.assertEquals(accountsCount + 2500, accountManager.getAccountsCount());
+		} finally {
+			//redis is shared by all tests : imported accounts would be counted by the others
+			final List<URI<Account>> importedAccountURIs = new ArrayList<>();
+			for (final Iterator<Account> it = createImportAccounts(2500); it.hasNext();) {
+				importedAccountURIs.add(Accounts.createAccountURI(it.next().getId()));
+			}
+			accountManager.deleteAccounts(importedAccountURIs);
+		}
+		Assert.assertEquals(accountsCount, accountManager.getAccountsCount());
+	}
+
+	private static Iterator<Account> createImportAccounts(final int count) {
+		return new Iterator<Account>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			@Override
+			public Account next() {
+				final Account account = new AccountBuilder("import-" + next).withDisplayName("Imported " + next).build();
+				next++;
+				return account;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Test
+	public void testSyncAccounts() {
+		final long accountsCount = accountManager.getAccountsCount();
+		final Map<String, Set<URI<AccountGroup>>> groupURIsByAccountId = new HashMap<>();
+		groupURIsByAccountId.put(syncId(1), Collections.singleton(groupURI));
+		final List<Account> accounts = Arrays.asList(
+				createSyncAccount(1, "Sync 1"),
+				createSyncAccount(2, "Sync 2"),
+				createSyncAccount(3, "Sync 3"));
+		AccountSyncSummary summary = accountManager.syncAccounts(accounts, groupURIsByAccountId);
+		Assert.assertEquals(3, summary.getCreated());
+		Assert.assertEquals(1, summary.getAttached());
+		Assert.assertEquals(accountsCount + 3, accountManager.getAccountsCount());
+		Assert.assertEquals(3, accountManager.getAccountURIs(groupURI).size());
+
+		summary = accountManager.syncAccounts(accounts, groupURIsByAccountId);
+		Assert.assertEquals(3, summary.getUnchanged());
+		Assert.assertEquals(0, summary.getCreated() + summary.getUpdated() + summary.getDeleted() + summary.getAttached() + summary.getDetached());
+
+		//sync 1 moves to ALL, sync 2 is renamed, sync 3 is removed
+		groupURIsByAccountId.put(syncId(1), Collections.singleton(groupAllURI));
+		summary = accountManager.syncAccounts(Arrays.asList(
+				accounts.get(0),
+				createSyncAccount(2, "Sync 2 renamed")), groupURIsByAccountId);
+		Assert.assertEquals(0, summary.getCreated());
+		Assert.assertEquals(2, summary.getUpdated());
+		Assert.assertEquals(1, summary.getDeleted());
+		Assert.assertEquals(1, summary.getAttached());
+		Assert.assertEquals(1, summary.getDetached());
+		Assert.assertEquals(accountsCount + 2, accountManager.getAccountsCount());
+		Assert.assertEquals("Sync 2 renamed", accountManager.getAccount(Accounts.createAccountURI(syncId(2))).getDisplayName());
+		Assert.assertEquals(2, accountManager.getAccountURIs(groupURI).size());
+	}
+
+	@Test
+	public void testSyncAccountsChangedByOtherMeans() {
+		final Map<String, Set<URI<AccountGroup>>> groupURIsByAccountId = new HashMap<>();
+		groupURIsByAccountId.put(syncId(0), Collections.singleton(groupAllURI));
+		//sync 0 is stored before any sync : updated, not created
+		final Account storedAccount = createSyncAccount(0, "Sync 0");
+		accountManager.saveAccounts(Collections.singletonList(storedAccount));
+		accountManager.attach(Accounts.createAccountURI(storedAccount.getId()), groupAllURI);
+		final long accountsCount = accountManager.getAccountsCount();
+		final List<Account> accounts = Arrays.asList(storedAccount, createSyncAccount(4, "Sync 4"));
+		AccountSyncSummary summary = accountManager.syncAccounts(accounts, groupURIsByAccountId);
+		Assert.assertEquals(1, summary.getCreated());
+		Assert.assertEquals(1, summary.getUpdated());
+		Assert.assertEquals(0, summary.getAttached() + summary.getDetached());
+
+		//sync 4 renamed by other means, then missing from the reference : still deleted
+		accountManager.saveAccounts(Collections.singletonList(createSyncAccount(4, "Sync 4 renamed")));
+		summary = accountManager.syncAccounts(accounts.subList(0, 1), groupURIsByAccountId);
+		Assert.assertEquals(1, summary.getUnchanged());
+		Assert.assertEquals(1, summary.getDeleted());
+		Assert.assertEquals(accountsCount, accountManager.getAccountsCount());
+	}
+
+	private String syncId(final int i) {
+		return syncPrefix + i;
+	}
+
+	private Account createSyncAccount(final int i, final String displayName) {
+		final URI<Account> accountURI = Accounts.createAccountURI(syncId(i));
+		if (!syncedAccountURIs.contains(accountURI)) {
+			syncedAccountURIs.add(accountURI);
+		}
+		return new AccountBuilder(syncId(i)).withDisplayName(displayName).build();
+	}
+
 	@Test
 	public void testGroups() {
 		Assert.assertEquals(2, accountManager.getGroupsCount());
@@ -95,4 +258,258 @@ public final class AccountManagerTest {
 		Assert.assertEquals(10 + 3, accountManager.getAccountURIs(groupAllURI).size());
 	}
 
+	@Test
+	public void testGroupsAlgebra() {
+		final Set<URI<Account>> notInGroup = accountManager.getAccountURIs(Collections.singletonList(groupAllURI), Collections.singletonList(groupURI));
+		Assert.assertEquals(10 + 1, notInGroup.size());
+		Assert.assertTrue(notInGroup.contains(accountURI0));
+		Assert.assertFalse(notInGroup.contains(accountURI1));
+
+		final Set<URI<Account>> inBoth = accountManager.getAccountURIs(Arrays.asList(groupAllURI, groupURI), Collections.<URI<AccountGroup>> emptyList());
+		Assert.assertEquals(2, inBoth.size());
+		Assert.assertTrue(inBoth.contains(accountURI1));
+		Assert.assertTrue(inBoth.contains(accountURI2));
+
+		Assert.assertEquals(10 + 3, accountManager.getAccountURIsOfAnyGroup(Arrays.asList(groupURI, groupAllURI)).size());
+		Assert.assertTrue(accountManager.getAccountURIs(Collections.singletonList(groupURI), Collections.singletonList(groupAllURI)).isEmpty());
+	}
+
+	@Test
+	public void testNestedGroups() {
+		accountManager.saveGroup(new AccountGroup("200", "Hall of fame"));
+		accountManager.attachGroup(groupURI, parentGroupURI);
+		Assert.assertEquals(2, accountManager.getAccountURIs(parentGroupURI).size());
+		Assert.assertEquals(3, accountManager.getGroupURIs(accountURI1).size());
+		Assert.assertTrue(accountManager.getGroupURIs(accountURI1).contains(parentGroupURI));
+
+		accountManager.attach(accountURI0, groupURI);
+		Assert.assertEquals(3, accountManager.getAccountURIs(parentGroupURI).size());
+		accountManager.detach(accountURI1, groupURI);
+		Assert.assertEquals(2, accountManager.getAccountURIs(parentGroupURI).size());
+		Assert.assertEquals(1, accountManager.getGroupURIs(accountURI1).size());
+
+		accountManager.detachGroup(groupURI, parentGroupURI);
+		Assert.assertEquals(0, accountManager.getAccountURIs(parentGroupURI).size());
+		Assert.assertEquals(2, accountManager.getGroupURIs(accountURI2).size());
+	}
+
+	@Test
+	public void testGroupSet() {
+		final AccountGroupSet groupSet = accountManager.getGroupSet(accountURI1);
+		Assert.assertTrue(groupSet.isInGroup(groupURI));
+		Assert.assertTrue(groupSet.isInGroup(groupAllURI));
+		Assert.assertFalse(accountManager.getGroupSet(accountURI0).isInGroup(groupURI));
+		Assert.assertTrue(accountManager.getGroupSet(accountURI0).isInAnyGroup(Arrays.asList(groupURI, groupAllURI)));
+		//kept in memory
+		Assert.assertSame(groupSet, accountManager.getGroupSet(accountURI1));
+		//-----
+		accountManager.detach(accountURI1, groupURI);
+		final AccountGroupSet detachedGroupSet = accountManager.getGroupSet(accountURI1);
+		Assert.assertFalse(detachedGroupSet.isInGroup(groupURI));
+		Assert.assertTrue(detachedGroupSet.getVersion() > groupSet.getVersion());
+		//nested groups
+		accountManager.saveGroup(new AccountGroup("200", "Hall of fame"));
+		Assert.assertFalse(accountManager.getGroupSet(accountURI2).isInGroup(parentGroupURI));
+		accountManager.attachGroup(groupURI, parentGroupURI);
+		Assert.assertTrue(accountManager.getGroupSet(accountURI2).isInGroup(parentGroupURI));
+		Assert.assertFalse(accountManager.getGroupSet(accountURI1).isInGroup(parentGroupURI));
+	}
+
+	@Test
+	public void testDeleteAccounts() {
+		accountManager.setPhoto(accountURI1, accountManager.getPhoto(accountURI0));
+		Assert.assertFalse(accountManager.getPhoto(accountURI1) instanceof StaticFile);
+		//-----
+		accountManager.deleteAccounts(Collections.singletonList(accountURI1));
+		Assert.assertEquals(10 + 2, accountManager.getAccountsCount());
+		Assert.assertEquals(Collections.singleton(accountURI2), new HashSet<>(accountManager.getAccountURIs(groupURI)));
+		Assert.assertEquals(10 + 2, accountManager.getAccountURIs(groupAllURI).size());
+		Assert.assertFalse(accountManager.getAccountURIs(groupAllURI).contains(accountURI1));
+		//photo and thumbnails are removed : default photo
+		Assert.assertTrue(accountManager.getPhoto(accountURI1) instanceof StaticFile);
+		Assert.assertTrue(accountManager.getPhoto(accountURI1, 32) instanceof StaticFile);
+	}
+
+	@Test
+	public void testDeleteGroup() {
+		accountManager.saveGroup(new AccountGroup("200", "Hall of fame"));
+		accountManager.attachGroup(groupURI, parentGroupURI);
+		final long groupsCount = accountManager.getGroupsCount();
+		//-----
+		accountManager.deleteGroup(groupURI);
+		Assert.assertEquals(groupsCount - 1, accountManager.getGroupsCount());
+		Assert.assertEquals(Collections.singleton(groupAllURI), accountManager.getGroupURIs(accountURI1));
+		Assert.assertEquals(Collections.singleton(groupAllURI), accountManager.getGroupURIs(accountURI2));
+		//members of the group were members of its parent through it
+		Assert.assertTrue(accountManager.getAccountURIs(parentGroupURI).isEmpty());
+		Assert.assertEquals(10 + 3, accountManager.getAccountURIs(groupAllURI).size());
+		for (final AccountGroup group : accountManager.getAllGroups()) {
+			Assert.assertFalse("100".equals(group.getId()));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNestedGroupsCycle() {
+		accountManager.saveGroup(new AccountGroup("200", "Hall of fame"));
+		accountManager.attachGroup(groupURI, parentGroupURI);
+		try {
+			accountManager.attachGroup(parentGroupURI, groupURI);
+		} finally {
+			accountManager.detachGroup(groupURI, parentGroupURI);
+		}
+	}
+
+	@Test
+	public void testNestedGroupsConcurrentCycle() throws InterruptedException {
+		accountManager.saveGroup(new AccountGroup("200", "Hall of fame"));
+		//reverse edges written concurrently : only one of them is kept
+		final List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<RuntimeException>());
+		final Thread[] threads = {
+				new AttachGroupThread(groupURI, parentGroupURI, errors),
+				new AttachGroupThread(parentGroupURI, groupURI, errors) };
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(1, errors.size());
+		Assert.assertTrue(errors.get(0) instanceof IllegalArgumentException);
+		final boolean childAttached = accountManager.getGroupURIs(accountURI1).contains(parentGroupURI);
+		Assert.assertEquals(childAttached ? 3 : 2, accountManager.getGroupURIs(accountURI1).size());
+	}
+
+	private final class AttachGroupThread extends Thread {
+		private final URI<AccountGroup> child;
+		private final URI<AccountGroup> parent;
+		private final List<RuntimeException> errors;
+
+		AttachGroupThread(final URI<AccountGroup> child, final URI<AccountGroup> parent, final List<RuntimeException> errors) {
+			this.child = child;
+			this.parent = parent;
+			this.errors = errors;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void run() {
+			try {
+				accountManager.attachGroup(child, parent);
+			} catch (final RuntimeException e) {
+				errors.add(e);
+			}
+		}
+	}
+
+	@Test
+	public void testLegacyGroupsAreKeptOnAttach() {
+		accountManager.saveGroup(new AccountGroup("legacyGroup", "Legacy group"));
+		accountManager.saveGroup(new AccountGroup("newGroup", "New group"));
+		accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("legacyMember").withDisplayName("Legacy member").build()));
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//attached before nested groups : only the direct groups list
+			jedis.del("allGroupsByAccount:legacyMember");
+			jedis.lpush("groupsByAccount:legacyMember", "legacyGroup");
+			jedis.lpush("accountsByGroup:legacyGroup", "legacyMember");
+		}
+		final URI<Account> accountURI = Accounts.createAccountURI("legacyMember");
+		final URI<AccountGroup> legacyGroupURI = Accounts.createGroupURI("legacyGroup");
+		final URI<AccountGroup> newGroupURI = Accounts.createGroupURI("newGroup");
+		try {
+			Assert.assertEquals(Collections.singleton(legacyGroupURI), accountManager.getGroupURIs(accountURI));
+			//first attach : the legacy group is kept
+			accountManager.attach(accountURI, newGroupURI);
+			Assert.assertEquals(new HashSet<>(Arrays.asList(legacyGroupURI, newGroupURI)), accountManager.getGroupURIs(accountURI));
+			accountManager.detach(accountURI, newGroupURI);
+			Assert.assertEquals(Collections.singleton(legacyGroupURI), accountManager.getGroupURIs(accountURI));
+		} finally {
+			accountManager.deleteAccounts(Collections.singletonList(accountURI));
+			accountManager.deleteGroup(legacyGroupURI);
+			accountManager.deleteGroup(newGroupURI);
+		}
+	}
+
+	@Test
+	public void testEvents() {
+		final List<AccountEvent> events = new ArrayList<>();
+		accountManager.addEventListener(new AccountEventListener() {
+			@Override
+			public void onEvent(final AccountEvent event) {
+				events.add(event);
+			}
+		});
+		accountManager.detach(accountURI1, groupURI);
+		accountManager.attach(accountURI1, groupURI);
+		Assert.assertEquals(2, events.size());
+		Assert.assertEquals(AccountEvent.Type.DETACHED, events.get(0).getType());
+		Assert.assertEquals(AccountEvent.Type.ATTACHED, events.get(1).getType());
+		Assert.assertEquals(Collections.singletonList(accountURI1), events.get(1).getAccountURIs());
+		Assert.assertEquals(Collections.singletonList(groupURI), events.get(1).getGroupURIs());
+		Assert.assertTrue(events.get(1).getSequence() > events.get(0).getSequence());
+
+		accountManager.saveAccounts(Collections.singletonList(accountManager.getAccount(accountURI0)));
+		Assert.assertEquals(AccountEvent.Type.ACCOUNTS_SAVED, events.get(2).getType());
+		Assert.assertEquals(Collections.singletonList(accountURI0), events.get(2).getAccountURIs());
+	}
+
+	@Test
+	public void testLoggedAccountByRequest() {
+		securityManager.startCurrentUserSession(securityManager.<TestUserSession> createUserSession());
+		AccountRequestContext.begin();
+		try {
+			accountManager.login(accountURI1);
+			Assert.assertEquals(accountURI1, accountManager.getLoggedAccount());
+			final Account loggedAccount = accountManager.getAccount(accountManager.getLoggedAccount());
+			//resolved once by request
+			Assert.assertSame(loggedAccount, accountManager.getAccount(accountURI1));
+			Assert.assertSame(accountManager.getGroupURIs(accountURI1), accountManager.getGroupURIs(accountURI1));
+			//a write drops it
+			accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("1").withDisplayName("Palmer").build()));
+			Assert.assertEquals("Palmer", accountManager.getAccount(accountURI1).getDisplayName());
+			accountManager.detach(accountURI1, groupURI);
+			Assert.assertFalse(accountManager.getGroupURIs(accountURI1).contains(groupURI));
+		} finally {
+			AccountRequestContext.end();
+			securityManager.stopCurrentUserSession();
+		}
+	}
+
+	@Test
+	public void testPhoto() {
+		final VFile defaultPhoto = accountManager.getPhoto(accountURI0);
+		accountManager.setPhoto(accountURI1, defaultPhoto);
+		//-----
+		Assert.assertEquals(defaultPhoto.getLength(), accountManager.getPhoto(accountURI1).getLength());
+		final VFile thumbnail = accountManager.getPhoto(accountURI1, 32);
+		Assert.assertTrue(thumbnail.getLength() < defaultPhoto.getLength());
+		//size bigger than all thumbnails : original photo
+		Assert.assertEquals(defaultPhoto.getLength(), accountManager.getPhoto(accountURI1, 1024).getLength());
+		//no photo : default thumbnail
+		Assert.assertEquals(thumbnail.getLength(), accountManager.getPhoto(accountURI2, 32).getLength());
+	}
+
+	@Test
+	public void testDefaultPhotoInMemory() throws IOException {
+		final VFile defaultPhoto = accountManager.getPhoto(accountURI0);
+		Assert.assertTrue(defaultPhoto instanceof StaticFile);
+		Assert.assertSame(defaultPhoto, accountManager.getPhoto(accountURI2));
+		Assert.assertTrue(accountManager.getPhoto(accountURI2, 32) instanceof StaticFile);
+		//-----
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		((StaticFile) defaultPhoto).writeTo(written);
+		Assert.assertEquals(defaultPhoto.getLength().intValue(), written.size());
+		//each download reads the same content
+		for (int i = 0; i < 2; i++) {
+			final ByteArrayOutputStream read = new ByteArrayOutputStream();
+			try (final InputStream in = defaultPhoto.createInputStream()) {
+				final byte[] buffer = new byte[1024];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					read.write(buffer, 0, count);
+				}
+			}
+			Assert.assertArrayEquals(written.toByteArray(), read.toByteArray());
+		}
+		Assert.assertFalse(((StaticFile) defaultPhoto).getETag().equals(((StaticFile) accountManager.getPhoto(accountURI2, 32)).getETag()));
+	}
 }
@@ -0,0 +1,160 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.util.MapBuilder;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.account.data.TestFiles;
+import io.vertigo.x.account.data.TestServlets;
+import io.vertigo.x.webapi.account.AccountPhotoFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Photos served by the filter : default photo with its ETag, stored photos from the file system store.
+ * @author npiedeloup
+ */
+public final class AccountPhotoFilterTest {
+	private static final String PHOTO_PATH = "/x/account/api/accounts/{id}/photo";
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+
+	private final AccountPhotoFilter filter = new AccountPhotoFilter();
+	private boolean chained;
+	private Path photoDir;
+
+	@Before
+	public void setUp() throws IOException {
+		photoDir = Files.createTempDirectory("photos");
+		app = new App(MyAppConfig.fsPhotoConfig(photoDir.toString()));
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (app != null) {
+			app.close();
+		}
+		TestFiles.deleteDirectory(photoDir);
+	}
+
+	@Test
+	public void testDefaultPhoto() throws IOException, ServletException {
+		final TestServlets.TestResponse response = get("0", Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap());
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertArrayEquals(readAll(accountManager.getPhoto(Accounts.createAccountURI("0"))), response.getBody());
+		final String eTag = response.getHeader("ETag");
+		Assert.assertNotNull(eTag);
+
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, getIfNoneMatch(eTag).getStatus());
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, getIfNoneMatch("\"other\", W/" + eTag).getStatus());
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, getIfNoneMatch("*").getStatus());
+		final TestServlets.TestResponse modified = getIfNoneMatch("\"other\"");
+		Assert.assertEquals(HttpServletResponse.SC_OK, modified.getStatus());
+		Assert.assertArrayEquals(response.getBody(), modified.getBody());
+	}
+
+	@Test
+	public void testStoredPhoto() throws IOException, ServletException {
+		accountManager.setPhoto(Accounts.createAccountURI("1"), accountManager.getPhoto(Accounts.createAccountURI("0")));
+		final TestServlets.TestResponse response = get("1", Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap());
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertNull(response.getHeader("ETag"));
+		Assert.assertArrayEquals(readAll(accountManager.getPhoto(Accounts.createAccountURI("1"))), response.getBody());
+
+		final TestServlets.TestResponse thumbnail = get("1", Collections.singletonMap("size", "32"), Collections.<String, String> emptyMap());
+		Assert.assertEquals(HttpServletResponse.SC_OK, thumbnail.getStatus());
+		Assert.assertArrayEquals(readAll(accountManager.getPhoto(Accounts.createAccountURI("1"), 32)), thumbnail.getBody());
+		Assert.assertEquals(String.valueOf(thumbnail.getBody().length), thumbnail.getHeader("Content-Length"));
+	}
+
+	@Test
+	public void testInvalidSize() throws IOException, ServletException {
+		for (final String size : new String[] { "abc", "0", "-32", "99999999999" }) {
+			Assert.assertEquals(size, HttpServletResponse.SC_BAD_REQUEST, get("0", Collections.singletonMap("size", size), Collections.<String, String> emptyMap()).getStatus());
+		}
+	}
+
+	@Test
+	public void testOtherRequests() throws IOException, ServletException {
+		final TestServlets.TestResponse response = new TestServlets.TestResponse();
+		filter.doFilter(TestServlets.createRequest("GET", "/x/account/api/accounts/0", Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap()), response.asServletResponse(), new ChainCheck());
+		Assert.assertTrue(chained);
+		chained = false;
+		filter.doFilter(TestServlets.createRequest("PUT", PHOTO_PATH.replace("{id}", "0"), Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap()), response.asServletResponse(), new ChainCheck());
+		Assert.assertTrue(chained);
+	}
+
+	private TestServlets.TestResponse getIfNoneMatch(final String ifNoneMatch) throws IOException, ServletException {
+		final Map<String, String> headers = new MapBuilder<String, String>().put("If-None-Match", ifNoneMatch).build();
+		return get("0", Collections.<String, String> emptyMap(), headers);
+	}
+
+	private TestServlets.TestResponse get(final String id, final Map<String, String> parameters, final Map<String, String> headers) throws IOException, ServletException {
+		final TestServlets.TestResponse response = new TestServlets.TestResponse();
+		filter.doFilter(TestServlets.createRequest("GET", PHOTO_PATH.replace("{id}", id), parameters, headers), response.asServletResponse(), new ChainCheck());
+		Assert.assertFalse(chained);
+		return response;
+	}
+
+	private static byte[] readAll(final VFile file) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final InputStream in = file.createInputStream()) {
+			final byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private final class ChainCheck implements FilterChain {
+		/** {@inheritDoc} */
+		@Override
+		public void doFilter(final ServletRequest request, final ServletResponse response) {
+			chained = true;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.commons.codec.CodecManager;
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.util.MapBuilder;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.account.AccountRecords;
+import io.vertigo.x.plugins.account.redis.RedisAccountStorePlugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Compares accounts stored as hashes (one field by attribute) and as binary records : records use less redis memory
+ * and are decoded about as fast.
+ * @author pchretien
+ */
+public final class AccountRecordBenchmarkTest {
+	private static final Logger LOG = Logger.getLogger(AccountRecordBenchmarkTest.class);
+	private static final int ACCOUNTS = 10 * 1000;
+	//decoding a record may be slower than a map lookup, but not by much
+	private static final int MAX_DECODE_RATIO = 3;
+	private App app;
+
+	@Inject
+	private RedisConnector redisConnector;
+	@Inject
+	private CodecManager codecManager;
+
+	private RedisAccountStorePlugin redisStore;
+	private final List<URI<Account>> recordAccountURIs = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.config());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		redisStore = new RedisAccountStorePlugin(redisConnector, codecManager);
+	}
+
+	@After
+	public void tearDown() {
+		if (app != null) {
+			cleanBenchmarkAccounts();
+			app.close();
+		}
+	}
+
+	private void cleanBenchmarkAccounts() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final Pipeline pipeline = jedis.pipelined();
+			for (int i = 0; i < ACCOUNTS; i++) {
+				pipeline.del("hashAccount:" + i);
+			}
+			pipeline.sync();
+		}
+		redisStore.deleteAccounts(recordAccountURIs);
+	}
+
+	@Test
+	public void testLegacyHashIsRead() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			jedis.hmset("account:legacy", toMap(createAccount("legacy")));
+		}
+		final Account account = redisStore.getAccount(Accounts.createAccountURI("legacy"));
+		Assert.assertEquals("Account legacy", account.getDisplayName());
+		Assert.assertEquals("legacy@vertigo.io", account.getEmail());
+		//saving again migrates to a record
+		redisStore.saveAccounts(Collections.singletonList(account));
+		Assert.assertEquals("Account legacy", redisStore.getAccount(Accounts.createAccountURI("legacy")).getDisplayName());
+	}
+
+	@Test
+	public void testHashAgainstRecord() {
+		final long memoryBefore = usedMemory();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final Pipeline pipeline = jedis.pipelined();
+			for (int i = 0; i < ACCOUNTS; i++) {
+				pipeline.hmset("hashAccount:" + i, toMap(createAccount("hash-" + i)));
+			}
+			pipeline.sync();
+		}
+		final long hashMemory = usedMemory() - memoryBefore;
+
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accounts.add(createAccount("record-" + i));
+			recordAccountURIs.add(Accounts.createAccountURI("record-" + i));
+		}
+		final long recordBefore = usedMemory();
+		redisStore.saveAccounts(accounts);
+		//saveAccounts also lists accounts ids
+		final long recordMemory = usedMemory() - recordBefore;
+		Assert.assertTrue("record : " + recordMemory + " bytes, hash : " + hashMemory + " bytes", recordMemory < hashMemory);
+
+		for (int i = 0; i < ACCOUNTS; i++) {
+			Assert.assertEquals("Account record-" + i, redisStore.getAccount(recordAccountURIs.get(i)).getDisplayName());
+		}
+	}
+
+	@Test
+	public void testDecodeHashAgainstRecord() {
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accounts.add(createAccount("record-" + i));
+			recordAccountURIs.add(Accounts.createAccountURI("record-" + i));
+		}
+		redisStore.saveAccounts(accounts);
+		final List<Response<Map<String, String>>> hashResponses = new ArrayList<>();
+		final List<Response<byte[]>> recordResponses = new ArrayList<>();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final Pipeline pipeline = jedis.pipelined();
+			for (int i = 0; i < ACCOUNTS; i++) {
+				pipeline.hmset("hashAccount:" + i, toMap(createAccount("hash-" + i)));
+			}
+			pipeline.sync();
+			//values read first : only decoding is measured
+			final Pipeline readPipeline = jedis.pipelined();
+			for (int i = 0; i < ACCOUNTS; i++) {
+				hashResponses.add(readPipeline.hgetAll("hashAccount:" + i));
+				recordResponses.add(readPipeline.get(SafeEncoder.encode("account:record-" + i)));
+			}
+			readPipeline.sync();
+		}
+
+		final long hashStart = System.nanoTime();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			final Account account = fromMap(hashResponses.get(i).get());
+			Assert.assertEquals("Account hash-" + i, account.getDisplayName());
+		}
+		final long hashNanos = System.nanoTime() - hashStart;
+
+		final long recordStart = System.nanoTime();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			final Account account = AccountRecords.decodeAccount(recordResponses.get(i).get());
+			Assert.assertEquals("Account record-" + i, account.getDisplayName());
+		}
+		final long recordNanos = System.nanoTime() - recordStart;
+		LOG.info(String.format("decode of %d accounts : record %.2f ms, hash %.2f ms", ACCOUNTS, recordNanos / 1000000d, hashNanos / 1000000d));
+		//records are smaller, not slower to read
+		Assert.assertTrue("record : " + recordNanos + " ns, hash : " + hashNanos + " ns", recordNanos < MAX_DECODE_RATIO * hashNanos);
+	}
+
+	private static Account createAccount(final String id) {
+		return new AccountBuilder(id)
+				.withDisplayName("Account " + id)
+				.withEmail(id + "@vertigo.io")
+				.build();
+	}
+
+	private static Account fromMap(final Map<String, String> data) {
+		return new AccountBuilder(data.get("id"))
+				.withDisplayName(data.get("displayName"))
+				.withEmail(data.get("email"))
+				.build();
+	}
+
+	private static Map<String, String> toMap(final Account account) {
+		return new MapBuilder<String, String>()
+				.put("id", account.getId())
+				.put("displayName", account.getDisplayName())
+				.put("email", account.getEmail())
+				.build();
+	}
+
+	private long usedMemory() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			for (final String line : jedis.info("memory").split("\r\n")) {
+				if (line.startsWith("used_memory:")) {
+					return Long.parseLong(line.substring("used_memory:".length()));
+				}
+			}
+		}
+		throw new IllegalStateException("used_memory not found");
+	}
+}
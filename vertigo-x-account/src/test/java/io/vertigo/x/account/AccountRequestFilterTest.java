@@ -0,0 +1,145 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.persona.security.VSecurityManager;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.account.data.TestServlets;
+import io.vertigo.x.account.data.TestUserSession;
+import io.vertigo.x.webapi.account.AccountRequestFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Logged account resolved once by request on /x/*, and only while the request is filtered.
+ * Another request renames the logged account in the middle of a request.
+ * @author npiedeloup
+ */
+public final class AccountRequestFilterTest {
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private VSecurityManager securityManager;
+
+	private final AccountRequestFilter filter = new AccountRequestFilter();
+	private final HttpServletRequest request = TestServlets.createRequest("GET", "/x/comment/api/comments", Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap());
+	private final TestServlets.TestResponse response = new TestServlets.TestResponse();
+	private URI<Account> accountURI;
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.config());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		accountURI = Accounts.createAccountURI("1");
+		securityManager.startCurrentUserSession(securityManager.<TestUserSession> createUserSession());
+		accountManager.login(accountURI);
+	}
+
+	@After
+	public void tearDown() {
+		securityManager.stopCurrentUserSession();
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testLoggedAccountByRequest() throws IOException, ServletException {
+		final List<String> displayNames = new ArrayList<>();
+		filter.doFilter(request, response.asServletResponse(), new FilterChain() {
+			@Override
+			public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse) {
+				displayNames.add(readLoggedDisplayName());
+				renameByOtherRequest("Palmer");
+				displayNames.add(readLoggedDisplayName());
+				Assert.assertEquals(2, accountManager.getGroupURIs(accountManager.getLoggedAccount()).size());
+			}
+		});
+		//resolved once in the request, read again by the next one
+		Assert.assertEquals(Arrays.asList("Palmer Luckey", "Palmer Luckey"), displayNames);
+		filter.doFilter(request, response.asServletResponse(), new FilterChain() {
+			@Override
+			public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse) {
+				displayNames.add(readLoggedDisplayName());
+			}
+		});
+		Assert.assertEquals("Palmer", displayNames.get(2));
+	}
+
+	@Test
+	public void testRequestClosedOnError() throws IOException {
+		try {
+			filter.doFilter(request, response.asServletResponse(), new FilterChain() {
+				@Override
+				public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse) throws ServletException {
+					readLoggedDisplayName();
+					throw new ServletException("request failed");
+				}
+			});
+			Assert.fail();
+		} catch (final ServletException e) {
+			//expected
+		}
+		//outside of a request nothing is cached
+		renameByOtherRequest("Palmer");
+		Assert.assertEquals("Palmer", readLoggedDisplayName());
+	}
+
+	private String readLoggedDisplayName() {
+		return accountManager.getAccount(accountManager.getLoggedAccount()).getDisplayName();
+	}
+
+	private void renameByOtherRequest(final String displayName) {
+		final Thread otherRequest = new Thread() {
+			@Override
+			public void run() {
+				accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("1").withDisplayName(displayName).withEmail("palmer.luckey@yopmail.com").build()));
+			}
+		};
+		otherRequest.start();
+		try {
+			otherRequest.join();
+		} catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -30,6 +30,11 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
 		AccountManagerTest.class,
+		AccountRequestFilterTest.class,
+		AccountPhotoFilterTest.class,
+		FsAccountStoreTest.class,
+		JdbcAccountStoreTest.class,
+		RedisAccountEventTest.class,
 		AccountWebServicesTest.class
 })
 public final class AccountTestSuite {
@@ -72,6 +72,11 @@ public final class AccountWebServicesTest {
 		assertStatusCode(HttpStatus.SC_OK, "/x/account/api/accounts/1/photo");
 	}
 
+	@Test
+	public void testGetPhotoThumbnailByAccountId() {
+		assertStatusCode(HttpStatus.SC_OK, "/x/account/api/accounts/1/photo?size=32");
+	}
+
 	@Test
 	public void testGetAllGroups() {
 		assertStatusCode(HttpStatus.SC_OK, "/x/account/api/groups");
@@ -0,0 +1,158 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.account.data.TestFiles;
+import io.vertigo.x.impl.account.StaticFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Accounts stored on file system must survive a restart.
+ * @author pchretien
+ */
+public final class FsAccountStoreTest {
+	private App app;
+	private Path path;
+
+	@Inject
+	private AccountManager accountManager;
+
+	@Before
+	public void setUp() throws IOException {
+		path = Files.createTempDirectory("accounts");
+		start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try {
+			if (app != null) {
+				//waits for the compaction : the directory is no longer written
+				app.close();
+			}
+		} finally {
+			TestFiles.deleteDirectory(path);
+		}
+	}
+
+	private void start() {
+		app = new App(MyAppConfig.fsConfig(path.toString()));
+		Injector.injectMembers(this, Home.getComponentSpace());
+	}
+
+	private void restart() {
+		app.close();
+		app = null;
+		start();
+	}
+
+	@Test
+	public void testRestart() {
+		final URI<Account> accountURI0 = Accounts.createAccountURI("0");
+		final URI<Account> accountURI1 = Accounts.createAccountURI("1");
+		final URI<AccountGroup> groupURI = Accounts.createGroupURI("100");
+		final URI<AccountGroup> groupAllURI = Accounts.createGroupURI("ALL");
+		accountManager.saveAccounts(Arrays.asList(
+				new AccountBuilder("0").withDisplayName("John doe").withEmail("john.doe@yopmail.com").build(),
+				new AccountBuilder("1").withDisplayName("Palmer Luckey").build()));
+		accountManager.saveGroup(new AccountGroup("100", "TIME's cover"));
+		accountManager.saveGroup(new AccountGroup("ALL", "Everyone"));
+		accountManager.attach(accountURI0, groupURI);
+		accountManager.attach(accountURI1, groupAllURI);
+		accountManager.attachGroup(groupURI, groupAllURI);
+
+		restart();
+		Assert.assertEquals(2, accountManager.getAccountsCount());
+		Assert.assertEquals("john.doe@yopmail.com", accountManager.getAccount(accountURI0).getEmail());
+		Assert.assertEquals(2, accountManager.getAllGroups().size());
+		Assert.assertEquals(2, accountManager.getAccountURIs(groupAllURI).size());
+		Assert.assertEquals(2, accountManager.getGroupURIs(accountURI0).size());
+
+		accountManager.detach(accountURI0, groupURI);
+		restart();
+		Assert.assertEquals(Collections.singleton(accountURI1), accountManager.getAccountURIs(groupAllURI));
+		Assert.assertTrue(accountManager.getGroupURIs(accountURI0).isEmpty());
+
+		accountManager.attach(accountURI0, groupURI);
+		accountManager.deleteGroup(groupURI);
+		accountManager.deleteAccounts(Collections.singletonList(accountURI1));
+		restart();
+		Assert.assertEquals(1, accountManager.getAccountsCount());
+		Assert.assertEquals(1, accountManager.getAllGroups().size());
+		Assert.assertTrue(accountManager.getAccountURIs(groupAllURI).isEmpty());
+		Assert.assertTrue(accountManager.getGroupURIs(accountURI0).isEmpty());
+	}
+
+	@Test
+	public void testPhotoOfRecreatedAccount() {
+		final URI<Account> accountURI1 = Accounts.createAccountURI("1");
+		final Account account1 = new AccountBuilder("1").withDisplayName("Palmer Luckey").build();
+		accountManager.saveAccounts(Collections.singletonList(account1));
+		final VFile defaultPhoto = accountManager.getPhoto(accountURI1);
+		accountManager.setPhoto(accountURI1, defaultPhoto);
+		accountManager.deleteAccounts(Collections.singletonList(accountURI1));
+		Assert.assertTrue(accountManager.getPhoto(accountURI1) instanceof StaticFile);
+
+		accountManager.saveAccounts(Collections.singletonList(account1));
+		accountManager.setPhoto(accountURI1, defaultPhoto);
+		//the deletion replayed on restart keeps the new photo
+		restart();
+		Assert.assertFalse(accountManager.getPhoto(accountURI1) instanceof StaticFile);
+		Assert.assertEquals(defaultPhoto.getLength(), accountManager.getPhoto(accountURI1).getLength());
+	}
+
+	@Test
+	public void testRestartAfterCompaction() {
+		final URI<AccountGroup> groupURI = Accounts.createGroupURI("100");
+		accountManager.saveGroup(new AccountGroup("100", "TIME's cover"));
+		//log is compacted every 16 MB
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < 100 * 1000; i++) {
+			accounts.add(new AccountBuilder(String.valueOf(i)).withDisplayName("Account with a rather long display name " + i).build());
+		}
+		for (int i = 0; i < 5; i++) {
+			accountManager.saveAccounts(accounts);
+		}
+		accountManager.attach(Accounts.createAccountURI("42"), groupURI);
+
+		restart();
+		Assert.assertEquals(100 * 1000, accountManager.getAccountsCount());
+		Assert.assertEquals(Collections.singleton(Accounts.createAccountURI("42")), accountManager.getAccountURIs(groupURI));
+	}
+}
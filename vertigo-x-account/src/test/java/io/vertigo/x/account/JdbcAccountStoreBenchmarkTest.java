@@ -0,0 +1,123 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.commons.codec.CodecManager;
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.database.SqlDataBaseManager;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.FileManager;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.account.AccountStorePlugin;
+import io.vertigo.x.plugins.account.jdbc.JdbcAccountStorePlugin;
+import io.vertigo.x.plugins.account.redis.RedisAccountStorePlugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares throughput of jdbc store (embedded h2, through SqlDataBaseManager) and redis store : saves, lookups, memberships and group listings.
+ * Accounts and group of the benchmark are deleted after each run : redis is shared by all tests.
+ * @author pchretien
+ */
+public final class JdbcAccountStoreBenchmarkTest {
+	private static final Logger LOG = Logger.getLogger(JdbcAccountStoreBenchmarkTest.class);
+	private static final int ACCOUNTS = 10 * 1000;
+	private static final String ID_PREFIX = "jdbc-benchmark-";
+	private App app;
+
+	@Inject
+	private RedisConnector redisConnector;
+	@Inject
+	private CodecManager codecManager;
+	@Inject
+	private FileManager fileManager;
+	@Inject
+	private SqlDataBaseManager sqlDataBaseManager;
+
+	private final List<Account> accounts = new ArrayList<>();
+	private final List<URI<Account>> accountURIs = new ArrayList<>();
+	private URI<AccountGroup> groupURI;
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.redisAndJdbcConfig("jdbc:h2:mem:benchmark" + System.nanoTime()));
+		Injector.injectMembers(this, Home.getComponentSpace());
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accounts.add(new AccountBuilder(ID_PREFIX + i).withDisplayName("Account " + i).withEmail(i + "@vertigo.io").build());
+			accountURIs.add(Accounts.createAccountURI(ID_PREFIX + i));
+		}
+		//not the shared ALL group : its members are counted by other tests
+		groupURI = Accounts.createGroupURI(ID_PREFIX + "group");
+	}
+
+	@After
+	public void tearDown() {
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testStores() {
+		final RedisAccountStorePlugin redisStore = new RedisAccountStorePlugin(redisConnector, codecManager);
+		final JdbcAccountStorePlugin jdbcStore = new JdbcAccountStorePlugin(sqlDataBaseManager, fileManager, Option.<Integer> none());
+		jdbcStore.start();
+		try {
+			final long redisNanos = run(redisStore);
+			final long jdbcNanos = run(jdbcStore);
+			LOG.info(String.format("%d accounts : redis %.0f accounts/s, jdbc %.0f accounts/s", ACCOUNTS, ACCOUNTS * 1e9 / redisNanos, ACCOUNTS * 1e9 / jdbcNanos));
+		} finally {
+			jdbcStore.stop();
+		}
+	}
+
+	//saves, memberships, lookups and listing of all the accounts, then deletes them. Returns the duration without the delete
+	private long run(final AccountStorePlugin accountStore) {
+		final long start = System.nanoTime();
+		try {
+			accountStore.saveAccounts(accounts);
+			accountStore.saveGroup(new AccountGroup(String.valueOf(groupURI.getId()), "Benchmark"));
+			for (final URI<Account> accountURI : accountURIs) {
+				accountStore.attach(accountURI, groupURI);
+			}
+			for (int i = 0; i < ACCOUNTS; i++) {
+				Assert.assertEquals(accounts.get(i).getDisplayName(), accountStore.getAccount(accountURIs.get(i)).getDisplayName());
+				Assert.assertEquals(1, accountStore.getGroupURIs(accountURIs.get(i)).size());
+			}
+			Assert.assertEquals(ACCOUNTS, accountStore.getAccountURIs(groupURI).size());
+			return System.nanoTime() - start;
+		} finally {
+			accountStore.deleteAccounts(accountURIs);
+			accountStore.deleteGroup(groupURI);
+		}
+	}
+}
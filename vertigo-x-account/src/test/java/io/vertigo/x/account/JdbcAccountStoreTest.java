@@ -0,0 +1,251 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.database.SqlDataBaseManager;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.FileManager;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.plugins.account.jdbc.JdbcAccountStorePlugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Jdbc account store against an embedded database (h2 in memory), through SqlDataBaseManager.
+ * @author pchretien
+ */
+public final class JdbcAccountStoreTest {
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private FileManager fileManager;
+	@Inject
+	private SqlDataBaseManager sqlDataBaseManager;
+
+	private URI<Account> accountURI0;
+	private URI<Account> accountURI1;
+	private URI<AccountGroup> groupURI;
+	private URI<AccountGroup> groupAllURI;
+	private String url;
+
+	@Before
+	public void setUp() {
+		url = "jdbc:h2:mem:accounts" + System.nanoTime();
+		app = new App(MyAppConfig.jdbcConfig(url));
+		Injector.injectMembers(this, Home.getComponentSpace());
+		accountURI0 = Accounts.createAccountURI("0");
+		accountURI1 = Accounts.createAccountURI("1");
+		groupURI = Accounts.createGroupURI("100");
+		groupAllURI = Accounts.createGroupURI("ALL");
+
+		accountManager.saveAccounts(Arrays.asList(
+				new AccountBuilder("0").withDisplayName("John doe").withEmail("john.doe@yopmail.com").build(),
+				new AccountBuilder("1").withDisplayName("Palmer Luckey").build()));
+		accountManager.saveGroup(new AccountGroup("100", "TIME's cover"));
+		accountManager.saveGroup(new AccountGroup("ALL", "Everyone"));
+		accountManager.attach(accountURI0, groupURI);
+		accountManager.attach(accountURI1, groupAllURI);
+	}
+
+	@After
+	public void tearDown() {
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testAccounts() {
+		Assert.assertEquals(2, accountManager.getAccountsCount());
+		Assert.assertEquals("john.doe@yopmail.com", accountManager.getAccount(accountURI0).getEmail());
+		Assert.assertNull(accountManager.getAccount(accountURI1).getEmail());
+		//update
+		accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("1").withDisplayName("Palmer").build()));
+		Assert.assertEquals(2, accountManager.getAccountsCount());
+		Assert.assertEquals("Palmer", accountManager.getAccount(accountURI1).getDisplayName());
+	}
+
+	@Test
+	public void testSaveAccountsByChunks() {
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			accounts.add(new AccountBuilder("chunk-" + i).withDisplayName("Account " + i).build());
+		}
+		accountManager.saveAccounts(accounts);
+		//inserts and updates mixed
+		accountManager.saveAccounts(accounts.subList(600, 1200));
+		Assert.assertEquals(2 + 1200, accountManager.getAccountsCount());
+	}
+
+	@Test
+	public void testGroups() {
+		Assert.assertEquals(2, accountManager.getAllGroups().size());
+		Assert.assertEquals("TIME's cover", accountManager.getGroup(groupURI).getDisplayName());
+		Assert.assertEquals(Collections.singleton(accountURI0), accountManager.getAccountURIs(groupURI));
+
+		accountManager.attachGroup(groupURI, groupAllURI);
+		Assert.assertEquals(2, accountManager.getAccountURIs(groupAllURI).size());
+		Assert.assertEquals(2, accountManager.getGroupURIs(accountURI0).size());
+		//bitmaps : members of ALL, not in 100
+		Assert.assertEquals(Collections.singleton(accountURI1), accountManager.getAccountURIs(Collections.singletonList(groupAllURI), Collections.singletonList(groupURI)));
+
+		accountManager.detach(accountURI0, groupURI);
+		Assert.assertEquals(Collections.singleton(accountURI1), accountManager.getAccountURIs(groupAllURI));
+		Assert.assertTrue(accountManager.getGroupURIs(accountURI0).isEmpty());
+	}
+
+	@Test
+	public void testConcurrentAttach() throws InterruptedException {
+		final URI<Account> accountURI = Accounts.createAccountURI("concurrent");
+		accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("concurrent").withDisplayName("Concurrent").build()));
+		//same membership by all threads : the first insert wins, others find it
+		final List<Throwable> errors = runConcurrently(8, new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 50; i++) {
+					accountManager.attach(accountURI, groupURI);
+				}
+			}
+		});
+		Assert.assertEquals(Collections.emptyList(), errors);
+		Assert.assertEquals(Collections.singleton(groupURI), accountManager.getGroupURIs(accountURI));
+	}
+
+	@Test
+	public void testConcurrentSaveAccounts() throws InterruptedException {
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			accounts.add(new AccountBuilder("concurrent-" + i).withDisplayName("Account " + i).build());
+		}
+		//same new accounts by all threads : inserted once, then updated
+		final List<Throwable> errors = runConcurrently(8, new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 10; i++) {
+					accountManager.saveAccounts(accounts);
+				}
+			}
+		});
+		Assert.assertEquals(Collections.emptyList(), errors);
+		Assert.assertEquals(2 + 100, accountManager.getAccountsCount());
+	}
+
+	@Test
+	public void testConcurrentNestedGroupsCycle() throws InterruptedException {
+		accountManager.saveGroup(new AccountGroup("200", "Hall of fame"));
+		final URI<AccountGroup> parentGroupURI = Accounts.createGroupURI("200");
+		//reverse edges written concurrently : only one of them is kept
+		final List<Throwable> errors = runConcurrently(2, new Runnable() {
+			private final AtomicInteger threadIndex = new AtomicInteger();
+
+			@Override
+			public void run() {
+				if (threadIndex.getAndIncrement() == 0) {
+					accountManager.attachGroup(groupURI, parentGroupURI);
+				} else {
+					accountManager.attachGroup(parentGroupURI, groupURI);
+				}
+			}
+		});
+		Assert.assertEquals(1, errors.size());
+		Assert.assertTrue(errors.get(0) instanceof IllegalArgumentException);
+		//the kept edge : account 0, member of 100, is in 200 only if 100 is nested in 200. The other edge is still refused
+		final boolean nestedInParent = accountManager.getGroupURIs(accountURI0).contains(parentGroupURI);
+		try {
+			if (nestedInParent) {
+				accountManager.attachGroup(parentGroupURI, groupURI);
+			} else {
+				accountManager.attachGroup(groupURI, parentGroupURI);
+			}
+			Assert.fail();
+		} catch (final IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testConnectionsReleasedOnError() throws InterruptedException {
+		final JdbcAccountStorePlugin accountStore = new JdbcAccountStorePlugin(sqlDataBaseManager, fileManager, Option.some(1));
+		accountStore.start();
+		try {
+			try {
+				//display name too long : sql error, the connection is dropped
+				accountStore.saveAccounts(Collections.singletonList(new AccountBuilder("tooLong").withDisplayName(String.format("%300s", "x")).build()));
+				Assert.fail();
+			} catch (final RuntimeException e) {
+				//expected
+			}
+			//more callers than connections : they wait for the only one
+			final List<Throwable> errors = runConcurrently(4, new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20; i++) {
+						Assert.assertTrue(accountStore.exists(accountURI0));
+					}
+				}
+			});
+			Assert.assertEquals(Collections.emptyList(), errors);
+		} finally {
+			accountStore.stop();
+		}
+	}
+
+	private static List<Throwable> runConcurrently(final int threadCount, final Runnable runnable) throws InterruptedException {
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runnable.run();
+					} catch (final Throwable e) {
+						errors.add(e);
+					}
+				}
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			//never more than the connection timeout
+			thread.join(60 * 1000);
+			Assert.assertFalse(thread.isAlive());
+		}
+		return errors;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.x.account.data.Accounts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Concurrent reads on the memory account store, with 1 thread up to 2 threads per core.
+ * Reads don't lock : throughput should grow with the number of cores, and writes shouldn't slow reads down.
+ * Read latency is measured and reported for each number of threads.
+ * @author pchretien
+ */
+public final class MemoryAccountStoreBenchmarkTest {
+	private static final Logger LOG = Logger.getLogger(MemoryAccountStoreBenchmarkTest.class);
+	private static final int ACCOUNTS = 1000;
+	private static final int READS_BY_THREAD = 200 * 1000;
+	private static final long MAX_READ_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+
+	private final List<URI<Account>> accountURIs = new ArrayList<>();
+	private URI<AccountGroup> groupURI;
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.memoryConfig());
+		Injector.injectMembers(this, Home.getComponentSpace());
+
+		final List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			final Account account = new AccountBuilder(String.valueOf(i)).withDisplayName("Account " + i).build();
+			accounts.add(account);
+			accountURIs.add(Accounts.createAccountURI(account.getId()));
+		}
+		accountManager.saveAccounts(accounts);
+		accountManager.saveGroup(new AccountGroup("ALL", "Everyone"));
+		groupURI = Accounts.createGroupURI("ALL");
+		for (final URI<Account> accountURI : accountURIs) {
+			accountManager.attach(accountURI, groupURI);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+			report(threads + " readers", runReaders(threads));
+		}
+	}
+
+	@Test
+	public void testReadsDuringWrites() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<?> writer = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						final URI<Account> accountURI = accountURIs.get(i % ACCOUNTS);
+						accountManager.detach(accountURI, groupURI);
+						accountManager.attach(accountURI, groupURI);
+					}
+				}
+			});
+			final long latencyDuringWrites = runReaders(4);
+			writer.get();
+			report("4 readers during writes", latencyDuringWrites);
+			report("4 readers without writes", runReaders(4));
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(ACCOUNTS, accountManager.getAccountURIs(groupURI).size());
+	}
+
+	private static void report(final String readers, final long meanLatencyNanos) {
+		LOG.info(String.format("%s : mean read latency %.2f us", readers, meanLatencyNanos / 1000d));
+	}
+
+	//mean latency of a read (an account and its groups), in nanoseconds
+	private long runReaders(final int threads) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Long>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				results.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						final long start = System.nanoTime();
+						for (int i = 0; i < READS_BY_THREAD; i++) {
+							final URI<Account> accountURI = accountURIs.get(i % ACCOUNTS);
+							Assert.assertNotNull(accountManager.getAccount(accountURI));
+							Assert.assertTrue(accountManager.getGroupURIs(accountURI).size() <= 1);
+						}
+						return System.nanoTime() - start;
+					}
+				}));
+			}
+			long elapsedNanos = 0;
+			for (final Future<Long> result : results) {
+				elapsedNanos += result.get();
+			}
+			final long meanLatencyNanos = elapsedNanos / (threads * READS_BY_THREAD);
+			//lock-free reads in memory : far below a millisecond, even during writes
+			Assert.assertTrue("mean read latency " + meanLatencyNanos + " ns", meanLatencyNanos < MAX_READ_LATENCY_NANOS);
+			return meanLatencyNanos;
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -10,7 +10,11 @@ import io.vertigo.core.impl.locale.LocaleManagerImpl;
 import io.vertigo.core.impl.resource.ResourceManagerImpl;
 import io.vertigo.core.locale.LocaleManager;
 import io.vertigo.core.resource.ResourceManager;
+import io.vertigo.dynamo.database.SqlDataBaseManager;
 import io.vertigo.dynamo.impl.DynamoFeatures;
+import io.vertigo.dynamo.impl.database.SqlDataBaseManagerImpl;
+import io.vertigo.dynamo.impl.database.vendor.h2.H2DataBase;
+import io.vertigo.dynamo.plugins.database.connection.c3p0.C3p0ConnectionProviderPlugin;
 import io.vertigo.dynamo.plugins.environment.loaders.java.AnnotationLoaderPlugin;
 import io.vertigo.dynamo.plugins.environment.registries.domain.DomainDynamicRegistryPlugin;
 import io.vertigo.persona.impl.security.PersonaFeatures;
@@ -37,6 +41,13 @@ public final class MyAppConfig {
 	}
 
 	private static AppConfigBuilder createAppConfigBuilder() {
+		// @formatter:off
+		return createRedisAppConfigBuilder()
+			.beginModule(AccountFeatures.class).withRedis().endModule();
+		// @formatter:on
+	}
+
+	private static AppConfigBuilder createRedisAppConfigBuilder() {
 		final String redisHost;
 		final int redisPort;
 		final String redisPassword;
@@ -51,6 +62,13 @@ public final class MyAppConfig {
 		} else {
 			throw new RuntimeException("no redis server found");
 		}
+		// @formatter:off
+		return createBootAppConfigBuilder()
+			.beginModule(ConnectorsFeatures.class).withRedis(redisHost, redisPort, redisPassword).endModule();
+		// @formatter:on
+	}
+
+	private static AppConfigBuilder createBootAppConfigBuilder() {
 		// @formatter:off
 		return new AppConfigBuilder()
 			.beginBootModule()
@@ -68,9 +86,7 @@ public final class MyAppConfig {
 			.endBoot()
 			.beginModule(PersonaFeatures.class).withUserSession(TestUserSession.class).endModule()
 			.beginModule(CommonsFeatures.class).endModule()
-			.beginModule(DynamoFeatures.class).endModule()
-			.beginModule(ConnectorsFeatures.class).withRedis(redisHost, redisPort, redisPassword).endModule()
-			.beginModule(AccountFeatures.class).withRedis().endModule();
+			.beginModule(DynamoFeatures.class).endModule();
 		// @formatter:on
 	}
 
@@ -79,6 +95,71 @@ public final class MyAppConfig {
 		return createAppConfigBuilder().build();
 	}
 
+	public static AppConfig redisEventsConfig() {
+		// @formatter:off
+		return createRedisAppConfigBuilder()
+			.beginModule(AccountFeatures.class).withRedis().withRedisEvents().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	public static AppConfig memoryConfig() {
+		// @formatter:off
+		return createBootAppConfigBuilder()
+			.beginModule(AccountFeatures.class).withMemory().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	public static AppConfig fsConfig(final String path) {
+		// @formatter:off
+		return createBootAppConfigBuilder()
+			.beginModule(AccountFeatures.class).withFileSystem(path).endModule()
+			.build();
+		// @formatter:on
+	}
+
+	public static AppConfig fsPhotoConfig(final String path) {
+		// @formatter:off
+		return createBootAppConfigBuilder()
+			.beginModule(AccountFeatures.class).withMemory().withFileSystemPhoto(path).endModule()
+			.build();
+		// @formatter:on
+	}
+
+	public static AppConfig jdbcConfig(final String url) {
+		// @formatter:off
+		return addDataBase(createBootAppConfigBuilder(), url)
+			.beginModule(AccountFeatures.class).withJdbc().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	//redis store and a database : both stores can be compared
+	public static AppConfig redisAndJdbcConfig(final String url) {
+		// @formatter:off
+		return addDataBase(createRedisAppConfigBuilder(), url)
+			.beginModule(AccountFeatures.class).withRedis().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	//h2 in memory, kept until the jvm stops
+	private static AppConfigBuilder addDataBase(final AppConfigBuilder appConfigBuilder, final String url) {
+		// @formatter:off
+		return appConfigBuilder
+			.beginModule("database").withNoAPI()
+				.beginComponent(SqlDataBaseManager.class, SqlDataBaseManagerImpl.class)
+					.beginPlugin(C3p0ConnectionProviderPlugin.class)
+						.addParam("dataBaseClass", H2DataBase.class.getName())
+						.addParam("jdbcDriver", "org.h2.Driver")
+						.addParam("jdbcUrl", url + ";DB_CLOSE_DELAY=-1")
+					.endPlugin()
+				.endComponent()
+			.endModule();
+		// @formatter:on
+	}
+
 	public static AppConfig vegaConfig() {
 		// @formatter:off
 		return createAppConfigBuilder()
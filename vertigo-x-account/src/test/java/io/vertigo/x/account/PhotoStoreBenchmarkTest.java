@@ -0,0 +1,205 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.commons.codec.CodecManager;
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.file.FileManager;
+import io.vertigo.dynamo.file.model.InputStreamBuilder;
+import io.vertigo.dynamo.file.model.VFile;
+import io.vertigo.lang.Option;
+import io.vertigo.persona.security.VSecurityManager;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.account.data.TestFiles;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.account.AccountEventPlugin;
+import io.vertigo.x.impl.account.AccountPhotoStorePlugin;
+import io.vertigo.x.impl.account.AccountManagerImpl;
+import io.vertigo.x.impl.account.AccountStorePlugin;
+import io.vertigo.x.plugins.account.fs.FsAccountPhotoStorePlugin;
+import io.vertigo.x.plugins.account.redis.RedisAccountStorePlugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Repeated photos writes and reads, with redis hash storage (photoByAccount:*) and file system storage :
+ * throughput of both stores is measured and reported, the last photo written is read back entirely.
+ * @author npiedeloup
+ */
+public final class PhotoStoreBenchmarkTest {
+	private static final Logger LOG = Logger.getLogger(PhotoStoreBenchmarkTest.class);
+	private static final int PHOTO_SIZE = 200 * 1024;
+	private static final int ITERATIONS = 200;
+	private App app;
+
+	@Inject
+	private RedisConnector redisConnector;
+	@Inject
+	private CodecManager codecManager;
+	@Inject
+	private FileManager fileManager;
+	@Inject
+	private VSecurityManager securityManager;
+
+	private Path photoDir;
+	private RedisAccountStorePlugin redisStore;
+	private FsAccountPhotoStorePlugin fsStore;
+	//account of this benchmark only : its photos are deleted at the end
+	private final URI<Account> accountURI = Accounts.createAccountURI("photo-benchmark");
+	private byte[] content;
+	private VFile photo;
+
+	@Before
+	public void setUp() throws IOException {
+		app = new App(MyAppConfig.config());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		photoDir = Files.createTempDirectory("photos");
+		redisStore = new RedisAccountStorePlugin(redisConnector, codecManager);
+		fsStore = new FsAccountPhotoStorePlugin(photoDir.toString());
+
+		content = new byte[PHOTO_SIZE];
+		new Random(42).nextBytes(content);
+		photo = createPhoto(content);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try {
+			if (redisStore != null) {
+				redisStore.deleteAccounts(Collections.singletonList(accountURI));
+			}
+			if (app != null) {
+				app.close();
+			}
+		} finally {
+			TestFiles.deleteDirectory(photoDir);
+		}
+	}
+
+	@Test
+	public void testPhotoStores() throws IOException {
+		final double redisPerSecond = measure("redis", redisStore);
+		final double fsPerSecond = measure("file system", fsStore);
+		LOG.info(String.format("photos of %d KB, writes then reads : redis %.0f/s, file system %.0f/s (x%.1f)", PHOTO_SIZE / 1024, redisPerSecond, fsPerSecond, fsPerSecond / redisPerSecond));
+	}
+
+	@Test
+	public void testOverwriteWhileRead() throws IOException {
+		fsStore.setPhoto(accountURI, photo);
+		final VFile readPhoto = fsStore.getPhoto(accountURI).get();
+		try (final InputStream in = readPhoto.createInputStream()) {
+			//overwritten while it's sent : the opened file is still the one read
+			final byte[] newContent = new byte[PHOTO_SIZE / 2];
+			new Random(43).nextBytes(newContent);
+			fsStore.setPhoto(accountURI, createPhoto(newContent));
+			Assert.assertArrayEquals(content, readAll(in));
+		}
+		//overwritten after it's read : never served with the new content
+		try {
+			readPhoto.createInputStream().close();
+			Assert.fail("photo overwritten");
+		} catch (final IOException e) {
+			//ok
+		}
+		Assert.assertEquals(PHOTO_SIZE / 2, readFully(fsStore.getPhoto(accountURI).get()).length);
+	}
+
+	@Test
+	public void testPhotoStoreFallback() throws IOException {
+		//photo stored in redis before the file system store was declared
+		redisStore.setPhoto(accountURI, photo);
+		final AccountManager accountManager = new AccountManagerImpl(redisStore, Option.<AccountPhotoStorePlugin> some(fsStore), Option.<AccountEventPlugin> none(), fileManager, codecManager, securityManager);
+		Assert.assertArrayEquals(content, readFully(accountManager.getPhoto(accountURI)));
+		Assert.assertArrayEquals(content, readFully(accountManager.getPhoto(accountURI, 32)));
+	}
+
+	private double measure(final String storeName, final AccountStorePlugin store) throws IOException {
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			store.setPhoto(accountURI, photo);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			Assert.assertEquals(PHOTO_SIZE, readFully(store.getPhoto(accountURI).get()).length);
+		}
+		return report(storeName, start);
+	}
+
+	private double measure(final String storeName, final AccountPhotoStorePlugin store) throws IOException {
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			store.setPhoto(accountURI, photo);
+		}
+		for (int i = 0; i < ITERATIONS; i++) {
+			Assert.assertEquals(PHOTO_SIZE, readFully(store.getPhoto(accountURI).get()).length);
+		}
+		return report(storeName, start);
+	}
+
+	private static double report(final String storeName, final long start) {
+		final long elapsedNanos = System.nanoTime() - start;
+		final double perSecond = 2 * ITERATIONS * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		LOG.info(String.format("%s : %d writes and %d reads in %d ms", storeName, ITERATIONS, ITERATIONS, TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+		return perSecond;
+	}
+
+	private VFile createPhoto(final byte[] photoContent) {
+		return fileManager.createFile("photo.jpg", "image/jpeg", new Date(), photoContent.length, new InputStreamBuilder() {
+			@Override
+			public InputStream createInputStream() {
+				return new ByteArrayInputStream(photoContent);
+			}
+		});
+	}
+
+	private static byte[] readFully(final VFile vFile) throws IOException {
+		try (final InputStream in = vFile.createInputStream()) {
+			return readAll(in);
+		}
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8 * 1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
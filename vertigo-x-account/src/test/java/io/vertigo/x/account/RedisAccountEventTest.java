@@ -0,0 +1,217 @@
+/**
+ * vertigo - simple java starter
+ *
+ * Copyright (C) 2013, KleeGroup, direction.technique@kleegroup.com (http://www.kleegroup.com)
+ * KleeGroup, Centre d'affaire la Boursidiere - BP 159 - 92357 Le Plessis Robinson Cedex - France
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertigo.x.account;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.x.account.data.Accounts;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.plugins.account.redis.RedisAccountEventPlugin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Account events published by a node (the app) and received by another one (a second plugin on the same redis).
+ * @author pchretien
+ */
+public final class RedisAccountEventTest {
+	private static final long TIMEOUT_SECONDS = 10;
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private RedisConnector redisConnector;
+
+	private RedisAccountEventPlugin otherNode;
+	private QueueListener listener1;
+	private QueueListener listener2;
+	private URI<Account> accountURI;
+	private URI<AccountGroup> groupURI;
+
+	@Before
+	public void setUp() throws InterruptedException {
+		app = new App(MyAppConfig.redisEventsConfig());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		accountURI = Accounts.createAccountURI("1");
+		groupURI = Accounts.createGroupURI("100");
+
+		otherNode = new RedisAccountEventPlugin(redisConnector);
+		listener1 = new QueueListener();
+		listener2 = new QueueListener();
+		otherNode.subscribe(listener1);
+		otherNode.subscribe(listener2);
+		//a failing listener doesn't stop the others
+		otherNode.subscribe(new AccountEventListener() {
+			@Override
+			public void onEvent(final AccountEvent event) {
+				throw new IllegalStateException("failing listener");
+			}
+		});
+		otherNode.start();
+		awaitSubscriber();
+	}
+
+	@After
+	public void tearDown() {
+		if (otherNode != null) {
+			otherNode.stop();
+		}
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testPublishReceive() throws InterruptedException {
+		final QueueListener localListener = new QueueListener();
+		accountManager.addEventListener(localListener);
+
+		accountManager.detach(accountURI, groupURI);
+		accountManager.attach(accountURI, groupURI);
+
+		for (final QueueListener listener : new QueueListener[] { listener1, listener2 }) {
+			final AccountEvent detached = listener.next();
+			Assert.assertEquals(AccountEvent.Type.DETACHED, detached.getType());
+			Assert.assertEquals(Collections.singletonList(accountURI), detached.getAccountURIs());
+			Assert.assertEquals(Collections.singletonList(groupURI), detached.getGroupURIs());
+			final AccountEvent attached = listener.next();
+			Assert.assertEquals(AccountEvent.Type.ATTACHED, attached.getType());
+			Assert.assertEquals(detached.getSequence() + 1, attached.getSequence());
+		}
+		//events of a node are delivered once on this node : not received again from redis
+		Assert.assertEquals(AccountEvent.Type.DETACHED, localListener.next().getType());
+		Assert.assertEquals(AccountEvent.Type.ATTACHED, localListener.next().getType());
+		Thread.sleep(500);
+		Assert.assertTrue(localListener.events.isEmpty());
+		Assert.assertTrue(listener1.events.isEmpty());
+	}
+
+	@Test
+	public void testMissedEventsReplayed() throws InterruptedException {
+		disconnectSubscriber();
+		accountManager.detach(accountURI, groupURI);
+		accountManager.attach(accountURI, groupURI);
+
+		//replayed from the log once subscribed again
+		final AccountEvent detached = listener1.next();
+		Assert.assertEquals(AccountEvent.Type.DETACHED, detached.getType());
+		final AccountEvent attached = listener1.next();
+		Assert.assertEquals(AccountEvent.Type.ATTACHED, attached.getType());
+		Assert.assertEquals(detached.getSequence() + 1, attached.getSequence());
+		Assert.assertEquals(AccountEvent.Type.DETACHED, listener2.next().getType());
+		Assert.assertEquals(AccountEvent.Type.ATTACHED, listener2.next().getType());
+
+		//then received live
+		awaitSubscriber();
+		accountManager.detach(accountURI, groupURI);
+		final AccountEvent live = listener1.next();
+		Assert.assertEquals(AccountEvent.Type.DETACHED, live.getType());
+		Assert.assertEquals(attached.getSequence() + 1, live.getSequence());
+	}
+
+	@Test
+	public void testLostEvents() throws InterruptedException {
+		disconnectSubscriber();
+		accountManager.detach(accountURI, groupURI);
+		accountManager.attach(accountURI, groupURI);
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//log too short : only the last event is kept
+			jedis.ltrim("accountEventLog", 0, 0);
+		}
+
+		for (final QueueListener listener : new QueueListener[] { listener1, listener2 }) {
+			final AccountEvent lost = listener.next();
+			Assert.assertEquals(AccountEvent.Type.EVENTS_LOST, lost.getType());
+			Assert.assertTrue(lost.getAccountURIs().isEmpty());
+			final AccountEvent attached = listener.next();
+			Assert.assertEquals(AccountEvent.Type.ATTACHED, attached.getType());
+			Assert.assertEquals(lost.getSequence() + 1, attached.getSequence());
+		}
+	}
+
+	//the subscriber of the other node reconnects after one second ; other clients of the shared redis are left alone
+	private void disconnectSubscriber() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final String address = getClientAddress(jedis, otherNode.getSubscriberName());
+			Assert.assertNotNull("subscriber not connected", address);
+			jedis.clientKill(address);
+		}
+	}
+
+	private void awaitSubscriber() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		try (final Jedis jedis = redisConnector.getResource()) {
+			while (getClientAddress(jedis, otherNode.getSubscriberName()) == null) {
+				Assert.assertTrue("subscriber not connected", System.currentTimeMillis() < deadline);
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	//address of the subscribed client with this name
+	private static String getClientAddress(final Jedis jedis, final String name) {
+		for (final String client : jedis.clientList().split("\n")) {
+			final Map<String, String> fields = new HashMap<>();
+			for (final String field : client.trim().split(" ")) {
+				final int equals = field.indexOf('=');
+				if (equals > 0) {
+					fields.put(field.substring(0, equals), field.substring(equals + 1));
+				}
+			}
+			if (name.equals(fields.get("name")) && "subscribe".equals(fields.get("cmd"))) {
+				return fields.get("addr");
+			}
+		}
+		return null;
+	}
+
+	private static final class QueueListener implements AccountEventListener {
+		final BlockingQueue<AccountEvent> events = new LinkedBlockingQueue<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void onEvent(final AccountEvent event) {
+			events.add(event);
+		}
+
+		AccountEvent next() throws InterruptedException {
+			final AccountEvent event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			Assert.assertNotNull(event);
+			return event;
+		}
+	}
+}
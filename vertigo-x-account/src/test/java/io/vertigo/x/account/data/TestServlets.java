@@ -0,0 +1,257 @@
+package io.vertigo.x.account.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Requests and responses for filter and servlet tests, without servlet container : only what they use is supported.
+ * @author npiedeloup
+ */
+public final class TestServlets {
+
+	private TestServlets() {
+		//static
+	}
+
+	/**
+	 * @param method Http method
+	 * @param requestURI Request URI
+	 * @param parameters Query parameters
+	 * @param headers Request headers
+	 * @return Request
+	 */
+	public static HttpServletRequest createRequest(final String method, final String requestURI, final Map<String, String> parameters, final Map<String, String> headers) {
+		return createRequest(method, requestURI, parameters, headers, Collections.<String, Object> emptyMap(), null);
+	}
+
+	/**
+	 * @param method Http method
+	 * @param requestURI Request URI
+	 * @param parameters Query parameters
+	 * @param headers Request headers
+	 * @param sessionAttributes Attributes of the http session, no session if empty
+	 * @param asyncResponse Response of an asynchronous request, null if not supported
+	 * @return Request
+	 */
+	public static HttpServletRequest createRequest(final String method, final String requestURI, final Map<String, String> parameters, final Map<String, String> headers,
+			final Map<String, Object> sessionAttributes, final TestResponse asyncResponse) {
+		return (HttpServletRequest) Proxy.newProxyInstance(TestServlets.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			/** {@inheritDoc} */
+			@Override
+			public Object invoke(final Object proxy, final Method m, final Object[] args) {
+				switch (m.getName()) {
+					case "getMethod":
+						return method;
+					case "getRequestURI":
+						return requestURI;
+					case "getParameter":
+						return parameters.get(args[0]);
+					case "getHeader":
+						return headers.get(args[0]);
+					case "getSession":
+						return sessionAttributes.isEmpty() ? null : createSession(sessionAttributes);
+					case "startAsync":
+						if (asyncResponse == null) {
+							throw new IllegalStateException("async not supported");
+						}
+						return asyncResponse.startAsync();
+					default:
+						throw new UnsupportedOperationException(m.getName());
+				}
+			}
+		});
+	}
+
+	private static HttpSession createSession(final Map<String, Object> attributes) {
+		return (HttpSession) Proxy.newProxyInstance(TestServlets.class.getClassLoader(), new Class<?>[] { HttpSession.class }, new InvocationHandler() {
+			/** {@inheritDoc} */
+			@Override
+			public Object invoke(final Object proxy, final Method m, final Object[] args) {
+				switch (m.getName()) {
+					case "getAttribute":
+						return attributes.get(args[0]);
+					default:
+						throw new UnsupportedOperationException(m.getName());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Response kept in memory.
+	 */
+	public static final class TestResponse {
+		private final Map<String, String> headers = new HashMap<>();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+		private int status = HttpServletResponse.SC_OK;
+		private String contentType;
+		private volatile boolean asyncStarted;
+		private volatile boolean completed;
+		//a client not reading : the output is never ready
+		private volatile boolean stalled;
+
+		/**
+		 * @return Status code
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * @param name Header name
+		 * @return Header value, null if not set
+		 */
+		public String getHeader(final String name) {
+			return headers.get(name);
+		}
+
+		/**
+		 * @return Content type
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @return Body sent
+		 */
+		public byte[] getBody() {
+			return body.toByteArray();
+		}
+
+		/**
+		 * @return if the request went asynchronous
+		 */
+		public boolean isAsyncStarted() {
+			return asyncStarted;
+		}
+
+		/**
+		 * @return if the asynchronous request is completed
+		 */
+		public boolean isCompleted() {
+			return completed;
+		}
+
+		/**
+		 * The client stops reading : non-blocking writes are not possible anymore.
+		 */
+		public void stall() {
+			stalled = true;
+		}
+
+		AsyncContext startAsync() {
+			asyncStarted = true;
+			return (AsyncContext) Proxy.newProxyInstance(TestServlets.class.getClassLoader(), new Class<?>[] { AsyncContext.class }, new InvocationHandler() {
+				/** {@inheritDoc} */
+				@Override
+				public Object invoke(final Object proxy, final Method m, final Object[] args) {
+					switch (m.getName()) {
+						case "setTimeout":
+						case "addListener":
+							return null;
+						case "getResponse":
+							return asServletResponse();
+						case "complete":
+							completed = true;
+							return null;
+						default:
+							throw new UnsupportedOperationException(m.getName());
+					}
+				}
+			});
+		}
+
+		/**
+		 * @return This response as a servlet response
+		 */
+		public HttpServletResponse asServletResponse() {
+			return (HttpServletResponse) Proxy.newProxyInstance(TestServlets.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+				/** {@inheritDoc} */
+				@Override
+				public Object invoke(final Object proxy, final Method m, final Object[] args) {
+					switch (m.getName()) {
+						case "setStatus":
+						case "sendError":
+							status = (Integer) args[0];
+							return null;
+						case "setHeader":
+							headers.put((String) args[0], (String) args[1]);
+							return null;
+						case "setContentType":
+							contentType = (String) args[0];
+							return null;
+						case "setCharacterEncoding":
+							//always UTF-8
+							return null;
+						case "setContentLength":
+							headers.put("Content-Length", String.valueOf(args[0]));
+							return null;
+						case "getOutputStream":
+							return new BodyOutputStream(TestResponse.this);
+						case "getWriter":
+							return writer;
+						default:
+							throw new UnsupportedOperationException(m.getName());
+					}
+				}
+			});
+		}
+	}
+
+	private static final class BodyOutputStream extends ServletOutputStream {
+		private final TestResponse response;
+
+		BodyOutputStream(final TestResponse response) {
+			this.response = response;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void write(final int b) {
+			response.body.write(b);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			response.body.write(b, off, len);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean isReady() {
+			return !response.stalled;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void setWriteListener(final WriteListener writeListener) {
+			//writes are always possible at once, unless stalled
+			if (!response.stalled) {
+				try {
+					writeListener.onWritePossible();
+				} catch (final IOException e) {
+					writeListener.onError(e);
+				}
+			}
+		}
+	}
+}
@@ -12,32 +12,45 @@ import java.util.UUID;
  */
 public final class Comment {
 	private final UUID uuid;
+	private final UUID parentUuid;
 	private final URI<Account> author;
 	private final String authorDisplayName;
 	private final String msg;
 	private final Date creationDate;
 	private final Date lastModified;
+	private final long version;
 
-	Comment(final UUID uuid, final URI<Account> author, final String authorDisplayName, final String msg, final Date creationDate, final Date lastModified) {
+	Comment(final UUID uuid, final UUID parentUuid, final URI<Account> author, final String authorDisplayName, final String msg, final Date creationDate, final Date lastModified, final long version) {
 		Assertion.checkNotNull(uuid);
+		//parentUuid is nullable
 		Assertion.checkNotNull(author);
 		Assertion.checkArgNotEmpty(authorDisplayName);
 		Assertion.checkArgNotEmpty(msg);
 		Assertion.checkNotNull(creationDate);
 		//lastModified is nullable
+		Assertion.checkArgument(version >= 0, "version must be positive ({0})", version);
 		//-----
 		this.uuid = uuid;
+		this.parentUuid = parentUuid;
 		this.author = author;
 		this.authorDisplayName = authorDisplayName;
 		this.msg = msg;
 		this.creationDate = creationDate;
 		this.lastModified = lastModified;
+		this.version = version;
 	}
 
 	public UUID getUuid() {
 		return uuid;
 	}
 
+	/**
+	 * @return Uuid of the comment replied to, null for a top-level comment
+	 */
+	public UUID getParentUuid() {
+		return parentUuid;
+	}
+
 	public URI<Account> getAuthor() {
 		return author;
 	}
@@ -58,4 +71,11 @@ public final class Comment {
 		return lastModified;
 	}
 
+	/**
+	 * @return Version, incremented on each update (an update must send the version it has read)
+	 */
+	public long getVersion() {
+		return version;
+	}
+
 }
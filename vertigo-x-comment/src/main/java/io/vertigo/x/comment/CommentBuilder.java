@@ -16,11 +16,13 @@ import java.util.UUID;
  */
 public final class CommentBuilder implements Builder<Comment> {
 	private final UUID uuid;
+	private UUID myParentUuid;
 	private String myMsg;
 	private URI<Account> myAuthor;
 	private String myAuthorDisplayName;
 	private Date myCreationDate;
 	private Date myLastModified;
+	private Long myVersion;
 
 	/**
 	 * Constructor for new comment.
@@ -36,9 +38,24 @@ public final class CommentBuilder implements Builder<Comment> {
 	 * @param creationDate Creation date
 	 */
 	public CommentBuilder(final UUID uuid, final URI<Account> author, final Date creationDate) {
+		this(uuid, author, getAccountManager().getAccount(author).getDisplayName(), creationDate);
+	}
+
+	/**
+	 * Constructor for a stored comment, author's display name already known (no account lookup).
+	 * @param uuid Uuid Comment unique id
+	 * @param author Author
+	 * @param authorDisplayName Author's display name
+	 * @param creationDate Creation date
+	 */
+	public CommentBuilder(final UUID uuid, final URI<Account> author, final String authorDisplayName, final Date creationDate) {
+		Assertion.checkNotNull(uuid);
+		Assertion.checkNotNull(author);
+		Assertion.checkArgNotEmpty(authorDisplayName);
+		//-----
 		this.uuid = uuid;
 		myAuthor = author;
-		myAuthorDisplayName = getAccountManager().getAccount(author).getDisplayName();
+		myAuthorDisplayName = authorDisplayName;
 		myCreationDate = creationDate;
 	}
 
@@ -59,6 +76,18 @@ public final class CommentBuilder implements Builder<Comment> {
 		return this;
 	}
 
+	/**
+	 * @param parentUuid Uuid of the comment replied to (null for a top-level comment)
+	 * @return this builder
+	 */
+	public CommentBuilder withParent(final UUID parentUuid) {
+		Assertion.checkArgument(myParentUuid == null, "parent already set");
+		//parentUuid is optional
+		//-----
+		myParentUuid = parentUuid;
+		return this;
+	}
+
 	/**
 	 * @param msg Comment
 	 * @return this builder
@@ -95,12 +124,23 @@ public final class CommentBuilder implements Builder<Comment> {
 		return this;
 	}
 
+	/**
+	 * @param version Version (0 for a new comment)
+	 * @return this builder
+	 */
+	public CommentBuilder withVersion(final long version) {
+		Assertion.checkArgument(myVersion == null, "version already set");
+		//-----
+		myVersion = version;
+		return this;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public Comment build() {
 		if (myCreationDate == null) {
 			myCreationDate = DateUtil.newDateTime();
 		}
-		return new Comment(uuid, myAuthor, myAuthorDisplayName, myMsg, myCreationDate, myLastModified);
+		return new Comment(uuid, myParentUuid, myAuthor, myAuthorDisplayName, myMsg, myCreationDate, myLastModified, myVersion != null ? myVersion : 0);
 	}
 }
@@ -0,0 +1,72 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.lang.Assertion;
+
+/**
+ * Comment published or updated on a key concept, for live feeds.
+ * Sequence numbers are shared by all nodes : a subscriber resumes after the last event it received.
+ * @author pchretien
+ */
+public final class CommentEvent {
+
+	/**
+	 * Kind of change.
+	 */
+	public enum Type {
+		/** New comment. */
+		PUBLISHED,
+		/** Comment updated (new version). */
+		UPDATED
+	}
+
+	private final long sequence;
+	private final Type type;
+	private final String keyConceptUrn;
+	private final Comment comment;
+
+	/**
+	 * Constructor.
+	 * @param sequence Sequence number
+	 * @param type Kind of change
+	 * @param keyConceptUrn Urn of the key concept
+	 * @param comment Comment, as published or updated
+	 */
+	public CommentEvent(final long sequence, final Type type, final String keyConceptUrn, final Comment comment) {
+		Assertion.checkNotNull(type);
+		Assertion.checkArgNotEmpty(keyConceptUrn);
+		Assertion.checkNotNull(comment);
+		//-----
+		this.sequence = sequence;
+		this.type = type;
+		this.keyConceptUrn = keyConceptUrn;
+		this.comment = comment;
+	}
+
+	/**
+	 * @return Sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return Kind of change
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return Urn of the key concept
+	 */
+	public String getKeyConceptUrn() {
+		return keyConceptUrn;
+	}
+
+	/**
+	 * @return Comment, as published or updated
+	 */
+	public Comment getComment() {
+		return comment;
+	}
+}
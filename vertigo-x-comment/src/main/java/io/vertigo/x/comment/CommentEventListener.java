@@ -0,0 +1,14 @@
+package io.vertigo.x.comment;
+
+/**
+ * Listener of comments published or updated on a key concept.
+ * Called by the thread doing the change (or receiving it from another node) : it should be fast and never lock.
+ * @author pchretien
+ */
+public interface CommentEventListener {
+
+	/**
+	 * @param event Change
+	 */
+	void onEvent(CommentEvent event);
+}
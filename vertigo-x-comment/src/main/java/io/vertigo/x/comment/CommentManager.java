@@ -3,8 +3,12 @@ package io.vertigo.x.comment;
 import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
 import io.vertigo.lang.Component;
+import io.vertigo.lang.Option;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * @author pchretien
@@ -18,16 +22,108 @@ public interface CommentManager extends Component {
 	 */
 	List<Comment> getComments(URI<? extends KeyConcept> keyConceptUri);
 
+	/**
+	 * Get a page of comments published on this keyConcept, newest first.
+	 * Next page starts after the last comment of this page : pages don't move when new comments are published.
+	 * @param keyConceptUri keyConcept's uri
+	 * @param cursor uuid of the last comment of the previous page, none for the first page
+	 * @param limit max comments count
+	 * @return comments older than the cursor, newest first
+	 */
+	List<Comment> getComments(URI<? extends KeyConcept> keyConceptUri, Option<UUID> cursor, int limit);
+
+	/**
+	 * Get a page of top-level comments published on this keyConcept, newest first, with their reply counts.
+	 * Replies are not read : they are read on demand with getReplies.
+	 * @param keyConceptUri keyConcept's uri
+	 * @param cursor uuid of the last comment of the previous page, none for the first page
+	 * @param limit max comments count
+	 * @return top-level comments older than the cursor, newest first
+	 */
+	List<CommentThread> getThreads(URI<? extends KeyConcept> keyConceptUri, Option<UUID> cursor, int limit);
+
+	/**
+	 * Get a page of direct replies to a comment, oldest first, with their own reply counts.
+	 * @param parentUuid uuid of the comment replied to
+	 * @param cursor uuid of the last reply of the previous page, none for the first page
+	 * @param limit max replies count
+	 * @return replies published after the cursor, oldest first
+	 */
+	List<CommentThread> getReplies(UUID parentUuid, Option<UUID> cursor, int limit);
+
+	/**
+	 * Count comments published on this keyConcept, without reading them.
+	 * @param keyConceptUri keyConcept's uri
+	 * @return comments count
+	 */
+	long getCommentCount(URI<? extends KeyConcept> keyConceptUri);
+
+	/**
+	 * Count comments published on each keyConcept of a list, read at once.
+	 * @param keyConceptUris keyConcepts' uris
+	 * @return comments count by keyConcept's uri (0 if no comment)
+	 */
+	Map<URI<? extends KeyConcept>, Long> getCommentCounts(Collection<? extends URI<? extends KeyConcept>> keyConceptUris);
+
+	/**
+	 * Version of the comments of this keyConcept, incremented by each publish or update : cheap check of changes.
+	 * @param keyConceptUri keyConcept's uri
+	 * @return version (0 if never changed)
+	 */
+	long getVersion(URI<? extends KeyConcept> keyConceptUri);
+
+	/**
+	 * Version of the display names of this keyConcept's authors, read from their accounts : the same on all nodes.
+	 * With the version of the keyConcept, cheap check of changes of its comments as read.
+	 * @param keyConceptUri keyConcept's uri
+	 * @return version, changed when one of its authors is renamed or deleted
+	 */
+	String getAuthorsVersion(URI<? extends KeyConcept> keyConceptUri);
+
 	/**
 	 * Publish a comment on a key concept.
+	 * A reply (comment with a parent) must be published on the key concept of the comment replied to.
 	 * @param comment Comment
 	 * @param keyConceptUri keyConcept's uri
 	 */
 	void publish(Comment comment, URI<? extends KeyConcept> keyConceptUri);
 
 	/**
-	 * Update comment.
+	 * Update comment, if it wasn't updated since it was read (same version).
 	 * @param comment updated comment
+	 * @throws java.util.ConcurrentModificationException if the comment was updated since this version
 	 */
 	void update(Comment comment);
+
+	/**
+	 * Search comments by words, best matches first.
+	 * Words are compared without case, accents or plural (french and english), common words are ignored.
+	 * @param query words searched
+	 * @param keyConceptFilter only comments of this keyConcept if set
+	 * @param limit max comments count
+	 * @return comments found, best first
+	 */
+	List<Comment> search(String query, Option<URI<? extends KeyConcept>> keyConceptFilter, int limit);
+
+	/**
+	 * Listen to comments published or updated on a key concept (live feed).
+	 * @param keyConceptUri keyConcept's uri
+	 * @param listener Listener
+	 */
+	void addEventListener(URI<? extends KeyConcept> keyConceptUri, CommentEventListener listener);
+
+	/**
+	 * Stop listening to a key concept.
+	 * @param keyConceptUri keyConcept's uri
+	 * @param listener Listener
+	 */
+	void removeEventListener(URI<? extends KeyConcept> keyConceptUri, CommentEventListener listener);
+
+	/**
+	 * Get events of a key concept after an event, to resume a live feed.
+	 * @param keyConceptUri keyConcept's uri
+	 * @param lastSequence sequence of the last event received
+	 * @return events after this one, in sequence order ; none if some of them are not kept anymore, or if this event is unknown (comments must be read again)
+	 */
+	Option<List<CommentEvent>> getEvents(URI<? extends KeyConcept> keyConceptUri, long lastSequence);
 }
@@ -0,0 +1,36 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.lang.Assertion;
+
+/**
+ * A comment and the count of its replies : replies are read on demand, one level at a time.
+ * @author pchretien
+ */
+public final class CommentThread {
+	private final Comment comment;
+	private final long replyCount;
+
+	/**
+	 * Constructor.
+	 * @param comment Comment
+	 * @param replyCount Count of direct replies to this comment
+	 */
+	public CommentThread(final Comment comment, final long replyCount) {
+		Assertion.checkNotNull(comment);
+		Assertion.checkArgument(replyCount >= 0, "replyCount must be positive ({0})", replyCount);
+		//-----
+		this.comment = comment;
+		this.replyCount = replyCount;
+	}
+
+	public Comment getComment() {
+		return comment;
+	}
+
+	/**
+	 * @return Count of direct replies to this comment
+	 */
+	public long getReplyCount() {
+		return replyCount;
+	}
+}
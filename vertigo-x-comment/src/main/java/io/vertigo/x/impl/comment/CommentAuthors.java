@@ -0,0 +1,175 @@
+package io.vertigo.x.impl.comment;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountEvent;
+import io.vertigo.x.account.AccountEventListener;
+import io.vertigo.x.account.AccountManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Display names of comments' authors, used by comment plugins to materialize comments.
+ * Authors missing from the cache are read all at once from AccountManager (one findAccounts by page of comments),
+ * then kept until their account is saved or deleted (account events), at most DISPLAY_NAME_TTL_MILLIS plus a random jitter
+ * (events of other nodes are missed without account event plugin) : names read together don't expire together,
+ * and reading a page of comments reads accounts once at most, whatever the number of authors.
+ * Comments of a deleted account are kept : its author is shown as DELETED_AUTHOR_DISPLAY_NAME.
+ *
+ * @author pchretien
+ */
+public final class CommentAuthors {
+	/** Display name of an author whose account was deleted. */
+	public static final String DELETED_AUTHOR_DISPLAY_NAME = "Deleted account";
+	private static final int MAX_AUTHORS = 100 * 1000;
+	private static final long DISPLAY_NAME_TTL_MILLIS = 60 * 1000;
+	//up to half the ttl more, drawn for each name
+	private static final long DISPLAY_NAME_TTL_JITTER_MILLIS = DISPLAY_NAME_TTL_MILLIS / 2;
+	private final AccountManager accountManager;
+	private final ConcurrentMap<URI<Account>, CachedDisplayName> displayNameByAuthor = new ConcurrentHashMap<>();
+	//incremented on each invalidation : a name read during an invalidation is not kept
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param accountManager Account manager
+	 */
+	public CommentAuthors(final AccountManager accountManager) {
+		Assertion.checkNotNull(accountManager);
+		//-----
+		this.accountManager = accountManager;
+		accountManager.addEventListener(new AccountEventListener() {
+			/** {@inheritDoc} */
+			@Override
+			public void onEvent(final AccountEvent event) {
+				invalidate(event);
+			}
+		});
+	}
+
+	/**
+	 * @param author Author
+	 * @return Display name of this author
+	 */
+	public String getDisplayName(final URI<Account> author) {
+		Assertion.checkNotNull(author);
+		//-----
+		return getDisplayNames(Collections.singleton(author)).get(author);
+	}
+
+	/**
+	 * @param authors Authors
+	 * @return Display name of each author
+	 */
+	public Map<URI<Account>, String> getDisplayNames(final Collection<URI<Account>> authors) {
+		Assertion.checkNotNull(authors);
+		//-----
+		final long now = System.currentTimeMillis();
+		final Map<URI<Account>, String> displayNames = new HashMap<>();
+		final Set<URI<Account>> missingAuthors = new HashSet<>();
+		for (final URI<Account> author : authors) {
+			final CachedDisplayName cachedDisplayName = displayNameByAuthor.get(author);
+			if (cachedDisplayName != null && !cachedDisplayName.isExpired(now)) {
+				displayNames.put(author, cachedDisplayName.displayName);
+			} else {
+				missingAuthors.add(author);
+			}
+		}
+		if (!missingAuthors.isEmpty()) {
+			displayNames.putAll(readDisplayNames(missingAuthors));
+		}
+		return displayNames;
+	}
+
+	/**
+	 * Display names read from accounts, cached or not : names shown afterwards by this node are these ones.
+	 * @param authors Authors
+	 * @return Display name of each author
+	 */
+	public Map<URI<Account>, String> readDisplayNames(final Collection<URI<Account>> authors) {
+		Assertion.checkNotNull(authors);
+		//-----
+		if (authors.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		final Map<URI<Account>, String> displayNames = new HashMap<>();
+		final long readVersion = version.get();
+		final Map<URI<Account>, Account> accounts = accountManager.findAccounts(authors);
+		if (displayNameByAuthor.size() + authors.size() > MAX_AUTHORS) {
+			evictDisplayNames();
+		}
+		final long now = System.currentTimeMillis();
+		final Map<URI<Account>, CachedDisplayName> readDisplayNames = new HashMap<>();
+		for (final URI<Account> author : authors) {
+			final Account account = accounts.get(author);
+			final String readDisplayName = account != null ? account.getDisplayName() : DELETED_AUTHOR_DISPLAY_NAME;
+			final CachedDisplayName newCachedDisplayName = new CachedDisplayName(readDisplayName, now + DISPLAY_NAME_TTL_MILLIS + ThreadLocalRandom.current().nextLong(DISPLAY_NAME_TTL_JITTER_MILLIS));
+			displayNameByAuthor.put(author, newCachedDisplayName);
+			readDisplayNames.put(author, newCachedDisplayName);
+			displayNames.put(author, readDisplayName);
+		}
+		if (version.get() != readVersion) {
+			//accounts may have changed during the read
+			for (final Map.Entry<URI<Account>, CachedDisplayName> entry : readDisplayNames.entrySet()) {
+				displayNameByAuthor.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		return displayNames;
+	}
+
+	//down to 90% of MAX_AUTHORS, expired names and then any : a full cache never turns into a miss for every author
+	private void evictDisplayNames() {
+		final long now = System.currentTimeMillis();
+		final int targetSize = MAX_AUTHORS - MAX_AUTHORS / 10;
+		final Iterator<CachedDisplayName> it = displayNameByAuthor.values().iterator();
+		while (it.hasNext()) {
+			final CachedDisplayName cachedDisplayName = it.next();
+			if (cachedDisplayName.isExpired(now) || displayNameByAuthor.size() > targetSize) {
+				it.remove();
+			}
+		}
+	}
+
+	private void invalidate(final AccountEvent event) {
+		switch (event.getType()) {
+			case ACCOUNTS_SAVED:
+			case ACCOUNTS_DELETED:
+				version.incrementAndGet();
+				for (final URI<Account> accountURI : event.getAccountURIs()) {
+					displayNameByAuthor.remove(accountURI);
+				}
+				break;
+			case EVENTS_LOST:
+				version.incrementAndGet();
+				displayNameByAuthor.clear();
+				break;
+			default:
+				//display names unchanged
+		}
+	}
+
+	private static final class CachedDisplayName {
+		final String displayName;
+		final long expireTime;
+
+		CachedDisplayName(final String displayName, final long expireTime) {
+			this.displayName = displayName;
+			this.expireTime = expireTime;
+		}
+
+		boolean isExpired(final long now) {
+			return now >= expireTime;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package io.vertigo.x.impl.comment;
+
+import io.vertigo.lang.Plugin;
+import io.vertigo.x.comment.Comment;
+import io.vertigo.x.comment.CommentEvent;
+import io.vertigo.x.comment.CommentEventListener;
+
+/**
+ * Delivers comment events across nodes.
+ * @author pchretien
+ */
+public interface CommentEventPlugin extends Plugin {
+
+	//assigns the next shared sequence number and sends the event to other nodes
+	CommentEvent publish(CommentEvent.Type type, String keyConceptUrn, Comment comment);
+
+	//events published by other nodes, in sequence order
+	void subscribe(CommentEventListener listener);
+}
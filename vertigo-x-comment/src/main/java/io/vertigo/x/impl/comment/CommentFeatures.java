@@ -2,7 +2,11 @@ package io.vertigo.x.impl.comment;
 
 import io.vertigo.core.config.Features;
 import io.vertigo.x.comment.CommentManager;
+import io.vertigo.x.plugins.comment.memory.MemoryCommentPlugin;
+import io.vertigo.x.plugins.comment.memory.MemoryCommentSearchPlugin;
+import io.vertigo.x.plugins.comment.redis.RedisCommentEventPlugin;
 import io.vertigo.x.plugins.comment.redis.RedisCommentPlugin;
+import io.vertigo.x.plugins.comment.redis.RedisCommentSearchPlugin;
 
 /**
  * Defines extension comment.
@@ -28,4 +32,72 @@ public final class CommentFeatures extends Features {
 				.addPlugin(RedisCommentPlugin.class);
 		return this;
 	}
+
+	/**
+	 * Store comments in redis, comments of inactive key concepts archived in compressed files (read back on access).
+	 * @param archiveDir Directory of archived comments, shared by all nodes
+	 * @param archiveAfterDays Days without publish or update before comments of a key concept are archived
+	 * @return this features
+	 */
+	public CommentFeatures withRedis(final String archiveDir, final int archiveAfterDays) {
+		getModuleConfigBuilder()
+				.beginPlugin(RedisCommentPlugin.class)
+				.addParam("archiveDir", archiveDir)
+				.addParam("archiveAfterDays", String.valueOf(archiveAfterDays))
+				.endPlugin();
+		return this;
+	}
+
+	/**
+	 * Store comments in memory (dev, tests or single node), 1000 comments kept by key concept.
+	 * @return this features
+	 */
+	public CommentFeatures withMemory() {
+		getModuleConfigBuilder()
+				.addPlugin(MemoryCommentPlugin.class);
+		return this;
+	}
+
+	/**
+	 * Store comments in memory (dev, tests or single node).
+	 * @param maxCommentsPerKeyConcept Comments kept by key concept, older ones are dropped
+	 * @return this features
+	 */
+	public CommentFeatures withMemory(final int maxCommentsPerKeyConcept) {
+		getModuleConfigBuilder()
+				.beginPlugin(MemoryCommentPlugin.class)
+				.addParam("maxCommentsPerKeyConcept", String.valueOf(maxCommentsPerKeyConcept))
+				.endPlugin();
+		return this;
+	}
+
+	/**
+	 * Index comments for search in memory, built from stored comments at start.
+	 * @return this features
+	 */
+	public CommentFeatures withMemorySearch() {
+		getModuleConfigBuilder()
+				.addPlugin(MemoryCommentSearchPlugin.class);
+		return this;
+	}
+
+	/**
+	 * Index comments for search in redis, shared by all nodes and built once from stored comments.
+	 * @return this features
+	 */
+	public CommentFeatures withRedisSearch() {
+		getModuleConfigBuilder()
+				.addPlugin(RedisCommentSearchPlugin.class);
+		return this;
+	}
+
+	/**
+	 * Deliver comment events (live feeds) to other nodes through redis (pub/sub).
+	 * @return this features
+	 */
+	public CommentFeatures withRedisEvents() {
+		getModuleConfigBuilder()
+				.addPlugin(RedisCommentEventPlugin.class);
+		return this;
+	}
 }
@@ -1,39 +1,116 @@
 package io.vertigo.x.impl.comment;
 
+import io.vertigo.commons.codec.CodecManager;
 import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Activeable;
 import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
 import io.vertigo.util.DateUtil;
 import io.vertigo.x.account.Account;
 import io.vertigo.x.account.AccountManager;
 import io.vertigo.x.comment.Comment;
 import io.vertigo.x.comment.CommentBuilder;
+import io.vertigo.x.comment.CommentEvent;
+import io.vertigo.x.comment.CommentEventListener;
 import io.vertigo.x.comment.CommentManager;
+import io.vertigo.x.comment.CommentThread;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
 /**
+ * Published and updated comments are sent to listeners of their key concept (live feeds) :
+ * on this node directly, on other nodes through the event plugin if any.
+ * Last events delivered on this node are kept, so a feed resumes after its last event.
+ * If a search plugin is set, comments are indexed when published or updated ; an empty index is built from stored comments at start.
  * @author pchretien
  */
-public final class CommentManagerImpl implements CommentManager {
+public final class CommentManagerImpl implements CommentManager, Activeable {
+	private static final String NOT_AUTHOR_MESSAGE = "The comment editing is only available for the comment's author.";
+	private static final int EVENT_LOG_SIZE = 1000;
 	private final CommentPlugin commentsPlugin;
+	private final Option<CommentEventPlugin> commentEventPlugin;
+	private final Option<CommentSearchPlugin> commentSearchPlugin;
 
 	private final AccountManager accountManager;
+	private final CodecManager codecManager;
+	//---
+	//node-local sequences start from the start time : an id sent by another node or before a restart is not in this log
+	private final AtomicLong localSequence = new AtomicLong(System.currentTimeMillis() * 1000);
+	//values are copy-on-write lists, added and removed under lock of the map
+	private final ConcurrentMap<String, List<CommentEventListener>> listenersByUrn = new ConcurrentHashMap<>();
+	private final SortedMap<Long, CommentEvent> eventLog = new TreeMap<>(); //guarded by itself
 
 	/**
 	 * Constructor.
 	 * @param commentsPlugin Comment plugin
+	 * @param commentEventPlugin Event plugin (optional, events are only delivered on this node if not set)
+	 * @param commentSearchPlugin Search plugin (optional, no search if not set)
+	 * @param accountManager Account manager
+	 * @param codecManager Codec manager
 	 */
 	@Inject
-	public CommentManagerImpl(final CommentPlugin commentsPlugin, final AccountManager accountManager) {
+	public CommentManagerImpl(final CommentPlugin commentsPlugin, final Option<CommentEventPlugin> commentEventPlugin, final Option<CommentSearchPlugin> commentSearchPlugin, final AccountManager accountManager, final CodecManager codecManager) {
 		Assertion.checkNotNull(commentsPlugin);
+		Assertion.checkNotNull(commentEventPlugin);
+		Assertion.checkNotNull(commentSearchPlugin);
 		Assertion.checkNotNull(accountManager);
+		Assertion.checkNotNull(codecManager);
 		//-----
 		this.commentsPlugin = commentsPlugin;
+		this.commentEventPlugin = commentEventPlugin;
+		this.commentSearchPlugin = commentSearchPlugin;
 		this.accountManager = accountManager;
+		this.codecManager = codecManager;
+		if (commentEventPlugin.isDefined()) {
+			commentEventPlugin.get().subscribe(new CommentEventListener() {
+				/** {@inheritDoc} */
+				@Override
+				public void onEvent(final CommentEvent event) {
+					notifyListeners(event);
+				}
+			});
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void start() {
+		if (commentSearchPlugin.isDefined() && !commentSearchPlugin.get().isBuilt()) {
+			//comments published or updated meanwhile are indexed too : an older version never replaces a newer one
+			commentsPlugin.visitComments(new CommentPlugin.CommentVisitor() {
+				/** {@inheritDoc} */
+				@Override
+				public void visit(final String keyConceptUrn, final Comment comment) {
+					index(keyConceptUrn, comment);
+				}
+			});
+			commentSearchPlugin.get().markBuilt();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void stop() {
+		//nothing
 	}
 
 	/** {@inheritDoc} */
@@ -44,13 +121,14 @@ public final class CommentManagerImpl implements CommentManager {
 		//-----
 		final URI<Account> loggedAccountURI = accountManager.getLoggedAccount();
 		final Date creationDate = DateUtil.newDateTime();
-		final Comment savedComment = new CommentBuilder()
-				.withAuthor(loggedAccountURI)
-				.withCreationDate(creationDate)
+		final Comment savedComment = new CommentBuilder(UUID.randomUUID(), loggedAccountURI, accountManager.getAccount(loggedAccountURI).getDisplayName(), creationDate)
 				.withLastModified(creationDate)
 				.withMsg(comment.getMsg())
+				.withParent(comment.getParentUuid())
 				.build();
 		commentsPlugin.publish(savedComment, keyConceptUri);
+		index(keyConceptUri.toURN(), savedComment);
+		fireEvent(CommentEvent.Type.PUBLISHED, keyConceptUri.toURN(), savedComment);
 	}
 
 	/** {@inheritDoc} */
@@ -61,22 +139,241 @@ public final class CommentManagerImpl implements CommentManager {
 		return commentsPlugin.getComments(keyConceptUri);
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public List<Comment> getComments(final URI<? extends KeyConcept> keyConceptUri, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(keyConceptUri);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		return commentsPlugin.getComments(keyConceptUri, cursor, limit);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<CommentThread> getThreads(final URI<? extends KeyConcept> keyConceptUri, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(keyConceptUri);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		return toThreads(commentsPlugin.getThreads(keyConceptUri, cursor, limit));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<CommentThread> getReplies(final UUID parentUuid, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(parentUuid);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		return toThreads(commentsPlugin.getReplies(parentUuid, cursor, limit));
+	}
+
+	//reply counts of the page only, read at once
+	private List<CommentThread> toThreads(final List<Comment> comments) {
+		final List<UUID> uuids = new ArrayList<>(comments.size());
+		for (final Comment comment : comments) {
+			uuids.add(comment.getUuid());
+		}
+		final Map<UUID, Long> replyCounts = commentsPlugin.getReplyCounts(uuids);
+		final List<CommentThread> threads = new ArrayList<>(comments.size());
+		for (final Comment comment : comments) {
+			threads.add(new CommentThread(comment, replyCounts.get(comment.getUuid())));
+		}
+		return threads;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getCommentCount(final URI<? extends KeyConcept> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		return commentsPlugin.getCommentCount(keyConceptUri);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getVersion(final URI<? extends KeyConcept> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		return commentsPlugin.getVersion(keyConceptUri);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getAuthorsVersion(final URI<? extends KeyConcept> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		//not the display names cached by this node : read from the accounts
+		final List<String> authors = new ArrayList<>();
+		for (final Map.Entry<URI<Account>, String> entry : commentsPlugin.readAuthorDisplayNames(keyConceptUri).entrySet()) {
+			authors.add(entry.getKey().getId() + "\u0000" + entry.getValue());
+		}
+		Collections.sort(authors);
+		final StringBuilder sb = new StringBuilder();
+		for (final String author : authors) {
+			sb.append(author).append('\u0000');
+		}
+		final byte[] digest = codecManager.getMD5Encoder().encode(sb.toString().getBytes(StandardCharsets.UTF_8));
+		return codecManager.getHexEncoder().encode(digest);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<? extends KeyConcept>, Long> getCommentCounts(final Collection<? extends URI<? extends KeyConcept>> keyConceptUris) {
+		Assertion.checkNotNull(keyConceptUris);
+		//-----
+		return commentsPlugin.getCommentCounts(keyConceptUris);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void update(final Comment comment) {
 		Assertion.checkNotNull(comment);
 		//-----
 		final URI<Account> loggedAccountURI = accountManager.getLoggedAccount();
-		final Comment originalComment = commentsPlugin.get(comment.getUuid());
-		if (!loggedAccountURI.equals(comment.getAuthor())
-				|| !originalComment.getAuthor().equals(comment.getAuthor())) {
-			throw new RuntimeException("The comment editing is only available for the comment's author.");
+		if (!loggedAccountURI.equals(comment.getAuthor())) {
+			throw new RuntimeException(NOT_AUTHOR_MESSAGE);
+		}
+		//no read before write : author and version are checked by the store
+		final CommentPlugin.UpdateResult result = commentsPlugin.update(comment.getUuid(), loggedAccountURI, comment.getMsg(), DateUtil.newDateTime(), comment.getVersion());
+		final CommentPlugin.UpdateStatus status = result.getStatus();
+		switch (status) {
+			case UPDATED:
+				index(result.getKeyConceptUrn().getOrElse(""), result.getComment());
+				//comments stored before their key concept was kept have no feed
+				if (result.getKeyConceptUrn().isDefined()) {
+					fireEvent(CommentEvent.Type.UPDATED, result.getKeyConceptUrn().get(), result.getComment());
+				}
+				break;
+			case NOT_FOUND:
+				throw new UnsupportedOperationException("Comment " + comment.getUuid() + " doesn't exists");
+			case NOT_AUTHOR:
+				throw new RuntimeException(NOT_AUTHOR_MESSAGE);
+			case VERSION_CONFLICT:
+				throw new ConcurrentModificationException("Comment " + comment.getUuid() + " was updated since version " + comment.getVersion());
+			default:
+				throw new IllegalStateException("Unknown status " + status);
 		}
+	}
 
-		final Comment savedComment = new CommentBuilder(originalComment.getUuid(), loggedAccountURI, originalComment.getCreationDate())
-				.withMsg(comment.getMsg())
-				.withLastModified(DateUtil.newDateTime())
-				.build();
-		commentsPlugin.update(savedComment);
+	/** {@inheritDoc} */
+	@Override
+	public List<Comment> search(final String query, final Option<URI<? extends KeyConcept>> keyConceptFilter, final int limit) {
+		Assertion.checkNotNull(query);
+		Assertion.checkNotNull(keyConceptFilter);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		Assertion.checkState(commentSearchPlugin.isDefined(), "Comments are not indexed : a search plugin is needed");
+		//-----
+		final Set<String> terms = CommentTokenizer.tokenize(query).keySet();
+		if (terms.isEmpty()) {
+			return new ArrayList<>();
+		}
+		final Option<String> keyConceptUrn = keyConceptFilter.isDefined() ? Option.some(keyConceptFilter.get().toURN()) : Option.<String> none();
+		List<UUID> uuids;
+		List<Comment> comments;
+		do {
+			uuids = commentSearchPlugin.get().search(terms, keyConceptUrn, limit);
+			comments = commentsPlugin.get(uuids);
+			//comments not stored anymore (ie : older ones dropped by the store) are removed from the index, then searched again
+		} while (removeMissingComments(uuids, comments));
+		return comments;
+	}
+
+	private boolean removeMissingComments(final List<UUID> uuids, final List<Comment> comments) {
+		if (comments.size() == uuids.size()) {
+			return false;
+		}
+		final Set<UUID> missingUuids = new HashSet<>(uuids);
+		for (final Comment comment : comments) {
+			missingUuids.remove(comment.getUuid());
+		}
+		for (final UUID missingUuid : missingUuids) {
+			commentSearchPlugin.get().remove(missingUuid);
+		}
+		return true;
+	}
+
+	private void index(final String keyConceptUrn, final Comment comment) {
+		if (commentSearchPlugin.isDefined()) {
+			commentSearchPlugin.get().index(comment.getUuid(), keyConceptUrn, comment.getVersion(), CommentTokenizer.tokenize(comment.getMsg()));
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addEventListener(final URI<? extends KeyConcept> keyConceptUri, final CommentEventListener listener) {
+		Assertion.checkNotNull(keyConceptUri);
+		Assertion.checkNotNull(listener);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		synchronized (listenersByUrn) {
+			final List<CommentEventListener> listeners = listenersByUrn.get(urn);
+			final List<CommentEventListener> newListeners = listeners == null ? new CopyOnWriteArrayList<CommentEventListener>() : listeners;
+			newListeners.add(listener);
+			listenersByUrn.put(urn, newListeners);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void removeEventListener(final URI<? extends KeyConcept> keyConceptUri, final CommentEventListener listener) {
+		Assertion.checkNotNull(keyConceptUri);
+		Assertion.checkNotNull(listener);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		synchronized (listenersByUrn) {
+			final List<CommentEventListener> listeners = listenersByUrn.get(urn);
+			if (listeners != null) {
+				listeners.remove(listener);
+				if (listeners.isEmpty()) {
+					listenersByUrn.remove(urn);
+				}
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Option<List<CommentEvent>> getEvents(final URI<? extends KeyConcept> keyConceptUri, final long lastSequence) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		final List<CommentEvent> events = new ArrayList<>();
+		synchronized (eventLog) {
+			//covered if lastSequence is in the log, or just before it (older events are not kept anymore)
+			if (eventLog.isEmpty() || lastSequence < eventLog.firstKey() - 1 || lastSequence > eventLog.lastKey()) {
+				return Option.none();
+			}
+			for (final CommentEvent event : eventLog.tailMap(lastSequence + 1).values()) {
+				if (urn.equals(event.getKeyConceptUrn())) {
+					events.add(event);
+				}
+			}
+		}
+		return Option.some(events);
+	}
+
+	private void fireEvent(final CommentEvent.Type type, final String keyConceptUrn, final Comment comment) {
+		if (commentEventPlugin.isDefined()) {
+			notifyListeners(commentEventPlugin.get().publish(type, keyConceptUrn, comment));
+		} else {
+			notifyListeners(new CommentEvent(localSequence.incrementAndGet(), type, keyConceptUrn, comment));
+		}
+	}
+
+	private void notifyListeners(final CommentEvent event) {
+		synchronized (eventLog) {
+			eventLog.put(event.getSequence(), event);
+			if (eventLog.size() > EVENT_LOG_SIZE) {
+				eventLog.remove(eventLog.firstKey());
+			}
+		}
+		final List<CommentEventListener> listeners = listenersByUrn.get(event.getKeyConceptUrn());
+		if (listeners != null) {
+			for (final CommentEventListener listener : listeners) {
+				listener.onEvent(event);
+			}
+		}
 	}
 }
@@ -2,10 +2,17 @@ package io.vertigo.x.impl.comment;
 
 import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
 import io.vertigo.lang.Plugin;
+import io.vertigo.x.account.Account;
 import io.vertigo.x.comment.Comment;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -13,12 +20,129 @@ import java.util.UUID;
  */
 public interface CommentPlugin extends Plugin {
 
+	/**
+	 * Status of an update.
+	 */
+	enum UpdateStatus {
+		/** Comment updated, version incremented. */
+		UPDATED,
+		/** No comment with this uuid. */
+		NOT_FOUND,
+		/** Comment of another author. */
+		NOT_AUTHOR,
+		/** Comment updated since the expected version was read. */
+		VERSION_CONFLICT
+	}
+
+	/**
+	 * Result of an update : status, and if updated, the new comment and its key concept.
+	 */
+	final class UpdateResult {
+		private final UpdateStatus status;
+		private final Comment comment;
+		private final String keyConceptUrn;
+
+		private UpdateResult(final UpdateStatus status, final Comment comment, final String keyConceptUrn) {
+			Assertion.checkNotNull(status);
+			//-----
+			this.status = status;
+			this.comment = comment;
+			this.keyConceptUrn = keyConceptUrn;
+		}
+
+		/**
+		 * @param comment Updated comment
+		 * @param keyConceptUrn Urn of its key concept (null if unknown, comments stored before it was kept)
+		 * @return Result of a successful update
+		 */
+		public static UpdateResult updated(final Comment comment, final String keyConceptUrn) {
+			Assertion.checkNotNull(comment);
+			//-----
+			return new UpdateResult(UpdateStatus.UPDATED, comment, keyConceptUrn);
+		}
+
+		/**
+		 * @param status Cause
+		 * @return Result of a rejected update
+		 */
+		public static UpdateResult rejected(final UpdateStatus status) {
+			Assertion.checkArgument(status != UpdateStatus.UPDATED, "a rejected update needs a cause");
+			//-----
+			return new UpdateResult(status, null, null);
+		}
+
+		/**
+		 * @return Status
+		 */
+		public UpdateStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return Updated comment (only if updated)
+		 */
+		public Comment getComment() {
+			Assertion.checkState(status == UpdateStatus.UPDATED, "comment not updated ({0})", status);
+			//-----
+			return comment;
+		}
+
+		/**
+		 * @return Urn of the key concept of the updated comment (none if unknown)
+		 */
+		public Option<String> getKeyConceptUrn() {
+			return Option.option(keyConceptUrn);
+		}
+	}
+
+	/**
+	 * Visitor of all stored comments.
+	 */
+	interface CommentVisitor {
+		/**
+		 * @param keyConceptUrn Urn of the key concept of this comment ('' if unknown, comments stored before it was kept)
+		 * @param comment Comment
+		 */
+		void visit(String keyConceptUrn, Comment comment);
+	}
+
+	//a reply is published on the key concept of the comment replied to
 	<S extends KeyConcept> void publish(Comment comment, URI<S> keyConceptURI);
 
 	Comment get(UUID uuid);
 
+	//in the same order, comments not found are skipped
+	List<Comment> get(List<UUID> uuids);
+
+	//all comments, read by batches (ie : to build an index)
+	void visitComments(CommentVisitor visitor);
+
 	<S extends KeyConcept> List<Comment> getComments(URI<S> keyConceptURI);
 
-	void update(Comment comment);
+	//newest first, after the cursor comment (excluded)
+	<S extends KeyConcept> List<Comment> getComments(URI<S> keyConceptURI, Option<UUID> cursor, int limit);
+
+	//top-level comments, newest first, after the cursor comment (excluded)
+	<S extends KeyConcept> List<Comment> getThreads(URI<S> keyConceptURI, Option<UUID> cursor, int limit);
+
+	//direct replies to a comment, oldest first, after the cursor reply (excluded)
+	List<Comment> getReplies(UUID parentUuid, Option<UUID> cursor, int limit);
+
+	//count of direct replies by comment uuid, 0 if no reply
+	Map<UUID, Long> getReplyCounts(Collection<UUID> uuids);
+
+	<S extends KeyConcept> long getCommentCount(URI<S> keyConceptURI);
+
+	//incremented by each publish or update of a comment of this key concept
+	<S extends KeyConcept> long getVersion(URI<S> keyConceptURI);
+
+	//display names of the authors of this key concept's comments, read from their accounts : its pages show them afterwards
+	<S extends KeyConcept> Map<URI<Account>, String> readAuthorDisplayNames(URI<S> keyConceptURI);
+
+	//count by uri, 0 if no comment
+	Map<URI<? extends KeyConcept>, Long> getCommentCounts(Collection<? extends URI<? extends KeyConcept>> keyConceptURIs);
+
+	//existence, author and version are checked and the comment written in one atomic operation
+	UpdateResult update(UUID uuid, URI<Account> author, String msg, Date lastModified, long expectedVersion);
 
 }
@@ -0,0 +1,88 @@
+package io.vertigo.x.impl.comment;
+
+import io.vertigo.lang.Assertion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Ranking of comments found by a search (BM25) : a term weighs more if it is rare in all comments and frequent in this one,
+ * and a short comment more than a long one with the same terms.
+ * Only the best comments are kept while ranking (heap of limit size).
+ *
+ * @author pchretien
+ * @param <K> Comment key, comments with the same score are ranked by key (highest first)
+ */
+public final class CommentRanking<K extends Comparable<K>> {
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+	private final long commentCount;
+	private final double averageLength;
+	private final Map<K, Double> scores = new HashMap<>();
+
+	/**
+	 * @param commentCount Comments indexed
+	 * @param totalLength Terms of all comments indexed
+	 */
+	public CommentRanking(final long commentCount, final long totalLength) {
+		Assertion.checkArgument(commentCount >= 0, "commentCount must be positive ({0})", commentCount);
+		//-----
+		this.commentCount = commentCount;
+		averageLength = commentCount == 0 ? 1 : Math.max(1, (double) totalLength / commentCount);
+	}
+
+	/**
+	 * @param commentFrequency Comments with this term
+	 * @return Weight of this term
+	 */
+	public double idf(final long commentFrequency) {
+		return Math.log(1 + (commentCount - commentFrequency + 0.5) / (commentFrequency + 0.5));
+	}
+
+	/**
+	 * Adds the score of a term to a comment.
+	 * @param key Comment key
+	 * @param idf Weight of this term
+	 * @param termFrequency Occurrences of this term in this comment
+	 * @param length Terms of this comment
+	 */
+	public void add(final K key, final double idf, final int termFrequency, final int length) {
+		final double score = idf * termFrequency * (K1 + 1) / (termFrequency + K1 * (1 - B + B * length / averageLength));
+		final Double previousScore = scores.get(key);
+		scores.put(key, previousScore == null ? score : previousScore + score);
+	}
+
+	/**
+	 * @param limit Max comments count
+	 * @return Keys of the best comments, best first
+	 */
+	public List<K> top(final int limit) {
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		//worst first : the worst kept is removed when a better one is found
+		final PriorityQueue<Map.Entry<K, Double>> best = new PriorityQueue<>(limit + 1, new Comparator<Map.Entry<K, Double>>() {
+			@Override
+			public int compare(final Map.Entry<K, Double> entry1, final Map.Entry<K, Double> entry2) {
+				final int compareScore = Double.compare(entry1.getValue(), entry2.getValue());
+				return compareScore != 0 ? compareScore : entry1.getKey().compareTo(entry2.getKey());
+			}
+		});
+		for (final Map.Entry<K, Double> entry : scores.entrySet()) {
+			best.add(entry);
+			if (best.size() > limit) {
+				best.poll();
+			}
+		}
+		final List<K> keys = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			keys.add(best.poll().getKey());
+		}
+		Collections.reverse(keys);
+		return keys;
+	}
+}
@@ -0,0 +1,29 @@
+package io.vertigo.x.impl.comment;
+
+import io.vertigo.lang.Option;
+import io.vertigo.lang.Plugin;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Full-text index of comments : terms of each comment, updated when it is published or updated.
+ * @author pchretien
+ */
+public interface CommentSearchPlugin extends Plugin {
+
+	//indexed with its terms (frequency by term), replaces the previous version ; ignored if a newer version is indexed
+	void index(UUID uuid, String keyConceptUrn, long version, Map<String, Integer> termFrequencies);
+
+	void remove(UUID uuid);
+
+	//best comments for these terms first, only comments of this key concept if set
+	List<UUID> search(Collection<String> terms, Option<String> keyConceptUrn, int limit);
+
+	//false if comments must be indexed from the store (empty index)
+	boolean isBuilt();
+
+	void markBuilt();
+}
@@ -0,0 +1,62 @@
+package io.vertigo.x.impl.comment;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits comments and queries into search terms, for french and english texts.
+ * Terms are lower case without accents ("Réunions" and "reunion" are the same term), elisions are split ("l'équipe" : "equipe"),
+ * common words of both languages are ignored and plurals are reduced to singular.
+ * @author pchretien
+ */
+final class CommentTokenizer {
+	private static final int MIN_LENGTH = 2;
+	//longer ones are not words (links, hashes...)
+	private static final int MAX_LENGTH = 64;
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+	//without accents, as terms
+	private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+			//english
+			"an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "has", "have", "in", "is", "it", "its", "not", "of", "on", "or",
+			"that", "the", "their", "there", "they", "this", "to", "was", "we", "were", "will", "with", "you",
+			//french
+			"au", "aux", "avec", "ce", "ces", "cette", "dans", "de", "des", "du", "elle", "elles", "en", "est", "et", "il", "ils", "je", "la", "le",
+			"les", "leur", "leurs", "mais", "ne", "nous", "ou", "par", "pas", "pour", "qu", "que", "qui", "sa", "se", "ses", "son", "sont", "sur",
+			"ta", "te", "tes", "ton", "tu", "un", "une", "vous"));
+
+	private CommentTokenizer() {
+		//private
+	}
+
+	/**
+	 * @param text Comment or query
+	 * @return frequency by term
+	 */
+	static Map<String, Integer> tokenize(final String text) {
+		final String normalized = DIACRITICS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)).replaceAll("");
+		final Map<String, Integer> frequencies = new HashMap<>();
+		for (final String token : SEPARATORS.split(normalized)) {
+			if (token.length() >= MIN_LENGTH && token.length() <= MAX_LENGTH && !STOP_WORDS.contains(token)) {
+				final String term = stem(token);
+				final Integer frequency = frequencies.get(term);
+				frequencies.put(term, frequency == null ? 1 : frequency + 1);
+			}
+		}
+		return frequencies;
+	}
+
+	//plural of both languages : comments, commentaires ; not words ending with ss (process, stress)
+	private static String stem(final String token) {
+		if (token.length() > 3 && token.endsWith("s") && !token.endsWith("ss")) {
+			return token.substring(0, token.length() - 1);
+		}
+		return token;
+	}
+}
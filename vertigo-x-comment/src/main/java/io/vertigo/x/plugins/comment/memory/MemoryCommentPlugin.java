@@ -0,0 +1,386 @@
+package io.vertigo.x.plugins.comment.memory;
+
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.comment.Comment;
+import io.vertigo.x.comment.CommentBuilder;
+import io.vertigo.x.impl.comment.CommentAuthors;
+import io.vertigo.x.impl.comment.CommentPlugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Memory store of comments (dev, tests or single node).
+ * Comments are indexed by uuid, and each key concept has its own index ordered by a sequence (newest first) :
+ * reads never lock, a page is read from the cursor whatever the number of comments.
+ * Each key concept keeps its last comments only (maxCommentsPerKeyConcept), older ones are dropped.
+ * Top-level comments have their own index by key concept, and replies an index by comment replied to :
+ * a page of threads or replies is read without reading other comments.
+ *
+ * @author pchretien
+ */
+public final class MemoryCommentPlugin implements CommentPlugin {
+	private static final int DEFAULT_MAX_COMMENTS_PER_KEY_CONCEPT = 1000;
+	private final int maxCommentsPerKeyConcept;
+	private final CommentAuthors commentAuthors;
+	private final ConcurrentMap<UUID, CommentRecord> recordByUuid = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, KeyConceptComments> commentsByUrn = new ConcurrentHashMap<>();
+
+	/**
+	 * @param accountManager Account manager
+	 * @param maxCommentsPerKeyConceptOption Comments kept by key concept (1000 by default)
+	 */
+	@Inject
+	public MemoryCommentPlugin(final AccountManager accountManager, @Named("maxCommentsPerKeyConcept") final Option<Integer> maxCommentsPerKeyConceptOption) {
+		Assertion.checkNotNull(accountManager);
+		Assertion.checkNotNull(maxCommentsPerKeyConceptOption);
+		//-----
+		commentAuthors = new CommentAuthors(accountManager);
+		maxCommentsPerKeyConcept = maxCommentsPerKeyConceptOption.getOrElse(DEFAULT_MAX_COMMENTS_PER_KEY_CONCEPT);
+		Assertion.checkArgument(maxCommentsPerKeyConcept > 0, "maxCommentsPerKeyConcept must be positive ({0})", maxCommentsPerKeyConcept);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> void publish(final Comment comment, final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(comment);
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		KeyConceptComments keyConceptComments = commentsByUrn.get(urn);
+		if (keyConceptComments == null) {
+			final KeyConceptComments newComments = new KeyConceptComments(urn);
+			keyConceptComments = commentsByUrn.putIfAbsent(urn, newComments);
+			if (keyConceptComments == null) {
+				keyConceptComments = newComments;
+			}
+		}
+		//writes of a key concept are serialized : sequence, indexes and cap stay consistent
+		synchronized (keyConceptComments) {
+			final CommentRecord parentRecord = comment.getParentUuid() != null ? recordByUuid.get(comment.getParentUuid()) : null;
+			Assertion.checkArgument(comment.getParentUuid() == null || parentRecord != null && parentRecord.keyConceptComments == keyConceptComments, "Comment {0} is not a comment of {1}", comment.getParentUuid(), urn);
+			final long seq = ++keyConceptComments.lastSeq;
+			final CommentRecord record = new CommentRecord(keyConceptComments, seq, comment);
+			recordByUuid.put(comment.getUuid(), record);
+			keyConceptComments.uuidBySeq.put(seq, comment.getUuid());
+			if (parentRecord == null) {
+				keyConceptComments.threadUuidBySeq.put(seq, comment.getUuid());
+			} else {
+				parentRecord.addReply(seq, comment.getUuid());
+			}
+			keyConceptComments.size++;
+			keyConceptComments.version.incrementAndGet();
+			while (keyConceptComments.size > maxCommentsPerKeyConcept) {
+				final Map.Entry<Long, UUID> oldest = keyConceptComments.uuidBySeq.pollLastEntry();
+				final CommentRecord oldestRecord = recordByUuid.remove(oldest.getValue());
+				keyConceptComments.threadUuidBySeq.remove(oldest.getKey());
+				final UUID oldestParentUuid = oldestRecord.comment.getParentUuid();
+				if (oldestParentUuid != null && recordByUuid.containsKey(oldestParentUuid)) {
+					recordByUuid.get(oldestParentUuid).removeReply(oldest.getKey());
+				}
+				keyConceptComments.size--;
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public UpdateResult update(final UUID uuid, final URI<Account> author, final String msg, final Date lastModified, final long expectedVersion) {
+		Assertion.checkNotNull(uuid);
+		Assertion.checkNotNull(author);
+		Assertion.checkArgNotEmpty(msg);
+		Assertion.checkNotNull(lastModified);
+		//-----
+		final CommentRecord record = recordByUuid.get(uuid);
+		if (record == null) {
+			return UpdateResult.rejected(UpdateStatus.NOT_FOUND);
+		}
+		//concurrent updates of a comment are serialized, reads are not
+		synchronized (record) {
+			final Comment comment = record.comment;
+			if (!comment.getAuthor().equals(author)) {
+				return UpdateResult.rejected(UpdateStatus.NOT_AUTHOR);
+			}
+			if (comment.getVersion() != expectedVersion) {
+				return UpdateResult.rejected(UpdateStatus.VERSION_CONFLICT);
+			}
+			record.comment = new CommentBuilder(uuid, author, comment.getAuthorDisplayName(), comment.getCreationDate())
+					.withParent(comment.getParentUuid())
+					.withMsg(msg)
+					.withLastModified(lastModified)
+					.withVersion(expectedVersion + 1)
+					.build();
+			record.keyConceptComments.version.incrementAndGet();
+			return UpdateResult.updated(withAuthorDisplayName(record.comment), record.keyConceptComments.urn);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Comment get(final UUID uuid) {
+		Assertion.checkNotNull(uuid);
+		//-----
+		final CommentRecord record = recordByUuid.get(uuid);
+		Assertion.checkNotNull(record, "Comment {0} not found", uuid);
+		return withAuthorDisplayName(record.comment);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Comment> get(final List<UUID> uuids) {
+		Assertion.checkNotNull(uuids);
+		//-----
+		return readComments(uuids, Integer.MAX_VALUE);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void visitComments(final CommentVisitor visitor) {
+		Assertion.checkNotNull(visitor);
+		//-----
+		for (final CommentRecord record : recordByUuid.values()) {
+			visitor.visit(record.keyConceptComments.urn, record.comment);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> List<Comment> getComments(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final KeyConceptComments keyConceptComments = commentsByUrn.get(keyConceptUri.toURN());
+		if (keyConceptComments == null) {
+			return new ArrayList<>();
+		}
+		return readComments(keyConceptComments.uuidBySeq.values(), Integer.MAX_VALUE);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> List<Comment> getComments(final URI<S> keyConceptUri, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(keyConceptUri);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final KeyConceptComments keyConceptComments = commentsByUrn.get(keyConceptUri.toURN());
+		if (keyConceptComments == null) {
+			return new ArrayList<>();
+		}
+		if (cursor.isDefined()) {
+			final CommentRecord cursorRecord = recordByUuid.get(cursor.get());
+			Assertion.checkArgument(cursorRecord != null && cursorRecord.keyConceptComments == keyConceptComments, "Comment {0} is not a comment of {1}", cursor.get(), keyConceptUri.toURN());
+			return readComments(keyConceptComments.uuidBySeq.tailMap(cursorRecord.seq, false).values(), limit);
+		}
+		return readComments(keyConceptComments.uuidBySeq.values(), limit);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> List<Comment> getThreads(final URI<S> keyConceptUri, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(keyConceptUri);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final KeyConceptComments keyConceptComments = commentsByUrn.get(keyConceptUri.toURN());
+		if (keyConceptComments == null) {
+			return new ArrayList<>();
+		}
+		if (cursor.isDefined()) {
+			final CommentRecord cursorRecord = recordByUuid.get(cursor.get());
+			Assertion.checkArgument(cursorRecord != null && cursorRecord.keyConceptComments == keyConceptComments, "Comment {0} is not a comment of {1}", cursor.get(), keyConceptUri.toURN());
+			return readComments(keyConceptComments.threadUuidBySeq.tailMap(cursorRecord.seq, false).values(), limit);
+		}
+		return readComments(keyConceptComments.threadUuidBySeq.values(), limit);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Comment> getReplies(final UUID parentUuid, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(parentUuid);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final CommentRecord parentRecord = recordByUuid.get(parentUuid);
+		Assertion.checkNotNull(parentRecord, "Comment {0} not found", parentUuid);
+		final ConcurrentNavigableMap<Long, UUID> replyUuidBySeq = parentRecord.replyUuidBySeq;
+		if (replyUuidBySeq == null) {
+			return new ArrayList<>();
+		}
+		if (cursor.isDefined()) {
+			final CommentRecord cursorRecord = recordByUuid.get(cursor.get());
+			Assertion.checkArgument(cursorRecord != null && parentUuid.equals(cursorRecord.comment.getParentUuid()), "Comment {0} is not a reply to {1}", cursor.get(), parentUuid);
+			return readComments(replyUuidBySeq.tailMap(cursorRecord.seq, false).values(), limit);
+		}
+		return readComments(replyUuidBySeq.values(), limit);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<UUID, Long> getReplyCounts(final Collection<UUID> uuids) {
+		Assertion.checkNotNull(uuids);
+		//-----
+		final Map<UUID, Long> counts = new HashMap<>();
+		for (final UUID uuid : uuids) {
+			final CommentRecord record = recordByUuid.get(uuid);
+			counts.put(uuid, record == null ? 0L : record.replyCount);
+		}
+		return counts;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> long getCommentCount(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final KeyConceptComments keyConceptComments = commentsByUrn.get(keyConceptUri.toURN());
+		return keyConceptComments == null ? 0 : keyConceptComments.size;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> long getVersion(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final KeyConceptComments keyConceptComments = commentsByUrn.get(keyConceptUri.toURN());
+		return keyConceptComments == null ? 0 : keyConceptComments.version.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> Map<URI<Account>, String> readAuthorDisplayNames(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final Set<URI<Account>> authors = new HashSet<>();
+		final KeyConceptComments keyConceptComments = commentsByUrn.get(keyConceptUri.toURN());
+		if (keyConceptComments != null) {
+			for (final UUID uuid : keyConceptComments.uuidBySeq.values()) {
+				final CommentRecord record = recordByUuid.get(uuid);
+				//dropped since the index was read
+				if (record != null) {
+					authors.add(record.comment.getAuthor());
+				}
+			}
+		}
+		return commentAuthors.readDisplayNames(authors);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<? extends KeyConcept>, Long> getCommentCounts(final Collection<? extends URI<? extends KeyConcept>> keyConceptUris) {
+		Assertion.checkNotNull(keyConceptUris);
+		//-----
+		final Map<URI<? extends KeyConcept>, Long> counts = new HashMap<>();
+		for (final URI<? extends KeyConcept> keyConceptUri : keyConceptUris) {
+			counts.put(keyConceptUri, getCommentCount(keyConceptUri));
+		}
+		return counts;
+	}
+
+	private List<Comment> readComments(final Collection<UUID> uuids, final int limit) {
+		final List<Comment> storedComments = new ArrayList<>();
+		final Set<URI<Account>> authors = new HashSet<>();
+		for (final UUID uuid : uuids) {
+			if (storedComments.size() >= limit) {
+				break;
+			}
+			final CommentRecord record = recordByUuid.get(uuid);
+			//dropped since the index was read
+			if (record != null) {
+				storedComments.add(record.comment);
+				authors.add(record.comment.getAuthor());
+			}
+		}
+		//authors of the page resolved at once
+		final Map<URI<Account>, String> displayNames = commentAuthors.getDisplayNames(authors);
+		final List<Comment> comments = new ArrayList<>(storedComments.size());
+		for (final Comment comment : storedComments) {
+			comments.add(withAuthorDisplayName(comment, displayNames.get(comment.getAuthor())));
+		}
+		return comments;
+	}
+
+	private Comment withAuthorDisplayName(final Comment comment) {
+		return withAuthorDisplayName(comment, commentAuthors.getDisplayName(comment.getAuthor()));
+	}
+
+	//comments keep the display name known when they were written : the current one is used
+	private static Comment withAuthorDisplayName(final Comment comment, final String authorDisplayName) {
+		if (authorDisplayName.equals(comment.getAuthorDisplayName())) {
+			return comment;
+		}
+		return new CommentBuilder(comment.getUuid(), comment.getAuthor(), authorDisplayName, comment.getCreationDate())
+				.withParent(comment.getParentUuid())
+				.withMsg(comment.getMsg())
+				.withLastModified(comment.getLastModified())
+				.withVersion(comment.getVersion())
+				.build();
+	}
+
+	private static final class KeyConceptComments {
+		final String urn;
+		//newest first
+		final ConcurrentNavigableMap<Long, UUID> uuidBySeq = new ConcurrentSkipListMap<>(Collections.reverseOrder());
+		//top-level comments only, newest first
+		final ConcurrentNavigableMap<Long, UUID> threadUuidBySeq = new ConcurrentSkipListMap<>(Collections.reverseOrder());
+		//guarded by this
+		long lastSeq;
+		//written under lock, read without
+		volatile int size;
+		//publish and update of any comment
+		final AtomicLong version = new AtomicLong();
+
+		KeyConceptComments(final String urn) {
+			this.urn = urn;
+		}
+	}
+
+	private static final class CommentRecord {
+		final KeyConceptComments keyConceptComments;
+		final long seq;
+		volatile Comment comment;
+		//oldest first, only created for a comment with replies ; written under lock of its key concept, read without
+		volatile ConcurrentNavigableMap<Long, UUID> replyUuidBySeq;
+		volatile int replyCount;
+
+		CommentRecord(final KeyConceptComments keyConceptComments, final long seq, final Comment comment) {
+			this.keyConceptComments = keyConceptComments;
+			this.seq = seq;
+			this.comment = comment;
+		}
+
+		void addReply(final long replySeq, final UUID replyUuid) {
+			if (replyUuidBySeq == null) {
+				replyUuidBySeq = new ConcurrentSkipListMap<>();
+			}
+			replyUuidBySeq.put(replySeq, replyUuid);
+			replyCount++;
+		}
+
+		void removeReply(final long replySeq) {
+			if (replyUuidBySeq.remove(replySeq) != null) {
+				replyCount--;
+			}
+		}
+	}
+}
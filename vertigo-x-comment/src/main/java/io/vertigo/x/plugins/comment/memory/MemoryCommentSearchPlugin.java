@@ -0,0 +1,269 @@
+package io.vertigo.x.plugins.comment.memory;
+
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.x.impl.comment.CommentRanking;
+import io.vertigo.x.impl.comment.CommentSearchPlugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Search index of comments in memory (inverted index), built from stored comments at start.
+ * Each indexed version of a comment has a doc id, increasing : postings of a term are doc ids in order,
+ * stored as deltas with their frequency, in variable length bytes (about 2 bytes by posting).
+ * An updated comment is indexed with a new doc id, postings of the previous one are skipped by searches
+ * and dropped when they outnumber live ones.
+ * Searches run concurrently, index updates one at a time.
+ *
+ * @author pchretien
+ */
+public final class MemoryCommentSearchPlugin implements CommentSearchPlugin {
+	private static final long MIN_STALE_POSTINGS_TO_COMPACT = 10000;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	//----- guarded by lock
+	private final Map<String, PostingList> postingsByTerm = new HashMap<>();
+	private final Map<Integer, IndexedComment> commentsByDocId = new HashMap<>();
+	private final Map<UUID, Integer> docIdByUuid = new HashMap<>();
+	private int lastDocId;
+	private long totalLength;
+	private long livePostings;
+	private long stalePostings;
+	//-----
+	private volatile boolean built;
+
+	/** {@inheritDoc} */
+	@Override
+	public void index(final UUID uuid, final String keyConceptUrn, final long version, final Map<String, Integer> termFrequencies) {
+		Assertion.checkNotNull(uuid);
+		Assertion.checkNotNull(keyConceptUrn);
+		Assertion.checkNotNull(termFrequencies);
+		//-----
+		lock.writeLock().lock();
+		try {
+			final Integer previousDocId = docIdByUuid.get(uuid);
+			if (previousDocId != null) {
+				if (commentsByDocId.get(previousDocId).version > version) {
+					//updated while the index was built
+					return;
+				}
+				removeDoc(previousDocId);
+			}
+			final int docId = ++lastDocId;
+			int length = 0;
+			for (final Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+				PostingList postingList = postingsByTerm.get(entry.getKey());
+				if (postingList == null) {
+					postingList = new PostingList();
+					postingsByTerm.put(entry.getKey(), postingList);
+				}
+				postingList.add(docId, entry.getValue());
+				length += entry.getValue();
+			}
+			commentsByDocId.put(docId, new IndexedComment(uuid, keyConceptUrn, version, length, termFrequencies.size()));
+			docIdByUuid.put(uuid, docId);
+			totalLength += length;
+			livePostings += termFrequencies.size();
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void remove(final UUID uuid) {
+		Assertion.checkNotNull(uuid);
+		//-----
+		lock.writeLock().lock();
+		try {
+			final Integer docId = docIdByUuid.get(uuid);
+			if (docId != null) {
+				removeDoc(docId);
+				compactIfNeeded();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	//its postings are stale
+	private void removeDoc(final int docId) {
+		final IndexedComment indexedComment = commentsByDocId.remove(docId);
+		docIdByUuid.remove(indexedComment.uuid);
+		totalLength -= indexedComment.length;
+		livePostings -= indexedComment.termCount;
+		stalePostings += indexedComment.termCount;
+	}
+
+	private void compactIfNeeded() {
+		if (stalePostings < MIN_STALE_POSTINGS_TO_COMPACT || stalePostings < livePostings) {
+			return;
+		}
+		for (final Iterator<PostingList> it = postingsByTerm.values().iterator(); it.hasNext();) {
+			final PostingList postingList = it.next();
+			final PostingList livePostingList = new PostingList();
+			final PostingReader reader = postingList.reader();
+			while (reader.next()) {
+				if (commentsByDocId.containsKey(reader.docId)) {
+					livePostingList.add(reader.docId, reader.termFrequency);
+				}
+			}
+			if (livePostingList.docCount == 0) {
+				it.remove();
+			} else {
+				postingList.replaceBy(livePostingList);
+			}
+		}
+		stalePostings = 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<UUID> search(final Collection<String> terms, final Option<String> keyConceptUrn, final int limit) {
+		Assertion.checkNotNull(terms);
+		Assertion.checkNotNull(keyConceptUrn);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		lock.readLock().lock();
+		try {
+			final CommentRanking<Integer> ranking = new CommentRanking<>(commentsByDocId.size(), totalLength);
+			for (final String term : terms) {
+				final PostingList postingList = postingsByTerm.get(term);
+				if (postingList == null) {
+					continue;
+				}
+				//stale postings are counted until compacted : close enough for a weight
+				final double idf = ranking.idf(postingList.docCount);
+				final PostingReader reader = postingList.reader();
+				while (reader.next()) {
+					final IndexedComment indexedComment = commentsByDocId.get(reader.docId);
+					//null if updated or removed since
+					if (indexedComment != null && (!keyConceptUrn.isDefined() || keyConceptUrn.get().equals(indexedComment.keyConceptUrn))) {
+						ranking.add(reader.docId, idf, reader.termFrequency, indexedComment.length);
+					}
+				}
+			}
+			//newest first if same score
+			final List<UUID> uuids = new ArrayList<>();
+			for (final Integer docId : ranking.top(limit)) {
+				uuids.add(commentsByDocId.get(docId).uuid);
+			}
+			return uuids;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isBuilt() {
+		return built;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void markBuilt() {
+		built = true;
+	}
+
+	private static final class IndexedComment {
+		final UUID uuid;
+		final String keyConceptUrn;
+		final long version;
+		final int length;
+		final int termCount;
+
+		IndexedComment(final UUID uuid, final String keyConceptUrn, final long version, final int length, final int termCount) {
+			this.uuid = uuid;
+			this.keyConceptUrn = keyConceptUrn;
+			this.version = version;
+			this.length = length;
+			this.termCount = termCount;
+		}
+	}
+
+	//doc ids in order : each posting is the delta from the previous doc id then the term frequency, as varints
+	private static final class PostingList {
+		private byte[] bytes = new byte[8];
+		private int size;
+		private int lastDocId;
+		int docCount;
+
+		void add(final int docId, final int termFrequency) {
+			//2 varints of 5 bytes max
+			if (size + 10 > bytes.length) {
+				final byte[] newBytes = new byte[Math.max(bytes.length * 2, size + 10)];
+				System.arraycopy(bytes, 0, newBytes, 0, size);
+				bytes = newBytes;
+			}
+			writeVarInt(docId - lastDocId);
+			writeVarInt(termFrequency);
+			lastDocId = docId;
+			docCount++;
+		}
+
+		private void writeVarInt(final int value) {
+			int remaining = value;
+			while ((remaining & ~0x7F) != 0) {
+				bytes[size++] = (byte) (remaining & 0x7F | 0x80);
+				remaining >>>= 7;
+			}
+			bytes[size++] = (byte) remaining;
+		}
+
+		void replaceBy(final PostingList postingList) {
+			//trimmed : lists are not grown again after a compaction most of the time
+			bytes = new byte[postingList.size];
+			System.arraycopy(postingList.bytes, 0, bytes, 0, postingList.size);
+			size = postingList.size;
+			lastDocId = postingList.lastDocId;
+			docCount = postingList.docCount;
+		}
+
+		PostingReader reader() {
+			return new PostingReader(bytes, size);
+		}
+	}
+
+	private static final class PostingReader {
+		private final byte[] bytes;
+		private final int size;
+		private int position;
+		int docId;
+		int termFrequency;
+
+		PostingReader(final byte[] bytes, final int size) {
+			this.bytes = bytes;
+			this.size = size;
+		}
+
+		boolean next() {
+			if (position >= size) {
+				return false;
+			}
+			docId += readVarInt();
+			termFrequency = readVarInt();
+			return true;
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[position++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,397 @@
+package io.vertigo.x.plugins.comment.redis;
+
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.Tuple;
+
+/**
+ * Cold store of the comments of inactive key concepts : one compressed segment file by key concept,
+ * in a directory shared by all nodes.
+ * An archived key concept keeps in Redis its sequence, version and comments count (commentArchive:*) only :
+ * comment hashes and indexes are removed, and written back from the segment when read again.
+ * The key concept of each archived comment is kept on disk, next to segments, in append-only files by uuid prefix :
+ * a comment never changes key concept, so entries of key concepts written back since stay true, and are not appended again when archived again.
+ * Archiving and rehydration are transactions : a key concept written while archived stays in Redis,
+ * and a segment is deleted only once rehydrated (by one node only).
+ * A segment is synced to disk, and so is its directory once renamed, before Redis refers to it.
+ * Archived comments may also be read without being written back (ie : search results, index build).
+ *
+ * @author pchretien
+ */
+final class RedisCommentArchive {
+	static final String ACTIVITY_KEY = "commentActivity";
+	private static final int SEGMENT_FORMAT = 1;
+	//4096 files : a lookup reads about 1/4096 of archived comments' uuids
+	private static final int UUID_BUCKET_PREFIX = 3;
+	//uuid files are locked against other nodes, and against other archives of this node (a file lock is held by the whole JVM)
+	private static final Object UUIDS_LOCK = new Object();
+	private final File archiveDir;
+	private final File uuidsDir;
+
+	/**
+	 * @param archiveDir Directory of segment files, shared by all nodes
+	 */
+	RedisCommentArchive(final String archiveDir) {
+		Assertion.checkArgNotEmpty(archiveDir);
+		//-----
+		this.archiveDir = new File(archiveDir);
+		uuidsDir = new File(archiveDir, "uuids");
+		Assertion.checkArgument(uuidsDir.isDirectory() || uuidsDir.mkdirs(), "Can't create archive directory {0}", uuidsDir);
+	}
+
+	static String archiveKey(final String urn) {
+		return "commentArchive:" + urn;
+	}
+
+	/**
+	 * Moves comments of a key concept into a segment (its index must exist).
+	 * @return false if not archived : written meanwhile, already archived or no comment (then not active anymore)
+	 */
+	boolean archive(final Jedis jedis, final String urn) {
+		final String indexKey = "commentIndex:" + urn;
+		//any publish or update increments the version
+		jedis.watch("commentVersion:" + urn, indexKey, archiveKey(urn));
+		final Set<Tuple> index = jedis.zrangeWithScores(indexKey, 0, -1);
+		if (jedis.exists(archiveKey(urn))) {
+			jedis.unwatch();
+			return false;
+		}
+		if (index.isEmpty()) {
+			//no comment : nothing to archive, active again at its first comment
+			final Transaction tx = jedis.multi();
+			tx.zrem(ACTIVITY_KEY, urn);
+			tx.exec();
+			return false;
+		}
+		final List<String> commentKeys = new ArrayList<>();
+		for (final Tuple entry : index) {
+			commentKeys.add("comment:" + entry.getElement());
+		}
+		//comments stored before their key concept was kept don't increment its version when updated
+		jedis.watch(commentKeys.toArray(new String[commentKeys.size()]));
+		final List<Response<Map<String, String>>> responses = new ArrayList<>();
+		final Pipeline pipeline = jedis.pipelined();
+		for (final String commentKey : commentKeys) {
+			responses.add(pipeline.hgetAll(commentKey));
+		}
+		pipeline.sync();
+		final List<ArchivedComment> comments = new ArrayList<>();
+		int i = 0;
+		for (final Tuple entry : index) {
+			final Map<String, String> data = responses.get(i++).get();
+			if (!data.isEmpty()) {
+				comments.add(new ArchivedComment(entry.getElement(), (long) entry.getScore(), data));
+			}
+		}
+		final File segment;
+		try {
+			segment = writeSegment(urn, comments);
+			writeUuids(urn, comments);
+		} catch (final RuntimeException e) {
+			jedis.unwatch();
+			throw e;
+		}
+
+		final Transaction tx = jedis.multi();
+		for (final ArchivedComment comment : comments) {
+			tx.del("comment:" + comment.uuid);
+			tx.del("commentReplies:" + comment.uuid);
+		}
+		tx.del(indexKey);
+		tx.del("commentThreads:" + urn);
+		tx.hset(archiveKey(urn), "segment", segment.getName());
+		tx.hset(archiveKey(urn), "count", String.valueOf(comments.size()));
+		tx.zrem(ACTIVITY_KEY, urn);
+		if (tx.exec() == null) {
+			//written meanwhile : uuids written stay true
+			deleteSegment(segment);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes back comments of an archived key concept.
+	 * @return false if not archived
+	 */
+	boolean rehydrate(final Jedis jedis, final String urn) {
+		final String archiveKey = archiveKey(urn);
+		jedis.watch(archiveKey);
+		final String segmentName = jedis.hget(archiveKey, "segment");
+		if (segmentName == null) {
+			jedis.unwatch();
+			return false;
+		}
+		final File segment = new File(archiveDir, segmentName);
+		final List<ArchivedComment> comments;
+		try {
+			comments = readSegment(segment, urn);
+		} catch (final RuntimeException e) {
+			jedis.unwatch();
+			throw e;
+		}
+		final Transaction tx = jedis.multi();
+		for (final ArchivedComment comment : comments) {
+			tx.hmset("comment:" + comment.uuid, comment.data);
+			tx.zadd("commentIndex:" + urn, comment.seq, comment.uuid);
+			final String parentUuid = comment.data.get("parent");
+			if (parentUuid == null) {
+				tx.zadd("commentThreads:" + urn, comment.seq, comment.uuid);
+			} else {
+				tx.zadd("commentReplies:" + parentUuid, comment.seq, comment.uuid);
+			}
+		}
+		tx.del(archiveKey);
+		//read again : active from now
+		tx.zadd(ACTIVITY_KEY, System.currentTimeMillis(), urn);
+		//null : rehydrated by another node meanwhile
+		if (tx.exec() != null) {
+			deleteSegment(segment);
+		}
+		return true;
+	}
+
+	/**
+	 * @return Urn of the key concept of this comment, if it was ever archived (its key concept may have been written back since)
+	 */
+	Option<String> getArchivedUrn(final UUID uuid) {
+		return Option.option(getArchivedUrns(Collections.singletonList(uuid.toString())).get(uuid.toString()));
+	}
+
+	/**
+	 * @return Urn of the key concept by uuid, for comments ever archived only (their key concepts may have been written back since)
+	 */
+	Map<String, String> getArchivedUrns(final List<String> uuids) {
+		final Map<String, Set<String>> uuidsByBucket = new HashMap<>();
+		for (final String uuid : uuids) {
+			final String bucket = uuid.substring(0, UUID_BUCKET_PREFIX);
+			if (!uuidsByBucket.containsKey(bucket)) {
+				uuidsByBucket.put(bucket, new HashSet<String>());
+			}
+			uuidsByBucket.get(bucket).add(uuid);
+		}
+		final Map<String, String> urnByUuid = new HashMap<>();
+		for (final Map.Entry<String, Set<String>> entry : uuidsByBucket.entrySet()) {
+			final File uuidsFile = new File(uuidsDir, entry.getKey());
+			if (!uuidsFile.exists()) {
+				continue;
+			}
+			try (final BufferedReader reader = Files.newBufferedReader(uuidsFile.toPath(), StandardCharsets.UTF_8)) {
+				readUuids(reader, entry.getValue(), urnByUuid);
+			} catch (final IOException e) {
+				throw new RuntimeException("Can't read archived comments uuids (" + uuidsFile + ")", e);
+			}
+		}
+		return urnByUuid;
+	}
+
+	//lines uuid<TAB>urn ; a line being appended is incomplete : ignored, its comments are not archived yet
+	private static void readUuids(final BufferedReader reader, final Set<String> uuids, final Map<String, String> urnByUuid) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			final int tab = line.indexOf('\t');
+			if (tab > 0 && uuids.contains(line.substring(0, tab))) {
+				urnByUuid.put(line.substring(0, tab), line.substring(tab + 1));
+			}
+		}
+	}
+
+	//appended, unless already there (archived before), then synced : Redis refers to archived comments once their uuids are on disk
+	private void writeUuids(final String urn, final List<ArchivedComment> comments) {
+		final Map<String, Set<String>> uuidsByBucket = new HashMap<>();
+		for (final ArchivedComment comment : comments) {
+			final String bucket = comment.uuid.substring(0, UUID_BUCKET_PREFIX);
+			if (!uuidsByBucket.containsKey(bucket)) {
+				uuidsByBucket.put(bucket, new HashSet<String>());
+			}
+			uuidsByBucket.get(bucket).add(comment.uuid);
+		}
+		try {
+			boolean created = false;
+			synchronized (UUIDS_LOCK) {
+				for (final Map.Entry<String, Set<String>> entry : uuidsByBucket.entrySet()) {
+					final File uuidsFile = new File(uuidsDir, entry.getKey());
+					created |= !uuidsFile.exists();
+					try (final FileChannel channel = FileChannel.open(uuidsFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+							final FileLock lock = channel.lock()) {
+						final Map<String, String> urnByUuid = new HashMap<>();
+						readUuids(new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8)), entry.getValue(), urnByUuid);
+						final StringBuilder lines = new StringBuilder();
+						for (final String uuid : entry.getValue()) {
+							if (!urnByUuid.containsKey(uuid)) {
+								lines.append(uuid).append('\t').append(urn).append('\n');
+							}
+						}
+						final ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+						long position = channel.size();
+						while (buffer.hasRemaining()) {
+							position += channel.write(buffer, position);
+						}
+						channel.force(true);
+					}
+				}
+			}
+			if (created) {
+				syncDir(uuidsDir);
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't archive comments uuids of " + urn, e);
+		}
+	}
+
+	/**
+	 * Reads archived comments of a key concept, without writing them back.
+	 * @return Comments (as stored in Redis), none if not archived (or written back meanwhile)
+	 */
+	Option<List<Map<String, String>>> readComments(final Jedis jedis, final String urn) {
+		final String segmentName = jedis.hget(archiveKey(urn), "segment");
+		if (segmentName == null) {
+			return Option.none();
+		}
+		final List<ArchivedComment> comments;
+		try {
+			comments = readSegment(new File(archiveDir, segmentName), urn);
+		} catch (final RuntimeException e) {
+			if (!segmentName.equals(jedis.hget(archiveKey(urn), "segment"))) {
+				//segment deleted once written back
+				return Option.none();
+			}
+			throw e;
+		}
+		final List<Map<String, String>> data = new ArrayList<>(comments.size());
+		for (final ArchivedComment comment : comments) {
+			data.add(comment.data);
+		}
+		return Option.some(data);
+	}
+
+	//a new file for each archive : a node never overwrites the segment of another one
+	//synced, renamed, then directory synced : a segment referred to by Redis survives a crash
+	private File writeSegment(final String urn, final List<ArchivedComment> comments) {
+		final File segment = new File(archiveDir, UUID.randomUUID() + ".seg.gz");
+		final File tmpSegment = new File(archiveDir, segment.getName() + ".tmp");
+		try {
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpSegment))))) {
+				out.writeInt(SEGMENT_FORMAT);
+				out.writeUTF(urn);
+				out.writeInt(comments.size());
+				for (final ArchivedComment comment : comments) {
+					out.writeUTF(comment.uuid);
+					out.writeLong(comment.seq);
+					out.writeInt(comment.data.size());
+					for (final Map.Entry<String, String> field : comment.data.entrySet()) {
+						out.writeUTF(field.getKey());
+						//msg may be longer than writeUTF limit
+						final byte[] value = field.getValue().getBytes(StandardCharsets.UTF_8);
+						out.writeInt(value.length);
+						out.write(value);
+					}
+				}
+			}
+			try (final FileChannel channel = FileChannel.open(tmpSegment.toPath(), StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			//complete or absent
+			Files.move(tmpSegment.toPath(), segment.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			syncDir(archiveDir);
+		} catch (final IOException e) {
+			deleteSegment(tmpSegment);
+			throw new RuntimeException("Can't archive comments of " + urn, e);
+		}
+		return segment;
+	}
+
+	private static void syncDir(final File dir) throws IOException {
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (final IOException e) {
+			//directories can't be opened on some systems (ie : Windows) : renames are as durable as they make them
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static List<ArchivedComment> readSegment(final File segment, final String urn) {
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(segment))))) {
+			Assertion.checkState(in.readInt() == SEGMENT_FORMAT, "Unknown format of segment {0}", segment);
+			Assertion.checkState(urn.equals(in.readUTF()), "Segment {0} is not the archive of {1}", segment, urn);
+			final int count = in.readInt();
+			final List<ArchivedComment> comments = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				final String uuid = in.readUTF();
+				final long seq = in.readLong();
+				final int fieldCount = in.readInt();
+				final Map<String, String> data = new HashMap<>();
+				for (int j = 0; j < fieldCount; j++) {
+					final String name = in.readUTF();
+					final byte[] value = new byte[in.readInt()];
+					in.readFully(value);
+					data.put(name, new String(value, StandardCharsets.UTF_8));
+				}
+				comments.add(new ArchivedComment(uuid, seq, data));
+			}
+			return comments;
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't read archived comments of " + urn + " (" + segment + ")", e);
+		}
+	}
+
+	private static void deleteSegment(final File segment) {
+		try {
+			Files.deleteIfExists(segment.toPath());
+		} catch (final IOException e) {
+			//orphan file : no key concept refers to it
+		}
+	}
+
+	private static final class ArchivedComment {
+		final String uuid;
+		final long seq;
+		final Map<String, String> data;
+
+		ArchivedComment(final String uuid, final long seq, final Map<String, String> data) {
+			this.uuid = uuid;
+			this.seq = seq;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package io.vertigo.x.plugins.comment.redis;
+
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Activeable;
+import io.vertigo.lang.Assertion;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.comment.Comment;
+import io.vertigo.x.comment.CommentBuilder;
+import io.vertigo.x.comment.CommentEvent;
+import io.vertigo.x.comment.CommentEventListener;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.comment.CommentEventPlugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Comment events across nodes with Redis pub/sub.
+ * Publishing is one script : the sequence number (commentEventSeq), the log of last events (commentEventLog) and the message are written together,
+ * so messages are received in sequence order.
+ * Messages hold the whole comment : receivers don't read it again.
+ * A subscriber that missed messages (ie : reconnection) replays them from the log, events not in the log anymore are not delivered.
+ *
+ * @author pchretien
+ */
+public final class RedisCommentEventPlugin implements CommentEventPlugin, Activeable {
+	private static final Logger LOG = Logger.getLogger(RedisCommentEventPlugin.class);
+	private static final String SEQUENCE_KEY = "commentEventSeq";
+	private static final String LOG_KEY = "commentEventLog";
+	private static final String CHANNEL = "commentEvents";
+	private static final int LOG_SIZE = 1000;
+	private static final long RETRY_DELAY_MS = 1000;
+	private static final byte SEPARATOR = '|';
+	private static final String PUBLISH_SCRIPT = "local seq = redis.call('INCR', KEYS[1]) "
+			+ "local message = seq .. '|' .. ARGV[1] "
+			+ "redis.call('LPUSH', KEYS[2], message) "
+			+ "redis.call('LTRIM', KEYS[2], 0, tonumber(ARGV[2]) - 1) "
+			+ "redis.call('PUBLISH', ARGV[3], message) "
+			+ "return seq";
+
+	private final RedisConnector redisConnector;
+	//events of this node are delivered locally by the manager
+	private final String nodeId = UUID.randomUUID().toString();
+	private final List<CommentEventListener> listeners = new CopyOnWriteArrayList<>();
+	private final Subscriber subscriber = new Subscriber();
+	private Thread subscriberThread;
+	private volatile boolean running;
+	private long lastSequence; //only used by subscriberThread
+
+	/**
+	 * @param redisConnector Connector Redis
+	 */
+	@Inject
+	public RedisCommentEventPlugin(final RedisConnector redisConnector) {
+		Assertion.checkNotNull(redisConnector);
+		//-----
+		this.redisConnector = redisConnector;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void start() {
+		lastSequence = readSequence();
+		running = true;
+		subscriberThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					try (final Jedis jedis = redisConnector.getResource()) {
+						jedis.subscribe(subscriber, CHANNEL.getBytes(StandardCharsets.UTF_8));
+					} catch (final RuntimeException e) {
+						//connection lost or replay failed : missed events are replayed once subscribed again
+						LOG.warn("Comment events subscriber disconnected, subscribing again", e);
+						sleep();
+					}
+				}
+			}
+		}, "x-comment-events");
+		subscriberThread.setDaemon(true);
+		subscriberThread.start();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void stop() {
+		running = false;
+		if (subscriber.isSubscribed()) {
+			subscriber.unsubscribe();
+		}
+		try {
+			subscriberThread.join(RETRY_DELAY_MS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(RETRY_DELAY_MS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CommentEvent publish(final CommentEvent.Type type, final String keyConceptUrn, final Comment comment) {
+		Assertion.checkNotNull(type);
+		Assertion.checkArgNotEmpty(keyConceptUrn);
+		Assertion.checkNotNull(comment);
+		//-----
+		final long sequence;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			sequence = (Long) jedis.eval(PUBLISH_SCRIPT.getBytes(StandardCharsets.UTF_8),
+					Arrays.asList(SEQUENCE_KEY.getBytes(StandardCharsets.UTF_8), LOG_KEY.getBytes(StandardCharsets.UTF_8)),
+					Arrays.asList(encode(type, keyConceptUrn, comment), String.valueOf(LOG_SIZE).getBytes(StandardCharsets.UTF_8), CHANNEL.getBytes(StandardCharsets.UTF_8)));
+		}
+		return new CommentEvent(sequence, type, keyConceptUrn, comment);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void subscribe(final CommentEventListener listener) {
+		Assertion.checkNotNull(listener);
+		//-----
+		listeners.add(listener);
+	}
+
+	private long readSequence() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final String sequence = jedis.get(SEQUENCE_KEY);
+			return sequence == null ? 0 : Long.parseLong(sequence);
+		}
+	}
+
+	private void receive(final byte[] message) {
+		final long sequence = readSequence(message);
+		if (sequence <= lastSequence) {
+			//already replayed
+			return;
+		}
+		if (sequence > lastSequence + 1) {
+			replay(sequence);
+		}
+		deliver(sequence, message);
+	}
+
+	//delivers events after lastSequence and before toSequence, from the log
+	private void replay(final long toSequence) {
+		final List<byte[]> log;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			log = jedis.lrange(LOG_KEY.getBytes(StandardCharsets.UTF_8), 0, LOG_SIZE - 1);
+		}
+		//log is newest first
+		Collections.reverse(log);
+		for (final byte[] message : log) {
+			final long sequence = readSequence(message);
+			if (sequence > lastSequence && sequence < toSequence) {
+				deliver(sequence, message);
+			}
+		}
+		lastSequence = Math.max(lastSequence, toSequence - 1);
+	}
+
+	private void deliver(final long sequence, final byte[] message) {
+		lastSequence = sequence;
+		final CommentEvent event;
+		try {
+			event = decode(sequence, message);
+		} catch (final RuntimeException e) {
+			//an event that can't be read is lost, like events trimmed from the log
+			LOG.error("Unreadable comment event " + sequence + " skipped", e);
+			return;
+		}
+		if (event != null) {
+			for (final CommentEventListener listener : listeners) {
+				try {
+					listener.onEvent(event);
+				} catch (final RuntimeException e) {
+					//other listeners and next events are still delivered
+					LOG.error("Comment event listener failed on " + event.getType() + " " + event.getSequence(), e);
+				}
+			}
+		}
+	}
+
+	private byte[] encode(final CommentEvent.Type type, final String keyConceptUrn, final Comment comment) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeUTF(nodeId);
+			out.writeUTF(type.name());
+			out.writeUTF(keyConceptUrn);
+			out.writeUTF(comment.getUuid().toString());
+			out.writeUTF(comment.getParentUuid() != null ? comment.getParentUuid().toString() : "");
+			out.writeUTF(String.valueOf(comment.getAuthor().getId()));
+			out.writeUTF(comment.getAuthorDisplayName());
+			//msg may be longer than writeUTF limit
+			final byte[] msg = comment.getMsg().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(msg.length);
+			out.write(msg);
+			out.writeLong(comment.getCreationDate().getTime());
+			out.writeLong(comment.getLastModified() != null ? comment.getLastModified().getTime() : -1);
+			out.writeLong(comment.getVersion());
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't encode comment event", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static long readSequence(final byte[] message) {
+		return Long.parseLong(new String(message, 0, indexOfSeparator(message), StandardCharsets.UTF_8));
+	}
+
+	private static int indexOfSeparator(final byte[] message) {
+		for (int i = 0; i < message.length; i++) {
+			if (message[i] == SEPARATOR) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Not a comment event");
+	}
+
+	//null for events of this node
+	private CommentEvent decode(final long sequence, final byte[] message) {
+		final int offset = indexOfSeparator(message) + 1;
+		try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(message, offset, message.length - offset))) {
+			if (nodeId.equals(in.readUTF())) {
+				return null;
+			}
+			final CommentEvent.Type type = CommentEvent.Type.valueOf(in.readUTF());
+			final String keyConceptUrn = in.readUTF();
+			final UUID uuid = UUID.fromString(in.readUTF());
+			final String parentUuid = in.readUTF();
+			final URI<Account> author = DtObjectUtil.createURI(Account.class, in.readUTF());
+			final String authorDisplayName = in.readUTF();
+			final byte[] msg = new byte[in.readInt()];
+			in.readFully(msg);
+			final Date creationDate = new Date(in.readLong());
+			final long lastModified = in.readLong();
+			final Comment comment = new CommentBuilder(uuid, author, authorDisplayName, creationDate)
+					.withParent(parentUuid.isEmpty() ? null : UUID.fromString(parentUuid))
+					.withMsg(new String(msg, StandardCharsets.UTF_8))
+					.withLastModified(lastModified >= 0 ? new Date(lastModified) : null)
+					.withVersion(in.readLong())
+					.build();
+			return new CommentEvent(sequence, type, keyConceptUrn, comment);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't decode comment event", e);
+		}
+	}
+
+	private final class Subscriber extends BinaryJedisPubSub {
+
+		/** {@inheritDoc} */
+		@Override
+		public void onSubscribe(final byte[] channel, final int subscribedChannels) {
+			//events published while not subscribed
+			final long sequence = readSequence();
+			if (sequence > lastSequence) {
+				replay(sequence + 1);
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void onMessage(final byte[] channel, final byte[] message) {
+			try {
+				receive(message);
+			} catch (final RuntimeException e) {
+				//unreadable message or log not read : the subscription goes on, a gap is replayed with the next message
+				LOG.error("Comment event message not received : " + new String(message, StandardCharsets.UTF_8), e);
+			}
+		}
+	}
+}
@@ -4,124 +4,835 @@ import io.vertigo.dynamo.domain.metamodel.DtDefinition;
 import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
 import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Activeable;
 import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
 import io.vertigo.util.MapBuilder;
 import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountManager;
 import io.vertigo.x.comment.Comment;
 import io.vertigo.x.comment.CommentBuilder;
 import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.comment.CommentAuthors;
 import io.vertigo.x.impl.comment.CommentPlugin;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.Transaction;
 
 /**
+ * Comments store in Redis.
+ * Comments of a key concept are indexed by a sorted set (commentIndex:*), scored by a sequence of this key concept (commentSeq:*) :
+ * pages are read from a comment to the older ones, whatever the number of comments.
+ * Updates are one script : existence, author and version are checked and the comment written atomically.
+ * Top-level comments of a key concept have their own index (commentThreads:*), and replies an index by comment replied to (commentReplies:*) :
+ * a page of threads or replies is read without reading other comments, reply counts are the sizes of these indexes.
+ * Comments count of a key concept is the size of its index (O(1)).
+ * Each publish or update increments the version of its key concept (commentVersion:*), to check changes without reading comments :
+ * each comment keeps its key concept (keyConcept), written once at start into comments published before it was kept.
+ * Authors' display names are not read from accounts for each comment, but from a cache shared by all reads (see CommentAuthors).
+ * Each publish or update marks its key concept active (commentActivity, scored by time) : if an archive directory is set,
+ * comments of key concepts inactive for archiveAfterDays are moved hourly into compressed segment files (see RedisCommentArchive),
+ * and written back into Redis the first time they are read, updated or commented again ; search results and index builds read them from their segment.
  * @author pchretien
  */
-public final class RedisCommentPlugin implements CommentPlugin {
+public final class RedisCommentPlugin implements CommentPlugin, Activeable {
 	private static final String CODEC_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+	private static final int SCAN_COUNT = 1000;
+	private static final int ARCHIVE_BATCH = 100;
+	private static final long ARCHIVE_PERIOD_MINUTES = 60;
+	private static final String ACTIVITY_BUILT_KEY = "commentActivityBuilt";
+	//ARGV : time, urn ; key concepts written since are already active
+	private static final String ACTIVITY_BACKFILL_SCRIPT = "if redis.call('ZSCORE', KEYS[1], ARGV[2]) then return 0 end "
+			+ "redis.call('ZADD', KEYS[1], ARGV[1], ARGV[2]) "
+			+ "return 1";
+	private static final String KEY_CONCEPTS_BUILT_KEY = "commentKeyConceptsBuilt";
+	//ARGV : urn ; comments dropped meanwhile are not written back
+	private static final String KEY_CONCEPT_BACKFILL_SCRIPT = "if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('HSETNX', KEYS[1], 'keyConcept', ARGV[1]) end "
+			+ "return 0";
+	//KEYS : authors of a key concept ; ARGV : author ; a key concept without authors set gets it built from all its comments
+	private static final String ADD_AUTHOR_SCRIPT = "if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('SADD', KEYS[1], ARGV[1]) end "
+			+ "return 0";
+	//returned by UPDATE_SCRIPT if the key concept read before is not the comment's one (set meanwhile) : read again
+	private static final long KEY_CONCEPT_CHANGED = -1;
+	//KEYS : comment, its key concept's version, activity ; ARGV : author, msg, lastModified, expected version, time, key concept read before
+	//returns the ordinal of UpdateStatus, then key concept and creation date if updated ; comments without version are version 0
+	private static final String UPDATE_SCRIPT = "if redis.call('EXISTS', KEYS[1]) == 0 then return {1} end "
+			+ "if redis.call('HGET', KEYS[1], 'author') ~= ARGV[1] then return {2} end "
+			+ "local keyConcept = redis.call('HGET', KEYS[1], 'keyConcept') or '' "
+			+ "if keyConcept ~= ARGV[6] then return {" + KEY_CONCEPT_CHANGED + "} end "
+			+ "local version = tonumber(redis.call('HGET', KEYS[1], 'version') or '0') "
+			+ "if version ~= tonumber(ARGV[4]) then return {3} end "
+			+ "redis.call('HMSET', KEYS[1], 'msg', ARGV[2], 'lastModified', ARGV[3], 'version', version + 1) "
+			+ "if keyConcept ~= '' then redis.call('INCR', KEYS[2]) redis.call('ZADD', KEYS[3], ARGV[5], keyConcept) end "
+			+ "return {0, keyConcept, redis.call('HGET', KEYS[1], 'creationDate'), redis.call('HGET', KEYS[1], 'parent') or ''}";
+	//comments published before threads are all top-level : the threads index starts as a copy of the index ; returns 1 if copied
+	private static final String THREADS_INDEX_SCRIPT = "if redis.call('EXISTS', KEYS[1]) == 1 or redis.call('EXISTS', KEYS[2]) == 0 then return 0 end "
+			+ "redis.call('ZUNIONSTORE', KEYS[1], 1, KEYS[2]) "
+			+ "return 1";
 	private final RedisConnector redisConnector;
+	private final CommentAuthors commentAuthors;
+	private final Option<RedisCommentArchive> commentArchive;
+	private final long archiveAfterMs;
+	private ScheduledExecutorService archiveScheduler;
 
 	/**
 	 * @param redisConnector Redis connector
+	 * @param accountManager Account manager
+	 * @param archiveDirOption Directory of archived comments, shared by all nodes ; no archive if not set
+	 * @param archiveAfterDaysOption Days without publish or update before comments of a key concept are archived
 	 */
 	@Inject
-	public RedisCommentPlugin(final RedisConnector redisConnector) {
+	public RedisCommentPlugin(final RedisConnector redisConnector, final AccountManager accountManager, @Named("archiveDir") final Option<String> archiveDirOption, @Named("archiveAfterDays") final Option<Integer> archiveAfterDaysOption) {
 		Assertion.checkNotNull(redisConnector);
+		Assertion.checkNotNull(accountManager);
+		Assertion.checkNotNull(archiveDirOption);
+		Assertion.checkNotNull(archiveAfterDaysOption);
+		Assertion.checkArgument(archiveDirOption.isDefined() == archiveAfterDaysOption.isDefined(), "archiveDir and archiveAfterDays must be set together");
+		Assertion.checkArgument(!archiveAfterDaysOption.isDefined() || archiveAfterDaysOption.get() > 0, "archiveAfterDays must be positive");
 		//-----
 		this.redisConnector = redisConnector;
+		commentAuthors = new CommentAuthors(accountManager);
+		commentArchive = archiveDirOption.isDefined() ? Option.some(new RedisCommentArchive(archiveDirOption.get())) : Option.<RedisCommentArchive> none();
+		archiveAfterMs = archiveAfterDaysOption.isDefined() ? TimeUnit.DAYS.toMillis(archiveAfterDaysOption.get()) : 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void start() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			ensureKeyConcepts(jedis);
+		}
+		if (!commentArchive.isDefined()) {
+			return;
+		}
+		archiveScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			/** {@inheritDoc} */
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "x-comment-archive");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		archiveScheduler.scheduleWithFixedDelay(new Runnable() {
+			/** {@inheritDoc} */
+			@Override
+			public void run() {
+				try {
+					archiveInactiveKeyConcepts();
+				} catch (final RuntimeException e) {
+					//redis or archive directory unavailable : next run tries again
+				}
+			}
+		}, 1, ARCHIVE_PERIOD_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void stop() {
+		if (archiveScheduler != null) {
+			archiveScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Moves into the archive the comments of key concepts without publish or update for archiveAfterDays (runs hourly).
+	 * All nodes may run it : a key concept is archived once, and never if written meanwhile.
+	 * @return Key concepts archived
+	 */
+	public int archiveInactiveKeyConcepts() {
+		Assertion.checkState(commentArchive.isDefined(), "No archive directory");
+		//-----
+		int archived = 0;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			ensureActivity(jedis);
+			final long inactiveSince = System.currentTimeMillis() - archiveAfterMs;
+			//archived key concepts leave the activity set : failed ones are skipped
+			int skipped = 0;
+			Set<String> urns;
+			do {
+				urns = jedis.zrangeByScore(RedisCommentArchive.ACTIVITY_KEY, "-inf", String.valueOf(inactiveSince), skipped, ARCHIVE_BATCH);
+				for (final String urn : urns) {
+					if (archive(jedis, urn)) {
+						archived++;
+					} else if (isInactive(jedis, urn, inactiveSince)) {
+						//still in the next range : skipped
+						skipped++;
+					}
+				}
+			} while (urns.size() == ARCHIVE_BATCH);
+		}
+		return archived;
+	}
+
+	private static boolean isInactive(final Jedis jedis, final String urn, final long inactiveSince) {
+		final Double lastActivity = jedis.zscore(RedisCommentArchive.ACTIVITY_KEY, urn);
+		return lastActivity != null && lastActivity <= inactiveSince;
+	}
+
+	private boolean archive(final Jedis jedis, final String urn) {
+		try {
+			//comments published before the index are archived too
+			ensureIndex(jedis, urn);
+			return commentArchive.get().archive(jedis, urn);
+		} catch (final RuntimeException e) {
+			//a segment not written or a comment unreadable : this key concept stays in redis
+			return false;
+		}
+	}
+
+	//key concepts written before activity was kept : active since their last comment, once
+	private static void ensureActivity(final Jedis jedis) {
+		if (jedis.exists(ACTIVITY_BUILT_KEY)) {
+			return;
+		}
+		for (final String pattern : Arrays.asList("commentIndex:*", "comments:*")) {
+			final String prefix = pattern.substring(0, pattern.length() - 1);
+			final ScanParams scanParams = new ScanParams().match(pattern).count(SCAN_COUNT);
+			String cursor = ScanParams.SCAN_POINTER_START;
+			do {
+				final ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+				for (final String key : scanResult.getResult()) {
+					final String urn = key.substring(prefix.length());
+					final Option<Long> lastActivity = readLastActivity(jedis, key);
+					if (lastActivity.isDefined()) {
+						jedis.eval(ACTIVITY_BACKFILL_SCRIPT, Collections.singletonList(RedisCommentArchive.ACTIVITY_KEY), Arrays.asList(String.valueOf(lastActivity.get()), urn));
+					}
+				}
+				cursor = scanResult.getStringCursor();
+			} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+		}
+		jedis.set(ACTIVITY_BUILT_KEY, "true");
+	}
+
+	//comments written before their key concept was kept in their hash : updates increment the version of their key concept, once
+	private static void ensureKeyConcepts(final Jedis jedis) {
+		if (jedis.exists(KEY_CONCEPTS_BUILT_KEY)) {
+			return;
+		}
+		for (final String pattern : Arrays.asList("commentIndex:*", "comments:*")) {
+			final String prefix = pattern.substring(0, pattern.length() - 1);
+			final ScanParams scanParams = new ScanParams().match(pattern).count(SCAN_COUNT);
+			String cursor = ScanParams.SCAN_POINTER_START;
+			do {
+				final ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+				for (final String key : scanResult.getResult()) {
+					final String urn = key.substring(prefix.length());
+					final Collection<String> uuids = key.startsWith("commentIndex:") ? jedis.zrange(key, 0, -1) : jedis.lrange(key, 0, -1);
+					final Pipeline pipeline = jedis.pipelined();
+					for (final String uuid : uuids) {
+						pipeline.eval(KEY_CONCEPT_BACKFILL_SCRIPT, Collections.singletonList("comment:" + uuid), Collections.singletonList(urn));
+					}
+					pipeline.sync();
+				}
+				cursor = scanResult.getStringCursor();
+			} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+		}
+		jedis.set(KEY_CONCEPTS_BUILT_KEY, "true");
+	}
+
+	//last publish or update of the comments of this index or legacy list, if any comment
+	private static Option<Long> readLastActivity(final Jedis jedis, final String key) {
+		final Collection<String> uuids = key.startsWith("commentIndex:") ? jedis.zrange(key, 0, -1) : jedis.lrange(key, 0, -1);
+		final List<Response<List<String>>> responses = new ArrayList<>();
+		final Pipeline pipeline = jedis.pipelined();
+		for (final String uuid : uuids) {
+			responses.add(pipeline.hmget("comment:" + uuid, "creationDate", "lastModified"));
+		}
+		pipeline.sync();
+		Option<Long> lastActivity = Option.none();
+		for (final Response<List<String>> response : responses) {
+			for (final String date : response.get()) {
+				if (date != null && (!lastActivity.isDefined() || parseDate(date).getTime() > lastActivity.get())) {
+					lastActivity = Option.some(parseDate(date).getTime());
+				}
+			}
+		}
+		return lastActivity;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public <S extends KeyConcept> void publish(final Comment comment, final URI<S> keyConceptUri) {
+		final String urn = keyConceptUri.toURN();
+		final UUID parentUuid = comment.getParentUuid();
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final Transaction tx = jedis.multi();
-			tx.hmset("comment:" + comment.getUuid(), toMap(comment));
-			tx.lpush("comments:" + keyConceptUri.toURN(), comment.getUuid().toString());
-			tx.exec();
+			List<Object> published;
+			do {
+				ensureIndex(jedis, urn);
+				//before any new comment : older ones are top-level
+				ensureThreadsIndex(jedis, urn);
+				if (commentArchive.isDefined()) {
+					//archived meanwhile : written back first, so that the new comment is never alone in redis
+					jedis.watch(RedisCommentArchive.archiveKey(urn));
+					if (jedis.exists(RedisCommentArchive.archiveKey(urn))) {
+						jedis.unwatch();
+						commentArchive.get().rehydrate(jedis, urn);
+						published = null;
+						continue;
+					}
+				}
+				final boolean parentFound = parentUuid == null || jedis.zscore("commentIndex:" + urn, parentUuid.toString()) != null;
+				if (!parentFound) {
+					jedis.unwatch();
+				}
+				Assertion.checkArgument(parentFound, "Comment {0} is not a comment of {1}", parentUuid, urn);
+				final long seq = jedis.incr("commentSeq:" + urn);
+				final Transaction tx = jedis.multi();
+				tx.hmset("comment:" + comment.getUuid(), toMap(comment, urn));
+				tx.zadd("commentIndex:" + urn, seq, comment.getUuid().toString());
+				if (parentUuid == null) {
+					tx.zadd("commentThreads:" + urn, seq, comment.getUuid().toString());
+				} else {
+					tx.zadd("commentReplies:" + parentUuid, seq, comment.getUuid().toString());
+				}
+				tx.incr("commentVersion:" + urn);
+				tx.eval(ADD_AUTHOR_SCRIPT, Collections.singletonList("commentAuthors:" + urn), Collections.singletonList(String.valueOf(comment.getAuthor().getId())));
+				tx.zadd(RedisCommentArchive.ACTIVITY_KEY, System.currentTimeMillis(), urn);
+				published = tx.exec();
+			} while (published == null);
 		}
+	}
 
+	//comments archived are written back into the index ; comments published before the index : the list comments:* is moved once into the index
+	private boolean ensureIndex(final Jedis jedis, final String urn) {
+		final String listKey = "comments:" + urn;
+		final String indexKey = "commentIndex:" + urn;
+		if (jedis.exists(indexKey)) {
+			return false;
+		}
+		if (commentArchive.isDefined() && commentArchive.get().rehydrate(jedis, urn)) {
+			return true;
+		}
+		//another node may move it at the same time : only one transaction succeeds
+		jedis.watch(listKey);
+		final List<String> uuids = jedis.lrange(listKey, 0, -1);
+		if (uuids.isEmpty()) {
+			jedis.unwatch();
+			return false;
+		}
+		final Transaction tx = jedis.multi();
+		//list is newest first
+		for (int i = 0; i < uuids.size(); i++) {
+			tx.zadd(indexKey, uuids.size() - i, uuids.get(i));
+			//updates increment the version of this key concept
+			tx.eval(KEY_CONCEPT_BACKFILL_SCRIPT, Collections.singletonList("comment:" + uuids.get(i)), Collections.singletonList(urn));
+		}
+		tx.set("commentSeq:" + urn, String.valueOf(uuids.size()));
+		tx.del(listKey);
+		tx.exec();
+		return true;
+	}
+
+	//keys written by the script are declared : the key concept is read first, and checked by the script
+	private static List<?> evalUpdate(final Jedis jedis, final UUID uuid, final List<String> args) {
+		final String commentKey = "comment:" + uuid;
+		List<?> result;
+		do {
+			final String keyConceptUrn = jedis.hget(commentKey, "keyConcept");
+			final String urn = keyConceptUrn != null ? keyConceptUrn : "";
+			final List<String> keyConceptArgs = new ArrayList<>(args);
+			keyConceptArgs.add(urn);
+			result = (List<?>) jedis.eval(UPDATE_SCRIPT, Arrays.asList(commentKey, "commentVersion:" + urn, RedisCommentArchive.ACTIVITY_KEY), keyConceptArgs);
+		} while ((Long) result.get(0) == KEY_CONCEPT_CHANGED);
+		return result;
+	}
+
+	private static boolean ensureThreadsIndex(final Jedis jedis, final String urn) {
+		return (Long) jedis.eval(THREADS_INDEX_SCRIPT, Arrays.asList("commentThreads:" + urn, "commentIndex:" + urn), Collections.<String> emptyList()) == 1;
 	}
 
 	/** {@inheritDoc} */
 	@Override
-	public void update(final Comment comment) {
+	public UpdateResult update(final UUID uuid, final URI<Account> author, final String msg, final Date lastModified, final long expectedVersion) {
+		Assertion.checkNotNull(uuid);
+		Assertion.checkNotNull(author);
+		Assertion.checkArgNotEmpty(msg);
+		Assertion.checkNotNull(lastModified);
+		//-----
+		final List<String> args = Arrays.asList(String.valueOf(author.getId()), msg, new SimpleDateFormat(CODEC_DATE_FORMAT).format(lastModified), String.valueOf(expectedVersion), String.valueOf(System.currentTimeMillis()));
+		List<?> result;
 		try (final Jedis jedis = redisConnector.getResource()) {
-			//On vérifie la présence de l'élément en base pour s'assurer la cohérence du stockage,
-			//et notament qu'il soit référencé dans "comments:keyConceptUrn"
-			final boolean elementExist = jedis.exists("comment:" + comment.getUuid());
-			if (!elementExist) {
-				throw new UnsupportedOperationException("Comment " + comment.getUuid() + " doesn't exists");
+			result = evalUpdate(jedis, uuid, args);
+			//not found : maybe archived
+			if (UpdateStatus.values()[((Long) result.get(0)).intValue()] == UpdateStatus.NOT_FOUND && rehydrate(jedis, uuid)) {
+				result = evalUpdate(jedis, uuid, args);
 			}
-			jedis.hmset("comment:" + comment.getUuid(), toMap(comment));
 		}
+		final UpdateStatus status = UpdateStatus.values()[((Long) result.get(0)).intValue()];
+		if (status != UpdateStatus.UPDATED) {
+			return UpdateResult.rejected(status);
+		}
+		final String keyConceptUrn = (String) result.get(1);
+		final String parentUuid = (String) result.get(3);
+		final Comment comment = new CommentBuilder(uuid, author, commentAuthors.getDisplayName(author), parseDate((String) result.get(2)))
+				.withParent(parentUuid.isEmpty() ? null : UUID.fromString(parentUuid))
+				.withMsg(msg)
+				.withLastModified(lastModified)
+				.withVersion(expectedVersion + 1)
+				.build();
+		return UpdateResult.updated(comment, keyConceptUrn.isEmpty() ? null : keyConceptUrn);
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public Comment get(final UUID uuid) {
 		try (final Jedis jedis = redisConnector.getResource()) {
-			return fromMap(jedis.hgetAll("comment:" + uuid));
+			Map<String, String> data = jedis.hgetAll("comment:" + uuid);
+			if (data.isEmpty() && rehydrate(jedis, uuid)) {
+				data = jedis.hgetAll("comment:" + uuid);
+			}
+			return fromMap(data);
+		}
+	}
+
+	//comments of its key concept written back if archived ; returns true if archived
+	private boolean rehydrate(final Jedis jedis, final UUID uuid) {
+		if (!commentArchive.isDefined()) {
+			return false;
 		}
+		final Option<String> urn = commentArchive.get().getArchivedUrn(uuid);
+		return urn.isDefined() && commentArchive.get().rehydrate(jedis, urn.get());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Comment> get(final List<UUID> uuids) {
+		Assertion.checkNotNull(uuids);
+		//-----
+		final List<String> keys = new ArrayList<>();
+		for (final UUID uuid : uuids) {
+			keys.add(uuid.toString());
+		}
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final List<Comment> comments = readComments(jedis, keys);
+			if (comments.size() == uuids.size() || !commentArchive.isDefined()) {
+				return comments;
+			}
+			//some missing : maybe archived, read from their segments without writing their key concepts back
+			final Map<String, Comment> commentByUuid = new HashMap<>();
+			for (final Comment comment : comments) {
+				commentByUuid.put(comment.getUuid().toString(), comment);
+			}
+			final Map<String, String> urnByUuid = commentArchive.get().getArchivedUrns(getMissingUuids(keys, commentByUuid));
+			for (final String urn : new HashSet<>(urnByUuid.values())) {
+				final Option<List<Map<String, String>>> archivedComments = commentArchive.get().readComments(jedis, urn);
+				if (archivedComments.isDefined()) {
+					final List<Map<String, String>> datas = new ArrayList<>();
+					for (final Map<String, String> data : archivedComments.get()) {
+						if (urn.equals(urnByUuid.get(data.get("uuid")))) {
+							datas.add(data);
+						}
+					}
+					for (final Comment comment : fromMaps(datas)) {
+						commentByUuid.put(comment.getUuid().toString(), comment);
+					}
+				}
+			}
+			//written back meanwhile : read again, a missing comment is removed from the search index
+			for (final Comment comment : readComments(jedis, getMissingUuids(keys, commentByUuid))) {
+				commentByUuid.put(comment.getUuid().toString(), comment);
+			}
+			final List<Comment> foundComments = new ArrayList<>();
+			for (final String uuid : keys) {
+				if (commentByUuid.containsKey(uuid)) {
+					foundComments.add(commentByUuid.get(uuid));
+				}
+			}
+			return foundComments;
+		}
+	}
+
+	private static List<String> getMissingUuids(final List<String> uuids, final Map<String, Comment> commentByUuid) {
+		final List<String> missingUuids = new ArrayList<>();
+		for (final String uuid : uuids) {
+			if (!commentByUuid.containsKey(uuid)) {
+				missingUuids.add(uuid);
+			}
+		}
+		return missingUuids;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void visitComments(final CommentVisitor visitor) {
+		Assertion.checkNotNull(visitor);
+		//-----
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//scan doesn't block redis, comments published meanwhile may be visited or not
+			final ScanParams scanParams = new ScanParams().match("comment:*").count(SCAN_COUNT);
+			String cursor = ScanParams.SCAN_POINTER_START;
+			do {
+				final ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+				final List<Response<Map<String, String>>> responses = new ArrayList<>();
+				final Pipeline pipeline = jedis.pipelined();
+				for (final String key : scanResult.getResult()) {
+					responses.add(pipeline.hgetAll(key));
+				}
+				pipeline.sync();
+				final List<Map<String, String>> datas = new ArrayList<>();
+				for (final Response<Map<String, String>> response : responses) {
+					if (!response.get().isEmpty()) {
+						datas.add(response.get());
+					}
+				}
+				final List<Comment> comments = fromMaps(datas);
+				for (int i = 0; i < datas.size(); i++) {
+					visitor.visit(datas.get(i).get("keyConcept") != null ? datas.get(i).get("keyConcept") : "", comments.get(i));
+				}
+				cursor = scanResult.getStringCursor();
+			} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+			if (commentArchive.isDefined()) {
+				//after comments : a key concept archived during the scan is visited here
+				visitArchivedComments(jedis, visitor);
+			}
+		}
+	}
+
+	private void visitArchivedComments(final Jedis jedis, final CommentVisitor visitor) {
+		final String prefix = RedisCommentArchive.archiveKey("");
+		final ScanParams scanParams = new ScanParams().match(prefix + "*").count(SCAN_COUNT);
+		String cursor = ScanParams.SCAN_POINTER_START;
+		do {
+			final ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+			for (final String key : scanResult.getResult()) {
+				final String urn = key.substring(prefix.length());
+				final Option<List<Map<String, String>>> archivedComments = commentArchive.get().readComments(jedis, urn);
+				if (archivedComments.isDefined()) {
+					for (final Comment comment : fromMaps(archivedComments.get())) {
+						visitor.visit(urn, comment);
+					}
+				} else {
+					//written back meanwhile : maybe after the scan of comments
+					for (final Comment comment : readComments(jedis, jedis.zrange("commentIndex:" + urn, 0, -1))) {
+						visitor.visit(urn, comment);
+					}
+				}
+			}
+			cursor = scanResult.getStringCursor();
+		} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public <S extends KeyConcept> List<Comment> getComments(final URI<S> keyConceptUri) {
-		final List<Response<Map<String, String>>> responses = new ArrayList<>();
+		final String urn = keyConceptUri.toURN();
 		try (final Jedis jedis = redisConnector.getResource()) {
-			final List<String> uuids = jedis.lrange("comments:" + keyConceptUri.toURN(), 0, -1);
-			final Transaction tx = jedis.multi();
+			Set<String> uuids = jedis.zrevrange("commentIndex:" + urn, 0, -1);
+			//no index : maybe not moved yet
+			if (uuids.isEmpty() && ensureIndex(jedis, urn)) {
+				uuids = jedis.zrevrange("commentIndex:" + urn, 0, -1);
+			}
+			return readComments(jedis, uuids);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> List<Comment> getComments(final URI<S> keyConceptUri, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		final String indexKey = "commentIndex:" + urn;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//only the page is read : O(log(n) + limit)
+			if (cursor.isDefined()) {
+				//cursor found : index exists
+				Double cursorSeq = jedis.zscore(indexKey, cursor.get().toString());
+				//archived since the previous page
+				if (cursorSeq == null && ensureIndex(jedis, urn)) {
+					cursorSeq = jedis.zscore(indexKey, cursor.get().toString());
+				}
+				Assertion.checkNotNull(cursorSeq, "Comment {0} is not a comment of {1}", cursor.get(), urn);
+				return readComments(jedis, jedis.zrevrangeByScore(indexKey, "(" + cursorSeq.longValue(), "-inf", 0, limit));
+			}
+			Set<String> uuids = jedis.zrevrange(indexKey, 0, limit - 1);
+			//no index : maybe not moved yet
+			if (uuids.isEmpty() && ensureIndex(jedis, urn)) {
+				uuids = jedis.zrevrange(indexKey, 0, limit - 1);
+			}
+			return readComments(jedis, uuids);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> List<Comment> getThreads(final URI<S> keyConceptUri, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		final String threadsKey = "commentThreads:" + urn;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			if (cursor.isDefined()) {
+				//cursor found : index exists
+				Double cursorSeq = jedis.zscore(threadsKey, cursor.get().toString());
+				//archived since the previous page
+				if (cursorSeq == null && ensureIndex(jedis, urn)) {
+					cursorSeq = jedis.zscore(threadsKey, cursor.get().toString());
+				}
+				Assertion.checkNotNull(cursorSeq, "Comment {0} is not a comment of {1}", cursor.get(), urn);
+				return readComments(jedis, jedis.zrevrangeByScore(threadsKey, "(" + cursorSeq.longValue(), "-inf", 0, limit));
+			}
+			Set<String> uuids = jedis.zrevrange(threadsKey, 0, limit - 1);
+			//no index : maybe archived or not built yet
+			if (uuids.isEmpty()) {
+				final boolean indexWritten = ensureIndex(jedis, urn);
+				if (ensureThreadsIndex(jedis, urn) || indexWritten) {
+					uuids = jedis.zrevrange(threadsKey, 0, limit - 1);
+				}
+			}
+			return readComments(jedis, uuids);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<Comment> getReplies(final UUID parentUuid, final Option<UUID> cursor, final int limit) {
+		Assertion.checkNotNull(parentUuid);
+		Assertion.checkNotNull(cursor);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final String repliesKey = "commentReplies:" + parentUuid;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			if (cursor.isDefined()) {
+				Double cursorSeq = jedis.zscore(repliesKey, cursor.get().toString());
+				//archived since the previous page
+				if (cursorSeq == null && rehydrate(jedis, parentUuid)) {
+					cursorSeq = jedis.zscore(repliesKey, cursor.get().toString());
+				}
+				Assertion.checkNotNull(cursorSeq, "Comment {0} is not a reply to {1}", cursor.get(), parentUuid);
+				return readComments(jedis, jedis.zrangeByScore(repliesKey, "(" + cursorSeq.longValue(), "+inf", 0, limit));
+			}
+			Set<String> uuids = jedis.zrange(repliesKey, 0, limit - 1);
+			//no reply : maybe archived
+			if (uuids.isEmpty() && rehydrate(jedis, parentUuid)) {
+				uuids = jedis.zrange(repliesKey, 0, limit - 1);
+			}
+			return readComments(jedis, uuids);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<UUID, Long> getReplyCounts(final Collection<UUID> uuids) {
+		Assertion.checkNotNull(uuids);
+		//-----
+		final Map<UUID, Response<Long>> replySizes = new HashMap<>();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final Pipeline pipeline = jedis.pipelined();
+			for (final UUID uuid : uuids) {
+				replySizes.put(uuid, pipeline.zcard("commentReplies:" + uuid));
+			}
+			pipeline.sync();
+		}
+		final Map<UUID, Long> counts = new HashMap<>();
+		for (final Map.Entry<UUID, Response<Long>> entry : replySizes.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> long getCommentCount(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		return getCommentCounts(Collections.singletonList(keyConceptUri)).get(keyConceptUri);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> long getVersion(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final String version = jedis.get("commentVersion:" + keyConceptUri.toURN());
+			return version == null ? 0 : Long.parseLong(version);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <S extends KeyConcept> Map<URI<Account>, String> readAuthorDisplayNames(final URI<S> keyConceptUri) {
+		Assertion.checkNotNull(keyConceptUri);
+		//-----
+		final String urn = keyConceptUri.toURN();
+		final Set<String> authorIds;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			final Set<String> keptAuthorIds = jedis.smembers("commentAuthors:" + urn);
+			authorIds = keptAuthorIds.isEmpty() ? buildAuthors(jedis, urn) : keptAuthorIds;
+		}
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(Account.class);
+		final Set<URI<Account>> authors = new HashSet<>();
+		for (final String authorId : authorIds) {
+			authors.add(new URI<Account>(dtDefinition, authorId));
+		}
+		return commentAuthors.readDisplayNames(authors);
+	}
+
+	//key concepts commented before their authors were kept : built from all their comments, without writing archived ones back,
+	//and built again if a comment is published, archived or written back meanwhile
+	private Set<String> buildAuthors(final Jedis jedis, final String urn) {
+		List<Object> built;
+		final Set<String> authorIds = new HashSet<>();
+		do {
+			authorIds.clear();
+			jedis.watch("commentVersion:" + urn, RedisCommentArchive.archiveKey(urn));
+			//index first : comments archived meanwhile are read from their segment
+			final Set<String> uuids = new HashSet<>(jedis.zrange("commentIndex:" + urn, 0, -1));
+			uuids.addAll(jedis.lrange("comments:" + urn, 0, -1));
+			final List<Response<String>> responses = new ArrayList<>();
+			final Pipeline pipeline = jedis.pipelined();
 			for (final String uuid : uuids) {
-				responses.add(tx.hgetAll("comment:" + uuid));
+				responses.add(pipeline.hget("comment:" + uuid, "author"));
+			}
+			pipeline.sync();
+			for (final Response<String> response : responses) {
+				if (response.get() != null) {
+					authorIds.add(response.get());
+				}
 			}
-			tx.exec();
+			if (commentArchive.isDefined()) {
+				final Option<List<Map<String, String>>> archivedComments = commentArchive.get().readComments(jedis, urn);
+				if (archivedComments.isDefined()) {
+					for (final Map<String, String> data : archivedComments.get()) {
+						authorIds.add(data.get("author"));
+					}
+				}
+			}
+			if (authorIds.isEmpty()) {
+				jedis.unwatch();
+				return authorIds;
+			}
+			final Transaction tx = jedis.multi();
+			tx.sadd("commentAuthors:" + urn, authorIds.toArray(new String[authorIds.size()]));
+			built = tx.exec();
+		} while (built == null);
+		return authorIds;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<URI<? extends KeyConcept>, Long> getCommentCounts(final Collection<? extends URI<? extends KeyConcept>> keyConceptUris) {
+		Assertion.checkNotNull(keyConceptUris);
+		//-----
+		final Map<URI<? extends KeyConcept>, Response<Long>> indexSizes = new HashMap<>();
+		final Map<URI<? extends KeyConcept>, Response<Long>> legacySizes = new HashMap<>();
+		final Map<URI<? extends KeyConcept>, Response<String>> archivedSizes = new HashMap<>();
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//one round trip for the whole list
+			final Pipeline pipeline = jedis.pipelined();
+			for (final URI<? extends KeyConcept> keyConceptUri : keyConceptUris) {
+				final String urn = keyConceptUri.toURN();
+				indexSizes.put(keyConceptUri, pipeline.zcard("commentIndex:" + urn));
+				//comments not moved yet into the index
+				legacySizes.put(keyConceptUri, pipeline.llen("comments:" + urn));
+				//comments archived are counted without being read back
+				archivedSizes.put(keyConceptUri, pipeline.hget(RedisCommentArchive.archiveKey(urn), "count"));
+			}
+			pipeline.sync();
+		}
+		final Map<URI<? extends KeyConcept>, Long> counts = new HashMap<>();
+		for (final Map.Entry<URI<? extends KeyConcept>, Response<Long>> entry : indexSizes.entrySet()) {
+			final String archivedSize = archivedSizes.get(entry.getKey()).get();
+			counts.put(entry.getKey(), entry.getValue().get() + legacySizes.get(entry.getKey()).get() + (archivedSize != null ? Long.parseLong(archivedSize) : 0));
 		}
+		return counts;
+	}
+
+	private List<Comment> readComments(final Jedis jedis, final Collection<String> uuids) {
+		final List<Response<Map<String, String>>> responses = new ArrayList<>();
+		final Transaction tx = jedis.multi();
+		for (final String uuid : uuids) {
+			responses.add(tx.hgetAll("comment:" + uuid));
+		}
+		tx.exec();
 		//----- we are using tx to avoid roundtrips
-		final List<Comment> comments = new ArrayList<>();
+		final List<Map<String, String>> datas = new ArrayList<>();
 		for (final Response<Map<String, String>> response : responses) {
-			final Map<String, String> data = response.get();
-			if (!data.isEmpty()) {
-				comments.add(fromMap(data));
+			if (!response.get().isEmpty()) {
+				datas.add(response.get());
 			}
 		}
-		return comments;
+		return fromMaps(datas);
 	}
 
-	private static Map<String, String> toMap(final Comment comment) {
+	private static Map<String, String> toMap(final Comment comment, final String keyConceptUrn) {
 		final String creationDate = new SimpleDateFormat(CODEC_DATE_FORMAT).format(comment.getCreationDate());
 		final String lastModified = comment.getLastModified() != null ? new SimpleDateFormat(CODEC_DATE_FORMAT).format(comment.getLastModified()) : null;
 		return new MapBuilder<String, String>()
 				.put("uuid", comment.getUuid().toString())
+				.putNullable("parent", comment.getParentUuid() != null ? comment.getParentUuid().toString() : null)
 				.put("author", String.valueOf(comment.getAuthor().getId()))
 				.put("msg", comment.getMsg())
 				.put("creationDate", creationDate)
 				.putNullable("lastModified", lastModified)
+				.put("version", String.valueOf(comment.getVersion()))
+				.put("keyConcept", keyConceptUrn)
+				.build();
+	}
+
+	private Comment fromMap(final Map<String, String> data) {
+		return fromMaps(Collections.singletonList(data)).get(0);
+	}
+
+	//authors of all these comments resolved at once
+	private List<Comment> fromMaps(final List<Map<String, String>> datas) {
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(Account.class);
+		final Set<URI<Account>> authors = new HashSet<>();
+		for (final Map<String, String> data : datas) {
+			authors.add(new URI<Account>(dtDefinition, data.get("author")));
+		}
+		final Map<URI<Account>, String> displayNames = commentAuthors.getDisplayNames(authors);
+		final List<Comment> comments = new ArrayList<>(datas.size());
+		for (final Map<String, String> data : datas) {
+			final URI<Account> author = new URI<>(dtDefinition, data.get("author"));
+			comments.add(fromMap(data, author, displayNames.get(author)));
+		}
+		return comments;
+	}
+
+	private static Comment fromMap(final Map<String, String> data, final URI<Account> author, final String authorDisplayName) {
+		final Date creationDate = parseDate(data.get("creationDate"));
+		final Date lastModified = data.get("lastModified") != null ? parseDate(data.get("lastModified")) : null;
+		return new CommentBuilder(UUID.fromString(data.get("uuid")), author, authorDisplayName, creationDate)
+				.withParent(data.get("parent") != null ? UUID.fromString(data.get("parent")) : null)
+				.withMsg(data.get("msg"))
+				.withLastModified(lastModified)
+				.withVersion(data.get("version") != null ? Long.parseLong(data.get("version")) : 0)
 				.build();
 	}
 
-	private static Comment fromMap(final Map<String, String> data) {
+	private static Date parseDate(final String date) {
 		try {
-			final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(Account.class);
-			final Date creationDate = new SimpleDateFormat(CODEC_DATE_FORMAT).parse(data.get("creationDate"));
-			final Date lastModified = data.get("lastModified") != null ? new SimpleDateFormat(CODEC_DATE_FORMAT).parse(data.get("lastModified")) : null;
-
-			return new CommentBuilder(UUID.fromString(data.get("uuid")), new URI<Account>(dtDefinition, data.get("author")), creationDate)
-					.withMsg(data.get("msg"))
-					.withLastModified(lastModified)
-					.build();
+			return new SimpleDateFormat(CODEC_DATE_FORMAT).parse(date);
 		} catch (final ParseException e) {
 			throw new RuntimeException("Can't parse comment", e);
 		}
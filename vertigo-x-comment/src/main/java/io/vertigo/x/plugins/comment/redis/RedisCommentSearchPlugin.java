@@ -0,0 +1,229 @@
+package io.vertigo.x.plugins.comment.redis;
+
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.comment.CommentRanking;
+import io.vertigo.x.impl.comment.CommentSearchPlugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+
+/**
+ * Search index of comments in Redis (inverted index), shared by all nodes.
+ * Postings of a term are a sorted set (commentSearch:*) : comment uuid scored by the term frequency,
+ * small ones are stored compact by Redis (zset-max-ziplist-entries).
+ * Postings of a term in a key concept are kept too (commentSearchByConcept:*) : a search in a key concept reads only its comments.
+ * Each indexed comment keeps its key concept, version, length and terms (commentSearchDoc:*) : its previous postings are removed when indexed again.
+ * Indexing is one script : postings, comment and totals (commentSearchStats) are always consistent.
+ * Scripts declare every key they use : previous terms are read first, and the script is run again if they changed meanwhile.
+ * A search reads the best postings of each term only (by frequency), then the length of these comments.
+ * Index is built once from stored comments (comment:* and archived ones) ; deleting commentSearchBuilt builds it again at next start.
+ *
+ * @author pchretien
+ */
+public final class RedisCommentSearchPlugin implements CommentSearchPlugin {
+	private static final String STATS_KEY = "commentSearchStats";
+	private static final String BUILT_KEY = "commentSearchBuilt";
+	//postings by key concept were added with format 2 : older indexes are built again
+	private static final String INDEX_FORMAT = "2";
+	private static final int MAX_POSTINGS_PER_TERM = 1000;
+	//KEYS : comment, stats, then postings of previous terms (both sets for each term)
+	//ARGV : uuid, version, previous key concept and terms (as read), previous terms count ;
+	//-1 if previous terms changed since read, 0 if a newer version is indexed
+	private static final String REMOVE_PREVIOUS = "local previous = redis.call('HMGET', KEYS[1], 'version', 'length', 'terms', 'urn') "
+			+ "if (previous[4] or '') ~= ARGV[3] or (previous[3] or '') ~= ARGV[4] then return -1 end "
+			+ "if previous[1] then "
+			+ "if tonumber(previous[1]) > tonumber(ARGV[2]) then return 0 end "
+			+ "for i = 3, 2 + 2 * tonumber(ARGV[5]) do redis.call('ZREM', KEYS[i], ARGV[1]) end "
+			+ "redis.call('HINCRBY', KEYS[2], 'docs', -1) "
+			+ "redis.call('HINCRBY', KEYS[2], 'length', -tonumber(previous[2])) "
+			+ "redis.call('DEL', KEYS[1]) "
+			+ "end ";
+	//KEYS : then postings of new terms (both sets for each term)
+	//ARGV : then key concept urn, length, then term and frequency of each term
+	private static final String INDEX_SCRIPT = REMOVE_PREVIOUS
+			+ "local terms = {} "
+			+ "local keyIndex = 3 + 2 * tonumber(ARGV[5]) "
+			+ "for i = 8, #ARGV, 2 do "
+			+ "redis.call('ZADD', KEYS[keyIndex], ARGV[i + 1], ARGV[1]) "
+			+ "redis.call('ZADD', KEYS[keyIndex + 1], ARGV[i + 1], ARGV[1]) "
+			+ "terms[#terms + 1] = ARGV[i] "
+			+ "keyIndex = keyIndex + 2 "
+			+ "end "
+			+ "redis.call('HMSET', KEYS[1], 'urn', ARGV[6], 'version', ARGV[2], 'length', ARGV[7], 'terms', table.concat(terms, ' ')) "
+			+ "redis.call('HINCRBY', KEYS[2], 'docs', 1) "
+			+ "redis.call('HINCRBY', KEYS[2], 'length', tonumber(ARGV[7])) "
+			+ "return 1";
+	private static final String REMOVE_SCRIPT = REMOVE_PREVIOUS + "return 1";
+	private final RedisConnector redisConnector;
+
+	/**
+	 * @param redisConnector Redis connector
+	 */
+	@Inject
+	public RedisCommentSearchPlugin(final RedisConnector redisConnector) {
+		Assertion.checkNotNull(redisConnector);
+		//-----
+		this.redisConnector = redisConnector;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void index(final UUID uuid, final String keyConceptUrn, final long version, final Map<String, Integer> termFrequencies) {
+		Assertion.checkNotNull(uuid);
+		Assertion.checkNotNull(keyConceptUrn);
+		Assertion.checkNotNull(termFrequencies);
+		//-----
+		final List<String> keys = new ArrayList<>();
+		final List<String> args = new ArrayList<>();
+		args.add(keyConceptUrn);
+		int length = 0;
+		for (final Integer termFrequency : termFrequencies.values()) {
+			length += termFrequency;
+		}
+		args.add(String.valueOf(length));
+		for (final Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+			keys.add(getPostingsKey(entry.getKey()));
+			keys.add(getPostingsKey(keyConceptUrn, entry.getKey()));
+			args.add(entry.getKey());
+			args.add(String.valueOf(entry.getValue()));
+		}
+		evalOnPrevious(INDEX_SCRIPT, uuid, version, keys, args);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void remove(final UUID uuid) {
+		Assertion.checkNotNull(uuid);
+		//-----
+		evalOnPrevious(REMOVE_SCRIPT, uuid, Long.MAX_VALUE, Collections.<String> emptyList(), Collections.<String> emptyList());
+	}
+
+	//runs a script after REMOVE_PREVIOUS, with the keys of the previous postings
+	private void evalOnPrevious(final String script, final UUID uuid, final long version, final List<String> otherKeys, final List<String> otherArgs) {
+		final String docKey = "commentSearchDoc:" + uuid;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			Object result;
+			do {
+				final List<String> previous = jedis.hmget(docKey, "urn", "terms");
+				final String previousUrn = previous.get(0) != null ? previous.get(0) : "";
+				final String previousTerms = previous.get(1) != null ? previous.get(1) : "";
+				final List<String> keys = new ArrayList<>();
+				keys.add(docKey);
+				keys.add(STATS_KEY);
+				int previousTermsCount = 0;
+				if (!previousTerms.isEmpty()) {
+					for (final String term : previousTerms.split(" ")) {
+						keys.add(getPostingsKey(term));
+						keys.add(getPostingsKey(previousUrn, term));
+						previousTermsCount++;
+					}
+				}
+				keys.addAll(otherKeys);
+				final List<String> args = new ArrayList<>();
+				args.add(uuid.toString());
+				args.add(String.valueOf(version));
+				args.add(previousUrn);
+				args.add(previousTerms);
+				args.add(String.valueOf(previousTermsCount));
+				args.addAll(otherArgs);
+				result = jedis.eval(script, keys, args);
+				//indexed again by another node meanwhile
+			} while (Long.valueOf(-1).equals(result));
+		}
+	}
+
+	private static String getPostingsKey(final String term) {
+		return "commentSearch:" + term;
+	}
+
+	private static String getPostingsKey(final String keyConceptUrn, final String term) {
+		return "commentSearchByConcept:" + keyConceptUrn + ':' + term;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<UUID> search(final Collection<String> terms, final Option<String> keyConceptUrn, final int limit) {
+		Assertion.checkNotNull(terms);
+		Assertion.checkNotNull(keyConceptUrn);
+		Assertion.checkArgument(limit > 0, "limit must be positive ({0})", limit);
+		//-----
+		final int maxPostings = Math.max(MAX_POSTINGS_PER_TERM, limit);
+		final Map<String, Response<Long>> frequencyByTerm = new HashMap<>();
+		final Map<String, Response<Set<Tuple>>> postingsByTerm = new HashMap<>();
+		final Map<String, Response<String>> lengthByUuid = new HashMap<>();
+		final Response<List<String>> stats;
+		try (final Jedis jedis = redisConnector.getResource()) {
+			//best postings of all terms in one round trip, in the key concept if set
+			final Pipeline pipeline = jedis.pipelined();
+			stats = pipeline.hmget(STATS_KEY, "docs", "length");
+			for (final String term : terms) {
+				frequencyByTerm.put(term, pipeline.zcard(getPostingsKey(term)));
+				final String postingsKey = keyConceptUrn.isDefined() ? getPostingsKey(keyConceptUrn.get(), term) : getPostingsKey(term);
+				postingsByTerm.put(term, pipeline.zrevrangeByScoreWithScores(postingsKey, "+inf", "-inf", 0, maxPostings));
+			}
+			pipeline.sync();
+			//then length of the comments found
+			final Pipeline commentsPipeline = jedis.pipelined();
+			for (final Response<Set<Tuple>> postings : postingsByTerm.values()) {
+				for (final Tuple posting : postings.get()) {
+					if (!lengthByUuid.containsKey(posting.getElement())) {
+						lengthByUuid.put(posting.getElement(), commentsPipeline.hget("commentSearchDoc:" + posting.getElement(), "length"));
+					}
+				}
+			}
+			commentsPipeline.sync();
+		}
+		final CommentRanking<String> ranking = new CommentRanking<>(parseLong(stats.get().get(0)), parseLong(stats.get().get(1)));
+		for (final Map.Entry<String, Response<Set<Tuple>>> entry : postingsByTerm.entrySet()) {
+			//weight of the term in all comments
+			final double idf = ranking.idf(frequencyByTerm.get(entry.getKey()).get());
+			for (final Tuple posting : entry.getValue().get()) {
+				final String length = lengthByUuid.get(posting.getElement()).get();
+				//null if removed since
+				if (length != null) {
+					ranking.add(posting.getElement(), idf, (int) posting.getScore(), Integer.parseInt(length));
+				}
+			}
+		}
+		final List<UUID> uuids = new ArrayList<>();
+		for (final String uuid : ranking.top(limit)) {
+			uuids.add(UUID.fromString(uuid));
+		}
+		return uuids;
+	}
+
+	private static long parseLong(final String value) {
+		return value == null ? 0 : Long.parseLong(value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isBuilt() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			return INDEX_FORMAT.equals(jedis.get(BUILT_KEY));
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void markBuilt() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			jedis.set(BUILT_KEY, INDEX_FORMAT);
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package io.vertigo.x.webapi.comment;
+
+import io.vertigo.core.Home;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Option;
+import io.vertigo.vega.engines.webservice.json.GoogleJsonEngine;
+import io.vertigo.vega.engines.webservice.json.JsonEngine;
+import io.vertigo.x.comment.Comment;
+import io.vertigo.x.comment.CommentEvent;
+import io.vertigo.x.comment.CommentEventListener;
+import io.vertigo.x.comment.CommentManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Live feed of the comments of a key concept, as Server-Sent Events (map it on /x/comment/api/comments/events).
+ * GET ?concept=..&amp;id=.. : each comment published or updated is sent as an event (id : sequence, event : published or updated, data : comment).
+ * Only authenticated users get a feed (401 otherwise), as with web services.
+ * A client reconnecting with Last-Event-ID gets missed events first, or a reset event if they are not kept anymore (comments must be read again).
+ * Feeds are asynchronous : an open feed keeps no thread. Events are written by a small pool, in order for each feed,
+ * so a slow client never blocks the thread publishing a comment ; writes are non-blocking (WriteListener), so it never blocks a writer either.
+ * A feed keeps at most MAX_QUEUED_FRAMES frames not written yet, and a client may not read for STALLED_WRITE_SECONDS :
+ * beyond, the feed is closed and the client reconnects with Last-Event-ID (missed events or reset).
+ * Comments are sent as web services send them (vega's json engine).
+ *
+ * @author npiedeloup
+ */
+public final class CommentEventServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final Logger LOG = Logger.getLogger(CommentEventServlet.class);
+	private static final JsonEngine JSON_ENGINE = new GoogleJsonEngine();
+	private static final int WRITER_THREADS = 4;
+	private static final long HEARTBEAT_SECONDS = 20;
+	private static final int MAX_QUEUED_FRAMES = 1000;
+	private static final long STALLED_WRITE_SECONDS = 60;
+	private final Set<Feed> feeds = Collections.newSetFromMap(new ConcurrentHashMap<Feed, Boolean>());
+	private transient ExecutorService writers;
+	private transient ScheduledExecutorService heartbeat;
+
+	/** {@inheritDoc} */
+	@Override
+	public void init() {
+		writers = Executors.newFixedThreadPool(WRITER_THREADS, new DaemonThreadFactory("x-comment-feed"));
+		heartbeat = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("x-comment-feed-heartbeat"));
+		//keeps connections open through proxies, and detects closed ones
+		heartbeat.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				final long stalledSince = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(STALLED_WRITE_SECONDS);
+				for (final Feed feed : feeds) {
+					if (feed.isStalledSince(stalledSince)) {
+						LOG.info("Comment feed of " + feed.keyConceptURI.toURN() + " closed : client not reading");
+						feed.close();
+					} else {
+						feed.send(":\n\n");
+					}
+				}
+			}
+		}, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		heartbeat.shutdownNow();
+		for (final Feed feed : feeds) {
+			feed.close();
+		}
+		writers.shutdown();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		//not a web service : same check as web services security
+		if (!UserSessions.isAuthenticated(request)) {
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		final URI<KeyConcept> keyConceptURI = KeyConceptURIs.read(request.getParameter("concept"), request.getParameter("id"));
+		final String lastEventId = request.getHeader("Last-Event-ID") != null ? request.getHeader("Last-Event-ID") : request.getParameter("lastEventId");
+		final Option<Long> lastSequence;
+		try {
+			lastSequence = lastEventId != null ? Option.some(Long.valueOf(lastEventId)) : Option.<Long> none();
+		} catch (final NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Last-Event-ID must be an event id");
+			return;
+		}
+		final CommentManager commentManager = Home.getComponentSpace().resolve(CommentManager.class);
+
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		final AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0);
+		final Feed feed = new Feed(asyncContext, response.getOutputStream(), commentManager, keyConceptURI);
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(final AsyncEvent event) {
+				feed.close();
+			}
+
+			@Override
+			public void onTimeout(final AsyncEvent event) {
+				feed.close();
+			}
+
+			@Override
+			public void onError(final AsyncEvent event) {
+				feed.close();
+			}
+
+			@Override
+			public void onStartAsync(final AsyncEvent event) {
+				//nothing
+			}
+		});
+		feeds.add(feed);
+		feed.out.setWriteListener(feed);
+		//listens first : events published during the replay are sent after it
+		commentManager.addEventListener(keyConceptURI, feed);
+		if (lastSequence.isDefined()) {
+			final Option<List<CommentEvent>> missedEvents = commentManager.getEvents(keyConceptURI, lastSequence.get());
+			if (missedEvents.isDefined()) {
+				feed.replay(missedEvents.get());
+			} else {
+				feed.reset();
+			}
+		} else {
+			feed.replay(new ArrayList<CommentEvent>());
+		}
+	}
+
+	private static String toFrame(final CommentEvent event) {
+		return "id: " + event.getSequence() + '\n'
+				+ "event: " + event.getType().name().toLowerCase() + '\n'
+				+ "data: " + toJson(event.getComment()) + "\n\n";
+	}
+
+	//one line : a data field ends at the first line break
+	private static String toJson(final Comment comment) {
+		return JSON_ENGINE.toJson(comment).replace("\r", "").replace("\n", "");
+	}
+
+	/**
+	 * One open feed : frames are queued by the publishing threads, and written in order by one writer at a time,
+	 * as long as the output is ready ; the container calls onWritePossible when it is ready again.
+	 */
+	private final class Feed implements CommentEventListener, WriteListener, Runnable {
+		private final AsyncContext asyncContext;
+		private final ServletOutputStream out;
+		private final CommentManager commentManager;
+		private final URI<KeyConcept> keyConceptURI;
+		private final Queue<byte[]> frames = new ConcurrentLinkedQueue<>();
+		//size of frames : ConcurrentLinkedQueue.size() is not constant time
+		private final AtomicInteger queuedFrames = new AtomicInteger();
+		private final AtomicBoolean writing = new AtomicBoolean();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		//since when the output is not ready, 0 if ready
+		private final AtomicLong notReadySince = new AtomicLong();
+		//--- guarded by this
+		private boolean replaying = true;
+		private final List<CommentEvent> pendingEvents = new ArrayList<>();
+
+		Feed(final AsyncContext asyncContext, final ServletOutputStream out, final CommentManager commentManager, final URI<KeyConcept> keyConceptURI) {
+			this.asyncContext = asyncContext;
+			this.out = out;
+			this.commentManager = commentManager;
+			this.keyConceptURI = keyConceptURI;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void onEvent(final CommentEvent event) {
+			synchronized (this) {
+				if (replaying) {
+					pendingEvents.add(event);
+					return;
+				}
+				//queued under lock : frames keep the order of events
+				queue(toFrame(event));
+			}
+			schedule();
+		}
+
+		void replay(final List<CommentEvent> missedEvents) {
+			final StringBuilder replayFrames = new StringBuilder("retry: 5000\n\n");
+			final Set<Long> replayedSequences = new HashSet<>();
+			synchronized (this) {
+				for (final CommentEvent event : missedEvents) {
+					replayFrames.append(toFrame(event));
+					replayedSequences.add(event.getSequence());
+				}
+				//events received since listening may be in the replay too
+				for (final CommentEvent event : pendingEvents) {
+					if (!replayedSequences.contains(event.getSequence())) {
+						replayFrames.append(toFrame(event));
+					}
+				}
+				pendingEvents.clear();
+				replaying = false;
+				queue(replayFrames.toString());
+			}
+			schedule();
+		}
+
+		void reset() {
+			synchronized (this) {
+				//events still pending are included in the comments read again
+				pendingEvents.clear();
+				replaying = false;
+				queue("retry: 5000\n\nevent: reset\ndata: {}\n\n");
+			}
+			schedule();
+		}
+
+		void send(final String frame) {
+			queue(frame);
+			schedule();
+		}
+
+		//a client not reading is dropped, it reconnects with its last event id
+		private void queue(final String frame) {
+			if (closed.get()) {
+				return;
+			}
+			if (queuedFrames.incrementAndGet() > MAX_QUEUED_FRAMES) {
+				LOG.info("Comment feed of " + keyConceptURI.toURN() + " closed : more than " + MAX_QUEUED_FRAMES + " events not sent");
+				close();
+				return;
+			}
+			frames.add(frame.getBytes(StandardCharsets.UTF_8));
+		}
+
+		boolean isStalledSince(final long time) {
+			final long since = notReadySince.get();
+			return since != 0 && since < time;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void onWritePossible() {
+			notReadySince.set(0);
+			schedule();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void onError(final Throwable t) {
+			//client gone
+			close();
+		}
+
+		private void schedule() {
+			if (!closed.get() && writing.compareAndSet(false, true)) {
+				writers.execute(this);
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void run() {
+			try {
+				//isReady is false until the last write is done : then onWritePossible is called
+				while (out.isReady()) {
+					final byte[] frame = frames.poll();
+					if (frame == null) {
+						out.flush();
+						break;
+					}
+					queuedFrames.decrementAndGet();
+					out.write(frame);
+				}
+			} catch (final IOException | IllegalStateException e) {
+				//client gone
+				close();
+				return;
+			} finally {
+				writing.set(false);
+			}
+			if (!frames.isEmpty()) {
+				if (out.isReady()) {
+					//frames queued while writing
+					schedule();
+				} else {
+					notReadySince.compareAndSet(0, System.currentTimeMillis());
+				}
+			}
+		}
+
+		void close() {
+			if (closed.compareAndSet(false, true)) {
+				commentManager.removeEventListener(keyConceptURI, this);
+				feeds.remove(this);
+				frames.clear();
+				try {
+					asyncContext.complete();
+				} catch (final IllegalStateException e) {
+					//already completed
+					LOG.debug("Comment feed of " + keyConceptURI.toURN() + " already completed", e);
+				}
+			}
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+
+		DaemonThreadFactory(final String name) {
+			this.name = name;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
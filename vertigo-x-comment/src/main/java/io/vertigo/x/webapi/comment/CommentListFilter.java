@@ -0,0 +1,75 @@
+package io.vertigo.x.webapi.comment;
+
+import io.vertigo.core.Home;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.x.comment.CommentManager;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Conditional GET of comments lists (on /x/comment/api/comments), before web services.
+ * Only authenticated users get lists (401 otherwise), as with web services.
+ * ETag is the version of the key concept's comments, incremented by each publish or update, and the version of its authors' display names,
+ * read from their accounts : both are shared by all nodes, so any node answers the same ETag for the same list.
+ * If the client's ETag is still the current one, 304 is sent without reading any comment.
+ * Otherwise the ETag is set and the list is read by web services.
+ * Version is read before the list : a comment published meanwhile is in the next response, never missed.
+ *
+ * @author npiedeloup
+ */
+@WebFilter(urlPatterns = "/x/comment/api/comments", asyncSupported = true)
+public final class CommentListFilter implements Filter {
+	private static final String COMMENTS_PATH = "/api/comments";
+
+	/** {@inheritDoc} */
+	@Override
+	public void init(final FilterConfig filterConfig) {
+		//nothing
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+		final HttpServletRequest httpRequest = (HttpServletRequest) request;
+		final String concept = httpRequest.getParameter("concept");
+		final String id = httpRequest.getParameter("id");
+		if (!"GET".equals(httpRequest.getMethod()) || !httpRequest.getRequestURI().endsWith(COMMENTS_PATH) || concept == null || id == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final HttpServletResponse httpResponse = (HttpServletResponse) response;
+		//runs before web services security
+		if (!UserSessions.isAuthenticated(httpRequest)) {
+			httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		final URI<KeyConcept> keyConceptURI = KeyConceptURIs.read(concept, id);
+		final CommentManager commentManager = Home.getComponentSpace().resolve(CommentManager.class);
+		final String eTag = "\"" + commentManager.getVersion(keyConceptURI) + '-' + commentManager.getAuthorsVersion(keyConceptURI) + "\"";
+		//same url serves new comments : client must revalidate
+		httpResponse.setHeader("Cache-Control", "no-cache");
+		httpResponse.setHeader("ETag", eTag);
+		if (eTag.equals(httpRequest.getHeader("If-None-Match"))) {
+			httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		//nothing
+	}
+}
@@ -1,14 +1,8 @@
 package io.vertigo.x.webapi.comment;
 
-import io.vertigo.core.Home;
-import io.vertigo.dynamo.domain.metamodel.DataType;
-import io.vertigo.dynamo.domain.metamodel.DtDefinition;
-import io.vertigo.dynamo.domain.metamodel.DtField;
 import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
-import io.vertigo.lang.Assertion;
 import io.vertigo.lang.Option;
-import io.vertigo.util.StringUtil;
 import io.vertigo.vega.webservice.WebServices;
 import io.vertigo.vega.webservice.stereotype.AnonymousAccessAllowed;
 import io.vertigo.vega.webservice.stereotype.ExcludedFields;
@@ -20,12 +14,17 @@ import io.vertigo.vega.webservice.stereotype.PathPrefix;
 import io.vertigo.vega.webservice.stereotype.QueryParam;
 import io.vertigo.x.comment.Comment;
 import io.vertigo.x.comment.CommentManager;
+import io.vertigo.x.comment.CommentThread;
 
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Webservice for Notification extension.
@@ -37,20 +36,99 @@ public final class CommentWebServices implements WebServices {
 
 	private static final String API_VERSION = "0.1.0";
 	private static final String IMPL_VERSION = "0.8.3";
+	private static final int DEFAULT_LIMIT = 20;
+	private static final int MAX_LIMIT = 200;
 
 	@Inject
 	private CommentManager commentManager;
 
 	/**
-	 * Get comments for keyConcept.
+	 * Get comments for keyConcept, newest first.
+	 * Paginated if cursor or limit is set : next page is read with the uuid of the last comment as cursor.
 	 * @param keyConcept KeyConcept type
 	 * @param id KeyConcept id
+	 * @param cursor uuid of the last comment of the previous page (optional)
+	 * @param limit max comments count (optional)
 	 * @return comments for keyConcept
 	 */
 	@GET("/api/comments")
-	public List<Comment> getComments(@QueryParam("concept") final String keyConcept, @QueryParam("id") final String id) {
-		final URI<KeyConcept> keyConceptURI = readKeyConceptURI(keyConcept, id);
-		return commentManager.getComments(keyConceptURI);
+	public List<Comment> getComments(@QueryParam("concept") final String keyConcept, @QueryParam("id") final String id, @QueryParam("cursor") final Option<String> cursor, @QueryParam("limit") final Option<Integer> limit) {
+		final URI<KeyConcept> keyConceptURI = KeyConceptURIs.read(keyConcept, id);
+		if (!cursor.isDefined() && !limit.isDefined()) {
+			return commentManager.getComments(keyConceptURI);
+		}
+		return commentManager.getComments(keyConceptURI, readCursor(cursor), Math.min(limit.getOrElse(DEFAULT_LIMIT), MAX_LIMIT));
+	}
+
+	/**
+	 * Get top-level comments for keyConcept, newest first, with their reply counts (replies are read with /replies).
+	 * @param keyConcept KeyConcept type
+	 * @param id KeyConcept id
+	 * @param cursor uuid of the last comment of the previous page (optional)
+	 * @param limit max comments count (optional)
+	 * @return top-level comments for keyConcept
+	 */
+	@GET("/api/comments/threads")
+	public List<CommentThread> getThreads(@QueryParam("concept") final String keyConcept, @QueryParam("id") final String id, @QueryParam("cursor") final Option<String> cursor, @QueryParam("limit") final Option<Integer> limit) {
+		final URI<KeyConcept> keyConceptURI = KeyConceptURIs.read(keyConcept, id);
+		return commentManager.getThreads(keyConceptURI, readCursor(cursor), Math.min(limit.getOrElse(DEFAULT_LIMIT), MAX_LIMIT));
+	}
+
+	/**
+	 * Get direct replies to a comment, oldest first, with their own reply counts.
+	 * @param uuid uuid of the comment replied to
+	 * @param cursor uuid of the last reply of the previous page (optional)
+	 * @param limit max replies count (optional)
+	 * @return replies to this comment
+	 */
+	@GET("/api/comments/{uuid}/replies")
+	public List<CommentThread> getReplies(@PathParam("uuid") final String uuid, @QueryParam("cursor") final Option<String> cursor, @QueryParam("limit") final Option<Integer> limit) {
+		return commentManager.getReplies(UUID.fromString(uuid), readCursor(cursor), Math.min(limit.getOrElse(DEFAULT_LIMIT), MAX_LIMIT));
+	}
+
+	private static Option<UUID> readCursor(final Option<String> cursor) {
+		return cursor.isDefined() ? Option.some(UUID.fromString(cursor.get())) : Option.<UUID> none();
+	}
+
+	/**
+	 * Get comments count of a list of keyConcepts, in one call.
+	 * @param keyConcept KeyConcept type
+	 * @param ids KeyConcepts ids (comma separated)
+	 * @return comments count by keyConcept id
+	 */
+	@GET("/api/comments/counts")
+	public Map<String, Long> getCommentCounts(@QueryParam("concept") final String keyConcept, @QueryParam("ids") final String ids) {
+		final Map<String, URI<KeyConcept>> keyConceptURIs = new HashMap<>();
+		for (final String id : ids.split(",")) {
+			if (!id.isEmpty()) {
+				keyConceptURIs.put(id, KeyConceptURIs.read(keyConcept, id));
+			}
+		}
+		final Map<URI<? extends KeyConcept>, Long> counts = commentManager.getCommentCounts(keyConceptURIs.values());
+		final Map<String, Long> countById = new HashMap<>();
+		for (final Map.Entry<String, URI<KeyConcept>> entry : keyConceptURIs.entrySet()) {
+			countById.put(entry.getKey(), counts.get(entry.getValue()));
+		}
+		return countById;
+	}
+
+	/**
+	 * Search comments by words, best matches first.
+	 * @param query Words searched
+	 * @param keyConcept KeyConcept type (optional, with id : only comments of this keyConcept)
+	 * @param id KeyConcept id (optional)
+	 * @param limit max comments count (optional)
+	 * @return comments found, best first
+	 */
+	@GET("/api/comments/search")
+	public List<Comment> searchComments(@QueryParam("q") final String query, @QueryParam("concept") final Option<String> keyConcept, @QueryParam("id") final Option<String> id, @QueryParam("limit") final Option<Integer> limit) {
+		final Option<URI<? extends KeyConcept>> keyConceptFilter;
+		if (keyConcept.isDefined() && id.isDefined()) {
+			keyConceptFilter = Option.<URI<? extends KeyConcept>> some(KeyConceptURIs.read(keyConcept.get(), id.get()));
+		} else {
+			keyConceptFilter = Option.none();
+		}
+		return commentManager.search(query, keyConceptFilter, Math.min(limit.getOrElse(DEFAULT_LIMIT), MAX_LIMIT));
 	}
 
 	/**
@@ -61,21 +139,28 @@ public final class CommentWebServices implements WebServices {
 	 */
 	@POST("/api/comments")
 	public void publishComment(@ExcludedFields("uuid") final Comment comment, @QueryParam("concept") final String keyConcept, @QueryParam("id") final String id) {
-		final URI<KeyConcept> keyConceptURI = readKeyConceptURI(keyConcept, id);
+		final URI<KeyConcept> keyConceptURI = KeyConceptURIs.read(keyConcept, id);
 		commentManager.publish(comment, keyConceptURI);
 	}
 
 	/**
-	 * Update a comment.
+	 * Update a comment : 409 (conflict) if it was updated since the version sent.
 	 * @param uuid Comment uuid
 	 * @param comment Comment msg
+	 * @param response Http response
+	 * @throws IOException if the conflict can't be sent
 	 */
 	@PUT("/api/comments/{uuid}")
-	public void updateComment(@PathParam("uuid") final String uuid, final Comment comment) {
+	public void updateComment(@PathParam("uuid") final String uuid, final Comment comment, final HttpServletResponse response) throws IOException {
 		if (!uuid.equals(comment.getUuid().toString())) {
 			throw new RuntimeException("Comment uuid (" + comment.getUuid().toString() + ") must match WebService route (" + uuid + ")");
 		}
-		commentManager.update(comment);
+		try {
+			commentManager.update(comment);
+		} catch (final ConcurrentModificationException e) {
+			//not a server error : the client reads the comment again
+			response.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+		}
 	}
 
 	//-----
@@ -126,26 +211,4 @@ public final class CommentWebServices implements WebServices {
 		return "##Comment extension"
 				+ "\n This extension manage the comment center.";
 	}
-
-	private URI<KeyConcept> readKeyConceptURI(final String keyConcept, @QueryParam("id") final String id) {
-		final DtDefinition dtDefinition = Home.getDefinitionSpace().resolve("DT_" + StringUtil.camelToConstCase(keyConcept), DtDefinition.class);
-		final Object keyConceptId = stringToId(id, dtDefinition);
-		return new URI<>(dtDefinition, keyConceptId);
-	}
-
-	private Object stringToId(final String id, final DtDefinition dtDefinition) {
-		final Option<DtField> keyField = dtDefinition.getIdField();
-		Assertion.checkArgument(keyField.isDefined(), "KeyConcept {0} must have an key field, in order to support Comment extension", dtDefinition.getLocalName());
-
-		final DataType dataType = keyField.get().getDomain().getDataType();
-		if (dataType == DataType.String) {
-			return id;
-		} else if (dataType == DataType.Integer) {
-			return Integer.valueOf(id);
-		} else if (dataType == DataType.Long) {
-			return Long.valueOf(id);
-		}
-		throw new IllegalArgumentException("Key of KeyConcept " + dtDefinition.getLocalName() + " must be String, Long or Integer");
-	}
-
 }
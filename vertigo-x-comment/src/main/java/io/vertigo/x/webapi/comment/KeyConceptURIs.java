@@ -0,0 +1,49 @@
+package io.vertigo.x.webapi.comment;
+
+import io.vertigo.core.Home;
+import io.vertigo.dynamo.domain.metamodel.DataType;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.metamodel.DtField;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.lang.Assertion;
+import io.vertigo.lang.Option;
+import io.vertigo.util.StringUtil;
+
+/**
+ * Reads key concept's uri from request params (concept type and id), for comment web services and feeds.
+ *
+ * @author npiedeloup
+ */
+final class KeyConceptURIs {
+
+	private KeyConceptURIs() {
+		//private
+	}
+
+	/**
+	 * @param keyConcept KeyConcept type
+	 * @param id KeyConcept id
+	 * @return KeyConcept's uri
+	 */
+	static URI<KeyConcept> read(final String keyConcept, final String id) {
+		final DtDefinition dtDefinition = Home.getDefinitionSpace().resolve("DT_" + StringUtil.camelToConstCase(keyConcept), DtDefinition.class);
+		final Object keyConceptId = stringToId(id, dtDefinition);
+		return new URI<>(dtDefinition, keyConceptId);
+	}
+
+	private static Object stringToId(final String id, final DtDefinition dtDefinition) {
+		final Option<DtField> keyField = dtDefinition.getIdField();
+		Assertion.checkArgument(keyField.isDefined(), "KeyConcept {0} must have an key field, in order to support Comment extension", dtDefinition.getLocalName());
+
+		final DataType dataType = keyField.get().getDomain().getDataType();
+		if (dataType == DataType.String) {
+			return id;
+		} else if (dataType == DataType.Integer) {
+			return Integer.valueOf(id);
+		} else if (dataType == DataType.Long) {
+			return Long.valueOf(id);
+		}
+		throw new IllegalArgumentException("Key of KeyConcept " + dtDefinition.getLocalName() + " must be String, Long or Integer");
+	}
+}
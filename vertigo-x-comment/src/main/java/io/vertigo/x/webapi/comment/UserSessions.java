@@ -0,0 +1,33 @@
+package io.vertigo.x.webapi.comment;
+
+import io.vertigo.persona.security.UserSession;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Reads the user session kept by web services in the http session, for servlets and filters outside of web services security.
+ *
+ * @author npiedeloup
+ */
+final class UserSessions {
+	//attribute of the http session holding the UserSession (vega)
+	private static final String USER_SESSION_ATTRIBUTE = "io.vertigo.Session";
+
+	private UserSessions() {
+		//private
+	}
+
+	/**
+	 * @param request Request
+	 * @return if the user of this request is authenticated
+	 */
+	static boolean isAuthenticated(final HttpServletRequest request) {
+		final HttpSession session = request.getSession(false);
+		if (session == null) {
+			return false;
+		}
+		final Object userSession = session.getAttribute(USER_SESSION_ATTRIBUTE);
+		return userSession instanceof UserSession && ((UserSession) userSession).isAuthenticated();
+	}
+}
@@ -0,0 +1,127 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountBuilder;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.comment.data.Accounts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reading pages of comments written by one author, or by a different author for each comment :
+ * display names are read from the authors cache, whatever the number of authors : reading a page takes about the same time.
+ * @author pchretien
+ */
+public final class CommentAuthorsBenchmarkTest {
+	private static final Logger LOG = Logger.getLogger(CommentAuthorsBenchmarkTest.class);
+	private static final int COMMENTS = 100;
+	private static final int READS = 1000;
+	//reading names of COMMENTS authors from the cache, instead of one, costs less than reading the comments themselves
+	private static final int MAX_AUTHORS_RATIO = 2;
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private CommentManager commentManager;
+
+	private URI<KeyConcept> oneAuthorUri;
+	private URI<KeyConcept> manyAuthorsUri;
+	private final List<URI<Account>> authorURIs = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.config());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+
+		final List<Account> authors = new ArrayList<>();
+		for (int i = 0; i < COMMENTS; i++) {
+			final Account author = new AccountBuilder("author" + i).withDisplayName("Author " + i).withEmail("author" + i + "@yopmail.com").build();
+			authors.add(author);
+			authorURIs.add(Accounts.createAccountURI(author.getId()));
+		}
+		accountManager.saveAccounts(authors);
+
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		oneAuthorUri = new URI<>(dtDefinition, "oneAuthor");
+		manyAuthorsUri = new URI<>(dtDefinition, "manyAuthors");
+		for (int i = 0; i < COMMENTS; i++) {
+			publish(authorURIs.get(0), oneAuthorUri, i);
+			publish(authorURIs.get(i), manyAuthorsUri, i);
+		}
+	}
+
+	private void publish(final URI<Account> authorURI, final URI<KeyConcept> keyConceptUri, final int i) {
+		accountManager.login(authorURI);
+		commentManager.publish(new CommentBuilder().withAuthor(authorURI).withMsg("Comment " + i).build(), keyConceptUri);
+	}
+
+	@After
+	public void tearDown() {
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testGetComments() {
+		//warm up : authors cached, checked once
+		readPage(oneAuthorUri, true);
+		readPage(manyAuthorsUri, false);
+		readPages(oneAuthorUri, READS / 10);
+		readPages(manyAuthorsUri, READS / 10);
+
+		final long oneAuthorNanos = readPages(oneAuthorUri, READS);
+		final long manyAuthorsNanos = readPages(manyAuthorsUri, READS);
+		LOG.info("getComments, 1 author : " + oneAuthorNanos / READS / 1000 + " us by page of " + COMMENTS);
+		LOG.info("getComments, " + COMMENTS + " authors : " + manyAuthorsNanos / READS / 1000 + " us by page of " + COMMENTS);
+		Assert.assertTrue("1 author : " + oneAuthorNanos + " ns, " + COMMENTS + " authors : " + manyAuthorsNanos + " ns", manyAuthorsNanos < MAX_AUTHORS_RATIO * oneAuthorNanos);
+	}
+
+	@Test
+	public void testRenamedAuthor() {
+		Assert.assertEquals("Author 1", commentManager.getComments(manyAuthorsUri, Option.<UUID> none(), COMMENTS).get(COMMENTS - 2).getAuthorDisplayName());
+		accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("author1").withDisplayName("Author One").withEmail("author1@yopmail.com").build()));
+		Assert.assertEquals("Author One", commentManager.getComments(manyAuthorsUri, Option.<UUID> none(), COMMENTS).get(COMMENTS - 2).getAuthorDisplayName());
+	}
+
+	private long readPages(final URI<KeyConcept> keyConceptUri, final int reads) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			Assert.assertEquals(COMMENTS, commentManager.getComments(keyConceptUri, Option.<UUID> none(), COMMENTS).size());
+		}
+		return System.nanoTime() - start;
+	}
+
+	//newest first : comment i is at COMMENTS - 1 - i
+	private void readPage(final URI<KeyConcept> keyConceptUri, final boolean oneAuthor) {
+		final List<Comment> comments = commentManager.getComments(keyConceptUri, Option.<UUID> none(), COMMENTS);
+		Assert.assertEquals(COMMENTS, comments.size());
+		for (int i = 0; i < COMMENTS; i++) {
+			final Comment comment = comments.get(COMMENTS - 1 - i);
+			Assert.assertEquals(oneAuthor ? "Author 0" : "Author " + i, comment.getAuthorDisplayName());
+		}
+	}
+}
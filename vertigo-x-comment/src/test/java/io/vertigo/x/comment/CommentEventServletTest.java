@@ -0,0 +1,172 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.persona.security.VSecurityManager;
+import io.vertigo.util.MapBuilder;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.comment.data.Accounts;
+import io.vertigo.x.account.data.TestServlets;
+import io.vertigo.x.comment.data.TestUserSession;
+import io.vertigo.x.webapi.comment.CommentEventServlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Live feeds : only for authenticated users, Last-Event-ID checked before the feed is opened, events written asynchronously.
+ * @author npiedeloup
+ */
+public final class CommentEventServletTest {
+	private static final String EVENTS_PATH = "/x/comment/api/comments/events";
+	private static final long TIMEOUT_SECONDS = 10;
+	//see CommentEventServlet
+	private static final int MAX_QUEUED_FRAMES = 1000;
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private CommentManager commentManager;
+	@Inject
+	private VSecurityManager securityManager;
+
+	private final CommentEventServlet servlet = new CommentEventServlet();
+	private TestUserSession userSession;
+	private String keyConcept;
+	private String keyConceptId;
+	private URI<KeyConcept> keyConceptURI;
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.memoryConfig());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		userSession = securityManager.<TestUserSession> createUserSession();
+		securityManager.startCurrentUserSession(userSession);
+		accountManager.login(Accounts.createAccountURI("1"));
+
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		keyConcept = dtDefinition.getClassSimpleName();
+		keyConceptId = UUID.randomUUID().toString();
+		keyConceptURI = new URI<>(dtDefinition, keyConceptId);
+		servlet.init();
+	}
+
+	@After
+	public void tearDown() {
+		servlet.destroy();
+		securityManager.stopCurrentUserSession();
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testNotAuthenticated() throws IOException, ServletException {
+		final TestServlets.TestResponse noSession = get(Collections.<String, Object> emptyMap(), Collections.<String, String> emptyMap());
+		Assert.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, noSession.getStatus());
+		Assert.assertFalse(noSession.isAsyncStarted());
+
+		//a session, but not logged in
+		final TestServlets.TestResponse notLogged = get(createSessionAttributes(), Collections.<String, String> emptyMap());
+		Assert.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, notLogged.getStatus());
+		Assert.assertFalse(notLogged.isAsyncStarted());
+	}
+
+	@Test
+	public void testInvalidLastEventId() throws IOException, ServletException {
+		userSession.authenticate();
+		final TestServlets.TestResponse response = get(createSessionAttributes(), Collections.singletonMap("Last-Event-ID", "abc"));
+		Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+		Assert.assertFalse(response.isAsyncStarted());
+	}
+
+	@Test
+	public void testFeed() throws IOException, ServletException, InterruptedException {
+		userSession.authenticate();
+		final TestServlets.TestResponse response = get(createSessionAttributes(), Collections.<String, String> emptyMap());
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertTrue(response.isAsyncStarted());
+		Assert.assertEquals("text/event-stream", response.getContentType());
+		awaitBody(response, "retry: 5000\n\n");
+
+		commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg("Live \"comment\"").build(), keyConceptURI);
+		final String body = awaitBody(response, "event: published\n");
+		Assert.assertTrue(body, body.contains("\"msg\":\"Live \\\"comment\\\"\""));
+		Assert.assertTrue(body, body.contains("\"authorDisplayName\":\"Palmer Luckey\""));
+
+		servlet.destroy();
+		Assert.assertTrue(response.isCompleted());
+	}
+
+	@Test
+	public void testStalledClient() throws IOException, ServletException, InterruptedException {
+		userSession.authenticate();
+		final TestServlets.TestResponse response = get(createSessionAttributes(), Collections.<String, String> emptyMap());
+		awaitBody(response, "retry: 5000\n\n");
+
+		//more events than a feed keeps for a client not reading : the feed is closed, the client reconnects with its last event id
+		response.stall();
+		for (int i = 0; i <= MAX_QUEUED_FRAMES; i++) {
+			commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg("Comment " + i).build(), keyConceptURI);
+		}
+		Assert.assertTrue(response.isCompleted());
+		Assert.assertFalse(new String(response.getBody(), StandardCharsets.UTF_8).contains("event: published\n"));
+	}
+
+	@Test
+	public void testUnknownLastEventId() throws IOException, ServletException, InterruptedException {
+		userSession.authenticate();
+		//events of another node or before a restart : comments must be read again
+		final TestServlets.TestResponse response = get(createSessionAttributes(), Collections.singletonMap("Last-Event-ID", "42"));
+		Assert.assertTrue(response.isAsyncStarted());
+		awaitBody(response, "event: reset\n");
+	}
+
+	private Map<String, Object> createSessionAttributes() {
+		return Collections.<String, Object> singletonMap("io.vertigo.Session", userSession);
+	}
+
+	private TestServlets.TestResponse get(final Map<String, Object> sessionAttributes, final Map<String, String> headers) throws IOException, ServletException {
+		final Map<String, String> parameters = new MapBuilder<String, String>()
+				.put("concept", keyConcept)
+				.put("id", keyConceptId)
+				.build();
+		final TestServlets.TestResponse response = new TestServlets.TestResponse();
+		servlet.service(TestServlets.createRequest("GET", EVENTS_PATH, parameters, headers, sessionAttributes, response), response.asServletResponse());
+		return response;
+	}
+
+	//events are written by the writers of the servlet
+	private static String awaitBody(final TestServlets.TestResponse response, final String expected) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		String body = new String(response.getBody(), StandardCharsets.UTF_8);
+		while (!body.contains(expected)) {
+			Assert.assertTrue(body, System.currentTimeMillis() < deadline);
+			Thread.sleep(50);
+			body = new String(response.getBody(), StandardCharsets.UTF_8);
+		}
+		return body;
+	}
+}
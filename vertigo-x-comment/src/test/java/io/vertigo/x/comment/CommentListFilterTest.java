@@ -0,0 +1,144 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.persona.security.VSecurityManager;
+import io.vertigo.util.MapBuilder;
+import io.vertigo.x.account.AccountBuilder;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.comment.data.Accounts;
+import io.vertigo.x.account.data.TestServlets;
+import io.vertigo.x.comment.data.TestUserSession;
+import io.vertigo.x.webapi.comment.CommentListFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.inject.Inject;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Conditional GET of comments lists : only for authenticated users, ETag changed by comments and by authors' display names.
+ * @author npiedeloup
+ */
+public final class CommentListFilterTest {
+	private static final String COMMENTS_PATH = "/x/comment/api/comments";
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private CommentManager commentManager;
+	@Inject
+	private VSecurityManager securityManager;
+
+	private final CommentListFilter filter = new CommentListFilter();
+	private TestUserSession userSession;
+	private String keyConcept;
+	private String keyConceptId;
+	private URI<KeyConcept> keyConceptURI;
+	private boolean chained;
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.memoryConfig());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		userSession = securityManager.<TestUserSession> createUserSession();
+		securityManager.startCurrentUserSession(userSession);
+		accountManager.login(Accounts.createAccountURI("1"));
+
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		keyConcept = dtDefinition.getClassSimpleName();
+		keyConceptId = UUID.randomUUID().toString();
+		keyConceptURI = new URI<>(dtDefinition, keyConceptId);
+	}
+
+	@After
+	public void tearDown() {
+		securityManager.stopCurrentUserSession();
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testNotAuthenticated() throws IOException, ServletException {
+		Assert.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, get(null).getStatus());
+		Assert.assertFalse(chained);
+	}
+
+	@Test
+	public void testETag() throws IOException, ServletException {
+		userSession.authenticate();
+		commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg("Comment 0").build(), keyConceptURI);
+		final TestServlets.TestResponse response = get(null);
+		Assert.assertTrue(chained);
+		final String eTag = response.getHeader("ETag");
+		Assert.assertNotNull(eTag);
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, getUnchanged(eTag).getStatus());
+
+		//a new comment
+		commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg("Comment 1").build(), keyConceptURI);
+		final String publishedETag = getModified(eTag).getHeader("ETag");
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, getUnchanged(publishedETag).getStatus());
+
+		//the author renamed : the list shows the new name
+		accountManager.saveAccounts(Collections.singletonList(new AccountBuilder("1").withDisplayName("Palmer").withEmail("palmer.luckey@yopmail.com").build()));
+		final String renamedETag = getModified(publishedETag).getHeader("ETag");
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, getUnchanged(renamedETag).getStatus());
+	}
+
+	private TestServlets.TestResponse getUnchanged(final String eTag) throws IOException, ServletException {
+		final TestServlets.TestResponse response = get(eTag);
+		Assert.assertFalse(chained);
+		return response;
+	}
+
+	private TestServlets.TestResponse getModified(final String eTag) throws IOException, ServletException {
+		final TestServlets.TestResponse response = get(eTag);
+		Assert.assertTrue(chained);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertFalse(eTag.equals(response.getHeader("ETag")));
+		return response;
+	}
+
+	private TestServlets.TestResponse get(final String ifNoneMatch) throws IOException, ServletException {
+		final Map<String, String> parameters = new MapBuilder<String, String>()
+				.put("concept", keyConcept)
+				.put("id", keyConceptId)
+				.build();
+		final Map<String, String> headers = ifNoneMatch != null ? Collections.singletonMap("If-None-Match", ifNoneMatch) : Collections.<String, String> emptyMap();
+		final TestServlets.TestResponse response = new TestServlets.TestResponse();
+		chained = false;
+		filter.doFilter(TestServlets.createRequest("GET", COMMENTS_PATH, parameters, headers, Collections.<String, Object> singletonMap("io.vertigo.Session", userSession), null),
+				response.asServletResponse(), new ChainCheck());
+		return response;
+	}
+
+	private final class ChainCheck implements FilterChain {
+		/** {@inheritDoc} */
+		@Override
+		public void doFilter(final ServletRequest request, final ServletResponse response) {
+			chained = true;
+		}
+	}
+}
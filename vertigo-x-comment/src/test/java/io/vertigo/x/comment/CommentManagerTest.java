@@ -3,14 +3,26 @@ package io.vertigo.x.comment;
 import io.vertigo.core.App;
 import io.vertigo.core.Home;
 import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.core.config.AppConfig;
 import io.vertigo.dynamo.domain.metamodel.DtDefinition;
 import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
 import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Option;
 import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountBuilder;
 import io.vertigo.x.account.AccountGroup;
 import io.vertigo.x.account.AccountManager;
 import io.vertigo.x.comment.data.Accounts;
+import io.vertigo.x.impl.comment.CommentAuthors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import javax.inject.Inject;
 
@@ -24,7 +36,7 @@ public class CommentManagerTest {
 	@Inject
 	private AccountManager accountManager;
 	@Inject
-	private CommentManager commentManager;
+	protected CommentManager commentManager;
 
 	private static App app;
 	private URI<KeyConcept> keyConcept1Uri;
@@ -33,7 +45,7 @@ public class CommentManagerTest {
 
 	@Before
 	public void setUp() {
-		app = new App(MyAppConfig.config());
+		app = new App(createAppConfig());
 
 		Injector.injectMembers(this, Home.getComponentSpace());
 		accountURI1 = Accounts.createAccountURI("1");
@@ -47,6 +59,10 @@ public class CommentManagerTest {
 		keyConcept1Uri = new URI<>(dtDefinition, "20");
 	}
 
+	protected AppConfig createAppConfig() {
+		return MyAppConfig.config();
+	}
+
 	@After
 	public void tearDown() {
 		if (app != null) {
@@ -66,4 +82,236 @@ public class CommentManagerTest {
 
 		Assert.assertEquals(10, commentManager.getComments(keyConcept1Uri).size());
 	}
+
+	@Test
+	public void testCommentsPages() {
+		for (int i = 0; i < 25; i++) {
+			commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment " + i).build(), keyConcept1Uri);
+		}
+		final List<Comment> firstPage = commentManager.getComments(keyConcept1Uri, Option.<UUID> none(), 10);
+		Assert.assertEquals(10, firstPage.size());
+		//newest first
+		Assert.assertEquals("Comment 24", firstPage.get(0).getMsg());
+		Assert.assertEquals("Comment 15", firstPage.get(9).getMsg());
+
+		final List<Comment> secondPage = commentManager.getComments(keyConcept1Uri, Option.some(firstPage.get(9).getUuid()), 10);
+		Assert.assertEquals("Comment 14", secondPage.get(0).getMsg());
+		//pages don't move when a comment is published
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment 25").build(), keyConcept1Uri);
+		final List<Comment> lastPage = commentManager.getComments(keyConcept1Uri, Option.some(secondPage.get(9).getUuid()), 10);
+		Assert.assertEquals(5, lastPage.size());
+		Assert.assertEquals("Comment 4", lastPage.get(0).getMsg());
+		Assert.assertEquals("Comment 0", lastPage.get(4).getMsg());
+		Assert.assertTrue(commentManager.getComments(keyConcept1Uri, Option.some(lastPage.get(4).getUuid()), 10).isEmpty());
+	}
+
+	@Test
+	public void testCommentCounts() {
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		final URI<KeyConcept> keyConcept2Uri = new URI<>(dtDefinition, "40");
+		final URI<KeyConcept> keyConcept3Uri = new URI<>(dtDefinition, "50");
+		final long count1 = commentManager.getCommentCount(keyConcept1Uri);
+		final long count2 = commentManager.getCommentCount(keyConcept2Uri);
+		final long count3 = commentManager.getCommentCount(keyConcept3Uri);
+		for (int i = 0; i < 3; i++) {
+			commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment " + i).build(), keyConcept1Uri);
+		}
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment").build(), keyConcept2Uri);
+
+		Assert.assertEquals(count1 + 3, commentManager.getCommentCount(keyConcept1Uri));
+		final Map<URI<? extends KeyConcept>, Long> counts = commentManager.getCommentCounts(Arrays.asList(keyConcept1Uri, keyConcept2Uri, keyConcept3Uri));
+		Assert.assertEquals(3, counts.size());
+		Assert.assertEquals(count1 + 3, counts.get(keyConcept1Uri).longValue());
+		Assert.assertEquals(count2 + 1, counts.get(keyConcept2Uri).longValue());
+		Assert.assertEquals(count3, counts.get(keyConcept3Uri).longValue());
+	}
+
+	@Test
+	public void testReplies() {
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final URI<KeyConcept> keyConcept2Uri = new URI<>(DtObjectUtil.findDtDefinition(AccountGroup.class), "80");
+		final Comment comment1 = publishComment("Comment 1", null, keyConcept1Uri);
+		final Comment comment2 = publishComment("Comment 2", null, keyConcept1Uri);
+		final Comment reply1 = publishComment("Reply 1", comment1.getUuid(), keyConcept1Uri);
+		publishComment("Reply 2", comment1.getUuid(), keyConcept1Uri);
+		publishComment("Reply 3", comment1.getUuid(), keyConcept1Uri);
+		publishComment("Reply 1.1", reply1.getUuid(), keyConcept1Uri);
+
+		//top-level comments only, newest first
+		final List<CommentThread> threads = commentManager.getThreads(keyConcept1Uri, Option.<UUID> none(), 2);
+		Assert.assertEquals(comment2.getUuid(), threads.get(0).getComment().getUuid());
+		Assert.assertEquals(0, threads.get(0).getReplyCount());
+		Assert.assertEquals(comment1.getUuid(), threads.get(1).getComment().getUuid());
+		Assert.assertEquals(3, threads.get(1).getReplyCount());
+
+		//replies oldest first, page by page
+		final List<CommentThread> replies = commentManager.getReplies(comment1.getUuid(), Option.<UUID> none(), 2);
+		Assert.assertEquals(2, replies.size());
+		Assert.assertEquals("Reply 1", replies.get(0).getComment().getMsg());
+		Assert.assertEquals(comment1.getUuid(), replies.get(0).getComment().getParentUuid());
+		Assert.assertEquals(1, replies.get(0).getReplyCount());
+		Assert.assertEquals("Reply 2", replies.get(1).getComment().getMsg());
+		final List<CommentThread> lastReplies = commentManager.getReplies(comment1.getUuid(), Option.some(replies.get(1).getComment().getUuid()), 2);
+		Assert.assertEquals(1, lastReplies.size());
+		Assert.assertEquals("Reply 3", lastReplies.get(0).getComment().getMsg());
+		Assert.assertEquals("Reply 1.1", commentManager.getReplies(reply1.getUuid(), Option.<UUID> none(), 10).get(0).getComment().getMsg());
+
+		//a reply is on the key concept of its parent
+		try {
+			publishComment("Reply elsewhere", comment1.getUuid(), keyConcept2Uri);
+			Assert.fail();
+		} catch (final Exception e) {
+			//ok
+		}
+	}
+
+	private Comment publishComment(final String msg, final UUID parentUuid, final URI<KeyConcept> keyConceptUri) {
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg(msg).withParent(parentUuid).build(), keyConceptUri);
+		return commentManager.getComments(keyConceptUri, Option.<UUID> none(), 1).get(0);
+	}
+
+	@Test
+	public void testKeyConceptVersion() {
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final URI<KeyConcept> keyConcept2Uri = new URI<>(DtObjectUtil.findDtDefinition(AccountGroup.class), "60");
+		final long version1 = commentManager.getVersion(keyConcept1Uri);
+		final long version2 = commentManager.getVersion(keyConcept2Uri);
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Lorem ipsum").build(), keyConcept1Uri);
+		final long publishedVersion = commentManager.getVersion(keyConcept1Uri);
+		Assert.assertTrue(publishedVersion > version1);
+
+		final Comment comment = commentManager.getComments(keyConcept1Uri, Option.<UUID> none(), 1).get(0);
+		commentManager.update(new CommentBuilder(comment.getUuid(), accountURI1, comment.getAuthorDisplayName(), comment.getCreationDate())
+				.withMsg("Lorem ipsum edited")
+				.withVersion(comment.getVersion())
+				.build());
+		final long updatedVersion = commentManager.getVersion(keyConcept1Uri);
+		Assert.assertTrue(updatedVersion > publishedVersion);
+		//reads don't change it, other key concepts neither
+		commentManager.getComments(keyConcept1Uri);
+		Assert.assertEquals(updatedVersion, commentManager.getVersion(keyConcept1Uri));
+		Assert.assertEquals(version2, commentManager.getVersion(keyConcept2Uri));
+	}
+
+	@Test
+	public void testSearch() {
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final URI<KeyConcept> keyConcept2Uri = new URI<>(DtObjectUtil.findDtDefinition(AccountGroup.class), "70");
+		//word of this run only : redis keeps comments of previous runs
+		final String word = "x" + Long.toString(System.nanoTime(), Character.MAX_RADIX) + "q";
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Réunion de lancement : é" + word).build(), keyConcept1Uri);
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Les " + word + "s du projet").build(), keyConcept2Uri);
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg(word + ", " + word + " et " + word).build(), keyConcept1Uri);
+
+		//case and plural
+		final List<Comment> found = commentManager.search(word.toUpperCase(), Option.<URI<? extends KeyConcept>> none(), 10);
+		Assert.assertEquals(2, found.size());
+		Assert.assertEquals(word + ", " + word + " et " + word, found.get(0).getMsg());
+		Assert.assertEquals(1, commentManager.search(word, Option.<URI<? extends KeyConcept>> none(), 1).size());
+		//accents
+		Assert.assertEquals("Réunion de lancement : é" + word, commentManager.search("E" + word, Option.<URI<? extends KeyConcept>> none(), 10).get(0).getMsg());
+		//key concept
+		final List<Comment> foundInKeyConcept2 = commentManager.search(word, Option.<URI<? extends KeyConcept>> some(keyConcept2Uri), 10);
+		Assert.assertEquals(1, foundInKeyConcept2.size());
+		Assert.assertEquals("Les " + word + "s du projet", foundInKeyConcept2.get(0).getMsg());
+		//common words only
+		Assert.assertTrue(commentManager.search("les et du", Option.<URI<? extends KeyConcept>> none(), 10).isEmpty());
+
+		//updated comments are indexed again
+		final Comment comment = found.get(0);
+		commentManager.update(new CommentBuilder(comment.getUuid(), accountURI1, comment.getAuthorDisplayName(), comment.getCreationDate())
+				.withMsg("Lorem ipsum")
+				.withVersion(comment.getVersion())
+				.build());
+		Assert.assertEquals(1, commentManager.search(word, Option.<URI<? extends KeyConcept>> none(), 10).size());
+	}
+
+	@Test
+	public void testDeletedAuthor() {
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final URI<KeyConcept> keyConcept2Uri = new URI<>(DtObjectUtil.findDtDefinition(AccountGroup.class), UUID.randomUUID().toString());
+		final String word = "x" + Long.toString(System.nanoTime(), Character.MAX_RADIX) + "q";
+		final String authorId = "deleted-author-" + UUID.randomUUID();
+		final URI<Account> authorURI = Accounts.createAccountURI(authorId);
+		accountManager.saveAccounts(Collections.singletonList(new AccountBuilder(authorId).withDisplayName("Deleted author").build()));
+		accountManager.login(authorURI);
+		commentManager.publish(new CommentBuilder().withAuthor(authorURI).withMsg("Comment " + word).build(), keyConcept2Uri);
+		accountManager.login(accountURI1);
+		Assert.assertEquals("Deleted author", commentManager.getComments(keyConcept2Uri).get(0).getAuthorDisplayName());
+
+		accountManager.deleteAccounts(Collections.singletonList(authorURI));
+		//comments are kept, their author is shown as deleted
+		final List<Comment> comments = commentManager.getComments(keyConcept2Uri);
+		Assert.assertEquals(1, comments.size());
+		Assert.assertEquals(authorURI, comments.get(0).getAuthor());
+		Assert.assertEquals(CommentAuthors.DELETED_AUTHOR_DISPLAY_NAME, comments.get(0).getAuthorDisplayName());
+		final List<Comment> found = commentManager.search(word, Option.<URI<? extends KeyConcept>> some(keyConcept2Uri), 10);
+		Assert.assertEquals(1, found.size());
+		Assert.assertEquals(CommentAuthors.DELETED_AUTHOR_DISPLAY_NAME, found.get(0).getAuthorDisplayName());
+	}
+
+	@Test
+	public void testUpdateVersion() {
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Lorem ipsum").build(), keyConcept1Uri);
+		final Comment comment = commentManager.getComments(keyConcept1Uri, Option.<UUID> none(), 1).get(0);
+		Assert.assertEquals(0, comment.getVersion());
+
+		commentManager.update(new CommentBuilder(comment.getUuid(), accountURI1, comment.getAuthorDisplayName(), comment.getCreationDate())
+				.withMsg("Lorem ipsum edited")
+				.withVersion(comment.getVersion())
+				.build());
+		final Comment updatedComment = commentManager.getComments(keyConcept1Uri, Option.<UUID> none(), 1).get(0);
+		Assert.assertEquals("Lorem ipsum edited", updatedComment.getMsg());
+		Assert.assertEquals(1, updatedComment.getVersion());
+		Assert.assertEquals(comment.getCreationDate(), updatedComment.getCreationDate());
+
+		//same version : updated by someone else in between
+		try {
+			commentManager.update(new CommentBuilder(comment.getUuid(), accountURI1, comment.getAuthorDisplayName(), comment.getCreationDate())
+					.withMsg("Lorem ipsum conflict")
+					.withVersion(comment.getVersion())
+					.build());
+			Assert.fail();
+		} catch (final ConcurrentModificationException e) {
+			//ok
+		}
+		Assert.assertEquals("Lorem ipsum edited", commentManager.getComments(keyConcept1Uri, Option.<UUID> none(), 1).get(0).getMsg());
+	}
+
+	@Test
+	public void testEvents() {
+		final List<CommentEvent> events = new ArrayList<>();
+		final CommentEventListener listener = new CommentEventListener() {
+			@Override
+			public void onEvent(final CommentEvent event) {
+				events.add(event);
+			}
+		};
+		commentManager.addEventListener(keyConcept1Uri, listener);
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment 0").build(), keyConcept1Uri);
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment 1").build(), keyConcept1Uri);
+		final Comment comment = commentManager.getComments(keyConcept1Uri, Option.<UUID> none(), 1).get(0);
+		commentManager.update(new CommentBuilder(comment.getUuid(), accountURI1, comment.getAuthorDisplayName(), comment.getCreationDate())
+				.withMsg("Comment 1 edited")
+				.withVersion(comment.getVersion())
+				.build());
+
+		Assert.assertEquals(3, events.size());
+		Assert.assertEquals(CommentEvent.Type.PUBLISHED, events.get(0).getType());
+		Assert.assertEquals("Comment 0", events.get(0).getComment().getMsg());
+		Assert.assertEquals(CommentEvent.Type.UPDATED, events.get(2).getType());
+		Assert.assertEquals("Comment 1 edited", events.get(2).getComment().getMsg());
+		Assert.assertEquals(comment.getVersion() + 1, events.get(2).getComment().getVersion());
+
+		//resume after the first event
+		final Option<List<CommentEvent>> missedEvents = commentManager.getEvents(keyConcept1Uri, events.get(0).getSequence());
+		Assert.assertTrue(missedEvents.isDefined());
+		Assert.assertEquals(2, missedEvents.get().size());
+		Assert.assertEquals(events.get(1).getSequence(), missedEvents.get().get(0).getSequence());
+
+		commentManager.removeEventListener(keyConcept1Uri, listener);
+		commentManager.publish(new CommentBuilder().withAuthor(accountURI1).withMsg("Comment 2").build(), keyConcept1Uri);
+		Assert.assertEquals(3, events.size());
+	}
 }
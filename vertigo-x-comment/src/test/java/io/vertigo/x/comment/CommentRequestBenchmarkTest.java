@@ -0,0 +1,175 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Option;
+import io.vertigo.persona.security.VSecurityManager;
+import io.vertigo.x.account.Account;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.account.data.TestServlets;
+import io.vertigo.x.comment.data.Accounts;
+import io.vertigo.x.comment.data.TestUserSession;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.webapi.account.AccountRequestFilter;
+import io.vertigo.x.webapi.comment.CommentWebServices;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.inject.Inject;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Requests on /x/comment (check the logged account's groups, publish a comment, read the first page, show the logged account) through the web services,
+ * with and without the account request filter : the logged account is then resolved once by request.
+ * Accounts are in redis and comments in memory (see MyAppConfig.redisAccountsConfig) : redis commands are account reads only, and no comment is left in redis.
+ * @author pchretien
+ */
+public final class CommentRequestBenchmarkTest {
+	private static final Logger LOG = Logger.getLogger(CommentRequestBenchmarkTest.class);
+	//all kept by the memory store
+	private static final int REQUESTS = MyAppConfig.MAX_COMMENTS_PER_KEY_CONCEPT;
+	private static final int PAGE_SIZE = 20;
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private VSecurityManager securityManager;
+	@Inject
+	private RedisConnector redisConnector;
+
+	private CommentWebServices commentWebServices;
+	private final AccountRequestFilter filter = new AccountRequestFilter();
+	private final HttpServletRequest request = TestServlets.createRequest("POST", "/x/comment/api/comments", Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap());
+	private final TestServlets.TestResponse response = new TestServlets.TestResponse();
+	private URI<Account> loggedAccountURI;
+	private String keyConcept;
+
+	@Before
+	public void setUp() {
+		app = new App(MyAppConfig.redisAccountsConfig());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		commentWebServices = Injector.newInstance(CommentWebServices.class, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		securityManager.startCurrentUserSession(securityManager.<TestUserSession> createUserSession());
+		loggedAccountURI = Accounts.createAccountURI("1");
+		accountManager.login(loggedAccountURI);
+
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		keyConcept = dtDefinition.getClassSimpleName();
+	}
+
+	@After
+	public void tearDown() {
+		securityManager.stopCurrentUserSession();
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testRequests() throws IOException, ServletException {
+		//new key concepts : counts start at 0
+		final String runId = UUID.randomUUID().toString();
+		final Measure withoutFilter = runRequests("withoutFilter-" + runId, false);
+		final Measure withFilter = runRequests("withFilter-" + runId, true);
+		LOG.info(String.format("without request context : %.1f account reads, %.2f ms by request", withoutFilter.readsByRequest(), withoutFilter.millisByRequest()));
+		LOG.info(String.format("with request context : %.1f account reads, %.2f ms by request", withFilter.readsByRequest(), withFilter.millisByRequest()));
+		//the logged account and its groups are read once by request
+		Assert.assertTrue(withFilter.readsByRequest() + " >= " + withoutFilter.readsByRequest(), withFilter.readsByRequest() < withoutFilter.readsByRequest());
+	}
+
+	private Measure runRequests(final String keyConceptId, final boolean filtered) throws IOException, ServletException {
+		final long commandsBefore = countRedisCommands();
+		final long start = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			final FilterChain chain = new RequestChain(keyConceptId, i);
+			if (filtered) {
+				filter.doFilter(request, response.asServletResponse(), chain);
+			} else {
+				chain.doFilter(request, response.asServletResponse());
+			}
+		}
+		final long nanos = System.nanoTime() - start;
+		final long commands = countRedisCommands() - commandsBefore;
+		Assert.assertEquals(REQUESTS, commentWebServices.getCommentCounts(keyConcept, keyConceptId).get(keyConceptId).intValue());
+		return new Measure(commands, nanos);
+	}
+
+	//commands executed by redis since its start, but INFO
+	private long countRedisCommands() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			long commands = 0;
+			for (final String line : jedis.info("commandstats").split("\r\n")) {
+				if (line.startsWith("cmdstat_") && !line.startsWith("cmdstat_info:")) {
+					//cmdstat_get:calls=10,usec=20,usec_per_call=2.00
+					final String calls = line.substring(line.indexOf("calls=") + "calls=".length());
+					commands += Long.parseLong(calls.substring(0, calls.indexOf(',')));
+				}
+			}
+			return commands;
+		}
+	}
+
+	private static final class Measure {
+		private final long accountReads;
+		private final long nanos;
+
+		Measure(final long accountReads, final long nanos) {
+			this.accountReads = accountReads;
+			this.nanos = nanos;
+		}
+
+		double readsByRequest() {
+			return accountReads / (double) REQUESTS;
+		}
+
+		double millisByRequest() {
+			return nanos / 1000000d / REQUESTS;
+		}
+	}
+
+	//what a page does : check the groups of the logged account, publish a comment, read the first page, then show the logged account
+	private final class RequestChain implements FilterChain {
+		private final String keyConceptId;
+		private final int index;
+
+		RequestChain(final String keyConceptId, final int index) {
+			this.keyConceptId = keyConceptId;
+			this.index = index;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse) {
+			Assert.assertFalse(accountManager.getGroupURIs(accountManager.getLoggedAccount()).isEmpty());
+			commentWebServices.publishComment(new CommentBuilder().withAuthor(loggedAccountURI).withMsg("Comment " + index).build(), keyConcept, keyConceptId);
+			final List<Comment> comments = commentWebServices.getComments(keyConcept, keyConceptId, Option.<String> none(), Option.some(PAGE_SIZE));
+			Assert.assertEquals(Math.min(index + 1, PAGE_SIZE), comments.size());
+			Assert.assertEquals("Comment " + index, comments.get(0).getMsg());
+			Assert.assertEquals("Palmer Luckey", comments.get(0).getAuthorDisplayName());
+			Assert.assertEquals("Palmer Luckey", accountManager.getAccount(accountManager.getLoggedAccount()).getDisplayName());
+		}
+	}
+}
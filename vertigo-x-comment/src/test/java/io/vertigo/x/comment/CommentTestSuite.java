@@ -28,7 +28,7 @@ import org.junit.runners.Suite.SuiteClasses;
  * @author npiedeloup
  */
 @RunWith(Suite.class)
-@SuiteClasses({ CommentManagerTest.class, CommentWebServicesTest.class })
+@SuiteClasses({ CommentManagerTest.class, MemoryCommentManagerTest.class, CommentWebServicesTest.class, CommentEventServletTest.class, RedisCommentEventTest.class, CommentListFilterTest.class, RedisCommentArchiveTest.class })
 public final class CommentTestSuite {
 	//
 }
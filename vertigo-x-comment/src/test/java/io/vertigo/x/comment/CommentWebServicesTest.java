@@ -25,6 +25,7 @@ import io.vertigo.dynamo.domain.model.KeyConcept;
 import io.vertigo.dynamo.domain.model.URI;
 import io.vertigo.dynamo.domain.util.DtObjectUtil;
 import io.vertigo.util.MapBuilder;
+import io.vertigo.lang.Option;
 import io.vertigo.x.account.Account;
 import io.vertigo.x.account.AccountGroup;
 import io.vertigo.x.account.AccountManager;
@@ -115,6 +116,89 @@ public final class CommentWebServicesTest {
 				.get("/x/comment/api/comments?concept=" + CONCEPT_KEY_NAME + "&id=" + keyConcept1Uri.getId());
 	}
 
+	@Test
+	public void testGetCommentsPage() {
+		final CommentManager commentManager = Home.getComponentSpace().resolve(CommentManager.class);
+		for (int i = 0; i < 3; i++) {
+			commentManager.publish(new CommentBuilder()
+					.withAuthor(account1Uri)
+					.withMsg("Lorem ipsum " + i)
+					.build(), keyConcept1Uri);
+		}
+
+		final Response response = RestAssured.given().filter(sessionFilter)
+				.expect()
+				.body("size()", Matchers.equalTo(2))
+				.statusCode(HttpStatus.SC_OK)
+				.log().ifError()
+				.when()
+				.get("/x/comment/api/comments?concept=" + CONCEPT_KEY_NAME + "&id=" + keyConcept1Uri.getId() + "&limit=2");
+		final String cursor = response.body().path("get(1).uuid");
+
+		RestAssured.given().filter(sessionFilter)
+				.expect()
+				.body("get(0).msg", Matchers.equalTo("Lorem ipsum 0"))
+				.statusCode(HttpStatus.SC_OK)
+				.log().ifError()
+				.when()
+				.get("/x/comment/api/comments?concept=" + CONCEPT_KEY_NAME + "&id=" + keyConcept1Uri.getId() + "&cursor=" + cursor + "&limit=2");
+	}
+
+	@Test
+	public void testGetThreads() {
+		final CommentManager commentManager = Home.getComponentSpace().resolve(CommentManager.class);
+		commentManager.publish(new CommentBuilder()
+				.withAuthor(account1Uri)
+				.withMsg("Lorem ipsum")
+				.build(), keyConcept1Uri);
+		final Comment comment = commentManager.getThreads(keyConcept1Uri, Option.<UUID> none(), 1).get(0).getComment();
+		commentManager.publish(new CommentBuilder()
+				.withAuthor(account1Uri)
+				.withMsg("Lorem ipsum reply")
+				.withParent(comment.getUuid())
+				.build(), keyConcept1Uri);
+
+		//replies are counted, not read
+		RestAssured.given().filter(sessionFilter)
+				.expect()
+				.body("get(0).comment.uuid", Matchers.equalTo(comment.getUuid().toString()))
+				.body("get(0).replyCount", Matchers.equalTo(1))
+				.statusCode(HttpStatus.SC_OK)
+				.log().ifError()
+				.when()
+				.get("/x/comment/api/comments/threads?concept=" + CONCEPT_KEY_NAME + "&id=" + keyConcept1Uri.getId() + "&limit=1");
+
+		RestAssured.given().filter(sessionFilter)
+				.expect()
+				.body("size()", Matchers.equalTo(1))
+				.body("get(0).comment.msg", Matchers.equalTo("Lorem ipsum reply"))
+				.body("get(0).replyCount", Matchers.equalTo(0))
+				.statusCode(HttpStatus.SC_OK)
+				.log().ifError()
+				.when()
+				.get("/x/comment/api/comments/" + comment.getUuid() + "/replies");
+	}
+
+	@Test
+	public void testGetCommentCounts() {
+		final CommentManager commentManager = Home.getComponentSpace().resolve(CommentManager.class);
+		final long count1 = commentManager.getCommentCount(keyConcept1Uri);
+		final long count2 = commentManager.getCommentCount(keyConcept2Uri);
+		commentManager.publish(new CommentBuilder()
+				.withAuthor(account1Uri)
+				.withMsg("Lorem ipsum")
+				.build(), keyConcept1Uri);
+
+		RestAssured.given().filter(sessionFilter)
+				.expect()
+				.body(String.valueOf(keyConcept1Uri.getId()), Matchers.equalTo((int) count1 + 1))
+				.body(String.valueOf(keyConcept2Uri.getId()), Matchers.equalTo((int) count2))
+				.statusCode(HttpStatus.SC_OK)
+				.log().ifError()
+				.when()
+				.get("/x/comment/api/comments/counts?concept=" + CONCEPT_KEY_NAME + "&ids=" + keyConcept1Uri.getId() + "," + keyConcept2Uri.getId());
+	}
+
 	@Test
 	public void testPublishComment() {
 		final Comment newComment = new CommentBuilder()
@@ -186,6 +270,43 @@ public final class CommentWebServicesTest {
 
 	}
 
+	@Test
+	public void testEditCommentConflict() {
+		final CommentManager commentManager = Home.getComponentSpace().resolve(CommentManager.class);
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final URI<KeyConcept> keyConceptUri = new URI<>(DtObjectUtil.findDtDefinition(AccountGroup.class), UUID.randomUUID().toString());
+		commentManager.publish(new CommentBuilder()
+				.withAuthor(account1Uri)
+				.withMsg("Lorem ipsum")
+				.build(), keyConceptUri);
+		final Comment comment = commentManager.getComments(keyConceptUri).get(0);
+		final String uuid = comment.getUuid().toString();
+
+		//both edit version 0 : the second one is refused
+		RestAssured.given().filter(sessionFilter)
+				.body(commentToMap(new CommentBuilder(comment.getUuid(), account1Uri, comment.getCreationDate()).withMsg("first edit").withVersion(comment.getVersion()).build()))
+				.expect()
+				.statusCode(HttpStatus.SC_NO_CONTENT)
+				.log().ifError()
+				.when()
+				.put("/x/comment/api/comments/" + uuid);
+
+		RestAssured.given().filter(sessionFilter)
+				.body(commentToMap(new CommentBuilder(comment.getUuid(), account1Uri, comment.getCreationDate()).withMsg("second edit").withVersion(comment.getVersion()).build()))
+				.expect()
+				.statusCode(HttpStatus.SC_CONFLICT)
+				.when()
+				.put("/x/comment/api/comments/" + uuid);
+
+		RestAssured.given().filter(sessionFilter)
+				.expect()
+				.body("get(0).msg", Matchers.equalTo("first edit"))
+				.statusCode(HttpStatus.SC_OK)
+				.log().ifError()
+				.when()
+				.get("/x/comment/api/comments?concept=" + CONCEPT_KEY_NAME + "&id=" + keyConceptUri.getId());
+	}
+
 	@Test
 	public void testSeparationComment() {
 		final Comment newComment = new CommentBuilder()
@@ -269,6 +390,7 @@ public final class CommentWebServicesTest {
 				.put("msg", comment.getMsg())
 				.put("creationDate", convertDate(comment.getCreationDate()))
 				.putNullable("lastModified", convertDate(comment.getLastModified()))
+				.put("version", comment.getVersion())
 				.build();
 	}
 }
@@ -0,0 +1,49 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.config.AppConfig;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.comment.data.Accounts;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Same tests on the memory store (no redis needed).
+ * @author pchretien
+ */
+public final class MemoryCommentManagerTest extends CommentManagerTest {
+
+	/** {@inheritDoc} */
+	@Override
+	protected AppConfig createAppConfig() {
+		return MyAppConfig.memoryConfig();
+	}
+
+	@Test
+	public void testMaxCommentsPerKeyConcept() {
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		final URI<KeyConcept> keyConceptUri = new URI<>(dtDefinition, "30");
+		final int comments = MyAppConfig.MAX_COMMENTS_PER_KEY_CONCEPT + 50;
+		for (int i = 0; i < comments; i++) {
+			commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg("Comment " + i).build(), keyConceptUri);
+		}
+		//older ones are dropped
+		final List<Comment> keptComments = commentManager.getComments(keyConceptUri);
+		Assert.assertEquals(MyAppConfig.MAX_COMMENTS_PER_KEY_CONCEPT, keptComments.size());
+		Assert.assertEquals("Comment " + (comments - 1), keptComments.get(0).getMsg());
+		Assert.assertEquals("Comment 50", keptComments.get(keptComments.size() - 1).getMsg());
+
+		final List<Comment> lastPage = commentManager.getComments(keyConceptUri, Option.some(keptComments.get(89).getUuid()), 20);
+		Assert.assertEquals(10, lastPage.size());
+		Assert.assertEquals("Comment 59", lastPage.get(0).getMsg());
+	}
+}
@@ -27,6 +27,7 @@ import java.net.InetAddress;
 
 public final class MyAppConfig {
 	public static final int WS_PORT = 8088;
+	public static final int MAX_COMMENTS_PER_KEY_CONCEPT = 100;
 
 	private static boolean ping(final String host) {
 		try {
@@ -37,7 +38,7 @@ public final class MyAppConfig {
 		}
 	}
 
-	private static AppConfigBuilder createAppConfigBuilder() {
+	private static AppConfigBuilder createRedisAppConfigBuilder() {
 		final String redisHost;
 		final int redisPort;
 		final String redisPassword;
@@ -52,6 +53,21 @@ public final class MyAppConfig {
 		} else {
 			throw new RuntimeException("no redis server found");
 		}
+		// @formatter:off
+		return createBootAppConfigBuilder()
+			.beginModule(ConnectorsFeatures.class).withRedis(redisHost, redisPort, redisPassword).endModule()
+			.beginModule(AccountFeatures.class).withRedis().endModule();
+		// @formatter:on
+	}
+
+	private static AppConfigBuilder createAppConfigBuilder() {
+		// @formatter:off
+		return createRedisAppConfigBuilder()
+			.beginModule(CommentFeatures.class).withRedis().withRedisSearch().endModule();
+		// @formatter:on
+	}
+
+	private static AppConfigBuilder createBootAppConfigBuilder() {
 		// @formatter:off
 		return new AppConfigBuilder()
 			.beginBootModule()
@@ -69,10 +85,7 @@ public final class MyAppConfig {
 			.endBoot()
 			.beginModule(PersonaFeatures.class).withUserSession(TestUserSession.class).endModule()
 			.beginModule(DynamoFeatures.class).endModule()
-			.beginModule(CommonsFeatures.class).endModule()
-			.beginModule(ConnectorsFeatures.class).withRedis(redisHost, redisPort, redisPassword).endModule()
-			.beginModule(AccountFeatures.class).withRedis().endModule()
-			.beginModule(CommentFeatures.class).withRedis().endModule();
+			.beginModule(CommonsFeatures.class).endModule();
 		// @formatter:on
 	}
 
@@ -81,6 +94,40 @@ public final class MyAppConfig {
 		return createAppConfigBuilder().build();
 	}
 
+	public static AppConfig redisEventsConfig() {
+		// @formatter:off
+		return createRedisAppConfigBuilder()
+			.beginModule(CommentFeatures.class).withRedis().withRedisEvents().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	public static AppConfig archiveConfig(final String archiveDir) {
+		// @formatter:off
+		return createRedisAppConfigBuilder()
+			.beginModule(CommentFeatures.class).withRedis(archiveDir, 1).withRedisSearch().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	//accounts in redis, comments in memory : redis only sees account reads
+	public static AppConfig redisAccountsConfig() {
+		// @formatter:off
+		return createRedisAppConfigBuilder()
+			.beginModule(CommentFeatures.class).withMemory(MAX_COMMENTS_PER_KEY_CONCEPT).withMemorySearch().endModule()
+			.build();
+		// @formatter:on
+	}
+
+	public static AppConfig memoryConfig() {
+		// @formatter:off
+		return createBootAppConfigBuilder()
+			.beginModule(AccountFeatures.class).withMemory().endModule()
+			.beginModule(CommentFeatures.class).withMemory(MAX_COMMENTS_PER_KEY_CONCEPT).withMemorySearch().endModule()
+			.build();
+		// @formatter:on
+	}
+
 	public static AppConfig vegaConfig() {
 		// @formatter:off
 		return createAppConfigBuilder()
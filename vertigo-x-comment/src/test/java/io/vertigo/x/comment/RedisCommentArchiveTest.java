@@ -0,0 +1,212 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.lang.Option;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.comment.data.Accounts;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.impl.comment.CommentPlugin;
+import io.vertigo.x.plugins.comment.redis.RedisCommentPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Comments of inactive key concepts archived by a node (a second plugin on the same redis and directory),
+ * then read by the app : counted and searched without being written back, written back when read or commented.
+ * @author pchretien
+ */
+public final class RedisCommentArchiveTest {
+	private static final int COMMENTS = 3;
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private CommentManager commentManager;
+	@Inject
+	private RedisConnector redisConnector;
+
+	private File archiveDir;
+	private RedisCommentPlugin otherNode;
+	private URI<KeyConcept> keyConceptURI;
+	//word of this run only : redis keeps comments of previous runs
+	private final String word = "x" + Long.toString(System.nanoTime(), Character.MAX_RADIX) + "q";
+
+	@Before
+	public void setUp() throws IOException {
+		archiveDir = Files.createTempDirectory("comments").toFile();
+		app = new App(MyAppConfig.archiveConfig(archiveDir.getPath()));
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		accountManager.login(Accounts.createAccountURI("1"));
+		//not started : archives only when asked
+		otherNode = new RedisCommentPlugin(redisConnector, accountManager, Option.some(archiveDir.getPath()), Option.some(1));
+
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		keyConceptURI = new URI<>(dtDefinition, UUID.randomUUID().toString());
+		for (int i = 0; i < COMMENTS; i++) {
+			publish("Comment " + i + " " + word);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testArchiveRehydrate() {
+		archive();
+		Assert.assertTrue(isArchived());
+		Assert.assertEquals(1, countSegments());
+		//counted without being written back
+		Assert.assertEquals(COMMENTS, commentManager.getCommentCount(keyConceptURI));
+		Assert.assertTrue(isArchived());
+
+		final List<Comment> comments = commentManager.getComments(keyConceptURI);
+		Assert.assertEquals(COMMENTS, comments.size());
+		Assert.assertEquals("Comment " + (COMMENTS - 1) + " " + word, comments.get(0).getMsg());
+		Assert.assertFalse(isArchived());
+		Assert.assertEquals(0, countSegments());
+	}
+
+	@Test
+	public void testSearchArchived() {
+		archive();
+		final List<Comment> found = commentManager.search(word, Option.<URI<? extends KeyConcept>> some(keyConceptURI), 10);
+		Assert.assertEquals(COMMENTS, found.size());
+		//search results are read from the segment
+		Assert.assertTrue(isArchived());
+	}
+
+	@Test
+	public void testSearchArchivedAgain() throws IOException {
+		archive();
+		Assert.assertEquals(COMMENTS, commentManager.getComments(keyConceptURI).size());
+		archive();
+		//found from uuids kept on disk, each kept once
+		final List<Comment> found = commentManager.search(word, Option.<URI<? extends KeyConcept>> some(keyConceptURI), 10);
+		Assert.assertEquals(COMMENTS, found.size());
+		Assert.assertTrue(isArchived());
+		int uuidLines = 0;
+		for (final File uuidsFile : new File(archiveDir, "uuids").listFiles()) {
+			for (final String line : Files.readAllLines(uuidsFile.toPath(), StandardCharsets.UTF_8)) {
+				if (line.endsWith("\t" + keyConceptURI.toURN())) {
+					uuidLines++;
+				}
+			}
+		}
+		Assert.assertEquals(COMMENTS, uuidLines);
+	}
+
+	@Test
+	public void testVisitArchived() {
+		final Set<UUID> uuids = new HashSet<>();
+		for (final Comment comment : commentManager.getComments(keyConceptURI)) {
+			uuids.add(comment.getUuid());
+		}
+		archive();
+		//index build : archived comments are visited too
+		final Set<UUID> visitedUuids = new HashSet<>();
+		otherNode.visitComments(new CommentPlugin.CommentVisitor() {
+			@Override
+			public void visit(final String keyConceptUrn, final Comment comment) {
+				if (keyConceptURI.toURN().equals(keyConceptUrn)) {
+					visitedUuids.add(comment.getUuid());
+				}
+			}
+		});
+		Assert.assertEquals(uuids, visitedUuids);
+		Assert.assertTrue(isArchived());
+	}
+
+	@Test
+	public void testPublishWhileArchiving() throws InterruptedException {
+		final int published = 50;
+		final AtomicBoolean publishing = new AtomicBoolean(true);
+		final List<RuntimeException> errors = new ArrayList<>();
+		final Thread archiver = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (publishing.get()) {
+						archive();
+					}
+				} catch (final RuntimeException e) {
+					errors.add(e);
+				}
+			}
+		};
+		archiver.start();
+		try {
+			for (int i = 0; i < published; i++) {
+				publish("Comment " + (COMMENTS + i) + " " + word);
+			}
+		} finally {
+			publishing.set(false);
+			archiver.join();
+		}
+		Assert.assertTrue(errors.toString(), errors.isEmpty());
+		//no comment lost, whichever won each race
+		final List<Comment> comments = commentManager.getComments(keyConceptURI);
+		Assert.assertEquals(COMMENTS + published, comments.size());
+		Assert.assertEquals("Comment " + (COMMENTS + published - 1) + " " + word, comments.get(0).getMsg());
+		Assert.assertFalse(isArchived());
+	}
+
+	private void publish(final String msg) {
+		commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg(msg).build(), keyConceptURI);
+	}
+
+	//inactive for long, then archived by the other node
+	private void archive() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			jedis.zadd("commentActivity", 0, keyConceptURI.toURN());
+		}
+		otherNode.archiveInactiveKeyConcepts();
+	}
+
+	private int countSegments() {
+		int segments = 0;
+		for (final String name : archiveDir.list()) {
+			if (name.endsWith(".seg.gz")) {
+				segments++;
+			}
+		}
+		return segments;
+	}
+
+	private boolean isArchived() {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			return jedis.exists("commentArchive:" + keyConceptURI.toURN());
+		}
+	}
+}
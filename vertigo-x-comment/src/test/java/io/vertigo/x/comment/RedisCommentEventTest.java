@@ -0,0 +1,147 @@
+package io.vertigo.x.comment;
+
+import io.vertigo.core.App;
+import io.vertigo.core.Home;
+import io.vertigo.core.component.di.injector.Injector;
+import io.vertigo.dynamo.domain.metamodel.DtDefinition;
+import io.vertigo.dynamo.domain.model.KeyConcept;
+import io.vertigo.dynamo.domain.model.URI;
+import io.vertigo.dynamo.domain.util.DtObjectUtil;
+import io.vertigo.x.account.AccountGroup;
+import io.vertigo.x.account.AccountManager;
+import io.vertigo.x.comment.data.Accounts;
+import io.vertigo.x.connectors.redis.RedisConnector;
+import io.vertigo.x.plugins.comment.redis.RedisCommentEventPlugin;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Comment events published by a node (the app) and received by another one (a second plugin on the same redis).
+ * @author pchretien
+ */
+public final class RedisCommentEventTest {
+	private static final long TIMEOUT_SECONDS = 10;
+	private static final String CHANNEL = "commentEvents";
+	private App app;
+
+	@Inject
+	private AccountManager accountManager;
+	@Inject
+	private CommentManager commentManager;
+	@Inject
+	private RedisConnector redisConnector;
+
+	private RedisCommentEventPlugin otherNode;
+	private QueueListener listener1;
+	private QueueListener listener2;
+	private URI<KeyConcept> keyConceptURI;
+
+	@Before
+	public void setUp() throws InterruptedException {
+		app = new App(MyAppConfig.redisEventsConfig());
+		Injector.injectMembers(this, Home.getComponentSpace());
+		Accounts.initData(accountManager);
+		accountManager.login(Accounts.createAccountURI("1"));
+
+		//on triche un peu, car AcountGroup n'est pas un KeyConcept
+		final DtDefinition dtDefinition = DtObjectUtil.findDtDefinition(AccountGroup.class);
+		keyConceptURI = new URI<>(dtDefinition, UUID.randomUUID().toString());
+
+		otherNode = new RedisCommentEventPlugin(redisConnector);
+		listener1 = new QueueListener();
+		listener2 = new QueueListener();
+		otherNode.subscribe(listener1);
+		//a failing listener doesn't stop the others
+		otherNode.subscribe(new CommentEventListener() {
+			@Override
+			public void onEvent(final CommentEvent event) {
+				throw new IllegalStateException("failing listener");
+			}
+		});
+		otherNode.subscribe(listener2);
+		otherNode.start();
+		//the app and the other node
+		awaitSubscribers(2);
+	}
+
+	@After
+	public void tearDown() {
+		if (otherNode != null) {
+			otherNode.stop();
+		}
+		if (app != null) {
+			app.close();
+		}
+	}
+
+	@Test
+	public void testPublishReceive() throws InterruptedException {
+		publish("Comment 0");
+		publish("Comment 1");
+
+		for (final QueueListener listener : new QueueListener[] { listener1, listener2 }) {
+			final CommentEvent first = listener.next();
+			Assert.assertEquals(CommentEvent.Type.PUBLISHED, first.getType());
+			Assert.assertEquals(keyConceptURI.toURN(), first.getKeyConceptUrn());
+			Assert.assertEquals("Comment 0", first.getComment().getMsg());
+			final CommentEvent second = listener.next();
+			Assert.assertEquals("Comment 1", second.getComment().getMsg());
+			Assert.assertEquals(first.getSequence() + 1, second.getSequence());
+		}
+	}
+
+	@Test
+	public void testUnreadableMessages() throws InterruptedException {
+		try (final Jedis jedis = redisConnector.getResource()) {
+			jedis.publish(CHANNEL, "not a comment event");
+			jedis.publish(CHANNEL, "abc|not a comment event");
+		}
+		//the subscriber goes on
+		publish("Comment 0");
+		Assert.assertEquals("Comment 0", listener1.next().getComment().getMsg());
+		Assert.assertEquals("Comment 0", listener2.next().getComment().getMsg());
+	}
+
+	private void publish(final String msg) {
+		commentManager.publish(new CommentBuilder().withAuthor(Accounts.createAccountURI("1")).withMsg(msg).build(), keyConceptURI);
+	}
+
+	private void awaitSubscribers(final int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		try (final Jedis jedis = redisConnector.getResource()) {
+			String subscribers;
+			while ((subscribers = jedis.pubsubNumSub(CHANNEL).get(CHANNEL)) == null || Integer.parseInt(subscribers) < count) {
+				Assert.assertTrue("subscribers not connected", System.currentTimeMillis() < deadline);
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	private static final class QueueListener implements CommentEventListener {
+		final BlockingQueue<CommentEvent> events = new LinkedBlockingQueue<>();
+
+		/** {@inheritDoc} */
+		@Override
+		public void onEvent(final CommentEvent event) {
+			events.add(event);
+		}
+
+		CommentEvent next() throws InterruptedException {
+			final CommentEvent event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			Assert.assertNotNull(event);
+			return event;
+		}
+	}
+}